@@ -121,6 +121,37 @@ public interface AgentConstants {
      */
     String CONFIG_CONTROLLER_SYNCINTERVAL = CONFIG_KEY_NAMESPACE + ".controller.syncinterval";
 
+    /**
+     * Configuration option to set the sync interval seconds of the default controller while an update is being rolled
+     * out to it. Should be an int, default is <code>0</code>, meaning the regular sync interval is used.
+     */
+    String CONFIG_CONTROLLER_ROLLOUTSYNCINTERVAL = CONFIG_KEY_NAMESPACE + ".controller.rolloutsyncinterval";
+
+    /**
+     * Configuration option to set the sync interval seconds the default controller gradually slows down to when there
+     * are no updates for it. Should be an int, default is <code>0</code>, meaning the regular sync interval is used.
+     */
+    String CONFIG_CONTROLLER_IDLESYNCINTERVAL = CONFIG_KEY_NAMESPACE + ".controller.idlesyncinterval";
+
+    /**
+     * Configuration option to set the maximum number of seconds the default controller backs off after failing to
+     * sync with the server. Should be an int, default is <code>600</code>.
+     */
+    String CONFIG_CONTROLLER_MAXBACKOFF = CONFIG_KEY_NAMESPACE + ".controller.maxbackoff";
+
+    /**
+     * Configuration option to set the random jitter, as percentage of the sync interval, the default controller adds
+     * to its sync interval. Should be an int between <code>0</code> and <code>100</code>, default is <code>10</code>.
+     */
+    String CONFIG_CONTROLLER_JITTER = CONFIG_KEY_NAMESPACE + ".controller.jitter";
+
+    /**
+     * Configuration option to let the default controller wait for new deployment versions by long-polling the server,
+     * instead of sleeping in between two synchronizations. Should be <code>{true,false}</code>, default is
+     * <code>false</code>.
+     */
+    String CONFIG_CONTROLLER_LONGPOLL = CONFIG_KEY_NAMESPACE + ".controller.longpoll";
+
     /**
      * Configuration option to disable the default {@link ConnectionHandler}. When set to true some other bundle must
      * provide it as a service. Should be <code>{true,false}</code>, default is <code>false</code>.
@@ -178,6 +209,12 @@ public interface AgentConstants {
      */
     String CONFIG_CONNECTION_TRUSTPASS = CONFIG_KEY_NAMESPACE + ".connection.trustpass";
 
+    /**
+     * Configuration option to let the default {@link ConnectionHandler} ask the server for compressed (gzip) responses.
+     * Should be <code>{true,false}</code>, default is <code>false</code>.
+     */
+    String CONFIG_CONNECTION_COMPRESSION = CONFIG_KEY_NAMESPACE + ".connection.compression";
+
     /**
      * Configuration option to set the feedback channels for the default {@link FeedbackHandler}. Should be a
      * comma-separated string, default is <code>auditlog</code>.
@@ -20,6 +20,7 @@ package org.apache.ace.agent.impl;
 
 import static org.apache.ace.agent.AgentConstants.EVENT_AGENT_CONFIG_CHANGED;
 import static org.apache.ace.agent.AgentConstants.CONFIG_CONNECTION_AUTHTYPE;
+import static org.apache.ace.agent.AgentConstants.CONFIG_CONNECTION_COMPRESSION;
 import static org.apache.ace.agent.AgentConstants.CONFIG_CONNECTION_KEYFILE;
 import static org.apache.ace.agent.AgentConstants.CONFIG_CONNECTION_KEYPASS;
 import static org.apache.ace.agent.AgentConstants.CONFIG_CONNECTION_PASSWORD;
@@ -43,6 +44,7 @@ import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.xml.bind.DatatypeConverter;
@@ -53,6 +55,12 @@ import org.apache.ace.agent.EventListener;
 /**
  * Default thread-safe {@link ConnectionHandler} implementation with support for BASIC authentication and HTTPS client
  * certificates.
+ * <p>
+ * Connections are kept alive and pooled per server by the JRE, provided that their responses are consumed and they are
+ * closed through {@link ConnectionUtil#close(URLConnection)} instead of being disconnected. As the JRE only reuses HTTPS
+ * connections created by the same socket factory, a single socket factory is used for all client certificate
+ * connections.
+ * </p>
  */
 public class ConnectionHandlerImpl extends ComponentBase implements ConnectionHandler, EventListener {
 
@@ -76,8 +84,11 @@ public class ConnectionHandlerImpl extends ComponentBase implements ConnectionHa
 
     private static final UrlCredentials EMPTY_CREDENTIALS = new UrlCredentials(Types.NONE);
     private static final String DEFAULT_PROTOCOL = "TLS";
+    private static final String HDR_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String GZIP = "gzip";
 
     private volatile UrlCredentials m_credentials;
+    private volatile boolean m_compression;
 
     public ConnectionHandlerImpl() {
         super("connection");
@@ -86,6 +97,9 @@ public class ConnectionHandlerImpl extends ComponentBase implements ConnectionHa
     @Override
     public URLConnection getConnection(URL url) throws IOException {
         URLConnection connection = url.openConnection();
+        if (m_compression) {
+            connection.setRequestProperty(HDR_ACCEPT_ENCODING, GZIP);
+        }
 
         UrlCredentials credentials = m_credentials;
         if (credentials != null) {
@@ -104,6 +118,7 @@ public class ConnectionHandlerImpl extends ComponentBase implements ConnectionHa
     public void handle(String topic, Map<String, String> payload) {
         if (EVENT_AGENT_CONFIG_CHANGED.equals(topic)) {
             m_credentials = getCredentials(payload);
+            m_compression = Boolean.parseBoolean(payload.get(CONFIG_CONNECTION_COMPRESSION));
         }
     }
 
@@ -126,8 +141,8 @@ public class ConnectionHandlerImpl extends ComponentBase implements ConnectionHa
 
     private void applyClientCertificate(URLConnection conn, Object[] values) {
         if (conn instanceof HttpsURLConnection) {
-            SSLContext sslContext = (SSLContext) values[0];
-            ((HttpsURLConnection) conn).setSSLSocketFactory(sslContext.getSocketFactory());
+            SSLSocketFactory socketFactory = (SSLSocketFactory) values[0];
+            ((HttpsURLConnection) conn).setSSLSocketFactory(socketFactory);
         }
     }
 
@@ -172,7 +187,7 @@ public class ConnectionHandlerImpl extends ComponentBase implements ConnectionHa
                     SSLContext context = SSLContext.getInstance(sslProtocol);
                     context.init(keyManagers, trustManagers, new SecureRandom());
 
-                    return new UrlCredentials(authType, context);
+                    return new UrlCredentials(authType, context.getSocketFactory());
                 }
                 catch (Exception e) {
                     logError("Failed to get credentials for client certificate!", e);
@@ -24,6 +24,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URLConnection;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.ace.agent.RetryAfterException;
 
@@ -40,6 +41,11 @@ class ConnectionUtil {
      */
     public static final int DEFAULT_RETRY_TIME = 30;
 
+    /**
+     * The content encoding of gzip compressed responses.
+     */
+    private static final String GZIP = "gzip";
+
     /** Default buffer size for use in stream-copying, in bytes. */
     private static final int DEFAULT_BUFFER_SIZE = 32 * 1024;
 
@@ -69,7 +75,10 @@ class ConnectionUtil {
     }
 
     /**
-     * Closes a given URL connection, if necessary.
+     * Closes a given URL connection, if necessary. The connection is not disconnected, as that would also close the
+     * underlying network connection that is kept alive for subsequent requests to the same server. Instead, a pending
+     * error response is consumed, so that the network connection can be reused. The response content itself is
+     * expected to be consumed and closed by the caller.
      * 
      * @param connection
      *            the URL connection to close, can be <code>null</code> in which case this method does nothing.
@@ -77,7 +86,11 @@ class ConnectionUtil {
      */
     public static URLConnection close(URLConnection connection) {
         if (connection instanceof HttpURLConnection) {
-            ((HttpURLConnection) connection).disconnect();
+            // does not connect if this was not done already...
+            InputStream es = ((HttpURLConnection) connection).getErrorStream();
+            if (es != null) {
+                flushStream(es);
+            }
         }
         return null;
     }
@@ -117,6 +130,23 @@ class ConnectionUtil {
         return respCode;
     }
 
+    /**
+     * Returns the response content of a given URL connection, decompressing it if the server compressed it.
+     * 
+     * @param connection
+     *            the URL connection to get the response content for, cannot be <code>null</code>.
+     * @return the (decompressed) response content, never <code>null</code>.
+     * @throws IOException
+     *             in case of I/O problems accessing the response content.
+     */
+    public static InputStream getInputStream(URLConnection connection) throws IOException {
+        InputStream is = connection.getInputStream();
+        if (GZIP.equalsIgnoreCase(connection.getContentEncoding())) {
+            return new GZIPInputStream(is);
+        }
+        return is;
+    }
+
     public static void copy(InputStream is, OutputStream os) throws IOException {
         copy(is, os, DEFAULT_BUFFER_SIZE);
     }
@@ -47,6 +47,8 @@ import org.apache.ace.agent.RetryAfterException;
 class ContentRangeInputStream extends InputStream {
     private static final String HDR_CONTENT_RANGE = "Content-Range";
     private static final String HDR_RANGE = "Range";
+    private static final String HDR_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String IDENTITY = "identity";
 
     private static final String BYTES = "bytes";
     private static final String BYTES_ = BYTES.concat(" ");
@@ -251,6 +253,13 @@ class ContentRangeInputStream extends InputStream {
      */
     private void closeChunk() {
         if (m_conn != null) {
+            try {
+                // close the content of the chunk, allowing the connection to be reused for the next chunk...
+                ConnectionUtil.closeSilently(m_conn.getInputStream());
+            }
+            catch (IOException exception) {
+                // Ignore, there is no content to close...
+            }
             m_conn = ConnectionUtil.close(m_conn);
             m_readChunk = 0;
         }
@@ -412,6 +421,10 @@ class ContentRangeInputStream extends InputStream {
     private boolean prepareNextChunk() throws IOException {
         if ((m_conn == null) && contentRemaining()) {
             m_conn = m_handler.getConnection(m_url);
+            if (m_conn instanceof HttpURLConnection) {
+                // ranges are expressed in bytes of the encoded content, so we cannot have it compressed...
+                m_conn.setRequestProperty(HDR_ACCEPT_ENCODING, IDENTITY);
+            }
 
             applyRangeHeader(m_conn);
 
@@ -19,26 +19,40 @@
 package org.apache.ace.agent.impl;
 
 import static org.apache.ace.agent.AgentConstants.CONFIG_CONTROLLER_FIXPACKAGES;
+import static org.apache.ace.agent.AgentConstants.CONFIG_CONTROLLER_IDLESYNCINTERVAL;
+import static org.apache.ace.agent.AgentConstants.CONFIG_CONTROLLER_JITTER;
+import static org.apache.ace.agent.AgentConstants.CONFIG_CONTROLLER_LONGPOLL;
+import static org.apache.ace.agent.AgentConstants.CONFIG_CONTROLLER_MAXBACKOFF;
 import static org.apache.ace.agent.AgentConstants.CONFIG_CONTROLLER_RETRIES;
+import static org.apache.ace.agent.AgentConstants.CONFIG_CONTROLLER_ROLLOUTSYNCINTERVAL;
 import static org.apache.ace.agent.AgentConstants.CONFIG_CONTROLLER_STREAMING;
 import static org.apache.ace.agent.AgentConstants.CONFIG_CONTROLLER_SYNCDELAY;
 import static org.apache.ace.agent.AgentConstants.CONFIG_CONTROLLER_SYNCINTERVAL;
 import static org.apache.ace.agent.AgentConstants.EVENT_AGENT_CONFIG_CHANGED;
+import static org.apache.ace.agent.impl.ConnectionUtil.checkConnectionResponse;
+import static org.apache.ace.agent.impl.ConnectionUtil.close;
 import static org.apache.ace.agent.impl.ConnectionUtil.closeSilently;
+import static org.apache.ace.agent.impl.ConnectionUtil.getInputStream;
 import static org.apache.ace.agent.impl.InternalConstants.AGENT_INSTALLATION_COMPLETE;
 import static org.apache.ace.agent.impl.InternalConstants.AGENT_INSTALLATION_START;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.net.URLConnection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.ace.agent.ConfigurationHandler;
 import org.apache.ace.agent.DownloadHandle;
@@ -50,12 +64,18 @@ import org.apache.ace.agent.FeedbackChannel;
 import org.apache.ace.agent.InstallationFailedException;
 import org.apache.ace.agent.RetryAfterException;
 import org.apache.ace.agent.UpdateHandler;
+import org.apache.ace.agent.impl.SyncSchedule.Outcome;
 import org.osgi.framework.Version;
 
 /**
  * Default configurable controller
  */
 public class DefaultController extends ComponentBase implements Runnable, EventListener {
+    /** The maximum time (in milliseconds) a single long-poll request waits for new deployment versions. */
+    private static final long LONG_POLL_TIMEOUT = 60000L;
+    /** The additional time (in milliseconds) we wait for the server to respond to a long-poll request. */
+    private static final long LONG_POLL_GRACE = 10000L;
+
     /**
      * UpdateInstaller that provides download deployment package install. The install is non-blocking. Upon download
      * completion this installer will reschedule the controller.
@@ -209,6 +229,7 @@ public class DefaultController extends ComponentBase implements Runnable, EventL
      */
     static abstract class UpdateInstaller {
         private final DefaultController m_controller;
+        private Version m_lastVersionAvailable = null;
         private Version m_lastVersionTried = null;
         private boolean m_lastVersionSuccessful = true;
         private int m_failureCount = 0;
@@ -228,20 +249,25 @@ public class DefaultController extends ComponentBase implements Runnable, EventL
          *            it should be a "complete" update;
          * @param maxRetries
          *            the maximum number of times an update should be retries.
+         * @return <code>true</code> if an update was available and (tried to be) installed, <code>false</code> if
+         *         there was nothing to do.
          * @throws RetryAfterException
          *             in case the server is too busy and we should defer our update to a later moment in time;
          * @throws IOException
          *             in case of problems accessing the server.
          */
-        public final void installUpdate(UpdateHandler delegate, boolean fixPackage, long maxRetries) throws RetryAfterException, IOException {
+        public final boolean installUpdate(UpdateHandler delegate, boolean fixPackage, long maxRetries) throws RetryAfterException, IOException {
+            m_lastVersionAvailable = null;
+
             Version fromVersion = delegate.getInstalledVersion();
             Version toVersion = delegate.getHighestAvailableVersion();
+            m_lastVersionAvailable = toVersion;
 
             UpdateInfo updateInfo = new UpdateInfo(delegate.getName(), fromVersion, toVersion, fixPackage);
 
             // Check whether we actually do need to do something...
             if (!canInstallUpdate(updateInfo, maxRetries)) {
-                return;
+                return false;
             }
 
             if (m_lastVersionTried == null || !toVersion.equals(m_lastVersionTried)) {
@@ -251,6 +277,16 @@ public class DefaultController extends ComponentBase implements Runnable, EventL
             }
 
             doInstallUpdate(delegate, updateInfo);
+            return true;
+        }
+
+        /**
+         * @return the highest version that was available during the last call to
+         *         {@link #installUpdate(UpdateHandler, boolean, long)}, or <code>null</code> if it could not be
+         *         determined.
+         */
+        public final Version getLastVersionAvailable() {
+            return m_lastVersionAvailable;
         }
 
         /**
@@ -381,18 +417,33 @@ public class DefaultController extends ComponentBase implements Runnable, EventL
 
     private final AtomicBoolean m_updateStreaming;
     private final AtomicBoolean m_fixPackage;
+    private final AtomicBoolean m_longPoll;
     private final AtomicLong m_maxRetries;
     private final AtomicLong m_interval;
     private final AtomicLong m_syncDelay;
+    private final AtomicLong m_rolloutInterval;
+    private final AtomicLong m_idleInterval;
+    private final AtomicLong m_maxBackoff;
+    private final AtomicLong m_jitter;
+    private final SyncSchedule m_schedule;
+    /** The highest deployment version we already synchronized for, so we only stop waiting for newer versions. */
+    private final AtomicReference<Version> m_handledVersion;
 
     public DefaultController() {
         super("controller");
 
         m_interval = new AtomicLong(60);
         m_syncDelay = new AtomicLong(5);
+        m_rolloutInterval = new AtomicLong(0);
+        m_idleInterval = new AtomicLong(0);
+        m_maxBackoff = new AtomicLong(600);
+        m_jitter = new AtomicLong(10);
+        m_schedule = new SyncSchedule(new Random());
+        m_handledVersion = new AtomicReference<>(Version.emptyVersion);
 
         m_updateStreaming = new AtomicBoolean(true);
         m_fixPackage = new AtomicBoolean(true);
+        m_longPoll = new AtomicBoolean(false);
         m_maxRetries = new AtomicLong(1);
     }
 
@@ -409,6 +460,11 @@ public class DefaultController extends ComponentBase implements Runnable, EventL
                 m_fixPackage.set(Boolean.parseBoolean(value));
             }
 
+            value = payload.get(CONFIG_CONTROLLER_LONGPOLL);
+            if (value != null && !"".equals(value)) {
+                m_longPoll.set(Boolean.parseBoolean(value));
+            }
+
             value = payload.get(CONFIG_CONTROLLER_SYNCDELAY);
             if (value != null && !"".equals(value)) {
                 try {
@@ -439,35 +495,63 @@ public class DefaultController extends ComponentBase implements Runnable, EventL
                 }
             }
 
+            value = payload.get(CONFIG_CONTROLLER_ROLLOUTSYNCINTERVAL);
+            if (value != null && !"".equals(value)) {
+                try {
+                    m_rolloutInterval.set(Long.parseLong(value));
+                }
+                catch (NumberFormatException exception) {
+                    // Ignore...
+                }
+            }
+
+            value = payload.get(CONFIG_CONTROLLER_IDLESYNCINTERVAL);
+            if (value != null && !"".equals(value)) {
+                try {
+                    m_idleInterval.set(Long.parseLong(value));
+                }
+                catch (NumberFormatException exception) {
+                    // Ignore...
+                }
+            }
+
+            value = payload.get(CONFIG_CONTROLLER_MAXBACKOFF);
+            if (value != null && !"".equals(value)) {
+                try {
+                    m_maxBackoff.set(Long.parseLong(value));
+                }
+                catch (NumberFormatException exception) {
+                    // Ignore...
+                }
+            }
+
+            value = payload.get(CONFIG_CONTROLLER_JITTER);
+            if (value != null && !"".equals(value)) {
+                try {
+                    m_jitter.set(Long.parseLong(value));
+                }
+                catch (NumberFormatException exception) {
+                    // Ignore...
+                }
+            }
+
+            configureSchedule();
+
             logDebug("Config changed: update: %s, fixPkg: %s, syncDelay: %d, syncInterval: %d, maxRetries: %d", m_updateStreaming.get(), m_fixPackage.get(), m_syncDelay.get(), m_interval.get(), m_maxRetries.get());
         }
     }
 
     @Override
     public void run() {
-        long interval = m_syncDelay.get();
+        long delay = m_schedule.getInitialDelay(TimeUnit.SECONDS.toMillis(m_syncDelay.get()));
 
         while (!isInterrupted()) {
             try {
-                logDebug("Scheduling controller to run in %d seconds...", interval);
-
-                TimeUnit.SECONDS.sleep(interval);
-
-                logDebug("Controller syncing...");
-
-                runFeedback();
-                runAgentUpdate();
-                runDeploymentUpdate();
+                logDebug("Scheduling controller to run in %d ms...", delay);
 
-                interval = m_interval.get();
+                awaitSync(delay);
 
-                logDebug("Sync completed...");
-            }
-            catch (RetryAfterException e) {
-                // any method may throw this causing the sync to abort. The server is busy so no sense in trying
-                // anything else until the retry window has passed.
-                interval = e.getBackoffTime();
-                logWarning("Sync received retry exception from server. Rescheduled in %d seconds...", interval);
+                delay = sync();
             }
             catch (InterruptedException exception) {
                 logDebug(exception.getMessage());
@@ -478,6 +562,33 @@ public class DefaultController extends ComponentBase implements Runnable, EventL
         }
     }
 
+    /**
+     * Synchronizes with the server once, and determines when to synchronize again based on the outcome.
+     * 
+     * @return the delay (in milliseconds) before the next synchronization.
+     */
+    long sync() throws InterruptedException {
+        logDebug("Controller syncing...");
+
+        try {
+            Outcome outcome = runFeedback();
+            outcome = outcome.combine(runAgentUpdate());
+            outcome = outcome.combine(runDeploymentUpdate());
+
+            long delay = m_schedule.next(outcome);
+
+            logDebug("Sync completed (%s)...", outcome);
+            return delay;
+        }
+        catch (RetryAfterException e) {
+            // any method may throw this causing the sync to abort. The server is busy so no sense in trying
+            // anything else until the retry window has passed.
+            long delay = m_schedule.retryAfter(TimeUnit.SECONDS.toMillis(e.getBackoffTime()));
+            logWarning("Sync received retry exception from server. Rescheduled in %d ms...", delay);
+            return delay;
+        }
+    }
+
     @Override
     protected void onInit() throws Exception {
         getEventsHandler().addListener(this);
@@ -487,9 +598,16 @@ public class DefaultController extends ComponentBase implements Runnable, EventL
         ConfigurationHandler config = getConfigurationHandler();
         m_updateStreaming.set(config.getBoolean(CONFIG_CONTROLLER_STREAMING, m_updateStreaming.get()));
         m_fixPackage.set(config.getBoolean(CONFIG_CONTROLLER_FIXPACKAGES, m_fixPackage.get()));
+        m_longPoll.set(config.getBoolean(CONFIG_CONTROLLER_LONGPOLL, m_longPoll.get()));
         m_interval.set(config.getLong(CONFIG_CONTROLLER_SYNCINTERVAL, m_interval.get()));
         m_syncDelay.set(config.getLong(CONFIG_CONTROLLER_SYNCDELAY, m_syncDelay.get()));
         m_maxRetries.set(config.getLong(CONFIG_CONTROLLER_RETRIES, m_maxRetries.get()));
+        m_rolloutInterval.set(config.getLong(CONFIG_CONTROLLER_ROLLOUTSYNCINTERVAL, m_rolloutInterval.get()));
+        m_idleInterval.set(config.getLong(CONFIG_CONTROLLER_IDLESYNCINTERVAL, m_idleInterval.get()));
+        m_maxBackoff.set(config.getLong(CONFIG_CONTROLLER_MAXBACKOFF, m_maxBackoff.get()));
+        m_jitter.set(config.getLong(CONFIG_CONTROLLER_JITTER, m_jitter.get()));
+
+        configureSchedule();
 
         logDebug("Config initialized: update: %s, fixPkg: %s, syncDelay: %d, syncInterval: %d, maxRetries: %d", m_updateStreaming.get(), m_fixPackage.get(), m_syncDelay.get(), m_interval.get(), m_maxRetries.get());
     }
@@ -532,6 +650,48 @@ public class DefaultController extends ComponentBase implements Runnable, EventL
         getEventsHandler().postEvent(AGENT_INSTALLATION_START, eventProps);
     }
 
+    /**
+     * Waits the given delay before the next synchronization. If long-polling is enabled, the server is asked to
+     * respond as soon as a newer deployment version is available, in which case we stop waiting right away.
+     */
+    private void awaitSync(long delay) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + delay;
+
+        if (m_longPoll.get()) {
+            try {
+                long remaining;
+                while ((remaining = deadline - System.currentTimeMillis()) > 0L) {
+                    long timeout = Math.min(remaining, LONG_POLL_TIMEOUT);
+                    long start = System.currentTimeMillis();
+
+                    if (waitForDeploymentUpdate(timeout)) {
+                        logDebug("Newer deployment version available, syncing right away...");
+                        return;
+                    }
+                    if ((System.currentTimeMillis() - start) < (timeout / 2)) {
+                        // The server did not hold our request, so it probably does not support long-polling...
+                        break;
+                    }
+                }
+            }
+            catch (RetryAfterException e) {
+                logDebug("Server too busy to wait for deployment updates, sleeping instead...");
+            }
+            catch (IOException e) {
+                logDebug("Failed to wait for deployment updates, sleeping instead: %s", e.getMessage());
+            }
+        }
+
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining > 0L) {
+            TimeUnit.MILLISECONDS.sleep(remaining);
+        }
+    }
+
+    private void configureSchedule() {
+        m_schedule.configure(TimeUnit.SECONDS.toMillis(m_interval.get()), TimeUnit.SECONDS.toMillis(m_rolloutInterval.get()), TimeUnit.SECONDS.toMillis(m_idleInterval.get()), TimeUnit.SECONDS.toMillis(m_maxBackoff.get()), (int) m_jitter.get());
+    }
+
     private FeedbackChannel getFeedbackChannel(String name) {
         try {
             return getFeedbackHandler().getChannel(name);
@@ -579,7 +739,58 @@ public class DefaultController extends ComponentBase implements Runnable, EventL
         return m_updateInstaller;
     }
 
-    private void runAgentUpdate() throws RetryAfterException, InterruptedException {
+    /**
+     * Asks the server for the available deployment versions, letting it hold the request until a version newer than
+     * both the installed one and the ones we already handled is available, or the given timeout has passed. Versions
+     * that failed to install, or are still being installed, therefore never cause us to skip our delay.
+     * 
+     * @return <code>true</code> if a newer deployment version is available, <code>false</code> otherwise.
+     */
+    boolean waitForDeploymentUpdate(long timeout) throws RetryAfterException, IOException {
+        URL serverURL = getDiscoveryHandler().getServerUrl();
+        if (serverURL == null) {
+            throw new RetryAfterException(10);
+        }
+
+        Version installed = getDeploymentHandler().getInstalledVersion();
+        Version handled = m_handledVersion.get();
+        if (handled.compareTo(installed) > 0) {
+            installed = handled;
+        }
+        URL endpoint = new URL(serverURL, "deployment/" + getIdentificationHandler().getAgentId() + "/versions/?watch=" + installed + "&timeout=" + timeout);
+
+        URLConnection connection = null;
+        BufferedReader reader = null;
+        try {
+            connection = getConnectionHandler().getConnection(endpoint);
+            connection.setReadTimeout((int) (timeout + LONG_POLL_GRACE));
+
+            checkConnectionResponse(connection);
+
+            reader = new BufferedReader(new InputStreamReader(getInputStream(connection)));
+            String versionString;
+            while ((versionString = reader.readLine()) != null) {
+                try {
+                    Version version = Version.parseVersion(versionString);
+                    if (version.compareTo(installed) > 0) {
+                        // only stop waiting once for this version...
+                        setHandledVersion(version);
+                        return true;
+                    }
+                }
+                catch (IllegalArgumentException e) {
+                    throw new IOException(e);
+                }
+            }
+            return false;
+        }
+        finally {
+            closeSilently(reader);
+            close(connection);
+        }
+    }
+
+    private Outcome runAgentUpdate() throws RetryAfterException, InterruptedException {
         if (isInterrupted()) {
             throw new InterruptedException("Controller was interrupted, not running agent updates check...");
         }
@@ -591,14 +802,15 @@ public class DefaultController extends ComponentBase implements Runnable, EventL
 
         UpdateInstaller updateInstaller = getUpdateInstaller();
         try {
-            updateInstaller.installUpdate(getAgentUpdateHandler(), fixPackage, maxRetries);
+            return updateInstaller.installUpdate(getAgentUpdateHandler(), fixPackage, maxRetries) ? Outcome.UPDATING : Outcome.IDLE;
         }
         catch (IOException e) {
             logError("Agent update aborted due to Exception.", e);
+            return Outcome.FAILED;
         }
     }
 
-    private void runDeploymentUpdate() throws RetryAfterException, InterruptedException {
+    private Outcome runDeploymentUpdate() throws RetryAfterException, InterruptedException {
         if (isInterrupted()) {
             throw new InterruptedException("Controller was interrupted, not running deployment updates check...");
         }
@@ -610,14 +822,21 @@ public class DefaultController extends ComponentBase implements Runnable, EventL
 
         UpdateInstaller updateInstaller = getUpdateInstaller();
         try {
-            updateInstaller.installUpdate(getDeploymentHandler(), fixPackage, maxRetries);
+            return updateInstaller.installUpdate(getDeploymentHandler(), fixPackage, maxRetries) ? Outcome.UPDATING : Outcome.IDLE;
         }
         catch (IOException e) {
             logError("Deployment update aborted due to Exception.", e);
+            return Outcome.FAILED;
+        }
+        finally {
+            Version available = updateInstaller.getLastVersionAvailable();
+            if (available != null) {
+                setHandledVersion(available);
+            }
         }
     }
 
-    private void runFeedback() throws RetryAfterException, InterruptedException {
+    private Outcome runFeedback() throws RetryAfterException, InterruptedException {
         if (isInterrupted()) {
             throw new InterruptedException("Controller was interrupted, not running feedback synchronization...");
         }
@@ -626,6 +845,7 @@ public class DefaultController extends ComponentBase implements Runnable, EventL
 
         logDebug("Synchronizing feedback channels: %s", names);
 
+        Outcome outcome = Outcome.IDLE;
         for (String name : names) {
             FeedbackChannel channel = getFeedbackChannel(name);
             if (channel != null) {
@@ -637,9 +857,25 @@ public class DefaultController extends ComponentBase implements Runnable, EventL
                     // Hopefully temporary problem due to remote IO or configuration. No cause to abort the sync so we
                     // just log it as a warning.
                     logWarning("Exception while sending feedback for channel: %s", e, name);
+                    outcome = Outcome.FAILED;
                 }
             }
         }
+        return outcome;
+    }
+
+    /**
+     * Marks the given deployment version, and all versions below it, as handled.
+     */
+    private void setHandledVersion(Version version) {
+        Version handled;
+        do {
+            handled = m_handledVersion.get();
+            if (handled.compareTo(version) >= 0) {
+                return;
+            }
+        }
+        while (!m_handledVersion.compareAndSet(handled, version));
     }
 
     /**
@@ -243,12 +243,17 @@ public class DiscoveryHandlerImpl extends ComponentBase implements DiscoveryHand
         URLConnection connection = null;
         try {
             connection = getConnectionHandler().getConnection(serverURL);
-            connection.connect();
-        }
-        finally {
             if (connection instanceof HttpURLConnection) {
-                ((HttpURLConnection) connection).disconnect();
+                // do a complete (but cheap) request, so the connection is kept alive for the requests that follow...
+                ((HttpURLConnection) connection).setRequestMethod("HEAD");
+                ((HttpURLConnection) connection).getResponseCode();
+            }
+            else {
+                connection.connect();
             }
         }
+        finally {
+            ConnectionUtil.close(connection);
+        }
     }
 }
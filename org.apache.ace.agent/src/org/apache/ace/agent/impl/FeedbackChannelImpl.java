@@ -31,8 +31,12 @@ import java.io.Writer;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.SortedSet;
 
 import org.apache.ace.agent.AgentContext;
@@ -48,13 +52,16 @@ import org.apache.ace.range.RangeIterator;
 import org.apache.ace.range.SortedRangeSet;
 
 /**
- * FeedbackChannel implementation
+ * FeedbackChannel implementation. Synchronizes all feedback stores with the server in a single request, by sending the
+ * ranges of all local stores along with the events the server did not acknowledge during the previous synchronization.
+ * Falls back to querying and sending each store separately for servers that do not support this.
  */
 // TODO: decouple from range/log API?
 public class FeedbackChannelImpl implements FeedbackChannel {
 
     private static final String COMMAND_QUERY = "query";
     private static final String COMMAND_SEND = "send";
+    private static final String COMMAND_SYNC = "sync";
     private static final String PARAMETER_TARGETID = "tid";
 
     private static final String PARAMETER_LOGID = "logid";
@@ -62,11 +69,18 @@ public class FeedbackChannelImpl implements FeedbackChannel {
     private final AgentContext m_agentContext;
     private final String m_name;
     private final FeedbackStoreManager m_storeManager;
+    // the ranges the server acknowledged during the last synchronization, per store, and the server that did so
+    private final Map<Long, SortedRangeSet> m_acknowledged;
+    private URL m_acknowledgedBy;
+    // whether or not the server supports the sync command
+    private volatile boolean m_syncSupported;
 
     public FeedbackChannelImpl(AgentContext agentContext, String name) throws IOException {
         m_agentContext = agentContext;
         m_name = name;
         m_storeManager = new FeedbackStoreManager(agentContext, name);
+        m_acknowledged = new HashMap<>();
+        m_syncSupported = true;
     }
 
     public void stop() throws IOException {
@@ -83,6 +97,22 @@ public class FeedbackChannelImpl implements FeedbackChannel {
             return;
         }
 
+        if (m_syncSupported) {
+            synchronized (m_acknowledged) {
+                if (!serverURL.equals(m_acknowledgedBy)) {
+                    m_acknowledged.clear();
+                    m_acknowledgedBy = serverURL;
+                }
+                // the server acknowledges what it has of unknown stores first, after which their events can be sent...
+                boolean unknownStores = !m_acknowledged.keySet().containsAll(m_storeManager.getAllFeedbackStoreIDs());
+                if (synchronize(serverURL, identification) && (!unknownStores || synchronize(serverURL, identification))) {
+                    return;
+                }
+            }
+            logWarning("Server does not support synchronizing feedback in a single request, falling back to sending feedback per store.");
+            m_syncSupported = false;
+        }
+
         ConnectionHandler connectionHandler = getConnectionHandler();
         URLConnection sendConnection = null;
         Writer writer = null;
@@ -95,14 +125,14 @@ public class FeedbackChannelImpl implements FeedbackChannel {
             if (sendConnection instanceof HttpURLConnection) {
                 ((HttpURLConnection) sendConnection).setChunkedStreamingMode(8192);
             }
-            writer = new BufferedWriter(new OutputStreamWriter(sendConnection.getOutputStream()));
+            writer = new BufferedWriter(new OutputStreamWriter(sendConnection.getOutputStream(), StandardCharsets.UTF_8));
 
             SortedSet<Long> storeIDs = m_storeManager.getAllFeedbackStoreIDs();
             for (Long storeID : storeIDs) {
                 URL queryURL = new URL(serverURL, m_name + "/" + COMMAND_QUERY + "?" + PARAMETER_TARGETID + "=" + identification + "&" + PARAMETER_LOGID + "=" + storeID);
                 URLConnection queryConnection = connectionHandler.getConnection(queryURL);
                 try {
-                    synchronizeStore(storeID, queryConnection.getInputStream(), writer);
+                    synchronizeStore(storeID, getQueryDescriptor(getInputStream(queryConnection)).getRangeSet(), writer);
                 }
                 catch (IOException e) {
                     handleIOException(queryConnection);
@@ -114,6 +144,8 @@ public class FeedbackChannelImpl implements FeedbackChannel {
             writer.flush();
 
             checkConnectionResponse(sendConnection);
+            // consume the (empty) response, allowing the connection to be reused...
+            flushStream(sendConnection.getInputStream());
         }
         finally {
             closeSilently(writer);
@@ -173,7 +205,82 @@ public class FeedbackChannelImpl implements FeedbackChannel {
         }
     }
 
-    private void synchronizeStore(long storeID, InputStream queryInput, Writer sendWriter) throws IOException {
+    /**
+     * Synchronizes all stores in a single request, sending the events that are not acknowledged by the server yet.
+     * Needs to be called while holding the lock on {@link #m_acknowledged}.
+     * 
+     * @return <code>false</code> if the server does not support the sync command, that is, if it does not know the command
+     *         or does not acknowledge all stores that were sent to it, <code>true</code> otherwise.
+     */
+    private boolean synchronize(URL serverURL, String identification) throws RetryAfterException, IOException {
+        URLConnection syncConnection = null;
+        Writer writer = null;
+        BufferedReader reader = null;
+
+        try {
+            URL syncURL = new URL(serverURL, m_name + "/" + COMMAND_SYNC);
+
+            syncConnection = getConnectionHandler().getConnection(syncURL);
+            syncConnection.setDoOutput(true);
+            if (syncConnection instanceof HttpURLConnection) {
+                ((HttpURLConnection) syncConnection).setChunkedStreamingMode(8192);
+            }
+            writer = new BufferedWriter(new OutputStreamWriter(syncConnection.getOutputStream(), StandardCharsets.UTF_8));
+
+            SortedSet<Long> storeIDs = m_storeManager.getAllFeedbackStoreIDs();
+            Set<Long> requestedIDs = new HashSet<>();
+            for (Long storeID : storeIDs) {
+                long highestLocal = m_storeManager.getHighestEventID(storeID);
+                if (highestLocal > 0) {
+                    requestedIDs.add(storeID);
+                    writer.write(new Descriptor(identification, storeID, new SortedRangeSet("1-" + highestLocal)).toRepresentation());
+                    writer.write("\n");
+                }
+            }
+            writer.write("\n");
+            for (Long storeID : storeIDs) {
+                SortedRangeSet remoteRange = m_acknowledged.get(storeID);
+                if (remoteRange != null) {
+                    synchronizeStore(storeID, remoteRange, writer);
+                }
+            }
+            writer.flush();
+
+            if ((syncConnection instanceof HttpURLConnection) && ((HttpURLConnection) syncConnection).getResponseCode() == HttpURLConnection.HTTP_NOT_FOUND) {
+                handleIOException(syncConnection);
+                return false;
+            }
+            checkConnectionResponse(syncConnection);
+
+            m_acknowledged.clear();
+            reader = new BufferedReader(new InputStreamReader(getInputStream(syncConnection), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    Descriptor descriptor = new Descriptor(line);
+                    if (identification.equals(descriptor.getTargetID())) {
+                        m_acknowledged.put(descriptor.getStoreID(), descriptor.getRangeSet());
+                    }
+                }
+                catch (IllegalArgumentException e) {
+                    throw new IOException("Could not determine acknowledged events, received malformed event range (" + line + ")");
+                }
+            }
+            // servers that do not know the sync command might still answer it without acknowledging anything...
+            if (!m_acknowledged.keySet().containsAll(requestedIDs)) {
+                m_acknowledged.clear();
+                return false;
+            }
+            return true;
+        }
+        finally {
+            closeSilently(reader);
+            closeSilently(writer);
+            close(syncConnection);
+        }
+    }
+
+    private void synchronizeStore(long storeID, SortedRangeSet remoteRange, Writer sendWriter) throws IOException {
         long highestLocal = m_storeManager.getHighestEventID(storeID);
         if (highestLocal <= 0) {
             // manager is closed...
@@ -181,7 +288,6 @@ public class FeedbackChannelImpl implements FeedbackChannel {
         }
 
         SortedRangeSet localRange = new SortedRangeSet("1-" + highestLocal);
-        SortedRangeSet remoteRange = getQueryDescriptor(queryInput).getRangeSet();
         SortedRangeSet delta = remoteRange.diffDest(localRange);
         RangeIterator rangeIterator = delta.iterator();
         if (!rangeIterator.hasNext()) {
@@ -18,8 +18,14 @@
  */
 package org.apache.ace.agent.impl;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.ArrayList;
@@ -33,8 +39,54 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
  * The general idea is to provide easy access to a file of records. It supports iterating over records both by skipping
  * and by reading. Furthermore, files can be truncated. Most methods will make an effort to reset to the last good
  * record in case of an error -- hence, a call to truncate after an IOException might make the store readable again.
+ * <p>
+ * Each store file is accompanied by a sparse index file, which contains an entry for every {@value #INDEX_BLOCK_SIZE}
+ * records with the file offsets and the lowest and highest ID of those records. This allows ranges of records to be
+ * read without scanning the entire file, and only the records after the last complete block need to be scanned upon
+ * initialization. In case the index file is missing or inconsistent with the store file, it is rebuilt.
+ * </p>
  */
 public class FeedbackStore {
+    /** The number of records covered by a single index entry. */
+    static final int INDEX_BLOCK_SIZE = 64;
+    /** The suffix of the index file accompanying each store file. */
+    static final String INDEX_SUFFIX = ".idx";
+
+    /** The size of a record header, 8 for the ID (long), 4 for the entry length (int). */
+    private static final int HEADER_SIZE = 12;
+    /** The size of an index entry: start and end offset, lowest and highest ID. */
+    private static final int INDEX_ENTRY_SIZE = 32;
+
+    /**
+     * Denotes a consecutive block of records in a store file.
+     */
+    static class Block {
+        final long m_start;
+        long m_end;
+        long m_lowestID;
+        long m_highestID;
+        int m_count;
+
+        Block(long start, long end, long lowestID, long highestID, int count) {
+            m_start = start;
+            m_end = end;
+            m_lowestID = lowestID;
+            m_highestID = highestID;
+            m_count = count;
+        }
+
+        void add(long end, long id) {
+            m_end = end;
+            m_lowestID = Math.min(m_lowestID, id);
+            m_highestID = Math.max(m_highestID, id);
+            m_count++;
+        }
+
+        boolean overlaps(long fromId, long toId) {
+            return m_lowestID <= toId && m_highestID >= fromId;
+        }
+    }
+
     /**
      * Denotes a single record stored in a FeedbackStore.
      */
@@ -57,9 +109,19 @@ public class FeedbackStore {
     }
 
     private final File m_storeFile;
+    private final File m_indexFile;
     private final RandomAccessFile m_store;
     private final long m_id;
 
+    /** the complete blocks of records, in file order. */
+    private final List<Block> m_index = new ArrayList<>();
+    /** the incomplete block of records at the end of the file, if any. */
+    private Block m_tail;
+    /** <code>true</code> if the IDs of all blocks are in ascending order. */
+    private boolean m_ordered;
+    /** lazily opened for appending entries to the index file. */
+    private RandomAccessFile m_indexOut;
+
     private long m_lowestEventID;
     private long m_highestEventID;
 
@@ -77,6 +139,7 @@ public class FeedbackStore {
      */
     FeedbackStore(File store, long id) throws IOException {
         m_storeFile = store;
+        m_indexFile = getIndexFile(store);
         m_store = new RandomAccessFile(store, "rw");
         m_id = id;
 
@@ -113,6 +176,11 @@ public class FeedbackStore {
                 m_store.seek(current);
 
                 updateIDs(id);
+
+                Block block = addToIndex(current, current + HEADER_SIZE + entry.length, id);
+                if (block != null) {
+                    appendIndexEntry(block);
+                }
             }
             catch (IOException ex) {
                 handle(pos, ex);
@@ -135,6 +203,7 @@ public class FeedbackStore {
         writeLock.lock();
         try {
             m_store.close();
+            closeIndex();
         }
         finally {
             writeLock.unlock();
@@ -203,7 +272,31 @@ public class FeedbackStore {
         }
     }
 
+    /**
+     * Returns all records with an ID in the given range. Only the blocks of records that can contain such IDs are read.
+     * 
+     * @param fromId
+     *            the lowest ID to return, inclusive;
+     * @param toId
+     *            the highest ID to return, inclusive.
+     * @return the records, in file order, never <code>null</code>.
+     * @throws IOException
+     *             in case of any IO error.
+     */
     public List<Record> getRecords(long fromId, long toId) throws IOException {
+        List<Block> blocks;
+        long tailStart;
+
+        Lock readLock = m_rwLock.readLock();
+        readLock.lock();
+        try {
+            blocks = getBlocks(fromId, toId);
+            tailStart = m_index.isEmpty() ? 0L : m_index.get(m_index.size() - 1).m_end;
+        }
+        finally {
+            readLock.unlock();
+        }
+
         RandomAccessFile raf = null;
 
         List<Record> result = new ArrayList<>();
@@ -213,30 +306,15 @@ public class FeedbackStore {
             // disturb any concurrent writes while initializing...
             raf = new RandomAccessFile(m_storeFile, "r");
 
+            for (Block block : blocks) {
+                raf.seek(block.m_start);
+                readRecords(raf, block.m_end, fromId, toId, result);
+            }
+
             // the length is live-updated, so we should be able
             // to get as close as possible to the last written record...
-            while (raf.getFilePointer() < raf.length()) {
-                int headerSize = 12; // 8 for long, 4 for int...
-                waitToRead(raf, headerSize);
-
-                long id = raf.readLong();
-                int entrySize = raf.readInt();
-                waitToRead(raf, entrySize);
-
-                if ((id >= fromId) && (id <= toId)) {
-                    byte[] buffer = new byte[entrySize];
-                    raf.readFully(buffer);
-
-                    result.add(new Record(id, buffer));
-                }
-                else {
-                    int actual = 0;
-                    do {
-                        actual += raf.skipBytes(entrySize - actual);
-                    }
-                    while (actual < entrySize);
-                }
-            }
+            raf.seek(tailStart);
+            readRecords(raf, -1L, fromId, toId, result);
         }
         finally {
             try {
@@ -261,42 +339,50 @@ public class FeedbackStore {
         Lock writeLock = m_rwLock.writeLock();
         RandomAccessFile raf = null;
 
+        writeLock.lock();
         try {
             // Take a NEW file instance as to ensure we do not
             // disturb any concurrent writes while initializing...
             raf = new RandomAccessFile(m_storeFile, "r");
 
-            long lowest = Long.MAX_VALUE;
-            long highest = Long.MIN_VALUE;
-            boolean empty = true;
+            List<Block> index = readIndex(raf.length());
+            boolean rebuild = (index == null);
 
-            // the length is live-updated, so we should be able
-            // to get as close as possible to the last written record...
-            while (raf.getFilePointer() < raf.length()) {
-                long id = skip(raf);
-
-                lowest = Math.min(lowest, id);
-                highest = Math.max(highest, id);
-                empty = false;
+            m_index.clear();
+            m_tail = null;
+            m_ordered = true;
+            if (!rebuild) {
+                for (Block block : index) {
+                    addToIndex(block);
+                }
             }
 
-            if (empty) {
-                lowest = Long.MAX_VALUE;
-                highest = 0;
+            // only scan the records that are not in a complete block...
+            scan(raf, m_index.isEmpty() ? 0L : m_index.get(m_index.size() - 1).m_end);
+
+            if (rebuild) {
+                writeIndex();
             }
 
-            writeLock.lock();
-            try {
-                m_lowestEventID = lowest;
-                m_highestEventID = highest;
+            long lowest = Long.MAX_VALUE;
+            long highest = 0;
+            for (Block block : m_index) {
+                lowest = Math.min(lowest, block.m_lowestID);
+                highest = Math.max(highest, block.m_highestID);
             }
-            finally {
-                writeLock.unlock();
+            if (m_tail != null) {
+                lowest = Math.min(lowest, m_tail.m_lowestID);
+                highest = Math.max(highest, m_tail.m_highestID);
             }
 
+            m_lowestEventID = lowest;
+            m_highestEventID = highest;
+
 //            System.out.printf("Init, range = %d..%d.%n", m_lowestEventID, m_highestEventID);
         }
         finally {
+            writeLock.unlock();
+
             try {
                 if (raf != null) {
                     raf.close();
@@ -336,13 +422,257 @@ public class FeedbackStore {
 
         writeLock.lock();
         try {
-            m_store.setLength(m_store.getFilePointer());
+            long length = m_store.getFilePointer();
+            m_store.setLength(length);
+
+            // drop all blocks beyond the new end of the file, and rescan the remaining records...
+            while (!m_index.isEmpty() && m_index.get(m_index.size() - 1).m_end > length) {
+                m_index.remove(m_index.size() - 1);
+            }
+            m_tail = null;
+            try {
+                scan(m_store, m_index.isEmpty() ? 0L : m_index.get(m_index.size() - 1).m_end);
+                writeIndex();
+            }
+            catch (IOException e) {
+                // the remainder of the store is not readable (yet), let the next initialization rebuild the index...
+                closeIndex();
+                m_indexFile.delete();
+            }
+            finally {
+                m_store.seek(length);
+            }
         }
         finally {
             writeLock.unlock();
         }
     }
 
+    /**
+     * @param storeFile
+     *            the store file to return the index file for, cannot be <code>null</code>.
+     * @return the index file accompanying the given store file, never <code>null</code>.
+     */
+    static File getIndexFile(File storeFile) {
+        return new File(storeFile.getParentFile(), storeFile.getName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * Adds a record to the index.
+     * 
+     * @return the block that is completed by adding the given record, or <code>null</code> if no block is completed.
+     */
+    private Block addToIndex(long start, long end, long id) {
+        if (m_tail == null) {
+            m_tail = new Block(start, end, id, id, 1);
+        }
+        else {
+            m_tail.add(end, id);
+        }
+        if (m_tail.m_count < INDEX_BLOCK_SIZE) {
+            return null;
+        }
+        Block block = m_tail;
+        m_tail = null;
+        addToIndex(block);
+        return block;
+    }
+
+    private void addToIndex(Block block) {
+        if (!m_index.isEmpty() && m_index.get(m_index.size() - 1).m_highestID >= block.m_lowestID) {
+            m_ordered = false;
+        }
+        m_index.add(block);
+    }
+
+    /**
+     * Appends an entry for the given (completed) block to the index file. In case this fails, the index file is
+     * removed and will be rebuilt upon the next initialization.
+     */
+    private void appendIndexEntry(Block block) {
+        try {
+            if (m_indexOut == null) {
+                m_indexOut = new RandomAccessFile(m_indexFile, "rw");
+                m_indexOut.seek(m_indexOut.length());
+            }
+            byte[] entry = new byte[INDEX_ENTRY_SIZE];
+            putLong(entry, 0, block.m_start);
+            putLong(entry, 8, block.m_end);
+            putLong(entry, 16, block.m_lowestID);
+            putLong(entry, 24, block.m_highestID);
+            m_indexOut.write(entry);
+        }
+        catch (IOException e) {
+            closeIndex();
+            m_indexFile.delete();
+        }
+    }
+
+    private void closeIndex() {
+        if (m_indexOut != null) {
+            try {
+                m_indexOut.close();
+            }
+            catch (IOException ignored) {
+            }
+            m_indexOut = null;
+        }
+    }
+
+    /**
+     * @return the blocks that can contain records in the given range of IDs, in file order.
+     */
+    private List<Block> getBlocks(long fromId, long toId) {
+        List<Block> result = new ArrayList<>();
+        int i = 0;
+        if (m_ordered) {
+            // binary search for the first block that can contain the lowest requested ID...
+            int low = 0;
+            int high = m_index.size();
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (m_index.get(mid).m_highestID < fromId) {
+                    low = mid + 1;
+                }
+                else {
+                    high = mid;
+                }
+            }
+            i = low;
+        }
+        for (; i < m_index.size(); i++) {
+            Block block = m_index.get(i);
+            if (block.overlaps(fromId, toId)) {
+                result.add(block);
+            }
+            else if (m_ordered && block.m_lowestID > toId) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the index file, and checks whether it is consistent with the store file.
+     * 
+     * @return the blocks from the index file, or <code>null</code> if the index file is missing or inconsistent.
+     */
+    private List<Block> readIndex(long storeLength) {
+        long length = m_indexFile.length();
+        if (!m_indexFile.isFile() || (length % INDEX_ENTRY_SIZE) != 0) {
+            return null;
+        }
+
+        List<Block> result = new ArrayList<>();
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(m_indexFile)));
+
+            long expectedStart = 0L;
+            for (long i = length / INDEX_ENTRY_SIZE; i > 0; i--) {
+                long start = dis.readLong();
+                long end = dis.readLong();
+                long lowestID = dis.readLong();
+                long highestID = dis.readLong();
+
+                if (start != expectedStart || end <= start || end > storeLength || lowestID > highestID) {
+                    return null;
+                }
+                result.add(new Block(start, end, lowestID, highestID, INDEX_BLOCK_SIZE));
+                expectedStart = end;
+            }
+            return result;
+        }
+        catch (IOException e) {
+            return null;
+        }
+        finally {
+            try {
+                if (dis != null) {
+                    dis.close();
+                }
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Reads all records up to the given end position, or to the end of the file if it is negative.
+     */
+    private void readRecords(RandomAccessFile raf, long end, long fromId, long toId, List<Record> result) throws IOException {
+        while (raf.getFilePointer() < ((end < 0L) ? raf.length() : end)) {
+            waitToRead(raf, HEADER_SIZE);
+
+            long id = raf.readLong();
+            int entrySize = raf.readInt();
+            waitToRead(raf, entrySize);
+
+            if ((id >= fromId) && (id <= toId)) {
+                byte[] buffer = new byte[entrySize];
+                raf.readFully(buffer);
+
+                result.add(new Record(id, buffer));
+            }
+            else {
+                int actual = 0;
+                do {
+                    actual += raf.skipBytes(entrySize - actual);
+                }
+                while (actual < entrySize);
+            }
+        }
+    }
+
+    /**
+     * Adds all records from the given position until the end of the file to the index.
+     */
+    private void scan(RandomAccessFile raf, long position) throws IOException {
+        raf.seek(position);
+
+        // the length is live-updated, so we should be able
+        // to get as close as possible to the last written record...
+        while (raf.getFilePointer() < raf.length()) {
+            long start = raf.getFilePointer();
+            long id = skip(raf);
+
+            addToIndex(start, raf.getFilePointer(), id);
+        }
+    }
+
+    /**
+     * Rewrites the index file with all complete blocks. In case this fails, the index file is removed and will be
+     * rebuilt upon the next initialization.
+     */
+    private void writeIndex() {
+        closeIndex();
+
+        DataOutputStream dos = null;
+        try {
+            dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(m_indexFile)));
+            for (Block block : m_index) {
+                dos.writeLong(block.m_start);
+                dos.writeLong(block.m_end);
+                dos.writeLong(block.m_lowestID);
+                dos.writeLong(block.m_highestID);
+            }
+            dos.close();
+            dos = null;
+        }
+        catch (IOException e) {
+            m_indexFile.delete();
+        }
+        finally {
+            try {
+                if (dos != null) {
+                    dos.close();
+                }
+            }
+            catch (IOException ignored) {
+            }
+        }
+    }
+
     private void handle(long pos, IOException exception) throws IOException {
         try {
             m_store.seek(pos);
@@ -367,8 +697,7 @@ public class FeedbackStore {
      *             in case of I/O errors.
      */
     private long skip(RandomAccessFile raf) throws IOException {
-        int headerSize = 12; // 8 for long, 4 for int...
-        waitToRead(raf, headerSize);
+        waitToRead(raf, HEADER_SIZE);
 
         long lastId = raf.readLong();
         int entrySize = raf.readInt();
@@ -384,6 +713,13 @@ public class FeedbackStore {
         return lastId;
     }
 
+    private static void putLong(byte[] buffer, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            buffer[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
     private void updateIDs(long eventID) {
         if (eventID < m_lowestEventID) {
             m_lowestEventID = eventID;
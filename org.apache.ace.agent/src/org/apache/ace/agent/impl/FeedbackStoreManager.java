@@ -21,6 +21,7 @@ package org.apache.ace.agent.impl;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -71,7 +72,9 @@ public class FeedbackStoreManager {
     private final FileFilter m_fileFilter = new FileFilter() {
         @Override
         public boolean accept(File file) {
-            return file.getName().startsWith(m_name);
+            String name = file.getName();
+            // the index files are maintained by the stores themselves...
+            return name.startsWith(m_name) && !name.endsWith(FeedbackStore.INDEX_SUFFIX);
         }
     };
 
@@ -276,7 +279,7 @@ public class FeedbackStoreManager {
             // log the event XXX shouldn't the target ID be filled in?
             Event result = new Event(getTargetID(), storeID, nextEventId, System.currentTimeMillis(), type, properties);
 
-            currentStore.append(result.getID(), result.toRepresentation().getBytes());
+            currentStore.append(result.getID(), result.toRepresentation().getBytes(StandardCharsets.UTF_8));
         }
         catch (IOException ex) {
             handleException(currentStore, ex);
@@ -300,6 +303,7 @@ public class FeedbackStoreManager {
             // delete the files...
             for (int i = 0; i < deleteTo; i++) {
                 storeFiles[i].delete();
+                FeedbackStore.getIndexFile(storeFiles[i]).delete();
             }
         }
     }
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.agent.impl;
+
+import java.util.Random;
+
+/**
+ * Determines how long the {@link DefaultController} waits before it synchronizes with the server again. Instead of a
+ * fixed interval, which causes large numbers of agents that were started (or failed) at the same time to keep hitting
+ * the server in lock-step, the delay is computed from the outcome of the last synchronization:
+ * <ul>
+ * <li>every delay is randomized with a configurable jitter;</li>
+ * <li>while an update is being rolled out to the agent, the (shorter) rollout interval is used;</li>
+ * <li>each consecutive synchronization without updates doubles the interval, up to the (longer) idle interval;</li>
+ * <li>failing synchronizations are retried using an exponential back off with "decorrelated jitter", that is, a random
+ * delay between the sync interval and three times the previous delay, up to a maximum;</li>
+ * <li>a back off time requested by the server is used as lower bound for the next delay.</li>
+ * </ul>
+ * All delays are in milliseconds. This class does not depend on a clock of its own, allowing it to be used for
+ * simulating the behavior of many agents as well.
+ */
+final class SyncSchedule {
+    /**
+     * Denotes the outcome of a synchronization with the server.
+     */
+    static enum Outcome {
+        /** Nothing to do, the agent is up-to-date. */
+        IDLE,
+        /** An update was available, and installed or tried to install. */
+        UPDATING,
+        /** The synchronization failed, for example, because the server could not be reached. */
+        FAILED;
+
+        /**
+         * @return the most significant of this and the given outcome, never <code>null</code>.
+         */
+        public Outcome combine(Outcome other) {
+            return (other.ordinal() > ordinal()) ? other : this;
+        }
+    }
+
+    private final Random m_random;
+
+    private long m_interval;
+    private long m_rolloutInterval;
+    private long m_idleInterval;
+    private long m_maxBackoff;
+    private int m_jitter;
+
+    /** the unjittered interval used for the last idle sync, or 0 if the last sync was not idle. */
+    private long m_currentIdleInterval;
+    /** the last back off delay, or 0 if the last sync did not fail. */
+    private long m_backoff;
+
+    public SyncSchedule(Random random) {
+        m_random = random;
+
+        configure(60000, 0, 0, 600000, 10);
+    }
+
+    /**
+     * Configures this schedule.
+     * 
+     * @param interval
+     *            the regular sync interval, &gt; 0;
+     * @param rolloutInterval
+     *            the sync interval while updates are rolled out, or 0 to use the regular interval;
+     * @param idleInterval
+     *            the sync interval to slow down to while idle, or 0 to use the regular interval;
+     * @param maxBackoff
+     *            the maximum delay in case of failures;
+     * @param jitter
+     *            the jitter as percentage of the delay, between 0 and 100.
+     */
+    public synchronized void configure(long interval, long rolloutInterval, long idleInterval, long maxBackoff, int jitter) {
+        m_interval = Math.max(1, interval);
+        m_rolloutInterval = (rolloutInterval > 0) ? Math.min(rolloutInterval, m_interval) : m_interval;
+        m_idleInterval = Math.max(idleInterval, m_interval);
+        m_maxBackoff = Math.max(maxBackoff, m_interval);
+        m_jitter = Math.max(0, Math.min(100, jitter));
+    }
+
+    /**
+     * @param syncDelay
+     *            the configured delay before the first synchronization.
+     * @return the (jittered) delay before the first synchronization.
+     */
+    public synchronized long getInitialDelay(long syncDelay) {
+        return jitter(syncDelay);
+    }
+
+    /**
+     * @param outcome
+     *            the outcome of the last synchronization, cannot be <code>null</code>.
+     * @return the delay before the next synchronization.
+     */
+    public synchronized long next(Outcome outcome) {
+        if (outcome == Outcome.FAILED) {
+            m_currentIdleInterval = 0;
+            return backoff(m_interval);
+        }
+
+        m_backoff = 0;
+        if (outcome == Outcome.UPDATING) {
+            m_currentIdleInterval = 0;
+            return jitter(m_rolloutInterval);
+        }
+
+        m_currentIdleInterval = (m_currentIdleInterval == 0) ? m_interval : Math.min(m_idleInterval, m_currentIdleInterval * 2);
+        return jitter(m_currentIdleInterval);
+    }
+
+    /**
+     * @param retryAfter
+     *            the back off time requested by the server.
+     * @return the delay before the next synchronization, at least the given back off time.
+     */
+    public synchronized long retryAfter(long retryAfter) {
+        m_currentIdleInterval = 0;
+        return backoff(Math.max(1, retryAfter));
+    }
+
+    private long backoff(long base) {
+        long cap = Math.max(m_maxBackoff, base);
+        long upper = Math.max(base, Math.min(cap, Math.max(m_backoff, base) * 3));
+        m_backoff = base + nextLong(upper - base + 1);
+        return m_backoff;
+    }
+
+    private long jitter(long delay) {
+        long range = delay * m_jitter / 100;
+        return Math.max(0, delay - range + nextLong(2 * range + 1));
+    }
+
+    private long nextLong(long bound) {
+        return (long) (m_random.nextDouble() * bound);
+    }
+}
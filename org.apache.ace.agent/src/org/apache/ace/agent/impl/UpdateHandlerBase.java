@@ -59,7 +59,7 @@ abstract class UpdateHandlerBase extends ComponentBase implements UpdateHandler
 
             checkConnectionResponse(connection);
 
-            reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+            reader = new BufferedReader(new InputStreamReader(ConnectionUtil.getInputStream(connection)));
             String versionString;
             while ((versionString = reader.readLine()) != null) {
                 try {
@@ -93,7 +93,7 @@ abstract class UpdateHandlerBase extends ComponentBase implements UpdateHandler
     protected long getPackageSize(URL url) throws RetryAfterException, IOException {
         URLConnection urlConnection = null;
         try {
-            urlConnection = url.openConnection();
+            urlConnection = getConnection(url);
             if (urlConnection instanceof HttpURLConnection) {
                 ((HttpURLConnection) urlConnection).setRequestMethod("HEAD");
             }
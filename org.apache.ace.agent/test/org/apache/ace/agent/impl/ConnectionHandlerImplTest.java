@@ -20,11 +20,15 @@ package org.apache.ace.agent.impl;
 
 import static org.testng.Assert.assertEquals;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -69,12 +73,38 @@ public class ConnectionHandlerImplTest extends BaseAgentTest {
         }
     }
 
+    static class RemotePortServlet extends HttpServlet {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+            byte[] content = String.valueOf(req.getRemotePort()).getBytes();
+            resp.setContentType("text/plain");
+            resp.setHeader(HDR_REMOTE_PORT, String.valueOf(req.getRemotePort()));
+            if (req.getParameter("status") != null) {
+                resp.sendError(Integer.parseInt(req.getParameter("status")), "Requested failure");
+            }
+            else if ("gzip".equals(req.getHeader("Accept-Encoding"))) {
+                resp.setHeader("Content-Encoding", "gzip");
+                OutputStream os = new GZIPOutputStream(resp.getOutputStream());
+                os.write(content);
+                os.close();
+            }
+            else {
+                resp.setContentLength(content.length);
+                resp.getOutputStream().write(content);
+            }
+        }
+    }
+
+    private static final String HDR_REMOTE_PORT = "X-Remote-Port";
     private static final int PORT = 8880;
     private static final String USERNAME = "john.doe";
     private static final String PASSWORD = "secret";
 
     private TestWebServer m_webServer;
     private URL m_basicAuthURL;
+    private URL m_remotePortURL;
     private AgentContextImpl m_agentContext;
 
     @BeforeClass
@@ -82,7 +112,10 @@ public class ConnectionHandlerImplTest extends BaseAgentTest {
         m_basicAuthURL = new URL("http://localhost:" + PORT + "/basicauth");
 
         m_webServer = new TestWebServer(PORT, "/", "generated");
+        m_remotePortURL = new URL("http://localhost:" + PORT + "/remoteport");
+
         m_webServer.addServlet(new BasicAuthServlet(USERNAME, PASSWORD), "/basicauth/*");
+        m_webServer.addServlet(new RemotePortServlet(), "/remoteport/*");
         m_webServer.start();
 
         BundleContext bc = mockBundleContext();
@@ -133,4 +166,70 @@ public class ConnectionHandlerImplTest extends BaseAgentTest {
         HttpURLConnection connection = (HttpURLConnection) connectionHandler.getConnection(m_basicAuthURL);
         assertEquals(connection.getResponseCode(), HttpServletResponse.SC_OK);
     }
+
+    @Test
+    public void testCompression() throws Exception {
+        Map<String, String> props = new HashMap<>();
+        props.put(AgentConstants.CONFIG_CONNECTION_COMPRESSION, "true");
+
+        ConfigurationHandler configurationHandler = m_agentContext.getHandler(ConfigurationHandler.class);
+        configurationHandler.putAll(props);
+
+        ConnectionHandler connectionHandler = m_agentContext.getHandler(ConnectionHandler.class);
+
+        HttpURLConnection connection = (HttpURLConnection) connectionHandler.getConnection(m_remotePortURL);
+        try {
+            assertEquals(connection.getResponseCode(), HttpServletResponse.SC_OK);
+            assertEquals(connection.getContentEncoding(), "gzip");
+            // the decompressed content should be readable as is...
+            Integer.parseInt(readContent(connection));
+        }
+        finally {
+            props.put(AgentConstants.CONFIG_CONNECTION_COMPRESSION, "false");
+            configurationHandler.putAll(props);
+        }
+    }
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        ConnectionHandler connectionHandler = m_agentContext.getHandler(ConnectionHandler.class);
+
+        HttpURLConnection connection = (HttpURLConnection) connectionHandler.getConnection(m_remotePortURL);
+        String firstPort = readContent(connection);
+        ConnectionUtil.close(connection);
+
+        connection = (HttpURLConnection) connectionHandler.getConnection(m_remotePortURL);
+        String secondPort = readContent(connection);
+        ConnectionUtil.close(connection);
+
+        // both requests should be served over the same (kept alive) network connection...
+        assertEquals(secondPort, firstPort);
+    }
+
+    @Test
+    public void testConnectionIsReusedAfterErrorResponse() throws Exception {
+        ConnectionHandler connectionHandler = m_agentContext.getHandler(ConnectionHandler.class);
+
+        HttpURLConnection connection = (HttpURLConnection) connectionHandler.getConnection(new URL(m_remotePortURL + "?status=503"));
+        assertEquals(connection.getResponseCode(), HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        String firstPort = connection.getHeaderField(HDR_REMOTE_PORT);
+        // the error response is not read, which is left to closing the connection...
+        ConnectionUtil.close(connection);
+
+        connection = (HttpURLConnection) connectionHandler.getConnection(m_remotePortURL);
+        String secondPort = readContent(connection);
+        ConnectionUtil.close(connection);
+
+        assertEquals(secondPort, firstPort);
+    }
+
+    private static String readContent(HttpURLConnection connection) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(ConnectionUtil.getInputStream(connection)));
+        try {
+            return reader.readLine();
+        }
+        finally {
+            reader.close();
+        }
+    }
 }
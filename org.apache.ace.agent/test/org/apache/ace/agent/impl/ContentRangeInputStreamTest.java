@@ -254,6 +254,10 @@ public class ContentRangeInputStreamTest {
 
         @Override
         public URLConnection getConnection(URL url) throws IOException {
+            if (m_conn instanceof HttpURLConnection) {
+                // connections are no longer disconnected after use, so reset the stub for each new request...
+                ((HttpURLConnection) m_conn).disconnect();
+            }
             return m_conn;
         }
     }
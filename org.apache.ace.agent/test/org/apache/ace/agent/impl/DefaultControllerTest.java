@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.agent.impl;
+
+import static org.apache.ace.agent.AgentConstants.CONFIG_CONTROLLER_IDLESYNCINTERVAL;
+import static org.apache.ace.agent.AgentConstants.CONFIG_CONTROLLER_JITTER;
+import static org.apache.ace.agent.AgentConstants.CONFIG_CONTROLLER_MAXBACKOFF;
+import static org.apache.ace.agent.AgentConstants.CONFIG_CONTROLLER_SYNCINTERVAL;
+import static org.apache.ace.agent.AgentConstants.EVENT_AGENT_CONFIG_CHANGED;
+import static org.easymock.EasyMock.expect;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.ace.agent.AgentUpdateHandler;
+import org.apache.ace.agent.ConnectionHandler;
+import org.apache.ace.agent.DeploymentHandler;
+import org.apache.ace.agent.DiscoveryHandler;
+import org.apache.ace.agent.FeedbackHandler;
+import org.apache.ace.agent.IdentificationHandler;
+import org.apache.ace.agent.RetryAfterException;
+import org.apache.ace.agent.testutil.BaseAgentTest;
+import org.apache.ace.agent.testutil.TestWebServer;
+import org.easymock.IAnswer;
+import org.osgi.framework.Version;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Testing {@link DefaultController}.
+ */
+public class DefaultControllerTest extends BaseAgentTest {
+
+    private static final int PORT = 8886;
+    private static final String AGENT_ID = "agent";
+    private static final long SECOND = 1000L;
+
+    static class TestVersionsServlet extends HttpServlet {
+        private static final long serialVersionUID = 1L;
+
+        final List<String> m_watches = new ArrayList<>();
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+            m_watches.add(req.getParameter("watch"));
+
+            // answers right away, as if a newer version is available...
+            resp.setContentType("text/plain");
+            resp.getWriter().print("1.0.0\n2.0.0\n");
+        }
+    }
+
+    private AgentContextImpl m_agentContext;
+    private TestWebServer m_webServer;
+    private TestVersionsServlet m_servlet;
+    private DefaultController m_controller;
+    /** Determines the outcome of asking the server for the available deployment versions. */
+    private volatile Object m_availableVersion;
+
+    @BeforeMethod
+    public void setUpAgain() throws Exception {
+        m_agentContext = mockAgentContext();
+
+        m_servlet = new TestVersionsServlet();
+
+        m_webServer = new TestWebServer(PORT, "/", "generated");
+        m_webServer.addServlet(m_servlet, "/deployment/" + AGENT_ID + "/versions/*");
+        m_webServer.start();
+
+        DiscoveryHandler discoveryHandler = addTestMock(DiscoveryHandler.class);
+        expect(discoveryHandler.getServerUrl()).andReturn(new URL("http://localhost:" + PORT + "/")).anyTimes();
+
+        IdentificationHandler identificationHandler = addTestMock(IdentificationHandler.class);
+        expect(identificationHandler.getAgentId()).andReturn(AGENT_ID).anyTimes();
+
+        DeploymentHandler deploymentHandler = addTestMock(DeploymentHandler.class);
+        expect(deploymentHandler.getInstalledVersion()).andReturn(Version.parseVersion("1.0.0")).anyTimes();
+        expect(deploymentHandler.getHighestAvailableVersion()).andAnswer(new IAnswer<Version>() {
+            @Override
+            public Version answer() throws Throwable {
+                if (m_availableVersion instanceof Throwable) {
+                    throw (Throwable) m_availableVersion;
+                }
+                return (Version) m_availableVersion;
+            }
+        }).anyTimes();
+
+        AgentUpdateHandler agentUpdateHandler = addTestMock(AgentUpdateHandler.class);
+        expect(agentUpdateHandler.getInstalledVersion()).andReturn(Version.parseVersion("1.0.0")).anyTimes();
+        expect(agentUpdateHandler.getHighestAvailableVersion()).andReturn(Version.parseVersion("1.0.0")).anyTimes();
+
+        FeedbackHandler feedbackHandler = addTestMock(FeedbackHandler.class);
+        expect(feedbackHandler.getChannelNames()).andReturn(Collections.<String> emptySet()).anyTimes();
+
+        replayTestMocks();
+        m_agentContext.setHandler(DiscoveryHandler.class, discoveryHandler);
+        m_agentContext.setHandler(IdentificationHandler.class, identificationHandler);
+        m_agentContext.setHandler(DeploymentHandler.class, deploymentHandler);
+        m_agentContext.setHandler(AgentUpdateHandler.class, agentUpdateHandler);
+        m_agentContext.setHandler(FeedbackHandler.class, feedbackHandler);
+        m_agentContext.setHandler(ConnectionHandler.class, new ConnectionHandlerImpl());
+        m_agentContext.start();
+
+        m_controller = new DefaultController();
+        m_controller.init(m_agentContext);
+
+        m_availableVersion = Version.parseVersion("1.0.0");
+    }
+
+    @AfterMethod
+    public void tearDownAgain() throws Exception {
+        m_controller.stop();
+        m_webServer.stop();
+        m_agentContext.stop();
+        verifyTestMocks();
+        clearTestMocks();
+    }
+
+    /**
+     * Tests that a newer version that is not installed (yet) only stops the long-poll wait once, so we never sync in a
+     * tight loop when a newer version fails to install.
+     */
+    @Test
+    public void testWaitForDeploymentUpdateOnlyOncePerVersion() throws Exception {
+        assertTrue(m_controller.waitForDeploymentUpdate(1000L), "Version 2.0.0 should be reported as newer");
+        assertFalse(m_controller.waitForDeploymentUpdate(1000L), "Version 2.0.0 is already handled");
+
+        assertEquals(m_servlet.m_watches.size(), 2);
+        assertEquals(m_servlet.m_watches.get(0), "1.0.0");
+        assertEquals(m_servlet.m_watches.get(1), "2.0.0");
+    }
+
+    /**
+     * Tests that the controller feeds the outcome of each synchronization into its schedule, by running it against a
+     * virtual clock: idle synchronizations slow down to the idle interval, failures back off, and a back off time
+     * requested by the server is honored.
+     */
+    @Test
+    public void testSyncDelaysFollowOutcome() throws Exception {
+        Map<String, String> config = new HashMap<>();
+        config.put(CONFIG_CONTROLLER_SYNCINTERVAL, "60");
+        config.put(CONFIG_CONTROLLER_IDLESYNCINTERVAL, "240");
+        config.put(CONFIG_CONTROLLER_MAXBACKOFF, "600");
+        config.put(CONFIG_CONTROLLER_JITTER, "0");
+        m_controller.handle(EVENT_AGENT_CONFIG_CHANGED, config);
+
+        long now = 0L;
+
+        // nothing to do, slow down to the idle interval...
+        assertEquals(m_controller.sync(), 60 * SECOND);
+        assertEquals(m_controller.sync(), 120 * SECOND);
+        assertEquals(m_controller.sync(), 240 * SECOND);
+        now += m_controller.sync();
+        assertEquals(now, 240 * SECOND);
+
+        // the server cannot be reached, back off up to the maximum...
+        m_availableVersion = new IOException("Server unreachable");
+        long previous = 60 * SECOND;
+        for (int i = 0; i < 10; i++) {
+            long delay = m_controller.sync();
+            assertTrue(delay >= 60 * SECOND && delay <= Math.min(600 * SECOND, 3 * previous), "Unexpected back off: " + delay);
+            previous = delay;
+            now += delay;
+        }
+        assertTrue(now > 10 * 60 * SECOND, "Failures should back off beyond the regular interval");
+
+        // the server is back, but too busy...
+        m_availableVersion = new RetryAfterException(300);
+        assertTrue(m_controller.sync() >= 300 * SECOND, "Back off time of server not honored");
+
+        // ...and finally answers again, so we start over at the regular interval...
+        m_availableVersion = Version.parseVersion("1.0.0");
+        assertEquals(m_controller.sync(), 60 * SECOND);
+    }
+}
@@ -29,6 +29,7 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -42,8 +43,9 @@ import org.apache.ace.agent.testutil.BaseAgentTest;
 import org.apache.ace.agent.testutil.TestWebServer;
 import org.apache.ace.feedback.Descriptor;
 import org.apache.ace.feedback.Event;
+import org.apache.ace.feedback.EventReader;
 import org.apache.ace.range.SortedRangeSet;
-import org.testng.annotations.AfterTest;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -88,6 +90,55 @@ public class FeedbackChannelImplTest extends BaseAgentTest {
         }
     }
 
+    static class TestSyncFeedbackServlet extends HttpServlet {
+        private static final long serialVersionUID = 1L;
+
+        List<Event> m_events = new ArrayList<>();
+        Map<Long, SortedRangeSet> m_ranges = new HashMap<>();
+        int m_requests;
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+            m_requests++;
+            resp.setContentType("text/plain");
+            BufferedReader reader = new BufferedReader(new InputStreamReader(req.getInputStream()));
+            List<Descriptor> requested = new ArrayList<>();
+            String line;
+            while ((line = reader.readLine()) != null && !"".equals(line)) {
+                requested.add(new Descriptor(line));
+            }
+            EventReader eventReader = new EventReader(reader);
+            Event event;
+            while ((event = eventReader.next()) != null) {
+                m_events.add(event);
+                SortedRangeSet range = new SortedRangeSet(new long[] { event.getID() });
+                if (m_ranges.containsKey(event.getStoreID())) {
+                    range = range.union(m_ranges.get(event.getStoreID()));
+                }
+                m_ranges.put(event.getStoreID(), range);
+            }
+            for (Descriptor descriptor : requested) {
+                SortedRangeSet range = m_ranges.get(descriptor.getStoreID());
+                resp.getOutputStream().print(new Descriptor(descriptor.getTargetID(), descriptor.getStoreID(), range == null ? new SortedRangeSet(new long[0]) : range).toRepresentation() + "\n");
+            }
+            resp.setStatus(200);
+        }
+    }
+
+    static class TestUnknownCommandServlet extends HttpServlet {
+        private static final long serialVersionUID = 1L;
+
+        int m_requests;
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+            // like older log servlets, silently accept unknown commands...
+            m_requests++;
+            resp.setContentType("text/plain");
+            resp.setStatus(200);
+        }
+    }
+
     @BeforeMethod
     public void setUpAgain(Method method) throws Exception {
         // this setup is needed because a real Feedbackstore is initialized in the constructor.
@@ -112,7 +163,7 @@ public class FeedbackChannelImplTest extends BaseAgentTest {
         m_agentContext.start();
     }
 
-    @AfterTest
+    @AfterMethod
     public void tearDownAgain() throws Exception {
         m_webServer.stop();
         m_agentContext.stop();
@@ -132,4 +183,53 @@ public class FeedbackChannelImplTest extends BaseAgentTest {
 
         assertEquals(sendServlet.m_events.size(), 1);
     }
+
+    @Test
+    public void testSyncFeedback() throws Exception {
+        TestSyncFeedbackServlet syncServlet = new TestSyncFeedbackServlet();
+        m_webServer.addServlet(syncServlet, "/test/sync");
+
+        m_feedbackChannelImpl.write(1, new HashMap<String, String>());
+        m_feedbackChannelImpl.write(1, new HashMap<String, String>());
+        m_feedbackChannelImpl.sendFeedback();
+
+        // the first synchronization learns what the server has, the second sends the missing events...
+        assertEquals(syncServlet.m_requests, 2);
+        assertEquals(syncServlet.m_events.size(), 2);
+
+        m_feedbackChannelImpl.write(1, new HashMap<String, String>());
+        m_feedbackChannelImpl.sendFeedback();
+
+        // only the new event is sent, in a single request...
+        assertEquals(syncServlet.m_requests, 3);
+        assertEquals(syncServlet.m_events.size(), 3);
+
+        m_feedbackChannelImpl.sendFeedback();
+
+        assertEquals(syncServlet.m_requests, 4);
+        assertEquals(syncServlet.m_events.size(), 3);
+    }
+
+    @Test
+    public void testSyncFeedbackFallsBackIfServerDoesNotAcknowledge() throws Exception {
+        TestUnknownCommandServlet syncServlet = new TestUnknownCommandServlet();
+        m_webServer.addServlet(syncServlet, "/test/sync");
+        TestSendFeedbackServlet sendServlet = new TestSendFeedbackServlet();
+        m_webServer.addServlet(sendServlet, "/test/send");
+        TestQueryFeedbackServlet queryServlet = new TestQueryFeedbackServlet();
+        m_webServer.addServlet(queryServlet, "/test/query");
+
+        m_feedbackChannelImpl.write(1, new HashMap<String, String>());
+        m_feedbackChannelImpl.sendFeedback();
+
+        // an empty answer does not acknowledge our store, so the events should be sent per store instead...
+        assertEquals(syncServlet.m_requests, 1);
+        assertEquals(sendServlet.m_events.size(), 1);
+
+        m_feedbackChannelImpl.write(1, new HashMap<String, String>());
+        m_feedbackChannelImpl.sendFeedback();
+
+        assertEquals(syncServlet.m_requests, 1);
+        assertEquals(sendServlet.m_events.size(), 3);
+    }
 }
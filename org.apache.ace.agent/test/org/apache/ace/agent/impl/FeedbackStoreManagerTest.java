@@ -23,6 +23,7 @@ import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -139,7 +140,12 @@ public class FeedbackStoreManagerTest extends BaseAgentTest {
     }
 
     private File[] getLogFiles() {
-        File[] files = new File(m_agentContext.getWorkDir(), "feedback").listFiles();
+        File[] files = new File(m_agentContext.getWorkDir(), "feedback").listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return !file.getName().endsWith(FeedbackStore.INDEX_SUFFIX);
+            }
+        });
         // sort files on storeId and fileNumber
         Arrays.sort(files, new Comparator<File>() {
             public int compare(File f1, File f2) {
@@ -24,6 +24,7 @@ import static org.testng.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
@@ -167,6 +168,100 @@ public class FeedbackStoreTest {
         return sb.toString();
     }
     
+    /**
+     * Tests that ranges of records are read through the index, and that the index is used upon reopening the store.
+     */
+    @Test
+    public void testIndexedRangeReads() throws Exception {
+        File storeFile = createStoreFile();
+
+        FeedbackStore store = new FeedbackStore(storeFile, 1);
+        for (int i = 0; i < 1000; i++) {
+            store.append(i, String.format("record-data-%d", i).getBytes());
+        }
+
+        File indexFile = FeedbackStore.getIndexFile(storeFile);
+        assertEquals(indexFile.length(), (1000 / FeedbackStore.INDEX_BLOCK_SIZE) * 32L);
+
+        assertRecords(store.getRecords(500, 520), 500, 520);
+        assertRecords(store.getRecords(990, 2000), 990, 999);
+        store.close();
+
+        store = new FeedbackStore(storeFile, 1);
+        assertEquals(store.getFirstEventID(), 0);
+        assertEquals(store.getLastEventID(), 999);
+        assertRecords(store.getRecords(0, 999), 0, 999);
+        assertRecords(store.getRecords(63, 64), 63, 64);
+        store.close();
+    }
+
+    /**
+     * Tests that a corrupt or missing index is rebuilt.
+     */
+    @Test
+    public void testCorruptIndexIsRebuilt() throws Exception {
+        File storeFile = createStoreFile();
+
+        FeedbackStore store = new FeedbackStore(storeFile, 1);
+        for (int i = 0; i < 300; i++) {
+            store.append(i, String.format("record-data-%d", i).getBytes());
+        }
+        store.close();
+
+        File indexFile = FeedbackStore.getIndexFile(storeFile);
+        long indexLength = indexFile.length();
+
+        // Let the first entry point to a non-existing part of the store...
+        RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+        try {
+            raf.writeLong(storeFile.length() * 2);
+        }
+        finally {
+            raf.close();
+        }
+
+        store = new FeedbackStore(storeFile, 1);
+        assertEquals(indexFile.length(), indexLength);
+        assertEquals(store.getLastEventID(), 299);
+        assertRecords(store.getRecords(10, 200), 10, 200);
+        store.close();
+
+        assertTrue(indexFile.delete());
+
+        store = new FeedbackStore(storeFile, 1);
+        assertEquals(indexFile.length(), indexLength);
+        assertRecords(store.getRecords(0, 299), 0, 299);
+        store.close();
+    }
+
+    /**
+     * Tests that truncating a store also drops the truncated records from its index.
+     */
+    @Test
+    public void testTruncateUpdatesIndex() throws Exception {
+        File storeFile = createStoreFile();
+
+        int count = 3 * FeedbackStore.INDEX_BLOCK_SIZE;
+
+        FeedbackStore store = new FeedbackStore(storeFile, 1);
+        for (int i = 0; i < count; i++) {
+            store.append(i, String.format("record-data-%d", i).getBytes());
+        }
+        // truncates the last written record, which completed the last block...
+        store.truncate();
+        assertRecords(store.getRecords(0, count), 0, count - 2);
+
+        store.append(count - 1, "new-data".getBytes());
+        store.append(count, "new-data".getBytes());
+        assertRecords(store.getRecords(count - 10, count), count - 10, count);
+        store.close();
+
+        store = new FeedbackStore(storeFile, 1);
+        assertEquals(store.getLastEventID(), count);
+        assertRecords(store.getRecords(0, count), 0, count);
+        store.close();
+    }
+
     @Test
     public void testTimedWrite() throws Exception {
         File storeFile = File.createTempFile("feedback", ".store");
@@ -336,6 +431,21 @@ public class FeedbackStoreTest {
         verifyStoreContents(store, recordCount, writer);
     }
 
+    private static void assertRecords(List<Record> records, long fromId, long toId) {
+        assertEquals(records.size(), toId - fromId + 1, "Unexpected number of records");
+        long expectedID = fromId;
+        for (Record record : records) {
+            assertEquals(record.m_id, expectedID++, "Entry ID mismatch?!");
+        }
+    }
+
+    private static File createStoreFile() throws IOException {
+        File storeFile = File.createTempFile("feedback", ".store");
+        storeFile.deleteOnExit();
+        FeedbackStore.getIndexFile(storeFile).deleteOnExit();
+        return storeFile;
+    }
+
     private void verifyStoreContents(final FeedbackStore store, final int count, Writer... writers) throws IOException {
         store.reset();
         store.init();
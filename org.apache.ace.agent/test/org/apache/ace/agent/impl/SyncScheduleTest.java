@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.agent.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ace.agent.RetryAfterException;
+import org.apache.ace.agent.impl.SyncSchedule.Outcome;
+import org.testng.annotations.Test;
+
+/**
+ * Test cases for {@link SyncSchedule}. Most of them simulate a large number of agents, each running the same schedule
+ * as the {@link DefaultController} does, against a fake server on a virtual clock and measure the request rate as seen
+ * by that server.
+ */
+public class SyncScheduleTest {
+    /**
+     * Fake server that determines the outcome of a synchronization of an agent at a given moment in time.
+     */
+    static abstract class FakeServer {
+        public abstract Outcome sync(long now) throws RetryAfterException;
+    }
+
+    /**
+     * Virtual agent, running the same loop as {@link DefaultController#sync()}.
+     */
+    static class VirtualAgent implements Comparable<VirtualAgent> {
+        final SyncSchedule m_schedule;
+        long m_time;
+
+        public VirtualAgent(SyncSchedule schedule, long syncDelay) {
+            m_schedule = schedule;
+            m_time = schedule.getInitialDelay(syncDelay);
+        }
+
+        @Override
+        public int compareTo(VirtualAgent other) {
+            return Long.compare(m_time, other.m_time);
+        }
+
+        public void sync(FakeServer server) {
+            long delay;
+            try {
+                delay = m_schedule.next(server.sync(m_time));
+            }
+            catch (RetryAfterException e) {
+                long retryAfter = TimeUnit.SECONDS.toMillis(e.getBackoffTime());
+                delay = m_schedule.retryAfter(retryAfter);
+                assertTrue(delay >= retryAfter, "Retry-after not honored: " + delay);
+            }
+            m_time += delay;
+        }
+    }
+
+    private static final int AGENTS = 10000;
+    private static final long SECOND = 1000L;
+    private static final long MINUTE = 60 * SECOND;
+    private static final long INTERVAL = MINUTE;
+    private static final long SYNC_DELAY = 5 * SECOND;
+
+    private static final FakeServer IDLE_SERVER = new FakeServer() {
+        @Override
+        public Outcome sync(long now) {
+            return Outcome.IDLE;
+        }
+    };
+
+    @Test
+    public void testFixedIntervalCausesLockstep() throws Exception {
+        int[] rate = simulate(IDLE_SERVER, 30 * MINUTE, INTERVAL, 0, 0, 0 /* jitter */);
+
+        // Without jitter, all agents keep hitting the server in the very same second...
+        assertEquals(max(rate, 20 * MINUTE, 30 * MINUTE), AGENTS);
+    }
+
+    @Test
+    public void testJitterSpreadsRequests() throws Exception {
+        int[] rate = simulate(IDLE_SERVER, 30 * MINUTE, INTERVAL, 0, 0, 10 /* jitter */);
+
+        // All agents start at about the same time, but after a few intervals their requests should be spread out...
+        int average = (int) (AGENTS * SECOND / INTERVAL);
+        int peak = max(rate, 20 * MINUTE, 30 * MINUTE);
+        assertTrue(peak < 3 * average, "Peak request rate too high: " + peak + ", average: " + average);
+    }
+
+    @Test
+    public void testBackoffDuringOutage() throws Exception {
+        final long outageEnd = 30 * MINUTE;
+
+        int[] rate = simulate(new FakeServer() {
+            @Override
+            public Outcome sync(long now) {
+                return (now < outageEnd) ? Outcome.FAILED : Outcome.IDLE;
+            }
+        }, 60 * MINUTE, INTERVAL, 0, 0, 10 /* jitter */);
+
+        // During the outage, the agents should back off to (on average) far less requests than they'd do normally...
+        long nominal = AGENTS * (10 * MINUTE) / INTERVAL;
+        long actual = sum(rate, outageEnd - 10 * MINUTE, outageEnd);
+        assertTrue(actual < nominal / 3, "Too many requests during outage: " + actual + ", nominal: " + nominal);
+
+        // After the outage, the agents should not come back all at once...
+        int average = (int) (AGENTS * SECOND / INTERVAL);
+        int peak = max(rate, outageEnd, 60 * MINUTE);
+        assertTrue(peak < 3 * average, "Peak request rate too high after outage: " + peak + ", average: " + average);
+    }
+
+    @Test
+    public void testRetryAfterLimitsRequestRate() throws Exception {
+        final int capacity = 100;
+
+        int[] rate = simulate(new FakeServer() {
+            private long m_second = -1;
+            private int m_count;
+
+            @Override
+            public Outcome sync(long now) throws RetryAfterException {
+                long second = now / SECOND;
+                if (second != m_second) {
+                    m_second = second;
+                    m_count = 0;
+                }
+                if (++m_count > capacity) {
+                    throw new RetryAfterException(30);
+                }
+                return Outcome.IDLE;
+            }
+        }, 30 * MINUTE, INTERVAL, 0, 0, 10 /* jitter */);
+
+        // Once the initial storm is over, the agents should be spread out enough to stay (mostly) within capacity...
+        int peak = max(rate, 20 * MINUTE, 30 * MINUTE);
+        assertTrue(peak < 2 * capacity, "Peak request rate too high: " + peak + ", capacity: " + capacity);
+    }
+
+    @Test
+    public void testAdaptiveIntervals() throws Exception {
+        SyncSchedule schedule = new SyncSchedule(new Random(1L));
+        schedule.configure(INTERVAL, 10 * SECOND, 5 * MINUTE, 10 * MINUTE, 10);
+
+        // While idle, the interval slows down to the idle interval...
+        assertBetween(schedule.next(Outcome.IDLE), 54 * SECOND, 66 * SECOND);
+        assertBetween(schedule.next(Outcome.IDLE), 108 * SECOND, 132 * SECOND);
+        for (int i = 0; i < 5; i++) {
+            schedule.next(Outcome.IDLE);
+        }
+        assertBetween(schedule.next(Outcome.IDLE), 270 * SECOND, 330 * SECOND);
+
+        // While rolling out, the interval speeds up to the rollout interval...
+        assertBetween(schedule.next(Outcome.UPDATING), 9 * SECOND, 11 * SECOND);
+        // ...and starts slowing down again once the rollout is done...
+        assertBetween(schedule.next(Outcome.IDLE), 54 * SECOND, 66 * SECOND);
+
+        // Failures back off, up to the maximum...
+        assertBetween(schedule.next(Outcome.FAILED), INTERVAL, 3 * INTERVAL);
+        for (int i = 0; i < 100; i++) {
+            assertBetween(schedule.next(Outcome.FAILED), INTERVAL, 10 * MINUTE);
+        }
+        // ...and are honoring a requested retry-after time, even beyond the maximum...
+        for (int i = 0; i < 100; i++) {
+            assertBetween(schedule.retryAfter(30 * SECOND), 30 * SECOND, 10 * MINUTE);
+            assertBetween(schedule.retryAfter(20 * MINUTE), 20 * MINUTE, 20 * MINUTE);
+        }
+    }
+
+    private static void assertBetween(long value, long low, long high) {
+        assertTrue(value >= low && value <= high, value + " not in [" + low + ", " + high + "]");
+    }
+
+    private static int max(int[] rate, long from, long to) {
+        int result = 0;
+        for (int i = (int) (from / SECOND); i < (int) (to / SECOND); i++) {
+            result = Math.max(result, rate[i]);
+        }
+        return result;
+    }
+
+    private static long sum(int[] rate, long from, long to) {
+        long result = 0;
+        for (int i = (int) (from / SECOND); i < (int) (to / SECOND); i++) {
+            result += rate[i];
+        }
+        return result;
+    }
+
+    /**
+     * Runs the simulation and returns the number of requests the server received per second.
+     */
+    private static int[] simulate(FakeServer server, long duration, long interval, long rolloutInterval, long idleInterval, int jitter) {
+        Random random = new Random(42L);
+
+        PriorityQueue<VirtualAgent> agents = new PriorityQueue<>(AGENTS);
+        for (int i = 0; i < AGENTS; i++) {
+            SyncSchedule schedule = new SyncSchedule(new Random(random.nextLong()));
+            schedule.configure(interval, rolloutInterval, idleInterval, 10 * MINUTE, jitter);
+
+            agents.add(new VirtualAgent(schedule, SYNC_DELAY));
+        }
+
+        int[] rate = new int[(int) (duration / SECOND)];
+        VirtualAgent agent;
+        while ((agent = agents.poll()) != null && agent.m_time < duration) {
+            rate[(int) (agent.m_time / SECOND)]++;
+
+            agent.sync(server);
+            agents.add(agent);
+        }
+        return rate;
+    }
+}
@@ -197,7 +197,8 @@ public class Activator extends DependencyActivatorBase implements SessionFactory
 
         Dictionary<String, Object> topic = new Hashtable<>();
         topic.put(SessionFactory.SERVICE_SID, sessionID);
-        topic.put(EventConstants.EVENT_FILTER, sessionFilter);
+        // audit log batch events are not session specific, but are needed to keep our stateful targets up to date...
+        topic.put(EventConstants.EVENT_FILTER, "(|" + sessionFilter + "(&(" + EventConstants.EVENT_TOPIC + "=" + LogStore.EVENT_BATCH_TOPIC + ")(" + LogStore.EVENT_PROP_LOGNAME + "=auditlog)))");
         topic.put(EventConstants.EVENT_TOPIC, new String[] {
             ArtifactObject.PRIVATE_TOPIC_ALL,
             Artifact2FeatureAssociation.PRIVATE_TOPIC_ALL,
@@ -209,7 +210,8 @@ public class Activator extends DependencyActivatorBase implements SessionFactory
             DeploymentVersionObject.PRIVATE_TOPIC_ALL,
             RepositoryAdmin.PRIVATE_TOPIC_HOLDUNTILREFRESH,
             RepositoryAdmin.PRIVATE_TOPIC_REFRESH,
-            RepositoryAdmin.PRIVATE_TOPIC_LOGIN
+            RepositoryAdmin.PRIVATE_TOPIC_LOGIN,
+            LogStore.EVENT_BATCH_TOPIC
         });
 
         StatefulTargetRepositoryImpl statefulTargetRepositoryImpl = new StatefulTargetRepositoryImpl(sessionID, repoConfig);
@@ -25,8 +25,6 @@ import org.apache.ace.client.repository.object.ArtifactObject;
 import org.apache.ace.client.repository.object.FeatureObject;
 import org.osgi.framework.InvalidSyntaxException;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-
 /**
  * Implementation class for the Artifact2FeatureAssociation. For 'what it does', see Artifact2FeatureAssociation,
  * for 'how it works', see AssociationImpl.
@@ -42,7 +40,7 @@ public class Artifact2FeatureAssociationImpl extends AssociationImpl<ArtifactObj
         super(attributes, tags, notifier, ArtifactObject.class, FeatureObject.class, artifactRepository, featureRepository, XML_NODE);
     }
 
-    public Artifact2FeatureAssociationImpl(HierarchicalStreamReader reader, ChangeNotifier notifier, ArtifactRepositoryImpl artifactRepository, FeatureRepositoryImpl featureRepository) throws InvalidSyntaxException {
+    public Artifact2FeatureAssociationImpl(HierarchicalReader reader, ChangeNotifier notifier, ArtifactRepositoryImpl artifactRepository, FeatureRepositoryImpl featureRepository) throws InvalidSyntaxException {
         super(reader, notifier, ArtifactObject.class, FeatureObject.class, null, null, artifactRepository, featureRepository, XML_NODE);
     }
 }
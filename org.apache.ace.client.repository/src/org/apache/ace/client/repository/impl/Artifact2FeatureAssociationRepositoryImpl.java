@@ -27,8 +27,6 @@ import org.apache.ace.client.repository.repository.Artifact2FeatureAssociationRe
 import org.apache.ace.client.repository.repository.RepositoryConfiguration;
 import org.osgi.framework.InvalidSyntaxException;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-
 /**
  * Implementation class for the Artifact2FeatureAssociationRepository. For 'what it does', see Artifact2FeatureAssociationRepository,
  * for 'how it works', see AssociationRepositoryImpl.
@@ -66,7 +64,7 @@ public class Artifact2FeatureAssociationRepositoryImpl extends AssociationReposi
     }
 
     @Override
-    Artifact2FeatureAssociationImpl createNewInhabitant(HierarchicalStreamReader reader) {
+    Artifact2FeatureAssociationImpl createNewInhabitant(HierarchicalReader reader) {
         try {
             return new Artifact2FeatureAssociationImpl(reader, this, m_artifactRepository, m_featureRepository);
         }
@@ -27,8 +27,6 @@ import org.apache.ace.client.repository.object.Artifact2FeatureAssociation;
 import org.apache.ace.client.repository.object.ArtifactObject;
 import org.apache.ace.client.repository.object.FeatureObject;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-
 /**
  * Implementation class for the ArtifactObject. For 'what it does', see ArtifactObject, for 'how it works', see
  * RepositoryObjectImpl.<br>
@@ -54,7 +52,7 @@ public class ArtifactObjectImpl extends RepositoryObjectImpl<ArtifactObject> imp
         m_repo = repo;
     }
 
-    ArtifactObjectImpl(HierarchicalStreamReader reader, ChangeNotifier notifier, ArtifactRepositoryImpl repo) {
+    ArtifactObjectImpl(HierarchicalReader reader, ChangeNotifier notifier, ArtifactRepositoryImpl repo) {
         super(reader, notifier, XML_NODE);
         m_repo = repo;
     }
@@ -48,8 +48,6 @@ import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.log.LogService;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-
 /**
  * Implementation class for the ArtifactRepository. For 'what it does', see ArtifactRepository, for 'how it works', see
  * ObjectRepositoryImpl.<br>
@@ -118,7 +116,7 @@ public class ArtifactRepositoryImpl extends ObjectRepositoryImpl<ArtifactObjectI
     }
 
     @Override
-    ArtifactObjectImpl createNewInhabitant(HierarchicalStreamReader reader) {
+    ArtifactObjectImpl createNewInhabitant(HierarchicalReader reader) {
         return new ArtifactObjectImpl(reader, this, this);
     }
 
@@ -32,8 +32,6 @@ import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.service.event.Event;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-
 /**
  * A basic implementation of the Association interface. Implements 'common' behavior for all associations.
  *
@@ -67,7 +65,7 @@ public class AssociationImpl<L extends RepositoryObject, R extends RepositoryObj
      * Constructor intended for deserialization. For most parameters, see below.
      * @param reader a stream reader which contains an XML representation of this object's contents.
      */
-    public AssociationImpl(HierarchicalStreamReader reader, ChangeNotifier notifier, Class<L> leftClass, Class<R> rightClass, Comparator<L> leftComparator, Comparator<R> rightComparator, ObjectRepositoryImpl<?, L> leftRepository, ObjectRepositoryImpl<?, R> rightRepository, String xmlNode) throws InvalidSyntaxException {
+    public AssociationImpl(HierarchicalReader reader, ChangeNotifier notifier, Class<L> leftClass, Class<R> rightClass, Comparator<L> leftComparator, Comparator<R> rightComparator, ObjectRepositoryImpl<?, L> leftRepository, ObjectRepositoryImpl<?, R> rightRepository, String xmlNode) throws InvalidSyntaxException {
         this(readMap(reader), notifier, leftClass, rightClass, leftRepository, rightRepository, xmlNode);
     }
 
@@ -23,9 +23,6 @@ import java.util.Map;
 
 import org.apache.ace.client.repository.object.DeploymentArtifact;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
-
 /**
  * This class is a basic implementation of DeploymentArtifact, with additional facilities for serializing this artifacts
  * with its directives.
@@ -62,7 +59,7 @@ public class DeploymentArtifactImpl implements DeploymentArtifact {
      * @param reader
      *            A stream reader for the XML representation of this object.
      */
-    public DeploymentArtifactImpl(HierarchicalStreamReader reader) {
+    public DeploymentArtifactImpl(HierarchicalReader reader) {
         reader.moveDown(); // url
         m_url = reader.getValue();
         reader.moveUp(); // deploymentArtifact
@@ -83,7 +80,7 @@ public class DeploymentArtifactImpl implements DeploymentArtifact {
     /**
      * Writes this object to an XML stream.
      */
-    public void marshal(HierarchicalStreamWriter writer) {
+    public void marshal(HierarchicalWriter writer) {
         writer.startNode(XML_NODE);
 
         writer.startNode(XML_NODE_URL);
@@ -25,9 +25,6 @@ import java.util.Map;
 import org.apache.ace.client.repository.object.DeploymentArtifact;
 import org.apache.ace.client.repository.object.DeploymentVersionObject;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
-
 /**
  * Implementation class for the DeploymentVersionObject. For 'what it does', see DeploymentVersionObject, for 'how it
  * works', see RepositoryObjectImpl.
@@ -40,7 +37,7 @@ public class DeploymentVersionObjectImpl extends RepositoryObjectImpl<Deployment
 
     private volatile DeploymentArtifact[] m_deploymentArtifacts;
 
-    DeploymentVersionObjectImpl(HierarchicalStreamReader reader, ChangeNotifier notifier) {
+    DeploymentVersionObjectImpl(HierarchicalReader reader, ChangeNotifier notifier) {
         super(reader, notifier, XML_NODE);
     }
 
@@ -105,7 +102,7 @@ public class DeploymentVersionObjectImpl extends RepositoryObjectImpl<Deployment
     }
 
     @Override
-    protected void readCustom(HierarchicalStreamReader reader) {
+    protected void readCustom(HierarchicalReader reader) {
         List<DeploymentArtifact> result = new ArrayList<>();
         reader.moveDown();
         while (reader.hasMoreChildren()) {
@@ -119,7 +116,7 @@ public class DeploymentVersionObjectImpl extends RepositoryObjectImpl<Deployment
     }
 
     @Override
-    protected void writeCustom(HierarchicalStreamWriter writer) {
+    protected void writeCustom(HierarchicalWriter writer) {
         DeploymentArtifact[] artifacts;
         synchronized (this) {
             artifacts = m_deploymentArtifacts;
@@ -35,8 +35,6 @@ import org.apache.ace.client.repository.repository.RepositoryConfiguration;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.Version;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-
 /**
  * Implementation class for the TargetRepository. For 'what it does', see TargetRepository, for 'how it works', see
  * ObjectRepositoryImpl. TODO: For now, this class reuses the functionality of ObjectRepositoryImpl. In the future, it
@@ -113,7 +111,7 @@ public class DeploymentVersionRepositoryImpl extends ObjectRepositoryImpl<Deploy
     }
 
     @Override
-    DeploymentVersionObjectImpl createNewInhabitant(HierarchicalStreamReader reader) {
+    DeploymentVersionObjectImpl createNewInhabitant(HierarchicalReader reader) {
         return new DeploymentVersionObjectImpl(reader, this);
     }
 
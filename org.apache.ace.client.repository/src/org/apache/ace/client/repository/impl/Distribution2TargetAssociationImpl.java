@@ -25,8 +25,6 @@ import org.apache.ace.client.repository.object.Distribution2TargetAssociation;
 import org.apache.ace.client.repository.object.DistributionObject;
 import org.osgi.framework.InvalidSyntaxException;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-
 /**
  * Implementation class for the Distribution2TargetAssociation. For 'what it does', see Distribution2TargetAssociation,
  * for 'how it works', see AssociationImpl.
@@ -40,7 +38,7 @@ public class Distribution2TargetAssociationImpl extends AssociationImpl<Distribu
     public Distribution2TargetAssociationImpl(Map<String, String> attributes, Map<String, String> tags, ChangeNotifier notifier, DistributionRepositoryImpl distributionRepository, TargetRepositoryImpl targetRepository) throws InvalidSyntaxException {
         super(attributes, tags, notifier, DistributionObject.class, TargetObject.class, distributionRepository, targetRepository, XML_NODE);
     }
-    public Distribution2TargetAssociationImpl(HierarchicalStreamReader reader, ChangeNotifier notifier, DistributionRepositoryImpl distributionRepository, TargetRepositoryImpl targetRepository) throws InvalidSyntaxException {
+    public Distribution2TargetAssociationImpl(HierarchicalReader reader, ChangeNotifier notifier, DistributionRepositoryImpl distributionRepository, TargetRepositoryImpl targetRepository) throws InvalidSyntaxException {
         super(reader, notifier, DistributionObject.class, TargetObject.class, null, null, distributionRepository, targetRepository, XML_NODE);
     }
 }
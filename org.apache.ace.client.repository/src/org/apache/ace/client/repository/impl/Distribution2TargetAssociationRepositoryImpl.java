@@ -27,7 +27,6 @@ import org.apache.ace.client.repository.repository.Distribution2TargetAssociatio
 import org.apache.ace.client.repository.repository.RepositoryConfiguration;
 import org.osgi.framework.InvalidSyntaxException;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
 /**
  * Implementation class for the Distribution2TargetAssociationRepository. For 'what it does', see Distribution2TargetAssociationRepository,
  * for 'how it works', see AssociationRepositoryImpl.
@@ -66,7 +65,7 @@ public class Distribution2TargetAssociationRepositoryImpl extends AssociationRep
     }
 
     @Override
-    Distribution2TargetAssociationImpl createNewInhabitant(HierarchicalStreamReader reader) {
+    Distribution2TargetAssociationImpl createNewInhabitant(HierarchicalReader reader) {
         try {
             return new Distribution2TargetAssociationImpl(reader, this, m_distributionRepository, m_targetRepository);
         }
@@ -27,8 +27,6 @@ import org.apache.ace.client.repository.object.FeatureObject;
 import org.apache.ace.client.repository.object.Distribution2TargetAssociation;
 import org.apache.ace.client.repository.object.DistributionObject;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-
 /**
  * Implementation class for the DistributionObject. For 'what it does', see DistributionObject,
  * for 'how it works', see RepositoryObjectImpl.
@@ -44,7 +42,7 @@ public class DistributionObjectImpl extends RepositoryObjectImpl<DistributionObj
         super(checkAttributes(attributes, KEY_NAME), notifier, XML_NODE);
     }
 
-    DistributionObjectImpl(HierarchicalStreamReader reader, ChangeNotifier notifier) {
+    DistributionObjectImpl(HierarchicalReader reader, ChangeNotifier notifier) {
         super(reader, notifier, XML_NODE);
     }
 
@@ -24,8 +24,6 @@ import org.apache.ace.client.repository.object.DistributionObject;
 import org.apache.ace.client.repository.repository.DistributionRepository;
 import org.apache.ace.client.repository.repository.RepositoryConfiguration;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-
 /**
  * Implementation class for the DistributionRepository. For 'what it does', see DistributionRepository,
  * for 'how it works', see ObjectRepositoryImpl.
@@ -43,7 +41,7 @@ public class DistributionRepositoryImpl extends ObjectRepositoryImpl<Distributio
     }
 
     @Override
-    DistributionObjectImpl createNewInhabitant(HierarchicalStreamReader reader) {
+    DistributionObjectImpl createNewInhabitant(HierarchicalReader reader) {
         return new DistributionObjectImpl(reader, this);
     }
 }
@@ -25,8 +25,6 @@ import org.apache.ace.client.repository.object.FeatureObject;
 import org.apache.ace.client.repository.object.DistributionObject;
 import org.osgi.framework.InvalidSyntaxException;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-
 /**
  * Implementation class for the Feature2DistributionAssociation. For 'what it does', see Feature2DistributionAssociation,
  * for 'how it works', see AssociationImpl.
@@ -40,7 +38,7 @@ public class Feature2DistributionAssociationImpl extends AssociationImpl<Feature
     public Feature2DistributionAssociationImpl(Map<String, String> attributes, Map<String, String> tags, ChangeNotifier notifier, FeatureRepositoryImpl featureRepository, DistributionRepositoryImpl distributionRepository) throws InvalidSyntaxException {
         super(attributes, tags, notifier, FeatureObject.class, DistributionObject.class, featureRepository, distributionRepository, XML_NODE);
     }
-    public Feature2DistributionAssociationImpl(HierarchicalStreamReader reader, ChangeNotifier notifier, FeatureRepositoryImpl featureRepository, DistributionRepositoryImpl distributionRepository) throws InvalidSyntaxException {
+    public Feature2DistributionAssociationImpl(HierarchicalReader reader, ChangeNotifier notifier, FeatureRepositoryImpl featureRepository, DistributionRepositoryImpl distributionRepository) throws InvalidSyntaxException {
         super(reader, notifier, FeatureObject.class, DistributionObject.class, null, null, featureRepository, distributionRepository, XML_NODE);
     }
 }
@@ -27,8 +27,6 @@ import org.apache.ace.client.repository.repository.Feature2DistributionAssociati
 import org.apache.ace.client.repository.repository.RepositoryConfiguration;
 import org.osgi.framework.InvalidSyntaxException;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-
 /**
  * Implementation class for the Feature2DistributionAssociationRepository. For 'what it does', see Feature2DistributionAssociationRepository,
  * for 'how it works', see AssociationRepositoryImpl.
@@ -66,7 +64,7 @@ public class Feature2DistributionAssociationRepositoryImpl extends AssociationRe
     }
 
     @Override
-    Feature2DistributionAssociationImpl createNewInhabitant(HierarchicalStreamReader reader) {
+    Feature2DistributionAssociationImpl createNewInhabitant(HierarchicalReader reader) {
         try {
             return new Feature2DistributionAssociationImpl(reader, this, m_featureRepository, m_distributionRepository);
         }
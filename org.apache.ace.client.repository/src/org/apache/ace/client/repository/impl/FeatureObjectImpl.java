@@ -27,8 +27,6 @@ import org.apache.ace.client.repository.object.Feature2DistributionAssociation;
 import org.apache.ace.client.repository.object.FeatureObject;
 import org.apache.ace.client.repository.object.DistributionObject;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-
 /**
  * Implementation class for the FeatureObject. For 'what it does', see FeatureObject,
  * for 'how it works', see RepositoryObjectImpl.
@@ -44,7 +42,7 @@ public class FeatureObjectImpl extends RepositoryObjectImpl<FeatureObject> imple
         super(checkAttributes(attributes, KEY_NAME), notifier, XML_NODE);
     }
 
-    FeatureObjectImpl(HierarchicalStreamReader reader, ChangeNotifier notifier) {
+    FeatureObjectImpl(HierarchicalReader reader, ChangeNotifier notifier) {
         super(reader, notifier, XML_NODE);
     }
 
@@ -24,8 +24,6 @@ import org.apache.ace.client.repository.object.FeatureObject;
 import org.apache.ace.client.repository.repository.FeatureRepository;
 import org.apache.ace.client.repository.repository.RepositoryConfiguration;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-
 /**
  * Implementation class for the FeatureRepository. For 'what it does', see FeatureRepository,
  * for 'how it works', see ObjectRepositoryImpl.
@@ -43,7 +41,7 @@ public class FeatureRepositoryImpl extends ObjectRepositoryImpl<FeatureObjectImp
     }
 
     @Override
-    FeatureObjectImpl createNewInhabitant(HierarchicalStreamReader reader) {
+    FeatureObjectImpl createNewInhabitant(HierarchicalReader reader) {
         return new FeatureObjectImpl(reader, this);
     }
 }
@@ -0,0 +1,215 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.client.repository.impl;
+
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads a tree of named nodes with textual values from an XML stream, as written by {@link HierarchicalWriter}. This
+ * reader directly pulls the XML events from a StAX parser, so no intermediate object tree is ever created. Its API
+ * resembles that of XStream's hierarchical reader: callers navigate the tree using {@link #moveDown()},
+ * {@link #moveUp()} and {@link #hasMoreChildren()}.
+ */
+final class HierarchicalReader {
+    /** The reader is positioned at the start of the current node. */
+    private static final int AT_START = 0;
+    /** The reader is positioned somewhere in the content of the current node, between its children. */
+    private static final int IN_CONTENT = 1;
+    /** The reader is positioned at the start of the next child of the current node. */
+    private static final int AT_CHILD = 2;
+    /** The reader is positioned at the end of the current node. */
+    private static final int AT_END = 3;
+
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private final XMLStreamReader m_reader;
+    private final Deque<String> m_nodes = new ArrayDeque<>();
+    private int m_state;
+    private String m_value;
+
+    /**
+     * Creates a new {@link HierarchicalReader} and moves it to the root node of the given XML stream.
+     * 
+     * @param in
+     *            the input stream to read the XML from, cannot be <code>null</code>.
+     * @throws IllegalArgumentException
+     *             in case the given stream does not contain valid XML.
+     */
+    HierarchicalReader(InputStream in) {
+        try {
+            m_reader = FACTORY.createXMLStreamReader(in);
+            m_reader.nextTag();
+            m_nodes.push(unescapeName(m_reader.getLocalName()));
+            m_state = AT_START;
+        }
+        catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Invalid repository XML!", e);
+        }
+    }
+
+    /**
+     * Reverts the escaping done by {@link HierarchicalWriter#escapeName(String)}.
+     */
+    static String unescapeName(String name) {
+        if (name.indexOf('_') < 0) {
+            return name;
+        }
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            char n = ((i + 1) < name.length()) ? name.charAt(i + 1) : 0;
+            if (c == '_' && n == '-') {
+                sb.append('$');
+                i++;
+            }
+            else if (c == '_' && n == '_') {
+                sb.append('_');
+                i++;
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        // Keys can contain colons, which should not be seen as namespace prefixes...
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return factory;
+    }
+
+    /**
+     * Closes this reader, does <em>not</em> close the underlying input stream.
+     */
+    void close() {
+        try {
+            m_reader.close();
+        }
+        catch (XMLStreamException e) {
+            // Ignore, nothing we can do about this...
+        }
+    }
+
+    /**
+     * @return the (unescaped) name of the current node.
+     */
+    String getNodeName() {
+        return m_nodes.peek();
+    }
+
+    /**
+     * @return the textual value of the current node, never <code>null</code>.
+     */
+    String getValue() {
+        if (m_state == AT_START) {
+            try {
+                m_value = m_reader.getElementText();
+                m_state = AT_END;
+            }
+            catch (XMLStreamException e) {
+                throw new IllegalArgumentException("Invalid repository XML!", e);
+            }
+        }
+        return (m_value == null) ? "" : m_value;
+    }
+
+    /**
+     * @return <code>true</code> if the current node has more child nodes to move down into, <code>false</code>
+     *         otherwise.
+     */
+    boolean hasMoreChildren() {
+        if (m_state == AT_CHILD) {
+            return true;
+        }
+        if (m_state == AT_END) {
+            return false;
+        }
+        try {
+            while (m_reader.hasNext()) {
+                int event = m_reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    m_state = AT_CHILD;
+                    return true;
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT) {
+                    m_state = AT_END;
+                    return false;
+                }
+            }
+            throw new IllegalArgumentException("Unexpected end of repository XML!");
+        }
+        catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Invalid repository XML!", e);
+        }
+    }
+
+    /**
+     * Moves down into the next child node of the current node.
+     * 
+     * @throws IllegalStateException
+     *             in case the current node has no more child nodes.
+     */
+    void moveDown() {
+        if (!hasMoreChildren()) {
+            throw new IllegalStateException("Node " + getNodeName() + " has no more children!");
+        }
+        m_nodes.push(unescapeName(m_reader.getLocalName()));
+        m_state = AT_START;
+        m_value = null;
+    }
+
+    /**
+     * Moves up to the parent of the current node, skipping any remaining content of the current node.
+     */
+    void moveUp() {
+        try {
+            if (m_state != AT_END) {
+                int depth = (m_state == AT_CHILD) ? 1 : 0;
+                while (true) {
+                    int event = m_reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        depth++;
+                    }
+                    else if (event == XMLStreamConstants.END_ELEMENT) {
+                        if (depth-- == 0) {
+                            break;
+                        }
+                    }
+                }
+            }
+            m_nodes.pop();
+            m_state = IN_CONTENT;
+            m_value = null;
+        }
+        catch (XMLStreamException e) {
+            throw new IllegalArgumentException("Invalid repository XML!", e);
+        }
+    }
+}
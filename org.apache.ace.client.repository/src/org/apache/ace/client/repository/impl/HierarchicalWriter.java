@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.client.repository.impl;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Writes a tree of named nodes with textual values as UTF-8 encoded XML into an in-memory buffer. This writer is
+ * hand-written on purpose: it does not use any reflection or intermediate object trees, and produces the same XML
+ * structure as XStream did before, so existing repositories can still be read (and vice versa).
+ */
+final class HierarchicalWriter {
+    private static final int INITIAL_SIZE = 8192;
+
+    private final Deque<String> m_nodes = new ArrayDeque<>();
+    private byte[] m_buffer;
+    private int m_count;
+
+    /**
+     * Creates a new, empty, {@link HierarchicalWriter}.
+     */
+    HierarchicalWriter() {
+        m_buffer = new byte[INITIAL_SIZE];
+    }
+
+    /**
+     * Escapes the given node name in the same way as XStream does, that is, '$' is replaced by "_-" and '_' by "__".
+     */
+    static String escapeName(String name) {
+        if (name.indexOf('_') < 0 && name.indexOf('$') < 0) {
+            return name;
+        }
+        StringBuilder sb = new StringBuilder(name.length() + 8);
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '$') {
+                sb.append("_-");
+            }
+            else if (c == '_') {
+                sb.append("__");
+            }
+            else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes the XML declaration, should be the first thing written.
+     */
+    void startDocument() {
+        writeASCII("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    }
+
+    /**
+     * Starts a new node with the given name as child of the current node.
+     */
+    void startNode(String name) {
+        String escapedName = escapeName(name);
+        m_nodes.push(escapedName);
+        write('<');
+        writeName(escapedName);
+        write('>');
+    }
+
+    /**
+     * Writes the textual value of the current node.
+     */
+    void setValue(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    writeASCII("&amp;");
+                    break;
+                case '<':
+                    writeASCII("&lt;");
+                    break;
+                case '>':
+                    writeASCII("&gt;");
+                    break;
+                case '\r':
+                    writeASCII("&#xd;");
+                    break;
+                default:
+                    i = writeChar(value, i);
+            }
+        }
+    }
+
+    /**
+     * Ends the current node.
+     */
+    void endNode() {
+        String name = m_nodes.pop();
+        write('<');
+        write('/');
+        writeName(name);
+        write('>');
+    }
+
+    /**
+     * Writes the given, already serialized, XML fragment as-is.
+     */
+    void writeRaw(byte[] fragment) {
+        ensureCapacity(fragment.length);
+        System.arraycopy(fragment, 0, m_buffer, m_count, fragment.length);
+        m_count += fragment.length;
+    }
+
+    /**
+     * @return a copy of all data written so far, never <code>null</code>.
+     */
+    byte[] toByteArray() {
+        if (!m_nodes.isEmpty()) {
+            throw new IllegalStateException("Not all nodes are ended: " + m_nodes);
+        }
+        return Arrays.copyOf(m_buffer, m_count);
+    }
+
+    /**
+     * Writes all data written so far to the given output stream, and clears this writer for reuse.
+     */
+    void flushTo(OutputStream out) throws IOException {
+        out.write(m_buffer, 0, m_count);
+        m_count = 0;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (m_count + extra > m_buffer.length) {
+            m_buffer = Arrays.copyOf(m_buffer, Math.max(m_buffer.length << 1, m_count + extra));
+        }
+    }
+
+    private void write(int b) {
+        ensureCapacity(1);
+        m_buffer[m_count++] = (byte) b;
+    }
+
+    private void writeASCII(String value) {
+        int length = value.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            m_buffer[m_count++] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * Writes the character at the given index as UTF-8, returning the index of the last character consumed.
+     */
+    private int writeChar(String value, int i) {
+        char c = value.charAt(i);
+        if (c < 0x80) {
+            write(c);
+            return i;
+        }
+        int codePoint = Character.codePointAt(value, i);
+        writeUTF8(codePoint);
+        return i + Character.charCount(codePoint) - 1;
+    }
+
+    private void writeName(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            i = writeChar(name, i);
+        }
+    }
+
+    private void writeUTF8(int codePoint) {
+        ensureCapacity(4);
+        if (codePoint < 0x800) {
+            m_buffer[m_count++] = (byte) (0xC0 | (codePoint >> 6));
+            m_buffer[m_count++] = (byte) (0x80 | (codePoint & 0x3F));
+        }
+        else if (codePoint < 0x10000) {
+            m_buffer[m_count++] = (byte) (0xE0 | (codePoint >> 12));
+            m_buffer[m_count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            m_buffer[m_count++] = (byte) (0x80 | (codePoint & 0x3F));
+        }
+        else {
+            m_buffer[m_count++] = (byte) (0xF0 | (codePoint >> 18));
+            m_buffer[m_count++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            m_buffer[m_count++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            m_buffer[m_count++] = (byte) (0x80 | (codePoint & 0x3F));
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -36,9 +37,6 @@ import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventHandler;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
-
 /**
  * A basic Object Repository, having most of the functionality that the object repositories share. The creation of new
  * inhabitants, and the deserialization of inhabitants is delegated to derived classes.
@@ -59,8 +57,11 @@ abstract class ObjectRepositoryImpl<I extends RepositoryObjectImpl<T>, T extends
     private final ChangeNotifier m_notifier;
     private final String m_xmlNode;
     private final RepositoryConfiguration m_repoConfig;
+    // incremented upon each change to this repository or one of its inhabitants
+    private final AtomicLong m_modCount = new AtomicLong();
 
     private volatile boolean m_busy = false;
+    private volatile Marshalled m_marshalled;
 
     /**
      * The main constructor for this repository.
@@ -155,25 +156,38 @@ abstract class ObjectRepositoryImpl<I extends RepositoryObjectImpl<T>, T extends
 
     /**
      * Writes this repository and its inhabitants to an XML stream. The serialization of the inhabitants will be
-     * delegated to the inhabitants themselves.
+     * delegated to the inhabitants themselves. As long as neither this repository nor any of its inhabitants changes,
+     * the XML representation of a previous call is reused instead of serializing all inhabitants again.
      * 
      * @param writer
      *            The writer to write the XML representation to.
      */
     @SuppressWarnings("unchecked")
-    public void marshal(HierarchicalStreamWriter writer) {
-        Lock readLock = m_lock.readLock();
-        readLock.lock();
-        try {
-            writer.startNode(m_xmlNode);
-            for (T inhabitant : m_repo) {
-                ((I) inhabitant).marshal(writer);
+    public void marshal(HierarchicalWriter writer) {
+        // Any change made while we're serializing will cause the next call to serialize everything again...
+        long modCount = m_modCount.get();
+
+        Marshalled marshalled = m_marshalled;
+        if (marshalled == null || marshalled.m_modCount != modCount) {
+            HierarchicalWriter repoWriter = new HierarchicalWriter();
+
+            Lock readLock = m_lock.readLock();
+            readLock.lock();
+            try {
+                repoWriter.startNode(m_xmlNode);
+                for (T inhabitant : m_repo) {
+                    ((I) inhabitant).marshal(repoWriter);
+                }
+                repoWriter.endNode();
             }
-            writer.endNode();
-        }
-        finally {
-            readLock.unlock();
+            finally {
+                readLock.unlock();
+            }
+
+            marshalled = new Marshalled(modCount, repoWriter.toByteArray());
+            m_marshalled = marshalled;
         }
+        writer.writeRaw(marshalled.m_data);
     }
 
     public void notifyChanged(String topic, Properties props) {
@@ -181,6 +195,7 @@ abstract class ObjectRepositoryImpl<I extends RepositoryObjectImpl<T>, T extends
     }
 
     public void notifyChanged(String topic, Properties props, boolean internalOnly) {
+        m_modCount.incrementAndGet();
         m_notifier.notifyChanged(topic, props, internalOnly);
     }
 
@@ -215,7 +230,7 @@ abstract class ObjectRepositoryImpl<I extends RepositoryObjectImpl<T>, T extends
      *            A reader of the XML representation.
      */
     @SuppressWarnings("unchecked")
-    public void unmarshal(HierarchicalStreamReader reader) {
+    public void unmarshal(HierarchicalReader reader) {
         Lock writeLock = m_lock.writeLock();
         writeLock.lock();
         try {
@@ -246,7 +261,7 @@ abstract class ObjectRepositoryImpl<I extends RepositoryObjectImpl<T>, T extends
      *            A reader for the XML representation.
      * @return The new inhabitant.
      */
-    abstract I createNewInhabitant(HierarchicalStreamReader reader);
+    abstract I createNewInhabitant(HierarchicalReader reader);
 
     /**
      * Creates a new inhabitant of the repository based on a map of attributes.
@@ -325,6 +340,7 @@ abstract class ObjectRepositoryImpl<I extends RepositoryObjectImpl<T>, T extends
                 ((I) object).setDeleted();
             }
             m_repo.clear();
+            m_modCount.incrementAndGet();
         }
         finally {
             writeLock.unlock();
@@ -352,5 +368,17 @@ abstract class ObjectRepositoryImpl<I extends RepositoryObjectImpl<T>, T extends
         props.put(RepositoryObject.EVENT_ENTITY, entity);
         notifyChanged(topic, props, m_busy);
     }
-}
 
+    /**
+     * Holds the XML representation of this repository, along with the modification count it was created for.
+     */
+    private static final class Marshalled {
+        final long m_modCount;
+        final byte[] m_data;
+
+        Marshalled(long modCount, byte[] data) {
+            m_modCount = modCount;
+            m_data = data;
+        }
+    }
+}
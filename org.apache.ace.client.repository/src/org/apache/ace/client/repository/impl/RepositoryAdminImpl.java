@@ -569,7 +569,9 @@ public class RepositoryAdminImpl implements RepositoryAdmin {
      */
     private CachedRepository getCachedRepositoryFromPreferences(Repository repository, Preferences repositoryPrefs) throws IOException {
         long mostRecentVersion = repositoryPrefs.getLong("version", CachedRepositoryImpl.UNCOMMITTED_VERSION);
-        return new CachedRepositoryImpl(repository, getBackupFromPreferences(repositoryPrefs), mostRecentVersion);
+        CachedRepositoryImpl result = new CachedRepositoryImpl(repository, getBackupFromPreferences(repositoryPrefs), mostRecentVersion);
+        result.setJournaled(m_repositoryConfig.isJournaledCommits());
+        return result;
     }
 
     /**
@@ -19,6 +19,7 @@
 package org.apache.ace.client.repository.impl;
 
 import static org.apache.ace.client.repository.repository.RepositoryConstants.KEY_DEPLOYMENT_VERSION_LIMITS;
+import static org.apache.ace.client.repository.repository.RepositoryConstants.KEY_JOURNALED_COMMITS;
 import static org.apache.ace.client.repository.repository.RepositoryConstants.KEY_OBR_LOCATION;
 import static org.apache.ace.client.repository.repository.RepositoryConstants.KEY_SHOW_UNREGISTERED_TARGETS;
 
@@ -41,6 +42,7 @@ import org.apache.ace.client.repository.repository.RepositoryConfiguration;
 final class RepositoryConfigurationImpl implements RepositoryConfiguration {
     private static final boolean DEFAULT_SHOW_UNREGISTERED_TARGETS = true;
     private static final int DEFAULT_DEPLOYMENT_VERSION_LIMIT = -1;
+    private static final boolean DEFAULT_JOURNALED_COMMITS = false;
     private static final URL DEFAULT_OBR_LOCATION;
 
     static {
@@ -57,6 +59,7 @@ final class RepositoryConfigurationImpl implements RepositoryConfiguration {
     private boolean m_showUnregisteredTargets;
     private int m_deploymentVersionLimit;
     private URL m_obrLocation;
+    private boolean m_journaledCommits;
 
     /**
      * Creates a new {@link RepositoryConfigurationImpl} instance.
@@ -65,6 +68,7 @@ final class RepositoryConfigurationImpl implements RepositoryConfiguration {
         m_showUnregisteredTargets = DEFAULT_SHOW_UNREGISTERED_TARGETS;
         m_deploymentVersionLimit = DEFAULT_DEPLOYMENT_VERSION_LIMIT;
         m_obrLocation = DEFAULT_OBR_LOCATION;
+        m_journaledCommits = DEFAULT_JOURNALED_COMMITS;
     }
 
     /**
@@ -74,6 +78,7 @@ final class RepositoryConfigurationImpl implements RepositoryConfiguration {
         m_showUnregisteredTargets = defaultConfig.isShowUnregisteredTargets();
         m_deploymentVersionLimit = defaultConfig.getDeploymentVersionLimit();
         m_obrLocation = defaultConfig.getOBRLocation();
+        m_journaledCommits = defaultConfig.isJournaledCommits();
     }
 
     /**
@@ -83,6 +88,7 @@ final class RepositoryConfigurationImpl implements RepositoryConfiguration {
         m_showUnregisteredTargets = parseBoolean(map.get(KEY_SHOW_UNREGISTERED_TARGETS), defaultConfig.isShowUnregisteredTargets());
         m_deploymentVersionLimit = parseInteger(map.get(KEY_DEPLOYMENT_VERSION_LIMITS), defaultConfig.getDeploymentVersionLimit());
         m_obrLocation = parseURL(map.get(KEY_OBR_LOCATION), defaultConfig.getOBRLocation());
+        m_journaledCommits = parseBoolean(map.get(KEY_JOURNALED_COMMITS), defaultConfig.isJournaledCommits());
     }
 
     @Override
@@ -109,6 +115,18 @@ final class RepositoryConfigurationImpl implements RepositoryConfiguration {
         }
     }
 
+    @Override
+    public boolean isJournaledCommits() {
+        Lock lock = m_lock.readLock();
+        lock.lock();
+        try {
+            return m_journaledCommits;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
     @Override
     public boolean isShowUnregisteredTargets() {
         Lock lock = m_lock.readLock();
@@ -142,6 +160,22 @@ final class RepositoryConfigurationImpl implements RepositoryConfiguration {
         }
     }
 
+    /**
+     * @param journaledCommits
+     *            <code>true</code> to only send the changes upon commit, <code>false</code> to send the complete
+     *            repository.
+     */
+    public void setJournaledCommits(boolean journaledCommits) {
+        Lock lock = m_lock.writeLock();
+        lock.lock();
+        try {
+            m_journaledCommits = journaledCommits;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
     /**
      * @param base
      *            the base OBR location to set, should not be <code>null</code>.
@@ -191,11 +225,13 @@ final class RepositoryConfigurationImpl implements RepositoryConfiguration {
                 m_showUnregisteredTargets = DEFAULT_SHOW_UNREGISTERED_TARGETS;
                 m_deploymentVersionLimit = DEFAULT_DEPLOYMENT_VERSION_LIMIT;
                 m_obrLocation = DEFAULT_OBR_LOCATION;
+                m_journaledCommits = DEFAULT_JOURNALED_COMMITS;
             }
             else {
                 m_showUnregisteredTargets = parseBoolean(dict.get(KEY_SHOW_UNREGISTERED_TARGETS), m_showUnregisteredTargets);
                 m_deploymentVersionLimit = parseInteger(dict.get(KEY_DEPLOYMENT_VERSION_LIMITS), m_deploymentVersionLimit);
                 m_obrLocation = parseURL(dict.get(KEY_OBR_LOCATION), m_obrLocation);
+                m_journaledCommits = parseBoolean(dict.get(KEY_JOURNALED_COMMITS), m_journaledCommits);
             }
         }
         finally {
@@ -39,9 +39,6 @@ import org.apache.ace.client.repository.RepositoryUtil;
 import org.osgi.service.event.Event;
 import org.osgi.service.event.EventHandler;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
-
 /**
  * Represents a value-object as is part of the repository.<br>
  * It stores the 'member' values of the repository object, and allows putting tags on this object by using
@@ -70,7 +67,7 @@ public class RepositoryObjectImpl<T extends RepositoryObject> extends Dictionary
         this(attributes, null, notifier, xmlNode);
     }
 
-    public RepositoryObjectImpl(HierarchicalStreamReader reader, ChangeNotifier notifier, String xmlNode) {
+    public RepositoryObjectImpl(HierarchicalReader reader, ChangeNotifier notifier, String xmlNode) {
         this(readMap(reader), readMap(reader), notifier, xmlNode);
         readCustom(reader);
     }
@@ -428,7 +425,7 @@ public class RepositoryObjectImpl<T extends RepositoryObject> extends Dictionary
         }
     }
 
-    void marshal(HierarchicalStreamWriter writer) {
+    void marshal(HierarchicalWriter writer) {
         synchronized (m_attributes) {
             writer.startNode(m_xmlNode);
             writeMap(writer, m_attributes, "attributes");
@@ -446,7 +443,7 @@ public class RepositoryObjectImpl<T extends RepositoryObject> extends Dictionary
      * @param reader
      *            A reader to read from the XML stream.
      */
-    protected void readCustom(HierarchicalStreamReader reader) {
+    protected void readCustom(HierarchicalReader reader) {
         // do nothing
     }
 
@@ -458,11 +455,11 @@ public class RepositoryObjectImpl<T extends RepositoryObject> extends Dictionary
      * @param writer
      *            A writer to write to the XML stream.
      */
-    protected void writeCustom(HierarchicalStreamWriter writer) {
+    protected void writeCustom(HierarchicalWriter writer) {
         // do nothing
     }
 
-    static void writeMap(HierarchicalStreamWriter writer, Map<String, String> entries, String name) {
+    static void writeMap(HierarchicalWriter writer, Map<String, String> entries, String name) {
         writer.startNode(name);
         for (Map.Entry<String, String> entry : entries.entrySet()) {
             if (entry.getKey() != null && entry.getValue() != null) {
@@ -475,7 +472,7 @@ public class RepositoryObjectImpl<T extends RepositoryObject> extends Dictionary
         writer.endNode();
     }
 
-    static Map<String, String> readMap(HierarchicalStreamReader reader) {
+    static Map<String, String> readMap(HierarchicalReader reader) {
         reader.moveDown();
         Map<String, String> result = new HashMap<>();
         while (reader.hasMoreChildren()) {
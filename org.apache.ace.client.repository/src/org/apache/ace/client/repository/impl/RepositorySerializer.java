@@ -18,6 +18,7 @@
  */
 package org.apache.ace.client.repository.impl;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -26,63 +27,51 @@ import java.util.Map;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.converters.Converter;
-import com.thoughtworks.xstream.converters.MarshallingContext;
-import com.thoughtworks.xstream.converters.UnmarshallingContext;
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
-
 /**
- * Helper class that takes a RepositorySet<br>
- * TODO We might move out xstream at some time in the future; before that time, it could be a smart idea to wrap
- * xstream's writer in a delegate object, so this will not require changes to the repositories and objects.
+ * Helper class that (de)serializes the repositories of a RepositorySet from and to a gzipped XML stream. Each
+ * repository is written by a {@link HierarchicalWriter} and read by a {@link HierarchicalReader}, which stream their
+ * XML directly without using any reflection or building intermediate object trees.
  */
-class RepositorySerializer implements Converter {
+class RepositorySerializer {
+    private static final String XML_NODE = "repository";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     private final Map<String, ObjectRepositoryImpl<?, ?>> m_tagToRepo = new HashMap<>();
 
     private final RepositorySet m_set;
 
-    private final XStream m_stream;
-
     RepositorySerializer(RepositorySet set) {
         m_set = set;
         for (ObjectRepositoryImpl<?, ?> repo : m_set.getRepos()) {
             m_tagToRepo.put(repo.getXmlNode(), repo);
         }
-        m_stream = new XStream();
-        m_stream.alias("repository", getClass());
-        m_stream.registerConverter(this);
-    }
-
-    public void marshal(Object target, HierarchicalStreamWriter writer, MarshallingContext context) {
-        for (ObjectRepositoryImpl<?, ?> repo : m_set.getRepos()) {
-            repo.marshal(writer);
-        }
-    }
-
-    public Object unmarshal(HierarchicalStreamReader reader, UnmarshallingContext context) {
-        while (reader.hasMoreChildren()) {
-            reader.moveDown();
-            String nodeName = reader.getNodeName();
-            ObjectRepositoryImpl<?, ?> o = m_tagToRepo.get(nodeName);
-            o.unmarshal(reader);
-            reader.moveUp();
-        }
-        return this;
-    }
-
-    public boolean canConvert(Class target) {
-        return target == getClass();
     }
 
+    /**
+     * Writes the repositories with which this RepositorySet had been initialized with to the given stream. Repositories
+     * that did not change since they were last written are not serialized again.
+     * 
+     * @param out
+     *            The output stream, will be finished but not closed.
+     */
     public void toXML(OutputStream out) throws IOException {
         for (ObjectRepositoryImpl<?, ?> repo : m_set.getRepos()) {
             repo.setBusy(true);
         }
         try {
-            GZIPOutputStream zout = new GZIPOutputStream(out);
-            m_stream.toXML(this, zout);
+            GZIPOutputStream zout = new GZIPOutputStream(out, BUFFER_SIZE);
+
+            HierarchicalWriter writer = new HierarchicalWriter();
+            writer.startDocument();
+            writer.startNode(XML_NODE);
+            writer.flushTo(zout);
+            for (ObjectRepositoryImpl<?, ?> repo : m_set.getRepos()) {
+                repo.marshal(writer);
+                writer.flushTo(zout);
+            }
+            writer.endNode();
+            writer.flushTo(zout);
+
             zout.finish();
         }
         finally {
@@ -94,7 +83,7 @@ class RepositorySerializer implements Converter {
     }
 
     /**
-     * Reads the repositories with which this RepositoryRoot had been initialized with from the given XML file.
+     * Reads the repositories with which this RepositorySet had been initialized with from the given XML file.
      * 
      * @param in
      *            The input stream.
@@ -106,12 +95,22 @@ class RepositorySerializer implements Converter {
             repo.setBusy(true);
             repo.removeAll();
         }
-        ClassLoader cl = Thread.currentThread().getContextClassLoader();
         try {
-            Thread.currentThread().setContextClassLoader(getClass().getClassLoader());
             if (in != null && in.available() > 0) {
-                in = new GZIPInputStream(in);
-                m_stream.fromXML(in, this);
+                HierarchicalReader reader = new HierarchicalReader(new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE));
+                try {
+                    while (reader.hasMoreChildren()) {
+                        reader.moveDown();
+                        ObjectRepositoryImpl<?, ?> repo = m_tagToRepo.get(reader.getNodeName());
+                        if (repo != null) {
+                            repo.unmarshal(reader);
+                        }
+                        reader.moveUp();
+                    }
+                }
+                finally {
+                    reader.close();
+                }
             }
         }
         catch (IOException e) {
@@ -120,7 +119,6 @@ class RepositorySerializer implements Converter {
             e.printStackTrace();
         }
         finally {
-            Thread.currentThread().setContextClassLoader(cl);
             // Ensure all busy flags are reset at all times...
             for (ObjectRepositoryImpl<?, ?> repo : m_set.getRepos()) {
                 repo.setBusy(false);
@@ -18,11 +18,11 @@
  */
 package org.apache.ace.client.repository.impl;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.Hashtable;
@@ -199,23 +199,10 @@ class RepositorySet {
     }
 
     void writeLocal() throws IOException {
-        final PipedInputStream input = new PipedInputStream();
-        final PipedOutputStream output = new PipedOutputStream(input);
-        new Thread(new Runnable() {
-            public void run() {
-                try {
-                	new RepositorySerializer(RepositorySet.this).toXML(output);
-                    output.flush();
-                    output.close();
-                }
-                catch (IOException e) {
-                    // There is no way to tell this to the user, but the other side will
-                    // notice that the pipe is broken.
-                }
-            }
-        }, "write(" + m_name + ")").start();
-        m_repository.writeLocal(input);
-        input.close();
+        // The serialized form is compressed, so buffering it is cheaper than piping it through a separate thread...
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new RepositorySerializer(this).toXML(output);
+        m_repository.writeLocal(new ByteArrayInputStream(output.toByteArray()));
     }
 
     void commit() throws IOException {
@@ -25,8 +25,6 @@ import org.apache.ace.client.repository.object.TargetObject;
 import org.apache.ace.client.repository.object.Distribution2TargetAssociation;
 import org.apache.ace.client.repository.object.DistributionObject;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-
 /**
  * Implementation class for the TargetObject. For 'what it does', see TargetObject,
  * for 'how it works', see RepositoryObjectImpl.
@@ -42,7 +40,7 @@ public class TargetObjectImpl extends RepositoryObjectImpl<TargetObject> impleme
         super(checkAttributes(attributes, KEY_ID), tags, notifier, XML_NODE);
     }
 
-    TargetObjectImpl(HierarchicalStreamReader reader, ChangeNotifier notifier) {
+    TargetObjectImpl(HierarchicalReader reader, ChangeNotifier notifier) {
         super(reader, notifier, XML_NODE);
         if(getAttribute(KEY_AUTO_APPROVE) == null) {
             addAttribute(KEY_AUTO_APPROVE, String.valueOf(false));
@@ -24,8 +24,6 @@ import org.apache.ace.client.repository.object.TargetObject;
 import org.apache.ace.client.repository.repository.RepositoryConfiguration;
 import org.apache.ace.client.repository.repository.TargetRepository;
 
-import com.thoughtworks.xstream.io.HierarchicalStreamReader;
-
 /**
  * Implementation class for the TargetRepository. For 'what it does', see TargetRepository,
  * for 'how it works', see ObjectRepositoryImpl.
@@ -43,7 +41,7 @@ public class TargetRepositoryImpl extends ObjectRepositoryImpl<TargetObjectImpl,
     }
 
     @Override
-    TargetObjectImpl createNewInhabitant(HierarchicalStreamReader reader) {
+    TargetObjectImpl createNewInhabitant(HierarchicalReader reader) {
         return new TargetObjectImpl(reader, this);
     }
 }
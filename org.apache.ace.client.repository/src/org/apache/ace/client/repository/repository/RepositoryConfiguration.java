@@ -47,4 +47,10 @@ public interface RepositoryConfiguration {
      */
     boolean isShowUnregisteredTargets();
 
+    /**
+     * @return <code>true</code> if only the changes should be sent to the repository server upon commit,
+     *         <code>false</code> (the default) to always send the complete repository.
+     */
+    boolean isJournaledCommits();
+
 }
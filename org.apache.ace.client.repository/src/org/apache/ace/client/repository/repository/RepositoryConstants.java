@@ -49,4 +49,12 @@ public interface RepositoryConstants {
      */
     String KEY_OBR_LOCATION = "obrlocation";
 
+    /**
+     * Configuration key for enabling journaled commits. When enabled, only the changes with respect to the previous
+     * version are sent to (and fetched from) the repository server, falling back to sending the complete repository in
+     * case the server does not support this. The value should either be a {@link Boolean} or a {@link String}
+     * containing <tt>true</tt> or <tt>false</tt> (= the default value).
+     */
+    String KEY_JOURNALED_COMMITS = "journaledcommits";
+
 }
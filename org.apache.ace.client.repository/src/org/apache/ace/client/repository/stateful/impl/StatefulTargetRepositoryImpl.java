@@ -807,6 +807,21 @@ public class StatefulTargetRepositoryImpl implements StatefulTargetRepository, E
                     }
                 }
             }
+            else if (LogStore.EVENT_BATCH_TOPIC.equals(topic)) {
+                // New audit events are stored for a target; only that target needs to be updated...
+                String id = (String) event.getProperty(LogStore.EVENT_PROP_TARGETID);
+                if (id != null) {
+                    synchronized (m_repository) {
+                        StatefulTargetObjectImpl stoi = getStatefulTargetObject(id);
+                        if (stoi != null) {
+                            stoi.updateAuditEvents(false);
+                        }
+                        else if (isShowUnregisteredTargets()) {
+                            createStateful(id);
+                        }
+                    }
+                }
+            }
             else if (!RepositoryAdmin.PRIVATE_TOPIC_LOGIN.equals(topic) && !RepositoryAdmin.PRIVATE_TOPIC_REFRESH.equals(topic)) {
                 // Something else has changed; however, the entire shop may have an influence on
                 // any target, so recheck everything that is reachable from the entity...
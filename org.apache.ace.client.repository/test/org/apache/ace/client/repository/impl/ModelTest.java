@@ -31,6 +31,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.ace.client.repository.Association;
 import org.apache.ace.client.repository.ObjectRepository;
@@ -658,6 +659,66 @@ public class ModelTest {
         assert b3.isAssociated(g2, FeatureObject.class) : "After serialization, b3 should still be associated with g2.";
     }
 
+    /**
+     * Tests that changes made after a repository is serialized are reflected in its next serialization.
+     */
+    @Test()
+    public void testSerializationAfterChange() throws Exception {
+        FeatureObject g1 = createBasicFeatureObject("feature1");
+        createBasicFeatureObject("feature2");
+
+        RepositorySet store = new RepositorySet(null, null, null, null, new ObjectRepositoryImpl[] { m_featureRepository, m_targetRepository }, null, "", true);
+        new RepositorySerializer(store).toXML(new ByteArrayOutputStream());
+
+        g1.addTag("my_tag", "a & <b>");
+        createBasicTargetObject("target1");
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        new RepositorySerializer(store).toXML(buffer);
+        initializeRepositoryAdmin();
+        store = new RepositorySet(null, null, null, null, new ObjectRepositoryImpl[] { m_featureRepository, m_targetRepository }, null, "", true);
+        new RepositorySerializer(store).fromXML(new ByteArrayInputStream(buffer.toByteArray()));
+
+        assertEquals(m_featureRepository.get().size(), 2);
+        assertEquals(m_targetRepository.get().size(), 1);
+        assertEquals(m_featureRepository.get(createLocalFilter("(name=feature1)")).get(0).getTag("my_tag"), "a & <b>");
+    }
+
+    /**
+     * Tests that repositories written by previous versions, using XStream, can still be read.
+     */
+    @Test()
+    public void testReadLegacySerialization() throws Exception {
+        String xml = "<repository>\n" +
+            "  <features>\n" +
+            "    <feature>\n" +
+            "      <attributes>\n" +
+            "        <name>feature1</name>\n" +
+            "      </attributes>\n" +
+            "      <tags>\n" +
+            "        <my__tag_-name>a &amp; b&#xd;</my__tag_-name>\n" +
+            "        <empty/>\n" +
+            "      </tags>\n" +
+            "    </feature>\n" +
+            "  </features>\n" +
+            "  <unknown><foo>bar</foo></unknown>\n" +
+            "</repository>";
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        GZIPOutputStream zout = new GZIPOutputStream(buffer);
+        zout.write(xml.getBytes("UTF-8"));
+        zout.close();
+
+        RepositorySet store = new RepositorySet(null, null, null, null, new ObjectRepositoryImpl[] { m_featureRepository }, null, "", true);
+        new RepositorySerializer(store).fromXML(new ByteArrayInputStream(buffer.toByteArray()));
+
+        assertEquals(m_featureRepository.get().size(), 1);
+        FeatureObject feature = m_featureRepository.get().get(0);
+        assertEquals(feature.getName(), "feature1");
+        assertEquals(feature.getTag("my_tag$name"), "a & b\r");
+        assertEquals(feature.getTag("empty"), "");
+    }
+
     @Test()
     public void testUnlimitedNumberOfDeploymentVersions() throws IOException {
         RepositoryConfiguration repoConfig = new RepositoryConfigurationImpl();
@@ -35,6 +35,8 @@ class BaseRepositoryHandler extends DefaultHandler {
 
     private final String m_targetID;
 
+    /** Denotes the target ID of the deployment version currently being parsed. */
+    private String m_currentTargetID;
     /** Denotes the current tag in the XML structure. */
     private XmlTag m_currentTag;
     /** Denotes the current version of the found target. */
@@ -56,7 +58,7 @@ class BaseRepositoryHandler extends DefaultHandler {
      * Creates a new {@link BaseRepositoryHandler} instance.
      * 
      * @param targetID
-     *            the target ID to search for, cannot be <code>null</code>.
+     *            the target ID to search for, or <code>null</code> to handle the deployment packages of all targets.
      */
     public BaseRepositoryHandler(String targetID) {
         m_targetID = targetID;
@@ -87,6 +89,7 @@ class BaseRepositoryHandler extends DefaultHandler {
     public void startDocument() throws SAXException {
         m_currentTag = XmlTag.unknown;
         m_currentVersion = null;
+        m_currentTargetID = null;
         m_targetFound = false;
         m_currentArtifact = null;
         m_currentDirectiveKey = null;
@@ -129,7 +132,8 @@ class BaseRepositoryHandler extends DefaultHandler {
 
         if (XmlTag.targetID.equals(m_currentTag)) {
             // verify whether we're in the DP for the requested target...
-            m_targetFound = m_targetID.equals(text);
+            m_currentTargetID = text;
+            m_targetFound = (m_targetID == null) || m_targetID.equals(text);
         }
         else if (XmlTag.version.equals(m_currentTag)) {
             // Don't assume we've got the desired version (yet)...
@@ -223,6 +227,15 @@ class BaseRepositoryHandler extends DefaultHandler {
         // NO-op
     }
 
+    /**
+     * Returns the target ID of the deployment package that is currently being parsed.
+     * 
+     * @return the current target ID, can be <code>null</code> if no target ID is parsed yet.
+     */
+    protected final String getCurrentTargetID() {
+        return m_currentTargetID;
+    }
+
     /**
      * Parses the given text as {@link Version}.
      * 
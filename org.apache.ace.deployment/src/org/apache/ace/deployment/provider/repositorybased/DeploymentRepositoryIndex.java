@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.deployment.provider.repositorybased;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.apache.ace.deployment.provider.repositorybased.BaseRepositoryHandler.XmlDeploymentArtifact;
+import org.osgi.framework.Version;
+
+/**
+ * Provides an immutable, in-memory model of a single version of the deployment repository. It maps each target ID onto
+ * its deployment versions (in ascending order) and the deployment artifacts of each of those versions, allowing both
+ * version and artifact lookups to be answered without re-parsing the repository.
+ */
+final class DeploymentRepositoryIndex {
+    /** The repository this index is created from, used to detect reconfigurations. */
+    private final Object m_source;
+    /** The version of the repository this index represents. */
+    private final long m_version;
+    private final Map<String, SortedMap<Version, List<XmlDeploymentArtifact>>> m_targets;
+    private final Map<String, List<String>> m_versions;
+
+    private DeploymentRepositoryIndex(Object source, long version, Map<String, SortedMap<Version, List<XmlDeploymentArtifact>>> targets) {
+        m_source = source;
+        m_version = version;
+        m_targets = targets;
+        m_versions = new HashMap<>();
+
+        for (Map.Entry<String, SortedMap<Version, List<XmlDeploymentArtifact>>> entry : targets.entrySet()) {
+            List<String> versions = new ArrayList<>(entry.getValue().size());
+            for (Version v : entry.getValue().keySet()) {
+                versions.add(v.toString());
+            }
+            m_versions.put(entry.getKey(), Collections.unmodifiableList(versions));
+        }
+    }
+
+    /**
+     * Creates a new index by parsing the given (uncompressed) deployment repository.
+     *
+     * @param parserFactory
+     *            the SAX parser factory to use, cannot be <code>null</code>;
+     * @param input
+     *            the input stream with the XML representation of the deployment repository, cannot be
+     *            <code>null</code>;
+     * @param source
+     *            the repository from which the input was obtained, cannot be <code>null</code>;
+     * @param version
+     *            the version of the repository from which the input was obtained.
+     * @return a new {@link DeploymentRepositoryIndex}, never <code>null</code>.
+     * @throws IllegalArgumentException
+     *             in case the given input could not be parsed.
+     */
+    static DeploymentRepositoryIndex create(SAXParserFactory parserFactory, InputStream input, Object source, long version) throws IllegalArgumentException {
+        IndexCollector collector = new IndexCollector();
+        try {
+            parserFactory.newSAXParser().parse(input, collector);
+        }
+        catch (Exception e) {
+            throw new IllegalArgumentException(e);
+        }
+        return new DeploymentRepositoryIndex(source, version, collector.m_targets);
+    }
+
+    /**
+     * Returns whether this index represents the given version of the given repository.
+     *
+     * @param source
+     *            the repository to test;
+     * @param version
+     *            the version of the repository to test.
+     * @return <code>true</code> if this index can be used for the given repository version, <code>false</code>
+     *         otherwise.
+     */
+    boolean isFor(Object source, long version) {
+        return (m_source == source) && (m_version == version);
+    }
+
+    /**
+     * Returns all deployment versions of the given target.
+     *
+     * @param targetID
+     *            the identification of the target to return the versions for.
+     * @return an ascending list with all versions, never <code>null</code>.
+     */
+    List<String> getVersions(String targetID) {
+        List<String> result = m_versions.get(targetID);
+        if (result == null) {
+            return Collections.emptyList();
+        }
+        return result;
+    }
+
+    /**
+     * Returns all deployment artifacts of the given target's deployment packages.
+     *
+     * @param targetID
+     *            the identification of the target to gather all artifacts for;
+     * @param versions
+     *            the versions of the deployment package to gather all artifacts for.
+     * @return an array with lists of all found deployment artifacts, in the same order as the given versions.
+     * @throws IllegalArgumentException
+     *             in case one of the given versions is invalid or does not exist for the given target.
+     */
+    @SuppressWarnings("unchecked")
+    List<XmlDeploymentArtifact>[] getArtifacts(String targetID, String... versions) throws IllegalArgumentException {
+        SortedMap<Version, List<XmlDeploymentArtifact>> artifacts = m_targets.get(targetID);
+
+        List<XmlDeploymentArtifact>[] result = new List[versions.length];
+        for (int i = 0; i < versions.length; i++) {
+            Version v = BaseRepositoryHandler.parseVersion(versions[i]);
+            if (Version.emptyVersion.equals(v)) {
+                throw new IllegalArgumentException("Expected real version for " + versions[i]);
+            }
+            List<XmlDeploymentArtifact> list = (artifacts == null) ? null : artifacts.get(v);
+            if (list == null) {
+                throw new IllegalArgumentException("No artifacts found for version " + v);
+            }
+            result[i] = list;
+        }
+        return result;
+    }
+
+    /**
+     * Collects the deployment versions and artifacts of all targets in a deployment repository.
+     */
+    static class IndexCollector extends BaseRepositoryHandler {
+        final Map<String, SortedMap<Version, List<XmlDeploymentArtifact>>> m_targets;
+
+        public IndexCollector() {
+            super(null /* all targets */);
+
+            m_targets = new HashMap<>();
+        }
+
+        @Override
+        protected void handleVersion(Version version) {
+            String targetID = getCurrentTargetID();
+
+            SortedMap<Version, List<XmlDeploymentArtifact>> versions = m_targets.get(targetID);
+            if (versions == null) {
+                versions = new TreeMap<>();
+                m_targets.put(targetID, versions);
+            }
+            if (!versions.containsKey(version)) {
+                versions.put(version, new ArrayList<XmlDeploymentArtifact>());
+            }
+        }
+
+        @Override
+        protected void handleArtifact(Version version, XmlDeploymentArtifact artifact) {
+            SortedMap<Version, List<XmlDeploymentArtifact>> versions = m_targets.get(getCurrentTargetID());
+            if (version != null && versions != null) {
+                List<XmlDeploymentArtifact> artifacts = versions.get(version);
+                if (artifacts != null) {
+                    artifacts.add(artifact);
+                }
+            }
+        }
+    }
+}
@@ -1,36 +0,0 @@
-/*
- * Licensed to the Apache Software Foundation (ASF) under one
- * or more contributor license agreements.  See the NOTICE file
- * distributed with this work for additional information
- * regarding copyright ownership.  The ASF licenses this file
- * to you under the Apache License, Version 2.0 (the
- * "License"); you may not use this file except in compliance
- * with the License.  You may obtain a copy of the License at
- *
- *   http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing,
- * software distributed under the License is distributed on an
- * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
- * KIND, either express or implied.  See the License for the
- * specific language governing permissions and limitations
- * under the License.
- */
-package org.apache.ace.deployment.provider.repositorybased;
-
-import java.util.LinkedHashMap;
-
-public class LRUMap<K, V> extends LinkedHashMap<K, V> {
-	private static final int INITIAL = 64;
-	private static final int MAX = 1024;
-	private static final float LOADFACTOR = 0.75f;
-
-	public LRUMap() {
-		super(INITIAL, LOADFACTOR, true);
-	}
-	
-	@Override
-	protected boolean removeEldestEntry(java.util.Map.Entry<K, V> eldest) {
-		return size() > MAX;
-	}
-}
@@ -59,7 +59,8 @@ import org.osgi.service.log.LogService;
 
 /**
  * The RepositoryBasedProvider provides version information and bundle data by the DeploymentProvider interface. It uses a
- * Repository to get its information from, which it parses using a SAX parser.
+ * Repository to get its information from, which it parses using a SAX parser. The parsed repository is kept in memory
+ * until a newer version of the repository becomes available.
  */
 public class RepositoryBasedProvider implements DeploymentProvider, ManagedService {
     private static final String URL = "url";
@@ -118,7 +119,10 @@ public class RepositoryBasedProvider implements DeploymentProvider, ManagedServi
     private volatile DependencyManager m_manager;
     
     private final SAXParserFactory m_saxParserFactory;
-    private final Map<String,List<String>> m_cachedVersionLists;
+    /** Guards the (re)creation of the repository index, to ensure we only parse the repository once per version. */
+    private final Object m_indexLock = new Object();
+    /** The index of the most recently parsed version of the repository, can be <code>null</code>. */
+    private volatile DeploymentRepositoryIndex m_index;
 
     private final AtomicInteger m_usageCounter = new AtomicInteger();
     /** Maximum number of concurrent users. Values <= 0 are used for unlimited users. */
@@ -128,7 +132,6 @@ public class RepositoryBasedProvider implements DeploymentProvider, ManagedServi
 
     public RepositoryBasedProvider() {
         m_saxParserFactory = SAXParserFactory.newInstance();
-        m_cachedVersionLists = new LRUMap<>();
     }
 
     public List<ArtifactData> getBundleData(String targetId, String version) throws OverloadedException, IllegalArgumentException, IOException {
@@ -152,7 +155,6 @@ public class RepositoryBasedProvider implements DeploymentProvider, ManagedServi
                 throw new IllegalArgumentException(nfe);
             }
 
-            InputStream input = null;
             List<ArtifactData> dataVersionTo = null;
             List<ArtifactData> dataVersionFrom = null;
 
@@ -160,28 +162,21 @@ public class RepositoryBasedProvider implements DeploymentProvider, ManagedServi
             try {
                 // ACE-240: do NOT allow local/remote repositories to be empty. If we're 
                 // asking for real artifacts, it means we must have a repository...
-                input = getRepositoryStream(true /* fail */);
+                DeploymentRepositoryIndex index = getRepositoryIndex(true /* fail */);
+                if (index == null) {
+                    throw new IllegalArgumentException("There is no deployment information available.");
+                }
                 if (versionFrom == null) {
-                    pairs = getDeploymentArtifactPairs(input, targetId, new String[] { versionTo });
+                    pairs = index.getArtifacts(targetId, versionTo);
                 }
                 else {
-                    pairs = getDeploymentArtifactPairs(input, targetId, new String[] { versionFrom, versionTo });
+                    pairs = index.getArtifacts(targetId, versionFrom, versionTo);
                 }
             }
             catch (IOException ioe) {
                 m_log.log(LogService.LOG_WARNING, "Problem parsing source version.", ioe);
                 throw ioe;
             }
-            finally {
-                if (input != null) {
-                    try {
-                        input.close();
-                    }
-                    catch (IOException e) {
-                        m_log.log(LogService.LOG_DEBUG, "Error closing stream", e);
-                    }
-                }
-            }
 
             if ((pairs != null) && (pairs.length > 1)) {
                 dataVersionFrom = getAllArtifactData(pairs[0]);
@@ -218,43 +213,18 @@ public class RepositoryBasedProvider implements DeploymentProvider, ManagedServi
                 throw new OverloadedException("Too many users, maximum allowed = " + m_maximumNumberOfUsers + ", current = " + concurrentUsers,  (concurrentUsers - m_maximumNumberOfUsers) * BACKOFF_TIME_PER_USER);
             }
 
-            // check if cache is up to date
-            if (isCacheUpToDate()) {
-                List<String> result = m_cachedVersionLists.get(targetId);
-                if (result != null) {
-                    return result;
-                }
-            }
-            else {
-                m_cachedVersionLists.clear();
-            }
-
-            List<String> stringVersionList = new ArrayList<>();
-            InputStream input = null;
+            List<String> stringVersionList = Collections.emptyList();
 
             try {
                 // ACE-240: allow local/remote repositories to be empty; as the target 
                 // might be new & unregistered, it can have no repository yet... 
-                input = getRepositoryStream(false /* fail */);
-                List<Version> versionList;
-                if (input == null) {
-                    versionList = Collections.EMPTY_LIST;
+                DeploymentRepositoryIndex index = getRepositoryIndex(false /* fail */);
+                if (index != null) {
+                    stringVersionList = index.getVersions(targetId);
                 }
-                else {
-                    versionList = getAvailableVersions(input, targetId);
-                }
-                if (versionList.isEmpty()) {
+                if (stringVersionList.isEmpty()) {
                     m_log.log(LogService.LOG_DEBUG, "No versions found for target: " + targetId);
                 }
-                else {
-                    // now sort the list of versions and convert all values to strings.
-                    Collections.sort(versionList);
-                    Iterator<Version> it = versionList.iterator();
-                    while (it.hasNext()) {
-                        String version = (it.next()).toString();
-                        stringVersionList.add(version);
-                    }
-                }
             }
             catch (IllegalArgumentException iae) {
                 // just move on.
@@ -263,20 +233,7 @@ public class RepositoryBasedProvider implements DeploymentProvider, ManagedServi
                 m_log.log(LogService.LOG_DEBUG, "Problem parsing DeploymentRepository", ioe);
                 throw ioe;
             }
-            finally {
-                if (input != null) {
-                    try {
-                        input.close();
-                    }
-                    catch (IOException e) {
-                        m_log.log(LogService.LOG_DEBUG, "Error closing stream", e);
-                    }
-                }
-            }
 
-            m_log.log(LogService.LOG_DEBUG, "Cache added for " + targetId);
-
-            m_cachedVersionLists.put(targetId, stringVersionList);
             return stringVersionList;
         }
         finally {
@@ -375,69 +332,44 @@ public class RepositoryBasedProvider implements DeploymentProvider, ManagedServi
     }
 
     /**
-     * Returns the available deployment versions for a target
-     *
-     * @param input A dom document representation of the repository
-     * @param targetId The target identifier
-     * @return A list of available versions
-     */
-    private List<Version> getAvailableVersions(InputStream input, String targetId) throws IllegalArgumentException {
-        DeploymentPackageVersionCollector collector = new DeploymentPackageVersionCollector(targetId);
-        
-        try {
-            m_saxParserFactory.newSAXParser().parse(input, collector);
-            
-            return collector.getVersions();
-        }
-        catch (Exception e) {
-            throw new IllegalArgumentException(e);
-        }
-    }
-
-    /**
-     * Helper method to retrieve urls and directives for a target-version combination.
+     * Helper to get the index of the currently used deployment repository. The index is only recreated in case a newer
+     * version of the repository is available, or the repository itself has changed.
      *
-     * @param input An input stream from which an XML representation of a deployment repository can be read.
-     * @param targetId The target identifier to be used
-     * @param versions An array of versions.
-     * @return An array of lists of URLDirectivePairs. For each version in <code>versions</code>, a separate list will be
-     *         created; the index of a version in the <code>versions</code> array is equal to the index of its result in the
-     *         result array.
-     * @throws IllegalArgumentException if the targetId or versions cannot be found in the input stream, or if
-     *         <code>input</code> does not contain an XML stream.
+     * @param fail
+     *            <code>true</code> if an exception should be thrown in case no repository data is available,
+     *            <code>false</code> to return <code>null</code> in that case.
+     * @return An index of the repository document, can be <code>null</code> if none can be found.
+     * @throws java.io.IOException
+     *             if there is a problem communicating with the local or remote repository.
      */
-    private List<XmlDeploymentArtifact>[] getDeploymentArtifactPairs(InputStream input, String targetId, String[] versions) throws IllegalArgumentException {
-        final DeploymentArtifactCollector collector = new DeploymentArtifactCollector(targetId, versions);
-        
-        try {
-            m_saxParserFactory.newSAXParser().parse(input, collector);
-
-            return collector.getArtifacts();
-        }
-        catch (Exception e) {
-            throw new IllegalArgumentException(e);
-        }
-    }
-
-    /**
-     * Helper to get an input stream to the currently used deployment repository.
-     *
-     * @return An input stream to the repository document. Will return an empty stream if none can be found.
-     * @throws java.io.IOException if there is a problem communicating with the local or remote repository.
-     */
-    private InputStream getRepositoryStream(boolean fail) throws IOException {
+    private DeploymentRepositoryIndex getRepositoryIndex(boolean fail) throws IOException {
         // cache the repositories, since we do not want them to change while we're in this method.
         CachedRepository cachedRepository = m_cachedRepository;
         Repository repository = m_directRepository;
-        InputStream result;
 
+        DeploymentRepositoryIndex index = m_index;
         if (cachedRepository != null) {
             // we can use the cached repository
-            if (cachedRepository.isCurrent()) {
-                result = cachedRepository.getLocal(fail);
+            boolean current = cachedRepository.isCurrent();
+            if (current && index != null && index.isFor(cachedRepository, cachedRepository.getMostRecentVersion())) {
+                return index;
             }
-            else {
-                result = cachedRepository.checkout(fail);
+
+            synchronized (m_indexLock) {
+                index = m_index;
+                if (current && index != null && index.isFor(cachedRepository, cachedRepository.getMostRecentVersion())) {
+                    // Another thread already updated the index...
+                    return index;
+                }
+
+                InputStream result;
+                if (current) {
+                    result = cachedRepository.getLocal(fail);
+                }
+                else {
+                    result = cachedRepository.checkout(fail);
+                }
+                return updateRepositoryIndex(result, cachedRepository, cachedRepository.getMostRecentVersion());
             }
         }
         else {
@@ -446,30 +378,56 @@ public class RepositoryBasedProvider implements DeploymentProvider, ManagedServi
             while (ri.hasNext()) {
                 resultVersion = ri.next();
             }
-            if (resultVersion != 0) {
-                result = repository.checkout(resultVersion);
-            }
-            else {
+            if (resultVersion == 0) {
                 throw new IllegalArgumentException("There is no deployment information available.");
             }
-        }
-        if (result == null) {
-        	return null;
-        }
-        else {
-        	return new GZIPInputStream(result);
+            if (index != null && index.isFor(repository, resultVersion)) {
+                return index;
+            }
+
+            synchronized (m_indexLock) {
+                index = m_index;
+                if (index != null && index.isFor(repository, resultVersion)) {
+                    // Another thread already updated the index...
+                    return index;
+                }
+                return updateRepositoryIndex(repository.checkout(resultVersion), repository, resultVersion);
+            }
         }
     }
-    
-    private boolean isCacheUpToDate() {
-        CachedRepository cachedRepository = m_cachedRepository;
+
+    /**
+     * Parses the given repository data into a new index, and makes it the current index.
+     *
+     * @param input
+     *            the (compressed) input stream to the repository document, can be <code>null</code>;
+     * @param source
+     *            the repository the input stream originates from;
+     * @param version
+     *            the version of the repository the input stream represents.
+     * @return the new index, or <code>null</code> if no input stream was given.
+     */
+    private DeploymentRepositoryIndex updateRepositoryIndex(InputStream input, Object source, long version) throws IOException {
+        if (input == null) {
+            return null;
+        }
+
         try {
-			return (cachedRepository != null && cachedRepository.isCurrent());
-		}
-        catch (IOException ioe) {
-        	m_log.log(LogService.LOG_WARNING, "Failed to check if cache is current. Assuming it's not.", ioe);
-        	return false;
-		}
+            DeploymentRepositoryIndex index = DeploymentRepositoryIndex.create(m_saxParserFactory, new GZIPInputStream(input), source, version);
+            m_index = index;
+
+            m_log.log(LogService.LOG_DEBUG, "Deployment repository index updated to version " + version);
+
+            return index;
+        }
+        finally {
+            try {
+                input.close();
+            }
+            catch (IOException e) {
+                m_log.log(LogService.LOG_DEBUG, "Error closing stream", e);
+            }
+        }
     }
 
     public void updated(Dictionary<String, ?> settings) throws ConfigurationException {
@@ -21,6 +21,7 @@ package org.apache.ace.deployment.servlet;
 import static org.apache.ace.http.HttpConstants.ACE_WHITEBOARD_CONTEXT_SELECT_FILTER;
 import static org.osgi.service.http.whiteboard.HttpWhiteboardConstants.HTTP_WHITEBOARD_CONTEXT_SELECT;
 import static org.osgi.service.http.whiteboard.HttpWhiteboardConstants.HTTP_WHITEBOARD_FILTER_PATTERN;
+import static org.osgi.service.http.whiteboard.HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_ASYNC_SUPPORTED;
 import static org.osgi.service.http.whiteboard.HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_PATTERN;
 
 import java.util.Properties;
@@ -45,6 +46,8 @@ public class Activator extends DependencyActivatorBase {
         Properties deploymentServletProps = new Properties();
         deploymentServletProps.put(HTTP_WHITEBOARD_SERVLET_PATTERN, "/deployment/*");
         deploymentServletProps.put(HTTP_WHITEBOARD_CONTEXT_SELECT, ACE_WHITEBOARD_CONTEXT_SELECT_FILTER);
+        // allows watch requests to wait for new versions without occupying a request thread...
+        deploymentServletProps.put(HTTP_WHITEBOARD_SERVLET_ASYNC_SUPPORTED, Boolean.TRUE);
         
         manager.add(createComponent()
             .setInterface(Servlet.class.getName(), deploymentServletProps)
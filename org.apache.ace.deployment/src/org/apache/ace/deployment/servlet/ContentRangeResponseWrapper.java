@@ -37,6 +37,10 @@ import javax.servlet.http.HttpServletResponseWrapper;
  * "optimization" we've added for ACE, as we do not know the content/resource length in advance, nor are willing to
  * sacrifice performance to get knowledge about this.
  * </p>
+ * <p>
+ * As the content needs to be generated up to the requested range, this wrapper is only used for deployment packages
+ * that are not available as file. Cached deployment packages are served directly by seeking to the requested range.
+ * </p>
  * 
  * @see http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.35.1
  */
@@ -104,6 +108,17 @@ public class ContentRangeResponseWrapper extends HttpServletResponseWrapper {
                 }
             }
 
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                // Only pass on the part of the given bytes that overlaps with the requested range...
+                long written = m_written.getAndAdd(len);
+                long first = Math.max(written, m_requestFirstBytePos);
+                long last = Math.min(written + len - 1L, m_requestLastBytePos);
+                if (first <= last) {
+                    delegate.write(b, off + (int) (first - written), (int) (last - first + 1L));
+                }
+            }
+
             @Override
             public void close() throws IOException {
                 delegate.close();
@@ -136,7 +151,7 @@ public class ContentRangeResponseWrapper extends HttpServletResponseWrapper {
      * @return a long array with two elements (firstBytePos and lastBytePos), or <code>null</code> if no valid Range
      *         header was found.
      */
-    private static long[] getRequestRange(HttpServletRequest request) {
+    static long[] getRequestRange(HttpServletRequest request) {
         String rangeHeader = request.getHeader("Range");
         if (rangeHeader != null) {
             Matcher rangeMatcher = RANGE_REQUEST_PATTERN.matcher(rangeHeader);
@@ -46,14 +46,16 @@ public class DefaultDeploymentProcessor implements DeploymentProcessor {
             }
         }
         finally {
+            // also close our input in case the client aborted the transfer, allowing its resources to be released...
+            closeSilently(inputStream);
             closeSilently(output);
         }
     }
 
-    private void closeSilently(Closeable output) {
+    private void closeSilently(Closeable closeable) {
         try {
-            if (output != null) {
-                output.close();
+            if (closeable != null) {
+                closeable.close();
             }
         }
         catch (IOException e) {
@@ -18,13 +18,36 @@
  */
 package org.apache.ace.deployment.servlet;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
@@ -37,6 +60,7 @@ import org.apache.ace.deployment.provider.DeploymentProvider;
 import org.apache.ace.deployment.provider.OverloadedException;
 import org.apache.ace.deployment.streamgenerator.StreamGenerator;
 import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
 import org.osgi.service.log.LogService;
 
 /**
@@ -51,13 +75,27 @@ public class DeploymentServlet extends HttpServlet {
     /** Multiplication factor for the DP size to account for slight changes in file change due to resource processors. */
     private static final double DPSIZE_FACTOR = 1.1;
 
+    /** The default and maximum time (in milliseconds) a watch request waits for a new version. */
+    private static final long DEFAULT_WATCH_TIMEOUT = 30000L;
+    private static final long MAX_WATCH_TIMEOUT = 120000L;
+    /** The interval (in milliseconds) in which pending watch requests are checked for new versions. */
+    private static final long WATCH_CHECK_INTERVAL = 1000L;
+    /** The algorithm used to derive the entity tag of spooled deployment packages from their contents. */
+    private static final String SPOOL_DIGEST_ALGORITHM = "SHA-1";
+    private static final int SPOOL_BUFFER_SIZE = 64 * 1024;
+
     public static final String CURRENT = "current";
     public static final String PROCESSOR = "processor";
     public static final String VERSIONS = "versions";
+    public static final String WATCH = "watch";
+    public static final String TIMEOUT = "timeout";
     public static final String DP_MIMETYPE = "application/vnd.osgi.dp";
     public static final String TEXT_MIMETYPE = "text/plain";
 
     private final ConcurrentMap<String, DeploymentProcessor> m_processors = new ConcurrentHashMap<>();
+    // pending watch requests, checked periodically...
+    private final Set<Watch> m_watches = Collections.newSetFromMap(new ConcurrentHashMap<Watch, Boolean>());
+    private volatile ScheduledExecutorService m_watchTimer;
 
     // injected by Dependency Manager
     private volatile LogService m_log;
@@ -87,9 +125,41 @@ public class DeploymentServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Called by Dependency Manager upon starting of this component.
+     */
+    protected void start() {
+        m_watchTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, getServletInfo() + " watcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        m_watchTimer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkWatches(false /* force */);
+            }
+        }, WATCH_CHECK_INTERVAL, WATCH_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called by Dependency Manager upon stopping of this component.
+     */
+    protected void stop() {
+        m_watchTimer.shutdownNow();
+        m_watchTimer = null;
+        // do not leave any client waiting...
+        checkWatches(true /* force */);
+    }
+
     /**
      * Responds to GET requests sent to this endpoint, the response depends on the requested path: <li>
      * http://host/endpoint/targetid/versions/ returns a list of versions available for the specified target <li>
+     * http://host/endpoint/targetid/versions/?watch=x.y.z&amp;timeout=ms returns the same list, but only after a version
+     * newer than x.y.z is available for the specified target or the timeout (30 seconds by default) has passed <li>
      * http://host/endpoint/targetid/versions/x.y.z returns a deployment package stream for the specified target and
      * version
      * 
@@ -107,7 +177,13 @@ public class DeploymentServlet extends HttpServlet {
             int numberOfElements = pathElements.length;
 
             if (numberOfElements == 3) {
-                handleVersionsRequest(targetID, response);
+                String watch = request.getParameter(WATCH);
+                if (watch != null) {
+                    handleWatchRequest(targetID, watch, request.getParameter(TIMEOUT), request, response);
+                }
+                else {
+                    handleVersionsRequest(targetID, response);
+                }
             }
             else {
                 String version = pathElements[3];
@@ -183,6 +259,20 @@ public class DeploymentServlet extends HttpServlet {
         return (long) (DPSIZE_FACTOR * dpSize);
     }
 
+    /**
+     * @return the (cached) file with the requested deployment package, or <code>null</code> if the stream generator
+     *         does not materialize deployment packages.
+     */
+    private File getDeploymentPackageFile(String targetID, String version, HttpServletRequest request, List<String> versions) throws IOException {
+        String current = request.getParameter(CURRENT);
+
+        // See getDeploymentPackageStream...
+        if (current != null && versions.contains(current)) {
+            return m_streamGenerator.getDeploymentPackageFile(targetID, current, version);
+        }
+        return m_streamGenerator.getDeploymentPackageFile(targetID, version);
+    }
+
     private InputStream getDeploymentPackageStream(String targetID, String version, HttpServletRequest request, List<String> versions) throws IOException {
         String current = request.getParameter(CURRENT);
 
@@ -242,19 +332,51 @@ public class DeploymentServlet extends HttpServlet {
         }
 
         try {
-            // Wrap response to add support for range requests
-            response = new ContentRangeResponseWrapper(request, response);
-            response.setContentType(DP_MIMETYPE);
-
             // determine the deployment processor early, as to avoid having to create a complete deployment package in
             // case of a missing/incorrect requested processor...
             DeploymentProcessor deploymentProcessor = getDeploymentProcessor(request);
 
+            File packageFile = getDeploymentPackageFile(targetID, version, request, versions);
+            FileInputStream packageInput = null;
+            if (packageFile != null) {
+                try {
+                    // Once opened, the file remains readable even if it is evicted from the cache...
+                    packageInput = new FileInputStream(packageFile);
+                }
+                catch (FileNotFoundException e) {
+                    m_log.log(LogService.LOG_DEBUG, "Deployment package " + packageFile.getName() + " evicted from cache, generating it instead.");
+                }
+            }
+            if (packageInput != null && request.getParameter(PROCESSOR) == null) {
+                // Serve the cached deployment package as-is, which allows us to directly seek to requested ranges...
+                sendDeploymentPackageFile("\"" + packageFile.getName() + "\"", packageInput, request, response);
+                return;
+            }
+            if (packageInput == null && request.getParameter(PROCESSOR) == null && ContentRangeResponseWrapper.getRequestRange(request) != null) {
+                // Without a cached deployment package, we spool it to a temporary file in order to seek to the
+                // requested range, instead of generating and sending the parts the client already has...
+                sendSpooledDeploymentPackage(getDeploymentPackageStream(targetID, version, request, versions), request, response);
+                return;
+            }
+
             // get the input stream to the deployment package...
-            InputStream inputStream = getDeploymentPackageStream(targetID, version, request, versions);
+            InputStream inputStream = packageInput;
+            try {
+                if (inputStream == null) {
+                    inputStream = getDeploymentPackageStream(targetID, version, request, versions);
+                }
 
-            // process and send back the results to the client...
-            deploymentProcessor.process(inputStream, request, response);
+                // Wrap response to add support for range requests
+                response = new ContentRangeResponseWrapper(request, response);
+                response.setContentType(DP_MIMETYPE);
+
+                // process and send back the results to the client...
+                deploymentProcessor.process(inputStream, request, response);
+            }
+            finally {
+                // make sure a generated package stops fetching artifacts, also if the client aborted the transfer...
+                tryClose(inputStream);
+            }
         }
         catch (IllegalArgumentException e) {
             throw (AceRestException) new AceRestException(HttpServletResponse.SC_BAD_REQUEST, "Request URI is invalid").initCause(e);
@@ -264,6 +386,108 @@ public class DeploymentServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Sends (a range of) a generated deployment package to the client by spooling it to a temporary file first. The
+     * entity tag of the package is derived from its contents.
+     */
+    private void sendSpooledDeploymentPackage(InputStream input, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        File spoolFile = File.createTempFile("deploymentpackage", ".tmp");
+        try {
+            MessageDigest digest = MessageDigest.getInstance(SPOOL_DIGEST_ALGORITHM);
+
+            OutputStream output = new DigestOutputStream(new FileOutputStream(spoolFile), digest);
+            try {
+                byte[] buffer = new byte[SPOOL_BUFFER_SIZE];
+                for (int count = input.read(buffer); count != -1; count = input.read(buffer)) {
+                    output.write(buffer, 0, count);
+                }
+            }
+            finally {
+                output.close();
+            }
+
+            sendDeploymentPackageFile("\"" + toHex(digest.digest()) + "\"", new FileInputStream(spoolFile), request, response);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unable to create digest for deployment package!", e);
+        }
+        finally {
+            input.close();
+            spoolFile.delete();
+        }
+    }
+
+    /**
+     * Sends (a range of) a materialized deployment package to the client, including its length and entity tag.
+     * 
+     * @param etag
+     *            the (quoted) entity tag that is unique for the contents of the deployment package;
+     * @param input
+     *            the deployment package to send, will be closed by this method.
+     */
+    private void sendDeploymentPackageFile(String etag, FileInputStream input, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        OutputStream output = null;
+        try {
+            response.setHeader("ETag", etag);
+            response.setHeader("Accept-Ranges", "bytes");
+
+            String ifNoneMatch = request.getHeader("If-None-Match");
+            if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || "*".equals(ifNoneMatch.trim()))) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            FileChannel channel = input.getChannel();
+            long instanceLength = channel.size();
+
+            long firstBytePos = 0L;
+            long lastBytePos = instanceLength - 1L;
+
+            // A range is only honoured if the client still has the same package as we have...
+            String ifRange = request.getHeader("If-Range");
+            long[] requestRange = (ifRange == null || ifRange.equals(etag)) ? ContentRangeResponseWrapper.getRequestRange(request) : null;
+            if (requestRange != null) {
+                if (requestRange[0] >= instanceLength) {
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    response.setHeader("Content-Range", "bytes */" + instanceLength);
+                    return;
+                }
+
+                firstBytePos = requestRange[0];
+                lastBytePos = Math.min(requestRange[1], instanceLength - 1L);
+
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + firstBytePos + "-" + lastBytePos + "/" + instanceLength);
+            }
+            else {
+                response.setStatus(HttpServletResponse.SC_OK);
+            }
+
+            long remaining = lastBytePos - firstBytePos + 1L;
+
+            response.setContentType(DP_MIMETYPE);
+            response.setHeader("Content-Length", Long.toString(remaining));
+
+            output = response.getOutputStream();
+
+            WritableByteChannel target = Channels.newChannel(output);
+            long position = firstBytePos;
+            while (remaining > 0L) {
+                long written = channel.transferTo(position, remaining, target);
+                if (written <= 0L) {
+                    // File was truncated behind our back?!
+                    throw new IOException("Unexpected end of deployment package " + etag);
+                }
+                position += written;
+                remaining -= written;
+            }
+        }
+        finally {
+            input.close();
+            tryClose(output);
+        }
+    }
+
     /**
      * Serve the case where requested path is like: http://host/endpoint/targetid/versions/ returns a list of versions
      * available for the specified target
@@ -294,10 +518,117 @@ public class DeploymentServlet extends HttpServlet {
         }
     }
 
-    private void tryClose(OutputStream output) {
+    /**
+     * Serve the case where requested path is like: http://host/endpoint/targetid/versions/?watch=x.y.z, which waits
+     * until a version newer than x.y.z is available for the specified target or the given timeout has passed. In both
+     * cases, the list of versions available for the specified target is returned. If supported by the container, the
+     * request is handled asynchronously, so waiting targets do not occupy a request thread.
+     */
+    private void handleWatchRequest(String targetID, String watch, String timeout, HttpServletRequest request, HttpServletResponse response) throws OverloadedException, AceRestException {
+        Version version;
+        long deadline;
         try {
-            if (output != null) {
-                output.close();
+            version = Version.parseVersion(watch);
+            long waitTime = (timeout == null) ? DEFAULT_WATCH_TIMEOUT : Long.parseLong(timeout);
+            deadline = System.currentTimeMillis() + Math.max(0L, Math.min(waitTime, MAX_WATCH_TIMEOUT));
+        }
+        catch (IllegalArgumentException e) {
+            throw new AceRestException(HttpServletResponse.SC_BAD_REQUEST, "Request URI is invalid");
+        }
+
+        ScheduledExecutorService timer = m_watchTimer;
+        if (hasNewerVersion(getVersions(targetID), version) || deadline <= System.currentTimeMillis()) {
+            handleVersionsRequest(targetID, response);
+        }
+        else if (timer != null && request.isAsyncSupported()) {
+            AsyncContext context = request.startAsync();
+            // we complete the request ourselves after the deadline...
+            context.setTimeout(0L);
+
+            Watch watchRequest = new Watch(targetID, version, deadline, context, null);
+            // forget about the watch in case the request ends in some other way, for example when the client is gone...
+            context.addListener(watchRequest);
+            m_watches.add(watchRequest);
+        }
+        else {
+            CountDownLatch latch = new CountDownLatch(1);
+            Watch watchRequest = new Watch(targetID, version, deadline, null, latch);
+            m_watches.add(watchRequest);
+            try {
+                latch.await(deadline - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                m_watches.remove(watchRequest);
+            }
+            handleVersionsRequest(targetID, response);
+        }
+    }
+
+    /**
+     * Checks all pending watches and completes those that are no longer pending. The versions of each target are
+     * retrieved only once, regardless of the number of watches for that target.
+     * 
+     * @param force
+     *            <code>true</code> to complete all pending watches, regardless of their state.
+     */
+    private void checkWatches(boolean force) {
+        Map<String, List<String>> versions = new HashMap<>();
+        long now = System.currentTimeMillis();
+        for (Watch watch : m_watches) {
+            boolean done = true;
+            try {
+                done = force || watch.isDone(now, versions);
+            }
+            catch (Exception e) {
+                m_log.log(LogService.LOG_DEBUG, "Failed to check watch for new versions!", e);
+                // try again later on...
+                done = false;
+            }
+            if (done && m_watches.remove(watch)) {
+                try {
+                    watch.complete();
+                }
+                catch (RuntimeException e) {
+                    // do not let a single (bad) watch stop all others from being checked...
+                    m_log.log(LogService.LOG_WARNING, "Failed to complete watch for new versions!", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the given list of versions contains a version newer than the given version,
+     *         <code>false</code> otherwise.
+     */
+    private static boolean hasNewerVersion(List<String> versions, Version version) {
+        for (String available : versions) {
+            try {
+                if (Version.parseVersion(available).compareTo(version) > 0) {
+                    return true;
+                }
+            }
+            catch (IllegalArgumentException e) {
+                // Ignore, not a valid version...
+            }
+        }
+        return false;
+    }
+
+    private static String toHex(byte[] data) {
+        StringBuilder sb = new StringBuilder(data.length * 2);
+        for (byte b : data) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private void tryClose(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
             }
         }
         catch (IOException e) {
@@ -328,4 +659,108 @@ public class DeploymentServlet extends HttpServlet {
         }
         return elements;
     }
+
+    /**
+     * A pending watch request for a new version of a target.
+     */
+    private final class Watch implements AsyncListener {
+        private final String m_targetID;
+        private final Version m_version;
+        private final long m_deadline;
+        private final AsyncContext m_asyncContext;
+        private final CountDownLatch m_latch;
+
+        Watch(String targetID, Version version, long deadline, AsyncContext asyncContext, CountDownLatch latch) {
+            m_targetID = targetID;
+            m_version = version;
+            m_deadline = deadline;
+            m_asyncContext = asyncContext;
+            m_latch = latch;
+        }
+
+        /**
+         * Completes this watch, by either sending back the response or waking up the waiting request thread. The
+         * response is sent by a container thread, so a slow client cannot hold up the checking of other watches.
+         */
+        void complete() {
+            if (m_latch != null) {
+                m_latch.countDown();
+                return;
+            }
+
+            m_asyncContext.start(new Runnable() {
+                @Override
+                public void run() {
+                    sendResponse();
+                }
+            });
+        }
+
+        /**
+         * Sends back the available versions of the watching target and completes the asynchronous request.
+         */
+        void sendResponse() {
+            HttpServletResponse response = (HttpServletResponse) m_asyncContext.getResponse();
+            try {
+                handleVersionsRequest(m_targetID, response);
+            }
+            catch (AceRestException e) {
+                try {
+                    e.handleAsHttpError(response);
+                }
+                catch (IOException ioe) {
+                    m_log.log(LogService.LOG_DEBUG, "Failed to send response for watch!", ioe);
+                }
+            }
+            catch (OverloadedException e) {
+                try {
+                    // sending the error commits the response, so the header must be set before...
+                    response.setHeader("Retry-After", Integer.toString(e.getBackoffTime()));
+                    response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                }
+                catch (IOException ioe) {
+                    m_log.log(LogService.LOG_DEBUG, "Failed to send response for watch!", ioe);
+                }
+            }
+            finally {
+                m_asyncContext.complete();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            m_watches.remove(this);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            m_watches.remove(this);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // nop
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            m_watches.remove(this);
+        }
+
+        /**
+         * @return <code>true</code> if a newer version is available, or the deadline has passed, <code>false</code>
+         *         otherwise.
+         */
+        boolean isDone(long now, Map<String, List<String>> versionCache) throws OverloadedException, AceRestException {
+            if (now >= m_deadline) {
+                return true;
+            }
+            List<String> versions = versionCache.get(m_targetID);
+            if (versions == null) {
+                versions = getVersions(m_targetID);
+                versionCache.put(m_targetID, versions);
+            }
+            return hasNewerVersion(versions, m_version);
+        }
+    }
 }
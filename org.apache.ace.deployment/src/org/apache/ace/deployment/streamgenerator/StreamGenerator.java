@@ -18,6 +18,7 @@
  */
 package org.apache.ace.deployment.streamgenerator;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -51,4 +52,31 @@ public interface StreamGenerator
      * @throws OverloadedException if the streamgenerator is overloaded
      */
     public InputStream getDeploymentPackage(String id, String fromVersion, String toVersion) throws OverloadedException, IOException;
+
+    /**
+     * Returns a file with the requested deployment package. The returned file should be considered read-only, and its
+     * name is unique for its contents, allowing it to be used as entity tag.
+     *
+     * @param id the ID of the package
+     * @param version the version of the package
+     * @return a file containing the deployment package, or <code>null</code> in case deployment packages are not
+     *         materialized by this stream generator.
+     * @throws java.io.IOException when the package could not be generated
+     * @throws OverloadedException if the streamgenerator is overloaded
+     */
+    public File getDeploymentPackageFile(String id, String version) throws OverloadedException, IOException;
+
+    /**
+     * Returns a file with the requested deployment fix package. The returned file should be considered read-only, and
+     * its name is unique for its contents, allowing it to be used as entity tag.
+     *
+     * @param id the ID of the package.
+     * @param fromVersion the version of the target.
+     * @param toVersion the version the target should be in after applying the package.
+     * @return a file containing the deployment fix package, or <code>null</code> in case deployment packages are not
+     *         materialized by this stream generator.
+     * @throws java.io.IOException when the package could not be generated.
+     * @throws OverloadedException if the streamgenerator is overloaded
+     */
+    public File getDeploymentPackageFile(String id, String fromVersion, String toVersion) throws OverloadedException, IOException;
 }
\ No newline at end of file
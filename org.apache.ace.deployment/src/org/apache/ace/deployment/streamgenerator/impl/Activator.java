@@ -18,18 +18,27 @@
  */
 package org.apache.ace.deployment.streamgenerator.impl;
 
+import java.util.Properties;
+
 import org.apache.ace.connectionfactory.ConnectionFactory;
 import org.apache.ace.deployment.provider.DeploymentProvider;
 import org.apache.ace.deployment.streamgenerator.StreamGenerator;
 import org.apache.felix.dm.DependencyActivatorBase;
 import org.apache.felix.dm.DependencyManager;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.service.cm.ManagedService;
+import org.osgi.service.log.LogService;
 
 public class Activator extends DependencyActivatorBase {
     @Override
     public void init(BundleContext context, DependencyManager manager) throws Exception {
+        // the configuration of the stream generator is optional, hence we do not use a configuration dependency...
+        Properties props = new Properties();
+        props.put(Constants.SERVICE_PID, StreamGeneratorImpl.PID);
+
         manager.add(createComponent()
-            .setInterface(StreamGenerator.class.getName(), null)
+            .setInterface(new String[] { StreamGenerator.class.getName(), ManagedService.class.getName() }, props)
             .setImplementation(StreamGeneratorImpl.class)
             .add(createServiceDependency()
                 .setService(DeploymentProvider.class)
@@ -39,6 +48,10 @@ public class Activator extends DependencyActivatorBase {
                 .setService(ConnectionFactory.class)
                 .setRequired(true)
             )
+            .add(createServiceDependency()
+                .setService(LogService.class)
+                .setRequired(false)
+            )
             );
     }
 
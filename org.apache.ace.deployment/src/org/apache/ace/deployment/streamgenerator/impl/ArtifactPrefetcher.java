@@ -0,0 +1,274 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.deployment.streamgenerator.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.ace.connectionfactory.ConnectionFactory;
+import org.apache.ace.deployment.provider.ArtifactData;
+
+/**
+ * Fetches the artifacts of a deployment package ahead of time, allowing several artifacts to be retrieved concurrently
+ * while the deployment package itself is generated. Artifacts are handed out in the same order as they are given.
+ * <p>
+ * At most <em>concurrency</em> artifacts are fetched ahead of the artifact that is currently consumed, each of which is kept in
+ * memory as long as it fits its share of the memory budget; larger artifacts are spooled to a temporary file.
+ * </p>
+ * <p>
+ * This class is <b>not</b> thread-safe, it is intended to be used by a single consumer.
+ * </p>
+ */
+final class ArtifactPrefetcher {
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private final ConnectionFactory m_connectionFactory;
+    private final ExecutorService m_executor;
+    private final Iterator<ArtifactData> m_artifacts;
+    private final int m_concurrency;
+    private final int m_maxMemoryPerArtifact;
+    private final ArrayDeque<Fetch> m_pending;
+
+    /**
+     * Creates a new {@link ArtifactPrefetcher} instance.
+     *
+     * @param connectionFactory
+     *            the connection factory to use for retrieving the artifacts;
+     * @param executor
+     *            the executor to fetch the artifacts with;
+     * @param artifacts
+     *            the artifacts to fetch, in the order they are consumed;
+     * @param concurrency
+     *            the maximum number of artifacts to fetch ahead, &gt; 0;
+     * @param memoryBudget
+     *            the maximum number of bytes to keep in memory for all prefetched artifacts together.
+     */
+    ArtifactPrefetcher(ConnectionFactory connectionFactory, ExecutorService executor, List<ArtifactData> artifacts, int concurrency, long memoryBudget) {
+        m_connectionFactory = connectionFactory;
+        m_executor = executor;
+        m_artifacts = artifacts.iterator();
+        m_concurrency = concurrency;
+        m_maxMemoryPerArtifact = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(0L, memoryBudget / concurrency));
+        m_pending = new ArrayDeque<>(concurrency);
+
+        schedule();
+    }
+
+    /**
+     * Returns the contents of the given artifact, which should be the next artifact of this prefetcher.
+     *
+     * @param data
+     *            the artifact to return the contents for, cannot be <code>null</code>.
+     * @return an input stream with the contents of the artifact, never <code>null</code>.
+     * @throws IOException
+     *             in case the artifact could not be retrieved.
+     */
+    InputStream open(ArtifactData data) throws IOException {
+        Fetch fetch = m_pending.poll();
+        if (fetch == null || fetch.m_data != data) {
+            throw new IllegalStateException("Artifacts not consumed in order of prefetching!");
+        }
+        try {
+            return fetch.get();
+        }
+        finally {
+            // Keep the pipeline filled...
+            schedule();
+        }
+    }
+
+    /**
+     * Cancels all outstanding fetches and releases all resources of prefetched artifacts.
+     */
+    void close() {
+        Fetch fetch;
+        while ((fetch = m_pending.poll()) != null) {
+            fetch.cancel();
+        }
+    }
+
+    private void schedule() {
+        while (m_pending.size() < m_concurrency && m_artifacts.hasNext()) {
+            Fetch fetch = new Fetch(m_artifacts.next());
+            try {
+                fetch.m_future = m_executor.submit(fetch);
+            }
+            catch (RejectedExecutionException e) {
+                // Executor is shut down, fetch the artifact when it is needed...
+            }
+            m_pending.add(fetch);
+        }
+    }
+
+    private InputStream openStream(ArtifactData data) throws IOException {
+        URLConnection conn = m_connectionFactory.createConnection(data.getUrl());
+        return conn.getInputStream();
+    }
+
+    /**
+     * Retrieves the complete contents of a single artifact.
+     */
+    private final class Fetch implements Callable<InputStream> {
+        final ArtifactData m_data;
+        volatile Future<InputStream> m_future;
+        volatile boolean m_cancelled;
+
+        Fetch(ArtifactData data) {
+            m_data = data;
+        }
+
+        @Override
+        public InputStream call() throws IOException {
+            InputStream result = fetch();
+            if (m_cancelled) {
+                // Cancelled while completing, so nobody is going to consume (and clean up) the result...
+                result.close();
+                throw new InterruptedIOException("Fetch of " + m_data.getUrl() + " cancelled");
+            }
+            return result;
+        }
+
+        private InputStream fetch() throws IOException {
+            InputStream is = openStream(m_data);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                byte[] memory = new byte[Math.min(m_maxMemoryPerArtifact, (m_data.getSize() > 0) ? (int) Math.min(m_data.getSize(), m_maxMemoryPerArtifact) : BUFFER_SIZE)];
+
+                int length = 0;
+                int count;
+                while ((count = read(is, buffer)) != -1) {
+                    if (length + count > m_maxMemoryPerArtifact) {
+                        // Does not fit in memory, spool the remainder to disk...
+                        return spool(memory, length, buffer, count, is);
+                    }
+                    if (length + count > memory.length) {
+                        byte[] tmp = new byte[(int) Math.min(m_maxMemoryPerArtifact, Math.max(length + count, 2L * memory.length))];
+                        System.arraycopy(memory, 0, tmp, 0, length);
+                        memory = tmp;
+                    }
+                    System.arraycopy(buffer, 0, memory, length, count);
+                    length += count;
+                }
+                return new ByteArrayInputStream(memory, 0, length);
+            }
+            finally {
+                is.close();
+            }
+        }
+
+        InputStream get() throws IOException {
+            Future<InputStream> future = m_future;
+            if (future == null) {
+                // Not submitted, fetch it directly...
+                return openStream(m_data);
+            }
+
+            try {
+                return future.get();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while fetching " + m_data.getUrl(), e);
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IOException("Failed to fetch " + m_data.getUrl(), cause);
+            }
+        }
+
+        void cancel() {
+            // Signal a running fetch to stop copying, it cleans up after itself...
+            m_cancelled = true;
+
+            Future<InputStream> future = m_future;
+            if (future != null && !future.cancel(true)) {
+                // Already completed, make sure we clean up any spooled data...
+                try {
+                    future.get().close();
+                }
+                catch (Exception e) {
+                    // Ignore, nothing we can do about this...
+                }
+            }
+        }
+
+        private InputStream spool(byte[] memory, int length, byte[] buffer, int count, InputStream is) throws IOException {
+            final File file = File.createTempFile("artifact", ".tmp");
+            boolean spooled = false;
+            try {
+                OutputStream os = new FileOutputStream(file);
+                try {
+                    os.write(memory, 0, length);
+                    do {
+                        os.write(buffer, 0, count);
+                    }
+                    while ((count = read(is, buffer)) != -1);
+                }
+                finally {
+                    os.close();
+                }
+
+                InputStream result = new FilterInputStream(new FileInputStream(file)) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        }
+                        finally {
+                            file.delete();
+                        }
+                    }
+                };
+                spooled = true;
+                return result;
+            }
+            finally {
+                if (!spooled) {
+                    file.delete();
+                }
+            }
+        }
+
+        private int read(InputStream is, byte[] buffer) throws IOException {
+            if (m_cancelled || Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Fetch of " + m_data.getUrl() + " cancelled");
+            }
+            return is.read(buffer);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.deployment.streamgenerator.impl;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Provides a size-bounded, on-disk cache of generated deployment packages. Each package is stored as a single file,
+ * named after the (content-based) key it is stored under. In case the total size of all cached packages exceeds the
+ * configured maximum, the least recently used packages are evicted.
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public class DeploymentPackageCache {
+    /** The extension used for all cached deployment packages. */
+    private static final String EXTENSION = ".dp";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File m_directory;
+    private final long m_maxSize;
+    /** Access-ordered map with all cached files, guarded by "this". */
+    private final LinkedHashMap<String, File> m_entries;
+    /** The sizes of all cached files as accounted for in {@link #m_size}, guarded by "this". */
+    private final Map<String, Long> m_lengths;
+    /** Used to ensure that a package is only generated once in case it is concurrently requested. */
+    private final ConcurrentMap<String, Object> m_locks;
+    /** The total size of all cached files, guarded by "this". */
+    private long m_size;
+
+    /**
+     * Creates a new {@link DeploymentPackageCache} instance.
+     *
+     * @param directory
+     *            the directory to store the deployment packages in, cannot be <code>null</code>;
+     * @param maxSize
+     *            the maximum size (in bytes) of all cached deployment packages together, &gt; 0.
+     * @throws IOException
+     *             in case the given directory could not be created.
+     */
+    public DeploymentPackageCache(File directory, long maxSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create cache directory: " + directory);
+        }
+        if (maxSize <= 0L) {
+            throw new IllegalArgumentException("Maximum cache size should be positive!");
+        }
+
+        m_directory = directory;
+        m_maxSize = maxSize;
+        m_entries = new LinkedHashMap<>(64, 0.75f, true /* accessOrder */);
+        m_lengths = new HashMap<>();
+        m_locks = new ConcurrentHashMap<>();
+
+        // Pick up any packages that were cached earlier, oldest first...
+        File[] files = directory.listFiles();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile() && name.endsWith(EXTENSION)) {
+                add(name.substring(0, name.length() - EXTENSION.length()), file);
+            }
+            else if (file.isFile()) {
+                // Remnant of an interrupted store...
+                file.delete();
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Returns the cached deployment package for the given key, creating it if needed.
+     *
+     * @param key
+     *            the key of the deployment package, should be a valid file name, cannot be <code>null</code>;
+     * @param generator
+     *            the generator to use to create the deployment package in case it is not yet cached.
+     * @return the file containing the deployment package, never <code>null</code>.
+     * @throws IOException
+     *             in case the deployment package could not be generated or stored.
+     */
+    public File get(String key, Generator generator) throws IOException {
+        File file = get(key);
+        if (file != null) {
+            return file;
+        }
+
+        Object lock = new Object();
+        Object existingLock = m_locks.putIfAbsent(key, lock);
+        if (existingLock != null) {
+            lock = existingLock;
+        }
+
+        try {
+            synchronized (lock) {
+                // Another thread could have generated it in the meantime...
+                file = get(key);
+                if (file == null) {
+                    file = store(key, generator.generate());
+                }
+                return file;
+            }
+        }
+        finally {
+            m_locks.remove(key, lock);
+        }
+    }
+
+    /**
+     * Returns the cached deployment package for the given key.
+     *
+     * @param key
+     *            the key of the deployment package, cannot be <code>null</code>.
+     * @return the file containing the deployment package, or <code>null</code> if no such package is cached.
+     */
+    public synchronized File get(String key) {
+        File file = m_entries.get(key);
+        if (file != null && !file.isFile()) {
+            // Removed behind our back...
+            remove(key);
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * @return the total size, in bytes, of all cached deployment packages.
+     */
+    public synchronized long getSize() {
+        return m_size;
+    }
+
+    /**
+     * Stores the given deployment package under the given key.
+     *
+     * @param key
+     *            the key of the deployment package;
+     * @param input
+     *            the input stream with the contents of the deployment package, will be closed by this method.
+     * @return the file containing the stored deployment package, never <code>null</code>.
+     */
+    private File store(String key, InputStream input) throws IOException {
+        File file = new File(m_directory, key + EXTENSION);
+        File tempFile = File.createTempFile(key, ".tmp", m_directory);
+
+        try {
+            OutputStream output = new FileOutputStream(tempFile);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                for (int count = input.read(buffer); count != -1; count = input.read(buffer)) {
+                    output.write(buffer, 0, count);
+                }
+            }
+            finally {
+                output.close();
+            }
+
+            if (!tempFile.renameTo(file)) {
+                file.delete();
+                if (!tempFile.renameTo(file)) {
+                    throw new IOException("Unable to store deployment package as " + file);
+                }
+            }
+        }
+        finally {
+            input.close();
+            tempFile.delete();
+        }
+
+        synchronized (this) {
+            // the file of an existing entry is replaced, so forget about its size...
+            remove(key);
+            add(key, file);
+            evict();
+        }
+        return file;
+    }
+
+    /**
+     * Adds the given file as entry for the given key, accounting for its current size.
+     */
+    private synchronized void add(String key, File file) {
+        long length = file.length();
+        m_entries.put(key, file);
+        m_lengths.put(key, length);
+        m_size += length;
+    }
+
+    /**
+     * Removes the entry for the given key, if any, subtracting the size it was accounted for with. The file itself is
+     * left untouched.
+     */
+    private synchronized void remove(String key) {
+        m_entries.remove(key);
+        Long length = m_lengths.remove(key);
+        if (length != null) {
+            m_size -= length;
+        }
+    }
+
+    /**
+     * Evicts the least recently used deployment packages until the cache fits its maximum size again. Note that the
+     * most recently used deployment package is never evicted.
+     */
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, File>> iter = m_entries.entrySet().iterator();
+        while (m_size > m_maxSize && m_entries.size() > 1 && iter.hasNext()) {
+            Map.Entry<String, File> entry = iter.next();
+            File file = entry.getValue();
+            // In case the file cannot be deleted (it is in use on some platforms), keep it around...
+            if (file.delete() || !file.exists()) {
+                iter.remove();
+                m_size -= m_lengths.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Generates the content of a deployment package that is not yet cached.
+     */
+    public static interface Generator {
+        /**
+         * @return an input stream with the contents of the deployment package, cannot be <code>null</code>.
+         */
+        InputStream generate() throws IOException;
+    }
+}
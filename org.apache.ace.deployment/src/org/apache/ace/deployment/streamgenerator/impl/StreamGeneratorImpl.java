@@ -18,13 +18,26 @@
  */
 package org.apache.ace.deployment.streamgenerator.impl;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.lang.ref.SoftReference;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Dictionary;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
 import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
@@ -35,18 +48,254 @@ import org.apache.ace.deployment.provider.ArtifactData;
 import org.apache.ace.deployment.provider.DeploymentProvider;
 import org.apache.ace.deployment.provider.OverloadedException;
 import org.apache.ace.deployment.streamgenerator.StreamGenerator;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.cm.ConfigurationException;
+import org.osgi.service.cm.ManagedService;
+import org.osgi.service.log.LogService;
 
 /**
  * Stream generator for deployment packages. Communicates with a data provider to get the meta data for the streams. Part of the
  * meta
+ * <p>
+ * Generated deployment packages can be materialized in an on-disk cache (see {@link DeploymentPackageCache}), keyed by
+ * a digest of their manifest and artifacts, so repeated requests for the same package can be served as a plain file.
+ * As a package is completely generated before it can be served from the cache, and its manifest is specific to a single
+ * target, the cache is disabled by default. It mainly pays off for targets that often resume their downloads.
+ * </p>
+ * <p>
+ * While a deployment package is generated, the next couple of artifacts are fetched concurrently (see
+ * {@link ArtifactPrefetcher}), so the time needed to generate a package approaches the time needed to fetch its slowest
+ * artifact instead of the time needed to fetch all of its artifacts.
+ * </p>
  */
-public class StreamGeneratorImpl implements StreamGenerator {
+public class StreamGeneratorImpl implements StreamGenerator, ManagedService {
+    /** The PID used to (optionally) configure the deployment package cache. */
+    public static final String PID = "org.apache.ace.deployment.streamgenerator";
+    /** Configuration key for the directory to store cached deployment packages in. */
+    public static final String KEY_CACHE_DIR = "cache.dir";
+    /** Configuration key for the maximum size (in MB) of the deployment package cache, defaults to 0 (no caching). */
+    public static final String KEY_CACHE_SIZE = "cache.size";
+    /** Configuration key for the number of artifacts to fetch concurrently per package, use 0 to disable prefetching. */
+    public static final String KEY_PREFETCH_CONCURRENCY = "prefetch.concurrency";
+    /** Configuration key for the amount of memory (in MB) each package may use to keep prefetched artifacts in. */
+    public static final String KEY_PREFETCH_MEMORY = "prefetch.memory";
+    /** Configuration key for the total number of threads used to prefetch artifacts. */
+    public static final String KEY_PREFETCH_THREADS = "prefetch.threads";
+
+    private static final String DEFAULT_CACHE_DIR = "packages";
+    private static final long DEFAULT_CACHE_SIZE = 0L; // MB, disabled
+    private static final long DEFAULT_PREFETCH_CONCURRENCY = 4L;
+    private static final long DEFAULT_PREFETCH_MEMORY = 16L; // MB
+    private static final long DEFAULT_PREFETCH_THREADS = 16L;
+
     private volatile DeploymentProvider m_provider;
     private volatile ConnectionFactory m_connectionFactory;
+    private volatile BundleContext m_context;
+    private volatile LogService m_log;
+
+    private volatile DeploymentPackageCache m_cache;
+    private volatile boolean m_configured;
+
+    private volatile int m_prefetchConcurrency = (int) DEFAULT_PREFETCH_CONCURRENCY;
+    private volatile long m_prefetchMemory = DEFAULT_PREFETCH_MEMORY * 1024L * 1024L;
+    private volatile int m_prefetchThreads = (int) DEFAULT_PREFETCH_THREADS;
+    /** The executor used for prefetching artifacts, only available while this component is started. */
+    private volatile ExecutorService m_executor;
+
+    /**
+     * Called by Dependency Manager upon start of this component.
+     */
+    protected void start() throws IOException {
+        if (!m_configured) {
+            m_cache = createCache(null, DEFAULT_CACHE_SIZE);
+        }
+        m_executor = createExecutor(m_prefetchThreads);
+    }
+
+    /**
+     * Called by Dependency Manager upon stop of this component.
+     */
+    protected void stop() {
+        ExecutorService executor = m_executor;
+        m_executor = null;
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Override
+    public void updated(Dictionary<String, ?> settings) throws ConfigurationException {
+        String dir = null;
+        long size = DEFAULT_CACHE_SIZE;
+        long concurrency = DEFAULT_PREFETCH_CONCURRENCY;
+        long memory = DEFAULT_PREFETCH_MEMORY;
+        long threads = DEFAULT_PREFETCH_THREADS;
+
+        if (settings != null) {
+            dir = (String) settings.get(KEY_CACHE_DIR);
+            size = getLong(settings, KEY_CACHE_SIZE, DEFAULT_CACHE_SIZE, 0L);
+            concurrency = getLong(settings, KEY_PREFETCH_CONCURRENCY, DEFAULT_PREFETCH_CONCURRENCY, 0L);
+            memory = getLong(settings, KEY_PREFETCH_MEMORY, DEFAULT_PREFETCH_MEMORY, 0L);
+            threads = getLong(settings, KEY_PREFETCH_THREADS, DEFAULT_PREFETCH_THREADS, 1L);
+        }
+
+        try {
+            m_cache = createCache(dir, size);
+            m_configured = true;
+        }
+        catch (IOException e) {
+            throw new ConfigurationException(KEY_CACHE_DIR, "Unable to create cache directory.", e);
+        }
+
+        m_prefetchConcurrency = (int) Math.min(concurrency, Integer.MAX_VALUE);
+        m_prefetchMemory = memory * 1024L * 1024L;
+        if (m_prefetchThreads != threads) {
+            m_prefetchThreads = (int) Math.min(threads, Integer.MAX_VALUE);
+
+            ExecutorService executor = m_executor;
+            if (executor != null) {
+                // Replace the running executor, any pending fetches of the old one will still complete...
+                m_executor = createExecutor(m_prefetchThreads);
+                executor.shutdown();
+            }
+        }
+    }
 
     @Override
     public InputStream getDeploymentPackage(String id, String version) throws OverloadedException, IOException {
         List<ArtifactData> data = m_provider.getBundleData(id, version);
+        Manifest manifest = createManifest(id, version, data);
+
+        return createStream(manifest, data, false);
+    }
+
+    @Override
+    public InputStream getDeploymentPackage(String id, String fromVersion, String toVersion) throws OverloadedException, IOException {
+        List<ArtifactData> data = m_provider.getBundleData(id, fromVersion, toVersion);
+        Manifest manifest = createManifest(id, fromVersion, toVersion, data);
+
+        return createStream(manifest, data, true);
+    }
+
+    @Override
+    public File getDeploymentPackageFile(String id, String version) throws OverloadedException, IOException {
+        DeploymentPackageCache cache = m_cache;
+        if (cache == null) {
+            return null;
+        }
+
+        final List<ArtifactData> data = m_provider.getBundleData(id, version);
+        final Manifest manifest = createManifest(id, version, data);
+
+        return cache.get(getCacheKey(manifest, data, false), new DeploymentPackageCache.Generator() {
+            @Override
+            public InputStream generate() throws IOException {
+                return createStream(manifest, data, false);
+            }
+        });
+    }
+
+    @Override
+    public File getDeploymentPackageFile(String id, String fromVersion, String toVersion) throws OverloadedException, IOException {
+        DeploymentPackageCache cache = m_cache;
+        if (cache == null) {
+            return null;
+        }
+
+        final List<ArtifactData> data = m_provider.getBundleData(id, fromVersion, toVersion);
+        final Manifest manifest = createManifest(id, fromVersion, toVersion, data);
+
+        return cache.get(getCacheKey(manifest, data, true), new DeploymentPackageCache.Generator() {
+            @Override
+            public InputStream generate() throws IOException {
+                return createStream(manifest, data, true);
+            }
+        });
+    }
+
+    /**
+     * Creates a stream with the contents of a deployment package, prefetching its artifacts if possible.
+     */
+    private InputStream createStream(Manifest manifest, List<ArtifactData> data, boolean fixPack) throws IOException {
+        // Only the changed artifacts are included in a fix-package...
+        List<ArtifactData> included = new ArrayList<>(data.size());
+        for (ArtifactData bd : data) {
+            if (!fixPack || bd.hasChanged()) {
+                included.add(bd);
+            }
+        }
+
+        ArtifactPrefetcher prefetcher = null;
+        ExecutorService executor = m_executor;
+        int concurrency = m_prefetchConcurrency;
+        if (executor != null && concurrency > 0 && included.size() > 1) {
+            prefetcher = new ArtifactPrefetcher(m_connectionFactory, executor, included, concurrency, m_prefetchMemory);
+        }
+
+        return DeploymentPackageStream.createStreamForThread(m_connectionFactory, prefetcher, manifest, included.iterator());
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger m_count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Artifact prefetcher #" + m_count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private static long getLong(Dictionary<String, ?> settings, String key, long defaultValue, long minValue) throws ConfigurationException {
+        Object value = settings.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+
+        long result;
+        try {
+            result = Long.parseLong(value.toString().trim());
+        }
+        catch (NumberFormatException e) {
+            throw new ConfigurationException(key, "Invalid value, not a number.", e);
+        }
+        if (result < minValue) {
+            throw new ConfigurationException(key, "Invalid value, should be at least " + minValue + ".");
+        }
+        return result;
+    }
+
+    private DeploymentPackageCache createCache(String dir, long size) throws IOException {
+        if (size == 0L) {
+            return null;
+        }
+
+        File cacheDir;
+        if (dir != null && !"".equals(dir.trim())) {
+            cacheDir = new File(dir.trim());
+        }
+        else {
+            BundleContext context = m_context;
+            cacheDir = (context == null) ? null : context.getDataFile(DEFAULT_CACHE_DIR);
+        }
+        if (cacheDir == null) {
+            // No place to store our cache...
+            return null;
+        }
+
+        DeploymentPackageCache cache = new DeploymentPackageCache(cacheDir, size * 1024L * 1024L);
+        if (m_log != null) {
+            m_log.log(LogService.LOG_DEBUG, "Caching deployment packages in " + cacheDir + " (max. " + size + " MB)");
+        }
+        return cache;
+    }
+
+    /**
+     * Creates a manifest for a complete deployment package.
+     */
+    private static Manifest createManifest(String id, String version, List<ArtifactData> data) {
         Manifest manifest = new Manifest();
         Attributes main = manifest.getMainAttributes();
 
@@ -60,14 +309,13 @@ public class StreamGeneratorImpl implements StreamGenerator {
         for (ArtifactData bd : data) {
             manifest.getEntries().put(bd.getFilename(), bd.getManifestAttributes(false));
         }
-
-        return DeploymentPackageStream.createStreamForThread(m_connectionFactory, manifest, data.iterator(), false);
+        return manifest;
     }
 
-    @Override
-    public InputStream getDeploymentPackage(String id, String fromVersion, String toVersion) throws OverloadedException, IOException {
-        //return execute(new WorkerFixPackage(id, fromVersion, toVersion));
-        List<ArtifactData> data = m_provider.getBundleData(id, fromVersion, toVersion);
+    /**
+     * Creates a manifest for a deployment fix-package.
+     */
+    private static Manifest createManifest(String id, String fromVersion, String toVersion, List<ArtifactData> data) {
         Manifest manifest = new Manifest();
         Attributes main = manifest.getMainAttributes();
 
@@ -79,10 +327,65 @@ public class StreamGeneratorImpl implements StreamGenerator {
         for (ArtifactData bd : data) {
             manifest.getEntries().put(bd.getFilename(), bd.getManifestAttributes(true));
         }
+        return manifest;
+    }
+
+    /**
+     * Calculates the key under which a deployment package is cached, which is a digest over all manifest headers and
+     * the locations of all artifacts that are included in the package.
+     */
+    static String getCacheKey(Manifest manifest, List<ArtifactData> data, boolean fixPack) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not supported?!", e);
+        }
+
+        // Use a canonical (sorted) representation of the manifest, as its entries are kept in hash maps...
+        update(digest, manifest.getMainAttributes());
+        SortedMap<String, Attributes> entries = new TreeMap<>(manifest.getEntries());
+        for (Map.Entry<String, Attributes> entry : entries.entrySet()) {
+            update(digest, "Name", entry.getKey());
+            update(digest, entry.getValue());
+        }
+        for (ArtifactData bd : data) {
+            if (!fixPack || bd.hasChanged()) {
+                update(digest, bd.getUrl().toExternalForm(), Long.toString(bd.getSize()));
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private static void update(MessageDigest digest, Attributes attributes) {
+        SortedMap<String, String> sorted = new TreeMap<>();
+        for (Map.Entry<Object, Object> entry : attributes.entrySet()) {
+            sorted.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+        }
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            update(digest, entry.getKey(), entry.getValue());
+        }
+        digest.update((byte) 0);
+    }
 
-        return DeploymentPackageStream.createStreamForThread(m_connectionFactory, manifest, data.iterator(), true);
+    private static void update(MessageDigest digest, String key, String value) {
+        digest.update(key.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '=');
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) '\n');
     }
 
+    /**
+     * Provides the actual deployment package as stream. The JAR is generated on demand: each time the internal buffer is
+     * drained, the next chunk of the current artifact is read and written (compressed) into the buffer again. All data
+     * is moved through this stream using bulk array copies.
+     */
     private static final class DeploymentPackageStream extends InputStream {
         private byte[] m_readBuffer;
         private byte[] m_buffer;
@@ -91,24 +394,33 @@ public class StreamGeneratorImpl implements StreamGenerator {
         private InputStream m_current = null;
         private int m_pos = 0;
         private int m_max = 0;
-        private boolean m_fixPack;
-        
+        private ConnectionFactory m_connectionFactory;
+        private ArtifactPrefetcher m_prefetcher;
+
         private final OutputBuffer m_outputBuffer = new OutputBuffer(this);
-        private final ConnectionFactory m_connectionFactory;
 
-        private DeploymentPackageStream(ConnectionFactory connectionFactory) {
-            this(connectionFactory, 64 * 1024);
+        private DeploymentPackageStream() {
+            this(64 * 1024);
         }
 
-        private DeploymentPackageStream(ConnectionFactory connectionFactory, int bufferSize) {
-            m_connectionFactory = connectionFactory;
+        private DeploymentPackageStream(int bufferSize) {
             m_buffer = new byte[bufferSize];
             m_readBuffer = new byte[bufferSize];
         }
 
         private static final ThreadLocal<SoftReference<DeploymentPackageStream>> m_cache = new ThreadLocal<>();
 
-        static DeploymentPackageStream createStreamForThread(ConnectionFactory connectionFactory, Manifest man, Iterator<ArtifactData> iter, boolean fixpack) throws IOException {
+        /**
+         * @param connectionFactory
+         *            the connection factory to retrieve artifacts with;
+         * @param prefetcher
+         *            the prefetcher for the given artifacts, can be <code>null</code> to retrieve them one by one;
+         * @param man
+         *            the manifest of the deployment package;
+         * @param iter
+         *            the artifacts to include in the deployment package.
+         */
+        static DeploymentPackageStream createStreamForThread(ConnectionFactory connectionFactory, ArtifactPrefetcher prefetcher, Manifest man, Iterator<ArtifactData> iter) throws IOException {
             SoftReference<DeploymentPackageStream> ref = m_cache.get();
             DeploymentPackageStream dps = null;
             if (ref != null) {
@@ -116,31 +428,38 @@ public class StreamGeneratorImpl implements StreamGenerator {
             }
 
             if (dps == null) {
-                dps = new DeploymentPackageStream(connectionFactory);
+                dps = new DeploymentPackageStream();
                 m_cache.set(new SoftReference<>(dps));
             }
 
             if (dps.isInUse()) {
-                dps = new DeploymentPackageStream(connectionFactory);
+                dps = new DeploymentPackageStream();
             }
 
-            dps.init(man, iter, fixpack);
+            dps.init(connectionFactory, prefetcher, man, iter);
 
             return dps;
         }
 
         private boolean isInUse() {
-            return m_output == null;
+            return m_iter != null;
         }
 
-        private void init(Manifest man, Iterator<ArtifactData> iter, boolean fixPack) throws IOException {
+        private void init(ConnectionFactory connectionFactory, ArtifactPrefetcher prefetcher, Manifest man, Iterator<ArtifactData> iter) throws IOException {
             m_max = 0;
             m_pos = 0;
-            m_output = new JarOutputStream(m_outputBuffer, man);
-            m_output.flush();
+            m_connectionFactory = connectionFactory;
+            m_prefetcher = prefetcher;
             m_iter = iter;
-            m_fixPack = fixPack;
-            next();
+            try {
+                m_output = new JarOutputStream(m_outputBuffer, man);
+                m_output.flush();
+                next();
+            }
+            catch (IOException e) {
+                close();
+                throw e;
+            }
         }
 
         private void next() throws IOException {
@@ -148,23 +467,63 @@ public class StreamGeneratorImpl implements StreamGenerator {
 
             if (current == null) {
                 m_output.close();
+                releasePrefetcher();
             }
-            else if (!m_fixPack || current.hasChanged()) {
+            else {
                 m_current = openStream(current);
                 m_output.putNextEntry(new ZipEntry(current.getFilename()));
             }
-            else {
-                next();
-            }
         }
 
         private InputStream openStream(ArtifactData data) throws IOException {
+            if (m_prefetcher != null) {
+                return m_prefetcher.open(data);
+            }
             URLConnection conn = m_connectionFactory.createConnection(data.getUrl());
             return conn.getInputStream();
         }
 
+        private void releasePrefetcher() {
+            if (m_prefetcher != null) {
+                m_prefetcher.close();
+                m_prefetcher = null;
+            }
+        }
+
+        @Override
+        public int available() {
+            return m_max - m_pos;
+        }
+
         @Override
         public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return m_buffer[m_pos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, m_max - m_pos);
+            System.arraycopy(m_buffer, m_pos, b, off, count);
+            m_pos += count;
+            return count;
+        }
+
+        /**
+         * Ensures there is data available in our buffer, reading the next chunk of the current artifact if needed.
+         * 
+         * @return <code>true</code> if there is data available, <code>false</code> if the end of the stream is
+         *         reached.
+         */
+        private boolean fill() throws IOException {
             while (m_pos == m_max) {
                 if (m_current == null) {
                     if (m_output != null) {
@@ -172,7 +531,7 @@ public class StreamGeneratorImpl implements StreamGenerator {
                     }
                     m_output = null;
                     m_iter = null;
-                    return -1;
+                    return false;
                 }
                 m_pos = 0;
                 m_max = 0;
@@ -194,17 +553,27 @@ public class StreamGeneratorImpl implements StreamGenerator {
                     next();
                 }
             }
-
-            return m_buffer[m_pos++] & 0xFF;
+            return true;
         }
 
         void write(int b) {
-            if (m_max == m_buffer.length) {
-                byte[] tmp = new byte[m_buffer.length + 8192];
-                System.arraycopy(m_buffer, 0, tmp, 0, m_buffer.length);
+            ensureCapacity(m_max + 1);
+            m_buffer[m_max++] = (byte) b;
+        }
+
+        void write(byte[] b, int off, int len) {
+            ensureCapacity(m_max + len);
+            System.arraycopy(b, off, m_buffer, m_max, len);
+            m_max += len;
+        }
+
+        private void ensureCapacity(int required) {
+            if (required > m_buffer.length) {
+                // Only happens in case the compressed data does not fit, which should be rare...
+                byte[] tmp = new byte[Math.max(required, m_buffer.length + (m_buffer.length >> 1))];
+                System.arraycopy(m_buffer, 0, tmp, 0, m_max);
                 m_buffer = tmp;
             }
-            m_buffer[m_max++] = (byte) b;
         }
 
         @Override
@@ -227,6 +596,8 @@ public class StreamGeneratorImpl implements StreamGenerator {
                     // Not much we can do
                 }
             }
+            releasePrefetcher();
+            m_connectionFactory = null;
             m_iter = null;
         }
 
@@ -241,6 +612,11 @@ public class StreamGeneratorImpl implements StreamGenerator {
             public void write(int b) {
                 m_stream.write(b);
             }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                m_stream.write(b, off, len);
+            }
         }
     }
 }
\ No newline at end of file
@@ -27,7 +27,6 @@ import java.util.List;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
@@ -39,7 +38,6 @@ import javax.xml.transform.stream.StreamResult;
 
 import org.apache.ace.deployment.provider.repositorybased.BaseRepositoryHandler.XmlDeploymentArtifact;
 import org.osgi.framework.Constants;
-import org.osgi.framework.Version;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 import org.w3c.dom.Document;
@@ -47,7 +45,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 
 /**
- * Test cases for {@link BaseRepositoryHandler}.
+ * Test cases for {@link BaseRepositoryHandler} and {@link DeploymentRepositoryIndex}.
  */
 public class BaseRepositoryHandlerTest {
 
@@ -82,16 +80,14 @@ public class BaseRepositoryHandlerTest {
 
     public static final String MIMETYPE = "application/vnd.osgi.bundle";
 
-    private InputStream m_inputStream;
-    private SAXParser m_parser;
+    private DeploymentRepositoryIndex m_index;
 
     @BeforeMethod(alwaysRun = true)
     protected void setUp() throws Exception {
-        SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-        m_parser = saxParserFactory.newSAXParser();
-
         String xml = generateValidTestXml();
-        m_inputStream = new ByteArrayInputStream(xml.getBytes());
+        InputStream inputStream = new ByteArrayInputStream(xml.getBytes());
+
+        m_index = DeploymentRepositoryIndex.create(SAXParserFactory.newInstance(), inputStream, this, 1L);
     }
 
     /**
@@ -102,14 +98,10 @@ public class BaseRepositoryHandlerTest {
      */
     @Test()
     public void testGatherSingleVersionOk() throws Exception {
-        DeploymentPackageVersionCollector handler = new DeploymentPackageVersionCollector(TARGET);
-
-        m_parser.parse(m_inputStream, handler);
-
-        List<Version> versions = handler.getVersions();
+        List<String> versions = m_index.getVersions(TARGET);
         assert versions.size() == 1 : "Expected a single version to be found!";
 
-        assert Version.parseVersion(VERSION1).equals(versions.get(0)) : "Expected version1 to be found!";
+        assert VERSION1.equals(versions.get(0)) : "Expected version1 to be found!";
     }
 
     /**
@@ -120,11 +112,7 @@ public class BaseRepositoryHandlerTest {
      */
     @Test()
     public void testGatherSingleArtifactOk() throws Exception {
-        DeploymentArtifactCollector handler = new DeploymentArtifactCollector(TARGET, VERSION1);
-
-        m_parser.parse(m_inputStream, handler);
-
-        List<XmlDeploymentArtifact>[] artifacts = handler.getArtifacts();
+        List<XmlDeploymentArtifact>[] artifacts = m_index.getArtifacts(TARGET, VERSION1);
         assert artifacts.length == 1 : "Expected a single artifact to be found!";
         assert artifacts[0].size() == 1 : "Expected a single artifact to be found!";
 
@@ -143,17 +131,13 @@ public class BaseRepositoryHandlerTest {
      */
     @Test()
     public void testGatherMultipleVersionOk() throws Exception {
-        DeploymentPackageVersionCollector handler = new DeploymentPackageVersionCollector(MULTIPLEVERSIONTARGET);
-
-        m_parser.parse(m_inputStream, handler);
-
-        List<Version> versions = handler.getVersions();
+        List<String> versions = m_index.getVersions(MULTIPLEVERSIONTARGET);
         assert versions.size() == 4 : "Expected four versions to be found!";
 
-        assert Version.parseVersion(VERSION1).equals(versions.get(0)) : "Expected version1 to be found!";
-        assert Version.parseVersion(VERSION2).equals(versions.get(1)) : "Expected version2 to be found!";
-        assert Version.parseVersion(VERSION3).equals(versions.get(2)) : "Expected version3 to be found!";
-        assert Version.parseVersion(VERSION4).equals(versions.get(3)) : "Expected version4 to be found!";
+        assert VERSION1.equals(versions.get(0)) : "Expected version1 to be found!";
+        assert VERSION2.equals(versions.get(1)) : "Expected version2 to be found!";
+        assert VERSION3.equals(versions.get(2)) : "Expected version3 to be found!";
+        assert VERSION4.equals(versions.get(3)) : "Expected version4 to be found!";
     }
 
     /**
@@ -164,11 +148,7 @@ public class BaseRepositoryHandlerTest {
      */
     @Test()
     public void testGatherMultipleArtifactsOfMultipleVersionTargetOk() throws Exception {
-        DeploymentArtifactCollector handler = new DeploymentArtifactCollector(MULTIPLEVERSIONTARGET, VERSION2);
-
-        m_parser.parse(m_inputStream, handler);
-
-        List<XmlDeploymentArtifact>[] artifacts = handler.getArtifacts();
+        List<XmlDeploymentArtifact>[] artifacts = m_index.getArtifacts(MULTIPLEVERSIONTARGET, VERSION2);
         assert artifacts.length == 1 : "Expected two artifacts to be found!";
         assert artifacts[0].size() == 2 : "Expected two artifacts to be found!";
 
@@ -193,11 +173,7 @@ public class BaseRepositoryHandlerTest {
      */
     @Test()
     public void testGatherSingleArtifactsOfMultipleVersionTargetOk() throws Exception {
-        DeploymentArtifactCollector handler = new DeploymentArtifactCollector(MULTIPLEVERSIONTARGET, VERSION3);
-
-        m_parser.parse(m_inputStream, handler);
-
-        List<XmlDeploymentArtifact>[] artifacts = handler.getArtifacts();
+        List<XmlDeploymentArtifact>[] artifacts = m_index.getArtifacts(MULTIPLEVERSIONTARGET, VERSION3);
         assert artifacts.length == 1 : "Expected a single artifact to be found!";
         assert artifacts[0].size() == 1 : "Expected a single artifact to be found!";
 
@@ -216,11 +192,7 @@ public class BaseRepositoryHandlerTest {
      */
     @Test()
     public void testGatherNonExistingArtifactsOfMultipleVersionTargetOk() throws Exception {
-        DeploymentArtifactCollector handler = new DeploymentArtifactCollector(EMPTYVERSIONTARGET, VERSION2);
-
-        m_parser.parse(m_inputStream, handler);
-
-        List<XmlDeploymentArtifact>[] artifacts = handler.getArtifacts();
+        List<XmlDeploymentArtifact>[] artifacts = m_index.getArtifacts(EMPTYVERSIONTARGET, VERSION2);
         assert artifacts.length == 1 : "Expected a single artifact to be found!";
         assert artifacts[0].isEmpty() : "Expected no deployment artifacts to be found!";
     }
@@ -233,12 +205,8 @@ public class BaseRepositoryHandlerTest {
      */
     @Test()
     public void testGatherArtifactsOfMultipleVersionTargetWithInvalidVersionOk() throws Exception {
-        DeploymentArtifactCollector handler = new DeploymentArtifactCollector(EMPTYVERSIONTARGET, VERSION3);
-
-        m_parser.parse(m_inputStream, handler);
-
         try {
-            handler.getArtifacts();
+            m_index.getArtifacts(EMPTYVERSIONTARGET, VERSION3);
 
             assert false : "Expected no deployment artifacts to be found!";
         }
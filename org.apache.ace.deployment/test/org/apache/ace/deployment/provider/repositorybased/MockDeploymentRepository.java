@@ -33,6 +33,7 @@ public class MockDeploymentRepository implements Repository {
     private String m_range;
     private String m_xmlRepository;
     private Semaphore m_semaphore;
+    private int m_checkoutCount;
 
     public MockDeploymentRepository(String range, String xmlRepository, Semaphore semaphore) {
         m_range = range;
@@ -40,11 +41,26 @@ public class MockDeploymentRepository implements Repository {
         m_semaphore = semaphore;
     }
 
+    /**
+     * Changes the range of versions this repository reports.
+     */
+    public void setRange(String range) {
+        m_range = range;
+    }
+
+    /**
+     * @return the number of times {@link #checkout(long)} is called.
+     */
+    public int getCheckoutCount() {
+        return m_checkoutCount;
+    }
+
     /* (non-Javadoc)
      * Magic number version 1, generates an IOException, else return
      * @see org.apache.ace.repository.Repository#checkout(long)
      */
     public InputStream checkout(long version) throws IOException, IllegalArgumentException {
+        m_checkoutCount++;
         if (m_semaphore != null) {
             m_semaphore.release();
             try {
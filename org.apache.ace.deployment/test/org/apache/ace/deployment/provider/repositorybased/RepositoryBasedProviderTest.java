@@ -401,6 +401,29 @@ public class RepositoryBasedProviderTest {
         assert versions.get(3).equals(VERSION4) : "Expected version " + VERSION4 + " but found " + versions.get(3);
     }
 
+    /**
+     * Tests that the repository is only checked out and parsed once for each of its versions.
+     */
+    @Test()
+    public void testRepositoryIsParsedOncePerVersion() throws Exception {
+        MockDeploymentRepository mock = new MockDeploymentRepository("1,2,3", generateValidTestXml(), null);
+        TestUtils.configureObject(m_backend, Repository.class, mock);
+
+        m_backend.getVersions(TARGET);
+        m_backend.getVersions(MULTIPLEVERSIONTARGET);
+        m_backend.getBundleData(TARGET, VERSION1);
+        m_backend.getBundleData(MULTIPLEVERSIONTARGET, VERSION1, VERSION2);
+        assert mock.getCheckoutCount() == 1 : "Expected the repository to be checked out once, but was " + mock.getCheckoutCount();
+
+        // a new version of the repository should cause it to be checked out again...
+        mock.setRange("1-4");
+
+        List<String> versions = m_backend.getVersions(MULTIPLEVERSIONTARGET);
+        assert versions.size() == 4 : "Expected four versions to be found, but found " + versions.size();
+        m_backend.getBundleData(TARGET, VERSION1);
+        assert mock.getCheckoutCount() == 2 : "Expected the repository to be checked out twice, but was " + mock.getCheckoutCount();
+    }
+
     /**
      * Test the getBundleData for a single version, returning a single bundle
      */
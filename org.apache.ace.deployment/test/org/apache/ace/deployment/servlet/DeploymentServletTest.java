@@ -29,6 +29,9 @@ import static org.testng.Assert.assertTrue;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
@@ -36,6 +39,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.WriteListener;
@@ -60,17 +65,21 @@ public class DeploymentServletTest {
     // request state
     private HttpServletRequest m_request;
     private String m_requestCurrentParameter;
+    private String m_requestWatchParameter;
+    private String m_requestTimeoutParameter;
     private String m_requestRangeHeader;
     private String m_requestPathInfo;
 
     // response state
     private HttpServletResponse m_response;
     private ByteArrayOutputStream m_responseOutputStream;
+    private boolean m_responseAborted;
     private int m_responseStatus;
     private Map<String, String> m_responseHeaders;
 
     // deployment provider state
     private DeploymentProvider m_provider;
+    private Map<String, List<String>> m_providerVersions;
 
     // stream generator state
     private StreamGenerator m_generator;
@@ -78,6 +87,9 @@ public class DeploymentServletTest {
     private String m_generatorFromVersion;
     private String m_generatorToVersion;
     private InputStream m_generatorResultStream;
+    private File m_generatorResultFile;
+    private String m_requestIfNoneMatchHeader;
+    private String m_requestIfRangeHeader;
 
     @Test
     public void getDataForBadURL() throws Exception {
@@ -102,6 +114,101 @@ public class DeploymentServletTest {
         assertGeneratorToVersion("2.0.0");
     }
 
+    @Test
+    public void getDataForExistingTargetClosesPackageWhenClientAborts() throws Exception {
+        final AtomicBoolean closed = new AtomicBoolean();
+        m_generatorResultStream = new FilterInputStream(m_generatorResultStream) {
+            @Override
+            public void close() throws IOException {
+                closed.set(true);
+                super.close();
+            }
+        };
+        m_responseAborted = true;
+
+        m_requestPathInfo = "/existing/versions/2.0.0";
+        m_servlet.doGet(m_request, m_response);
+        assertTrue(closed.get(), "Deployment package should be closed when the client aborts the transfer");
+    }
+
+    @Test
+    public void getCachedDataForExistingTarget() throws Exception {
+        m_generatorResultFile = createPackageFile();
+
+        m_requestPathInfo = "/existing/versions/2.0.0";
+        m_servlet.doGet(m_request, m_response);
+        assertResponseCode(HttpServletResponse.SC_OK);
+        assertResponseHeaderValue("Content-Length", "100");
+        assertResponseHeaderValue("ETag", "\"" + m_generatorResultFile.getName() + "\"");
+        assertResponseOutput(0, 100);
+        assertGeneratorTargetId("existing");
+        assertGeneratorToVersion("2.0.0");
+    }
+
+    @Test
+    public void getCachedDataEvictedFromCache() throws Exception {
+        m_generatorResultFile = createPackageFile();
+        // Evicted after the stream generator returned it...
+        m_generatorResultFile.delete();
+
+        m_requestPathInfo = "/existing/versions/2.0.0";
+        m_servlet.doGet(m_request, m_response);
+        assertResponseCode(HttpServletResponse.SC_OK);
+        assertResponseHeaderNotPresent("Content-Length");
+        assertResponseOutput(0, 100);
+        assertGeneratorTargetId("existing");
+        assertGeneratorToVersion("2.0.0");
+    }
+
+    @Test
+    public void getCachedDataForExistingTargetNotModified() throws Exception {
+        m_generatorResultFile = createPackageFile();
+
+        m_requestPathInfo = "/existing/versions/2.0.0";
+        m_requestIfNoneMatchHeader = "\"" + m_generatorResultFile.getName() + "\"";
+        m_servlet.doGet(m_request, m_response);
+        assertResponseCode(HttpServletResponse.SC_NOT_MODIFIED);
+        assertResponseOutput(-1, 0);
+    }
+
+    @Test
+    public void getCachedRangeDataForExistingTarget() throws Exception {
+        m_generatorResultFile = createPackageFile();
+
+        m_requestPathInfo = "/existing/versions/2.0.0";
+        m_requestRangeHeader = "bytes=2-50";
+        m_servlet.doGet(m_request, m_response);
+        assertResponseCode(HttpServletResponse.SC_PARTIAL_CONTENT);
+        assertResponseHeaderValue("Content-Range", "bytes 2-50/100");
+        assertResponseHeaderValue("Content-Length", "49");
+        assertResponseOutput(2, 49);
+    }
+
+    @Test
+    public void getCachedRangeDataForExistingTarget_firstOKlastANY() throws Exception {
+        m_generatorResultFile = createPackageFile();
+
+        m_requestPathInfo = "/existing/versions/2.0.0";
+        m_requestRangeHeader = "bytes=90-";
+        m_servlet.doGet(m_request, m_response);
+        assertResponseCode(HttpServletResponse.SC_PARTIAL_CONTENT);
+        assertResponseHeaderValue("Content-Range", "bytes 90-99/100");
+        assertResponseHeaderValue("Content-Length", "10");
+        assertResponseOutput(90, 10);
+    }
+
+    @Test
+    public void getCachedRangeDataForExistingTarget_firstTooBig() throws Exception {
+        m_generatorResultFile = createPackageFile();
+
+        m_requestPathInfo = "/existing/versions/2.0.0";
+        m_requestRangeHeader = "bytes=100-110";
+        m_servlet.doGet(m_request, m_response);
+        assertResponseCode(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        assertResponseHeaderValue("Content-Range", "bytes */100");
+        assertResponseOutput(-1, 0);
+    }
+
     @Test
     public void getDataForNonExistingTarget() throws Exception {
         m_requestPathInfo = "/nonexisting/versions/2.0.0";
@@ -140,8 +247,9 @@ public class DeploymentServletTest {
         m_requestRangeHeader = "bytes=0-10";
         m_servlet.doGet(m_request, m_response);
         assertResponseCode(HttpServletResponse.SC_PARTIAL_CONTENT);
-        assertResponseHeaderNotPresent("Content-Length");
-        assertResponseHeaderValue("Content-Range", "bytes 0-10/*");
+        assertResponseHeaderValue("Content-Range", "bytes 0-10/100");
+        assertResponseHeaderValue("Content-Length", "11");
+        assertResponseOutput(0, 11);
     }
 
     @Test
@@ -154,8 +262,8 @@ public class DeploymentServletTest {
         m_requestRangeHeader = "bytes=2-";
         m_servlet.doGet(m_request, m_response);
         assertResponseCode(HttpServletResponse.SC_PARTIAL_CONTENT);
-        assertResponseHeaderNotPresent("Content-Length");
-        assertResponseHeaderValue("Content-Range", "bytes 2-/*");
+        assertResponseHeaderValue("Content-Range", "bytes 2-99/100");
+        assertResponseHeaderValue("Content-Length", "98");
         assertResponseOutput(2, 98);
     }
 
@@ -166,8 +274,8 @@ public class DeploymentServletTest {
         m_requestRangeHeader = "bytes=2-50";
         m_servlet.doGet(m_request, m_response);
         assertResponseCode(HttpServletResponse.SC_PARTIAL_CONTENT);
-        assertResponseHeaderNotPresent("Content-Length");
-        assertResponseHeaderValue("Content-Range", "bytes 2-50/*");
+        assertResponseHeaderValue("Content-Range", "bytes 2-50/100");
+        assertResponseHeaderValue("Content-Length", "49");
         assertResponseOutput(2, 49);
     }
 
@@ -181,8 +289,8 @@ public class DeploymentServletTest {
         m_requestRangeHeader = "bytes=2-99";
         m_servlet.doGet(m_request, m_response);
         assertResponseCode(HttpServletResponse.SC_PARTIAL_CONTENT);
-        assertResponseHeaderNotPresent("Content-Length");
-        assertResponseHeaderValue("Content-Range", "bytes 2-99/*");
+        assertResponseHeaderValue("Content-Range", "bytes 2-99/100");
+        assertResponseHeaderValue("Content-Length", "98");
         assertResponseOutput(2, 98);
     }
 
@@ -196,11 +304,24 @@ public class DeploymentServletTest {
         m_requestRangeHeader = "bytes=2-100";
         m_servlet.doGet(m_request, m_response);
         assertResponseCode(HttpServletResponse.SC_PARTIAL_CONTENT);
-        assertResponseHeaderNotPresent("Content-Length");
-        assertResponseHeaderValue("Content-Range", "bytes 2-100/*");
+        assertResponseHeaderValue("Content-Range", "bytes 2-99/100");
+        assertResponseHeaderValue("Content-Length", "98");
         assertResponseOutput(2, 98);
     }
 
+    @Test
+    public void getRangeDataForExistingTarget_ifRangeMismatch() throws Exception {
+        // a range for a different package than we generate now should result in the complete package being sent...
+        m_requestPathInfo = "/existing/versions/2.0.0";
+        m_requestRangeHeader = "bytes=2-50";
+        m_requestIfRangeHeader = "\"outdated\"";
+        m_servlet.doGet(m_request, m_response);
+        assertResponseCode(HttpServletResponse.SC_OK);
+        assertResponseHeaderPresent("ETag");
+        assertResponseHeaderValue("Content-Length", "100");
+        assertResponseOutput(0, 100);
+    }
+
     @Test
     public void getRangeDataForExistingTarget_firstOKlastTooSmall() throws Exception {
         // http://www.w3.org/Protocols/rfc2616/rfc2616-sec14.html#sec14.35.1
@@ -225,9 +346,8 @@ public class DeploymentServletTest {
         m_requestPathInfo = "/existing/versions/2.0.0";
         m_requestRangeHeader = "bytes=100-110";
         m_servlet.doGet(m_request, m_response);
-        assertResponseCode(HttpServletResponse.SC_PARTIAL_CONTENT);
-        assertResponseHeaderValue("Content-Range", "bytes 100-110/*");
-        assertResponseHeaderNotPresent("Content-Length");
+        assertResponseCode(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        assertResponseHeaderValue("Content-Range", "bytes */100");
         assertResponseOutput(-1, 0);
     }
 
@@ -346,10 +466,73 @@ public class DeploymentServletTest {
         assertResponseOutput(-1, 0);
     }
 
+    @Test
+    public void getVersionsWatchInvalidVersion() throws Exception {
+        m_requestPathInfo = "/existing/versions";
+        m_requestWatchParameter = "a.b.c";
+        m_servlet.doGet(m_request, m_response);
+        assertResponseCode(HttpServletResponse.SC_BAD_REQUEST);
+    }
+
+    @Test
+    public void getVersionsWatchNewerVersionAvailable() throws Exception {
+        m_requestPathInfo = "/existing/versions";
+        m_requestWatchParameter = "1.0.0";
+        m_servlet.doGet(m_request, m_response);
+        assertResponseCode(HttpServletResponse.SC_OK);
+        assertEquals(m_responseOutputStream.toString(), "2.0.0\n", "Expected to get version 2.0.0 in the response");
+    }
+
+    @Test
+    public void getVersionsWatchNewVersionAdded() throws Exception {
+        m_servlet.start();
+        try {
+            m_requestPathInfo = "/existing/versions";
+            m_requestWatchParameter = "2.0.0";
+            m_requestTimeoutParameter = "60000";
+
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(100);
+                    }
+                    catch (InterruptedException e) {
+                        // Ignore...
+                    }
+                    m_providerVersions.put("existing", Arrays.asList("2.0.0", "3.0.0"));
+                }
+            }.start();
+
+            long start = System.currentTimeMillis();
+            m_servlet.doGet(m_request, m_response);
+            assertTrue(System.currentTimeMillis() - start < 30000, "Watch should end once a new version is added");
+            assertResponseCode(HttpServletResponse.SC_OK);
+            assertEquals(m_responseOutputStream.toString(), "2.0.0\n3.0.0\n", "Expected to get versions 2.0.0 and 3.0.0 in the response");
+        }
+        finally {
+            m_servlet.stop();
+        }
+    }
+
+    @Test
+    public void getVersionsWatchTimesOut() throws Exception {
+        m_requestPathInfo = "/existing/versions";
+        m_requestWatchParameter = "2.0.0";
+        m_requestTimeoutParameter = "200";
+
+        long start = System.currentTimeMillis();
+        m_servlet.doGet(m_request, m_response);
+        assertTrue(System.currentTimeMillis() - start >= 200, "Watch should wait until its timeout");
+        assertResponseCode(HttpServletResponse.SC_OK);
+        assertEquals(m_responseOutputStream.toString(), "2.0.0\n", "Expected to get version 2.0.0 in the response");
+    }
+
     @BeforeMethod(alwaysRun = true)
     protected void setUp() throws Exception {
-        final Map<String, List<String>> providerVersions = new HashMap<>();
+        final Map<String, List<String>> providerVersions = new ConcurrentHashMap<>();
         providerVersions.put("existing", Arrays.asList("2.0.0"));
+        m_providerVersions = providerVersions;
 
         final ArtifactData artifactData = createMock(ArtifactData.class);
         expect(artifactData.getSize()).andAnswer(new IAnswer<Long>() {
@@ -404,6 +587,23 @@ public class DeploymentServletTest {
                 m_generatorToVersion = toVersion;
                 return m_generatorResultStream;
             }
+
+            public File getDeploymentPackageFile(String id, String version) throws IOException {
+                if (m_generatorResultFile != null) {
+                    m_generatorId = id;
+                    m_generatorToVersion = version;
+                }
+                return m_generatorResultFile;
+            }
+
+            public File getDeploymentPackageFile(String id, String fromVersion, String toVersion) throws IOException {
+                if (m_generatorResultFile != null) {
+                    m_generatorId = id;
+                    m_generatorFromVersion = fromVersion;
+                    m_generatorToVersion = toVersion;
+                }
+                return m_generatorResultFile;
+            }
         };
 
         // create a HttpServletRequest mock object
@@ -413,6 +613,12 @@ public class DeploymentServletTest {
                 if (name.equals("Range")) {
                     return m_requestRangeHeader;
                 }
+                if (name.equals("If-None-Match")) {
+                    return m_requestIfNoneMatchHeader;
+                }
+                if (name.equals("If-Range")) {
+                    return m_requestIfRangeHeader;
+                }
                 return null;
             }
 
@@ -421,6 +627,12 @@ public class DeploymentServletTest {
                 if (param.equals(DeploymentServlet.CURRENT)) {
                     return m_requestCurrentParameter;
                 }
+                if (param.equals(DeploymentServlet.WATCH)) {
+                    return m_requestWatchParameter;
+                }
+                if (param.equals(DeploymentServlet.TIMEOUT)) {
+                    return m_requestTimeoutParameter;
+                }
                 return null;
             }
 
@@ -442,6 +654,9 @@ public class DeploymentServletTest {
                 return new ServletOutputStream() {
                     @Override
                     public void write(int b) throws IOException {
+                        if (m_responseAborted) {
+                            throw new IOException("Connection reset by peer");
+                        }
                         m_responseOutputStream.write(b);
                     }
 
@@ -494,7 +709,13 @@ public class DeploymentServletTest {
 
         // set the default state
         m_generatorResultStream = new ByteArrayInputStream(data);
+        m_generatorResultFile = null;
+        m_responseAborted = false;
+        m_requestIfNoneMatchHeader = null;
+        m_requestIfRangeHeader = null;
         m_requestCurrentParameter = null;
+        m_requestWatchParameter = null;
+        m_requestTimeoutParameter = null;
         m_generatorId = null;
         m_generatorFromVersion = null;
         m_generatorToVersion = null;
@@ -505,6 +726,22 @@ public class DeploymentServletTest {
         m_responseOutputStream = new ByteArrayOutputStream();
     }
 
+    private File createPackageFile() throws IOException {
+        File file = File.createTempFile("package", ".dp");
+        file.deleteOnExit();
+
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            for (int i = 0; i < 100; i++) {
+                fos.write(i + 1);
+            }
+        }
+        finally {
+            fos.close();
+        }
+        return file;
+    }
+
     private void assertGeneratorFromVersion(String version) {
         assertEquals(m_generatorFromVersion, version, "Wrong from-version");
     }
@@ -525,6 +762,10 @@ public class DeploymentServletTest {
         assertFalse(m_responseHeaders.containsKey(name), "Expected response " + name + " header to NOT be set");
     }
 
+    private void assertResponseHeaderPresent(String name) throws Exception {
+        assertTrue(m_responseHeaders.containsKey(name), "Expected response " + name + " header to be set");
+    }
+
     private void assertResponseHeaderValue(String name, String value) throws Exception {
         assertTrue(m_responseHeaders.containsKey(name), "Expected response " + name + " header to be set");
         assertEquals(m_responseHeaders.get(name), value, "Unexpected response header");
@@ -0,0 +1,320 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.deployment.streamgenerator.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ace.connectionfactory.ConnectionFactory;
+import org.apache.ace.deployment.provider.ArtifactData;
+import org.apache.ace.deployment.util.test.TestProvider;
+import org.apache.ace.test.utils.FileUtils;
+import org.osgi.service.useradmin.User;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test cases for {@link ArtifactPrefetcher}.
+ */
+public class ArtifactPrefetcherTest {
+    private static final int ARTIFACT_COUNT = 8;
+
+    private File m_tempDir;
+    private ExecutorService m_executor;
+    private TestProvider m_provider;
+
+    @BeforeMethod(alwaysRun = true)
+    protected void setUp() throws Exception {
+        m_tempDir = FileUtils.createTempFile(null);
+        m_tempDir.mkdirs();
+
+        m_executor = Executors.newFixedThreadPool(ARTIFACT_COUNT);
+
+        m_provider = new TestProvider();
+        for (int i = 0; i < ARTIFACT_COUNT; i++) {
+            File file = new File(m_tempDir, "artifact" + i + ".jar");
+
+            FileOutputStream fos = new FileOutputStream(file);
+            try {
+                // Each artifact has a different size and content...
+                for (int j = 0; j <= i * 1000; j++) {
+                    fos.write(i);
+                }
+            }
+            finally {
+                fos.close();
+            }
+            m_provider.addData(file.getName(), "artifact" + i, file.toURI().toURL(), "1.0.0");
+        }
+    }
+
+    @AfterMethod(alwaysRun = true)
+    protected void tearDown() throws Exception {
+        m_executor.shutdownNow();
+        FileUtils.removeDirectoryWithContent(m_tempDir);
+    }
+
+    /**
+     * Tests that artifacts are returned in order, even though earlier artifacts take longer to fetch.
+     */
+    @Test
+    public void testArtifactsAreReturnedInOrder() throws Exception {
+        List<ArtifactData> artifacts = m_provider.getBundleData("target", "1.0.0");
+
+        SlowConnectionFactory connectionFactory = new SlowConnectionFactory(true /* reverse */);
+        ArtifactPrefetcher prefetcher = new ArtifactPrefetcher(connectionFactory, m_executor, artifacts, 4, 1024 * 1024);
+        try {
+            for (int i = 0; i < ARTIFACT_COUNT; i++) {
+                assertContents(prefetcher.open(artifacts.get(i)), i);
+            }
+        }
+        finally {
+            prefetcher.close();
+        }
+    }
+
+    /**
+     * Tests that artifacts are fetched concurrently, but never more than the configured concurrency.
+     */
+    @Test
+    public void testArtifactsAreFetchedConcurrently() throws Exception {
+        List<ArtifactData> artifacts = m_provider.getBundleData("target", "1.0.0");
+
+        SlowConnectionFactory connectionFactory = new SlowConnectionFactory(false /* reverse */);
+        ArtifactPrefetcher prefetcher = new ArtifactPrefetcher(connectionFactory, m_executor, artifacts, 3, 1024 * 1024);
+        try {
+            for (int i = 0; i < ARTIFACT_COUNT; i++) {
+                assertContents(prefetcher.open(artifacts.get(i)), i);
+            }
+        }
+        finally {
+            prefetcher.close();
+        }
+
+        assertTrue(connectionFactory.m_maxConcurrent.get() > 1, "Artifacts were not fetched concurrently?!");
+        assertTrue(connectionFactory.m_maxConcurrent.get() <= 3, "Too many artifacts fetched concurrently?!");
+    }
+
+    /**
+     * Tests that artifacts that do not fit in memory are still returned correctly.
+     */
+    @Test
+    public void testLargeArtifactsAreSpooledToDisk() throws Exception {
+        List<ArtifactData> artifacts = m_provider.getBundleData("target", "1.0.0");
+
+        ArtifactPrefetcher prefetcher = new ArtifactPrefetcher(new SlowConnectionFactory(false), m_executor, artifacts, 2, 1024);
+        try {
+            for (int i = 0; i < ARTIFACT_COUNT; i++) {
+                assertContents(prefetcher.open(artifacts.get(i)), i);
+            }
+        }
+        finally {
+            prefetcher.close();
+        }
+    }
+
+    /**
+     * Tests that a failure to fetch an artifact is reported when that artifact is opened.
+     */
+    @Test(expectedExceptions = FileNotFoundException.class)
+    public void testFetchFailureIsReported() throws Exception {
+        File file = new File(m_tempDir, "artifact0.jar");
+        file.delete();
+
+        List<ArtifactData> artifacts = m_provider.getBundleData("target", "1.0.0");
+
+        ArtifactPrefetcher prefetcher = new ArtifactPrefetcher(new SlowConnectionFactory(false), m_executor, artifacts, 4, 1024 * 1024);
+        try {
+            prefetcher.open(artifacts.get(0));
+        }
+        finally {
+            prefetcher.close();
+        }
+    }
+
+    /**
+     * Tests that artifacts are still returned in case the executor no longer accepts any work.
+     */
+    @Test
+    public void testFetchWithoutExecutor() throws Exception {
+        m_executor.shutdown();
+
+        List<ArtifactData> artifacts = m_provider.getBundleData("target", "1.0.0");
+
+        ArtifactPrefetcher prefetcher = new ArtifactPrefetcher(new SlowConnectionFactory(false), m_executor, artifacts, 4, 1024 * 1024);
+        try {
+            for (int i = 0; i < ARTIFACT_COUNT; i++) {
+                assertContents(prefetcher.open(artifacts.get(i)), i);
+            }
+        }
+        finally {
+            prefetcher.close();
+        }
+    }
+
+    /**
+     * Tests that cancelling a running fetch stops it and removes the data it spooled to disk.
+     */
+    @Test
+    public void testCancelledFetchIsCleanedUp() throws Exception {
+        List<ArtifactData> artifacts = m_provider.getBundleData("target", "1.0.0");
+        Set<String> spoolFiles = getSpoolFiles();
+
+        EndlessConnectionFactory connectionFactory = new EndlessConnectionFactory();
+        // Nothing fits in memory, so everything is spooled to disk...
+        ArtifactPrefetcher prefetcher = new ArtifactPrefetcher(connectionFactory, m_executor, artifacts, 1, 0);
+        assertTrue(connectionFactory.m_reading.await(5, TimeUnit.SECONDS), "Fetch did not start?!");
+
+        prefetcher.close();
+
+        assertTrue(connectionFactory.m_closed.await(5, TimeUnit.SECONDS), "Fetch did not stop?!");
+        // The spool file is deleted right after the stream is closed...
+        Thread.sleep(100);
+        Set<String> leftOver = getSpoolFiles();
+        leftOver.removeAll(spoolFiles);
+        assertTrue(leftOver.isEmpty(), "Spool files left behind: " + leftOver);
+    }
+
+    private static Set<String> getSpoolFiles() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list();
+        Set<String> result = new HashSet<>();
+        for (String name : Arrays.asList(names)) {
+            if (name.startsWith("artifact") && name.endsWith(".tmp")) {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
+    private static void assertContents(InputStream is, int artifact) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[512];
+            for (int count = is.read(buffer); count != -1; count = is.read(buffer)) {
+                baos.write(buffer, 0, count);
+            }
+        }
+        finally {
+            is.close();
+        }
+
+        byte[] data = baos.toByteArray();
+        assertEquals(data.length, artifact * 1000 + 1);
+        for (byte b : data) {
+            assertEquals(b, (byte) artifact);
+        }
+    }
+
+    /**
+     * Connection factory that yields connections with endless content.
+     */
+    static final class EndlessConnectionFactory implements ConnectionFactory {
+        final CountDownLatch m_reading = new CountDownLatch(1);
+        final CountDownLatch m_closed = new CountDownLatch(1);
+
+        public URLConnection createConnection(URL url) throws IOException {
+            return new URLConnection(url) {
+                @Override
+                public void connect() throws IOException {
+                    // Nop
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    return new InputStream() {
+                        @Override
+                        public int read() throws IOException {
+                            m_reading.countDown();
+                            return 'x';
+                        }
+
+                        @Override
+                        public void close() throws IOException {
+                            m_closed.countDown();
+                        }
+                    };
+                }
+            };
+        }
+
+        public URLConnection createConnection(URL url, User user) throws IOException {
+            return createConnection(url);
+        }
+    }
+
+    /**
+     * Connection factory that delays each connection, keeping track of the number of concurrent connections.
+     */
+    static final class SlowConnectionFactory implements ConnectionFactory {
+        final AtomicInteger m_concurrent = new AtomicInteger();
+        final AtomicInteger m_maxConcurrent = new AtomicInteger();
+        private final boolean m_reverse;
+
+        SlowConnectionFactory(boolean reverse) {
+            m_reverse = reverse;
+        }
+
+        public URLConnection createConnection(URL url) throws IOException {
+            int concurrent = m_concurrent.incrementAndGet();
+            try {
+                int max;
+                do {
+                    max = m_maxConcurrent.get();
+                }
+                while (concurrent > max && !m_maxConcurrent.compareAndSet(max, concurrent));
+
+                // Artifacts with a lower number take longer in case we are reversed...
+                int nr = Integer.parseInt(url.getPath().replaceAll(".*artifact(\\d+)\\.jar", "$1"));
+                Thread.sleep(m_reverse ? (ARTIFACT_COUNT - nr) * 10 : 50);
+
+                return url.openConnection();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+            finally {
+                m_concurrent.decrementAndGet();
+            }
+        }
+
+        public URLConnection createConnection(URL url, User user) throws IOException {
+            return createConnection(url);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.deployment.streamgenerator.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.ace.test.utils.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test cases for {@link DeploymentPackageCache}.
+ */
+public class DeploymentPackageCacheTest {
+    private File m_cacheDir;
+    private int m_generated;
+
+    @BeforeMethod(alwaysRun = true)
+    protected void setUp() throws Exception {
+        m_cacheDir = FileUtils.createTempFile(null);
+        m_generated = 0;
+    }
+
+    @AfterMethod(alwaysRun = true)
+    protected void tearDown() throws Exception {
+        FileUtils.removeDirectoryWithContent(m_cacheDir);
+    }
+
+    @Test
+    public void testGenerateOnlyOnce() throws Exception {
+        DeploymentPackageCache cache = new DeploymentPackageCache(m_cacheDir, 1024);
+
+        File file = cache.get("key1", createGenerator(100));
+        assertNotNull(file);
+        assertEquals(file.length(), 100);
+        assertEquals(cache.get("key1", createGenerator(100)), file);
+        assertEquals(m_generated, 1);
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws Exception {
+        DeploymentPackageCache cache = new DeploymentPackageCache(m_cacheDir, 250);
+
+        File file1 = cache.get("key1", createGenerator(100));
+        File file2 = cache.get("key2", createGenerator(100));
+        // touch the first entry, making the second one the least recently used...
+        assertNotNull(cache.get("key1"));
+
+        File file3 = cache.get("key3", createGenerator(100));
+        assertEquals(m_generated, 3);
+        assertEquals(cache.getSize(), 200);
+
+        assertNull(cache.get("key2"));
+        assertTrue(!file2.exists(), "Evicted package should be removed from disk!");
+        assertEquals(cache.get("key1"), file1);
+        assertEquals(cache.get("key3"), file3);
+    }
+
+    @Test
+    public void testSizeIsUpdatedForLostAndReplacedPackages() throws Exception {
+        DeploymentPackageCache cache = new DeploymentPackageCache(m_cacheDir, 1024);
+
+        File file1 = cache.get("key1", createGenerator(100));
+        cache.get("key2", createGenerator(200));
+        assertEquals(cache.getSize(), 300);
+
+        // a package that is removed behind our back no longer counts...
+        assertTrue(file1.delete());
+        assertNull(cache.get("key1"));
+        assertEquals(cache.getSize(), 200);
+
+        // ...and is replaced by the regenerated one...
+        assertEquals(cache.get("key1", createGenerator(50)), file1);
+        assertEquals(file1.length(), 50);
+        assertEquals(cache.getSize(), 250);
+        assertEquals(m_generated, 3);
+
+        // ...so we evict based on the actual size of all packages...
+        cache.get("key3", createGenerator(700));
+        assertEquals(cache.getSize(), 950);
+        assertNotNull(cache.get("key1"));
+        assertNotNull(cache.get("key2"));
+    }
+
+    @Test
+    public void testReuseExistingCacheDirectory() throws Exception {
+        DeploymentPackageCache cache = new DeploymentPackageCache(m_cacheDir, 1024);
+        File file = cache.get("key1", createGenerator(100));
+
+        cache = new DeploymentPackageCache(m_cacheDir, 1024);
+        assertEquals(cache.get("key1"), file);
+        assertEquals(cache.getSize(), 100);
+    }
+
+    private DeploymentPackageCache.Generator createGenerator(final int size) {
+        return new DeploymentPackageCache.Generator() {
+            @Override
+            public InputStream generate() throws IOException {
+                m_generated++;
+                return new ByteArrayInputStream(new byte[size]);
+            }
+        };
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.deployment.streamgenerator.impl;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.jar.JarInputStream;
+
+import org.apache.ace.connectionfactory.ConnectionFactory;
+import org.apache.ace.deployment.provider.DeploymentProvider;
+import org.apache.ace.deployment.streamgenerator.impl.StreamTest.MockConnectionFactory;
+import org.apache.ace.deployment.util.test.TestProvider;
+import org.apache.ace.test.utils.FileUtils;
+import org.apache.ace.test.utils.TestUtils;
+import org.osgi.service.log.LogService;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Measures the throughput of generating deployment packages of various sizes.
+ */
+public class StreamGeneratorPerformanceTest {
+    /** The size of each artifact in the deployment packages. */
+    private static final int ARTIFACT_SIZE = 32 * 1024;
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final int ITERATIONS = 5;
+
+    private File m_tempDir;
+    private File[] m_artifacts;
+
+    @BeforeClass(alwaysRun = true)
+    protected void setUp() throws Exception {
+        m_tempDir = FileUtils.createTempFile(null);
+        m_tempDir.mkdirs();
+
+        Random rnd = new Random(1234L);
+        byte[] data = new byte[ARTIFACT_SIZE];
+
+        m_artifacts = new File[1000];
+        for (int i = 0; i < m_artifacts.length; i++) {
+            m_artifacts[i] = new File(m_tempDir, "artifact" + i + ".jar");
+
+            rnd.nextBytes(data);
+            FileOutputStream fos = new FileOutputStream(m_artifacts[i]);
+            try {
+                fos.write(data);
+            }
+            finally {
+                fos.close();
+            }
+        }
+    }
+
+    @AfterClass(alwaysRun = true)
+    protected void tearDown() throws Exception {
+        FileUtils.removeDirectoryWithContent(m_tempDir);
+    }
+
+    @DataProvider(name = "packageSizes")
+    public Object[][] createPackageSizes() {
+        return new Object[][] { { 10 }, { 100 }, { 1000 } };
+    }
+
+    /**
+     * Generates and reads deployment packages with the given number of artifacts.
+     */
+    @Test(dataProvider = "packageSizes", timeOut = 60000 /* millis */)
+    public void testDeploymentPackageThroughput(int artifactCount) throws Exception {
+        StreamGeneratorImpl generator = createStreamGenerator(artifactCount);
+
+        // warm up...
+        assertEquals(countEntries(generator.getDeploymentPackage("test", "1.0.0")), artifactCount);
+
+        long bytes = 0L;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            bytes += drain(generator.getDeploymentPackage("test", "1.0.0"));
+        }
+        long elapsed = Math.max(1L, System.nanoTime() - start);
+
+        double mbPerSecond = (bytes / (1024.0 * 1024.0)) / (elapsed / 1e9);
+        System.out.printf("Deployment package with %d artifacts: %.1f MB/s (%d bytes per package)%n", artifactCount, mbPerSecond, bytes / ITERATIONS);
+    }
+
+    private StreamGeneratorImpl createStreamGenerator(int artifactCount) throws Exception {
+        TestProvider provider = new TestProvider();
+        for (int i = 0; i < artifactCount; i++) {
+            provider.addData(m_artifacts[i].getName(), "artifact" + i, m_artifacts[i].toURI().toURL(), "1.0.0", true);
+        }
+
+        StreamGeneratorImpl generator = new StreamGeneratorImpl();
+        TestUtils.configureObject(generator, DeploymentProvider.class, provider);
+        TestUtils.configureObject(generator, LogService.class);
+        TestUtils.configureObject(generator, ConnectionFactory.class, new MockConnectionFactory());
+        return generator;
+    }
+
+    private static int countEntries(InputStream is) throws Exception {
+        JarInputStream jis = new JarInputStream(is);
+        try {
+            int count = 0;
+            while (jis.getNextJarEntry() != null) {
+                count++;
+            }
+            return count;
+        }
+        finally {
+            jis.close();
+        }
+    }
+
+    private static long drain(InputStream is) throws Exception {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long total = 0L;
+        try {
+            for (int count = is.read(buffer); count != -1; count = is.read(buffer)) {
+                total += count;
+            }
+        }
+        finally {
+            is.close();
+        }
+        return total;
+    }
+}
@@ -24,12 +24,15 @@ import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
 import static org.testng.Assert.fail;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
@@ -271,6 +274,64 @@ public class StreamTest {
         assertTrue(names.contains("A3.jar"), "The stream should have contained a resource called A3.jar");
     }
 
+    /**
+     * Tests that cached deployment packages are readable and only generated once.
+     */
+    @Test
+    public void cachedPackagesAreJarInputStreamReadable() throws Exception {
+        File cacheDir = FileUtils.createTempFile(null);
+        try {
+            StreamGeneratorImpl generator = new StreamGeneratorImpl();
+            TestUtils.configureObject(generator, DeploymentProvider.class, m_provider);
+            TestUtils.configureObject(generator, LogService.class);
+            TestUtils.configureObject(generator, ConnectionFactory.class, new MockConnectionFactory());
+
+            Hashtable<String, Object> props = new Hashtable<>();
+            props.put(StreamGeneratorImpl.KEY_CACHE_DIR, cacheDir.getAbsolutePath());
+            props.put(StreamGeneratorImpl.KEY_CACHE_SIZE, "1");
+            generator.updated(props);
+
+            File dp = generator.getDeploymentPackageFile("test", "1.0.0");
+            File fixPack = generator.getDeploymentPackageFile("test", "0.0.0", "1.0.0");
+            assertNotNull(dp);
+            assertNotNull(fixPack);
+            assertTrue(!dp.equals(fixPack), "Fix package and full package should be cached separately!");
+            assertEquals(generator.getDeploymentPackageFile("test", "1.0.0"), dp);
+
+            isJarInputStreamReadable(new JarInputStream(new FileInputStream(dp)), false);
+            isJarInputStreamReadable(new JarInputStream(new FileInputStream(fixPack)), true);
+        }
+        finally {
+            FileUtils.removeDirectoryWithContent(cacheDir);
+        }
+    }
+
+    /**
+     * Tests that deployment packages whose artifacts are prefetched are readable.
+     */
+    @Test
+    public void prefetchedPackagesAreJarInputStreamReadable() throws Exception {
+        StreamGeneratorImpl generator = new StreamGeneratorImpl();
+        TestUtils.configureObject(generator, DeploymentProvider.class, m_provider);
+        TestUtils.configureObject(generator, LogService.class);
+        TestUtils.configureObject(generator, ConnectionFactory.class, new MockConnectionFactory());
+
+        Hashtable<String, Object> props = new Hashtable<>();
+        props.put(StreamGeneratorImpl.KEY_CACHE_SIZE, "0");
+        props.put(StreamGeneratorImpl.KEY_PREFETCH_CONCURRENCY, "2");
+        props.put(StreamGeneratorImpl.KEY_PREFETCH_THREADS, "2");
+        generator.updated(props);
+
+        generator.start();
+        try {
+            isJarInputStreamReadable(new JarInputStream(generator.getDeploymentPackage("test", "1.0.0")), false);
+            isJarInputStreamReadable(new JarInputStream(generator.getDeploymentPackage("test", "0.0.0", "1.0.0")), true);
+        }
+        finally {
+            generator.stop();
+        }
+    }
+
     /**
      * Test reading many streams sequentially.
      */
@@ -18,17 +18,20 @@
  */
 package org.apache.ace.feedback;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.StringTokenizer;
 
 import org.apache.ace.feedback.util.Codec;
 
 /**
  * Event from specific target (in a specific store).
+ * <p>
+ * Events created from their representation keep their properties in encoded form until they are first accessed, which
+ * makes passing events through (e.g. from a servlet to a store, or from a store to a servlet) cheap.
  */
 public class Event implements Comparable<Object> {
     private final String m_targetID;
@@ -36,19 +39,27 @@ public class Event implements Comparable<Object> {
     private final long m_id;
     private final long m_time;
     private final int m_type;
-    private final Map<String, String> m_properties;
+    /** The encoded properties, as found in the representation, or <code>null</code> if there are none. */
+    private final String m_encodedProperties;
+    /** Lazily decoded from {@link #m_encodedProperties}. */
+    private volatile Map<String, String> m_properties;
 
     public Event(String targetID, long storeID, long id, long time, int type) {
         this(targetID, storeID, id, time, type, Collections.<String, String> emptyMap());
     }
 
     public Event(String targetID, long storeID, long id, long time, int type, Map<String, String> properties) {
+        this(targetID, storeID, id, time, type, properties, null);
+    }
+
+    private Event(String targetID, long storeID, long id, long time, int type, Map<String, String> properties, String encodedProperties) {
         m_targetID = targetID;
         m_storeID = storeID;
         m_id = id;
         m_time = time;
         m_type = type;
         m_properties = properties;
+        m_encodedProperties = encodedProperties;
     }
 
     public Event(String targetID, long storeID, long id, long time, int type, Dictionary<String, String> dictionary) {
@@ -57,35 +68,69 @@ public class Event implements Comparable<Object> {
         m_id = id;
         m_time = time;
         m_type = type;
-        m_properties = new HashMap<>();
+        m_encodedProperties = null;
 
+        Map<String, String> properties = new HashMap<>();
         Enumeration<String> keys = dictionary.keys();
         while (keys.hasMoreElements()) {
             String key = keys.nextElement();
-            m_properties.put(key, dictionary.get(key));
+            properties.put(key, dictionary.get(key));
         }
+        m_properties = properties;
     }
 
     public Event(String targetID, Event source) {
-        this(targetID, source.getStoreID(), source.getID(), source.getTime(), source.getType(), source.getProperties());
+        // share the (possibly still encoded) properties of the source...
+        this(targetID, source.m_storeID, source.m_id, source.m_time, source.m_type, source.m_properties, source.m_encodedProperties);
     }
 
+    /**
+     * Creates an event from its UTF-8 encoded representation.
+     */
     public Event(byte[] representation) {
-        this(new String(representation));
+        this(representation, 0, representation.length);
+    }
+
+    /**
+     * Creates an event from the UTF-8 encoded representation found in the given part of a buffer. The numeric fields
+     * are parsed directly from the buffer.
+     */
+    public Event(byte[] buffer, int offset, int length) {
+        try {
+            int end = offset + length;
+            int pos = indexOf(buffer, offset, end);
+            m_targetID = Codec.decode(new String(buffer, offset, pos - offset, StandardCharsets.UTF_8));
+            int next = indexOf(buffer, ++pos, end);
+            m_storeID = parseLong(buffer, pos, next);
+            next = indexOf(buffer, pos = next + 1, end);
+            m_id = parseLong(buffer, pos, next);
+            next = indexOf(buffer, pos = next + 1, end);
+            m_time = parseLong(buffer, pos, next);
+            next = indexOf(buffer, pos = next + 1, end);
+            m_type = toInt(parseLong(buffer, pos, next));
+            m_encodedProperties = (next < end) ? validateProperties(new String(buffer, next + 1, end - next - 1, StandardCharsets.UTF_8)) : null;
+            m_properties = (m_encodedProperties == null) ? new HashMap<String, String>() : null;
+        }
+        catch (Exception e) {
+            throw new IllegalArgumentException("Could not create event from: " + new String(buffer, offset, length, StandardCharsets.UTF_8), e);
+        }
     }
 
     public Event(String representation) {
         try {
-            StringTokenizer st = new StringTokenizer(representation, ",");
-            m_targetID = Codec.decode(st.nextToken());
-            m_storeID = Long.parseLong(st.nextToken());
-            m_id = Long.parseLong(st.nextToken());
-            m_time = Long.parseLong(st.nextToken());
-            m_type = Integer.parseInt(st.nextToken());
-            m_properties = new HashMap<>();
-            while (st.hasMoreTokens()) {
-                m_properties.put(st.nextToken(), Codec.decode(st.nextToken()));
-            }
+            int end = representation.length();
+            int pos = indexOf(representation, 0, end);
+            m_targetID = Codec.decode(representation, 0, pos);
+            int next = indexOf(representation, ++pos, end);
+            m_storeID = parseLong(representation, pos, next);
+            next = indexOf(representation, pos = next + 1, end);
+            m_id = parseLong(representation, pos, next);
+            next = indexOf(representation, pos = next + 1, end);
+            m_time = parseLong(representation, pos, next);
+            next = indexOf(representation, pos = next + 1, end);
+            m_type = toInt(parseLong(representation, pos, next));
+            m_encodedProperties = (next < end) ? validateProperties(representation.substring(next + 1)) : null;
+            m_properties = (m_encodedProperties == null) ? new HashMap<String, String>() : null;
         }
         catch (Exception e) {
             throw new IllegalArgumentException("Could not create event from: " + representation, e);
@@ -93,8 +138,16 @@ public class Event implements Comparable<Object> {
     }
 
     public String toRepresentation() {
-        StringBuffer result = new StringBuffer();
-        result.append(Codec.encode(m_targetID));
+        StringBuilder result = new StringBuilder(64 + (m_encodedProperties == null ? 0 : m_encodedProperties.length()));
+        appendTo(result);
+        return result.toString();
+    }
+
+    /**
+     * Appends the representation of this event to the given builder.
+     */
+    void appendTo(StringBuilder result) {
+        Codec.encode(m_targetID, result);
         result.append(',');
         result.append(m_storeID);
         result.append(',');
@@ -103,13 +156,21 @@ public class Event implements Comparable<Object> {
         result.append(m_time);
         result.append(',');
         result.append(m_type);
-        for (String key : m_properties.keySet()) {
-            result.append(',');
-            result.append(key);
+
+        Map<String, String> properties = m_properties;
+        if (properties == null && m_encodedProperties != null) {
+            // properties are never accessed, so they are still exactly as we received them...
             result.append(',');
-            result.append(Codec.encode(m_properties.get(key)));
+            result.append(m_encodedProperties);
+        }
+        else if (properties != null) {
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                result.append(',');
+                result.append(entry.getKey());
+                result.append(',');
+                Codec.encode(entry.getValue(), result);
+            }
         }
-        return result.toString();
     }
 
     /**
@@ -152,7 +213,16 @@ public class Event implements Comparable<Object> {
      * are allowed: String, int, long, boolean (TODO what do we need?).
      */
     public Map<String, String> getProperties() {
-        return m_properties;
+        Map<String, String> result = m_properties;
+        if (result == null && m_encodedProperties != null) {
+            synchronized (this) {
+                result = m_properties;
+                if (result == null) {
+                    m_properties = result = decodeProperties(m_encodedProperties);
+                }
+            }
+        }
+        return result;
     }
 
     public boolean equals(Object o) {
@@ -192,4 +262,106 @@ public class Event implements Comparable<Object> {
         }
         return 0;
     }
+
+    private static Map<String, String> decodeProperties(String encoded) {
+        Map<String, String> result = new HashMap<>();
+        int end = encoded.length();
+        int pos = 0;
+        while (pos <= end) {
+            int keyEnd = indexOf(encoded, pos, end);
+            int valueEnd = indexOf(encoded, keyEnd + 1, end);
+            result.put(encoded.substring(pos, keyEnd), Codec.decode(encoded, keyEnd + 1, valueEnd));
+            pos = valueEnd + 1;
+        }
+        return result;
+    }
+
+    /**
+     * Verifies that the given encoded properties consist of key-value pairs with properly escaped values, so that
+     * decoding them lazily cannot fail.
+     */
+    private static String validateProperties(String encoded) {
+        int end = encoded.length();
+        if (end == 0) {
+            // a trailing comma, which is silently ignored...
+            return null;
+        }
+        int pos = 0;
+        while (pos <= end) {
+            int keyEnd = indexOf(encoded, pos, end);
+            if (keyEnd == end) {
+                throw new IllegalArgumentException("Missing value for property: " + encoded.substring(pos));
+            }
+            int valueEnd = indexOf(encoded, keyEnd + 1, end);
+            Codec.validate(encoded, keyEnd + 1, valueEnd);
+            pos = valueEnd + 1;
+        }
+        return encoded;
+    }
+
+    /**
+     * @return the index of the first comma at or after the given position, or <tt>end</tt> if there is none.
+     */
+    private static int indexOf(String source, int pos, int end) {
+        int result = source.indexOf(',', pos);
+        return (result < 0 || result > end) ? end : result;
+    }
+
+    private static int indexOf(byte[] buffer, int pos, int end) {
+        while (pos < end && buffer[pos] != ',') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static long parseLong(String source, int begin, int end) {
+        long result = 0L;
+        boolean negative = begin < end && source.charAt(begin) == '-';
+        int i = negative ? begin + 1 : begin;
+        if (i >= end || end - i > 19) {
+            throw new NumberFormatException("Invalid number: " + source.substring(begin, end));
+        }
+        for (; i < end; i++) {
+            int digit = source.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid number: " + source.substring(begin, end));
+            }
+            result = result * 10 - digit;
+        }
+        return checkRange(negative, result);
+    }
+
+    private static long parseLong(byte[] buffer, int begin, int end) {
+        long result = 0L;
+        boolean negative = begin < end && buffer[begin] == '-';
+        int i = negative ? begin + 1 : begin;
+        if (i >= end || end - i > 19) {
+            throw new NumberFormatException("Invalid number at offset " + begin);
+        }
+        for (; i < end; i++) {
+            int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid number at offset " + begin);
+            }
+            result = result * 10 - digit;
+        }
+        return checkRange(negative, result);
+    }
+
+    private static int toInt(long value) {
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("Number out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Numbers are accumulated negatively to be able to represent {@link Long#MIN_VALUE}; any overflow flips the sign.
+     */
+    private static long checkRange(boolean negative, long result) {
+        if (result > 0 || (!negative && result == Long.MIN_VALUE)) {
+            throw new NumberFormatException("Number out of range");
+        }
+        return negative ? result : -result;
+    }
 }
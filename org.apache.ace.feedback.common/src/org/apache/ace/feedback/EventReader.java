@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.feedback;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * Reads events, one per line, from a stream without materializing all of them at once. Malformed lines cause
+ * {@link #next()} to throw an {@link IllegalArgumentException}, after which reading can continue with the next line.
+ */
+public class EventReader implements Closeable {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final BufferedReader m_reader;
+    private final InputStream m_input;
+    private byte[] m_buffer;
+    private int m_pos;
+    private int m_limit;
+    private boolean m_eof;
+
+    /**
+     * Creates a new reader that reads the representations of events from the given reader.
+     */
+    public EventReader(Reader reader) {
+        m_reader = (reader instanceof BufferedReader) ? (BufferedReader) reader : new BufferedReader(reader);
+        m_input = null;
+    }
+
+    /**
+     * Creates a new reader that parses the UTF-8 encoded representations of events directly from the given stream.
+     */
+    public EventReader(InputStream input) {
+        m_reader = null;
+        m_input = input;
+        m_buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Reads the next event, skipping empty lines.
+     * 
+     * @return the next event, or <code>null</code> if the end of the stream is reached.
+     * @throws IllegalArgumentException
+     *             in case the next line does not represent a valid event.
+     * @throws IOException
+     *             in case reading from the underlying stream failed.
+     */
+    public Event next() throws IOException {
+        if (m_reader != null) {
+            String line;
+            do {
+                line = m_reader.readLine();
+            }
+            while (line != null && line.isEmpty());
+            return (line == null) ? null : new Event(line);
+        }
+
+        while (true) {
+            int start = m_pos;
+            int end = indexOfNewline(start);
+            if (end < 0) {
+                if (m_eof) {
+                    if (start == m_limit) {
+                        return null;
+                    }
+                    // last line without a trailing newline...
+                    end = m_limit;
+                }
+                else {
+                    fill();
+                    continue;
+                }
+            }
+            m_pos = Math.min(end + 1, m_limit);
+
+            int length = end - start;
+            if (length > 0 && m_buffer[end - 1] == '\r') {
+                length--;
+            }
+            if (length > 0) {
+                return new Event(m_buffer, start, length);
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        if (m_reader != null) {
+            m_reader.close();
+        }
+        else {
+            m_input.close();
+        }
+    }
+
+    private int indexOfNewline(int pos) {
+        for (int i = pos; i < m_limit; i++) {
+            if (m_buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads more data into our buffer, discarding the data that is already consumed and growing the buffer in case a
+     * single line does not fit in it.
+     */
+    private void fill() throws IOException {
+        if (m_pos > 0) {
+            System.arraycopy(m_buffer, m_pos, m_buffer, 0, m_limit - m_pos);
+            m_limit -= m_pos;
+            m_pos = 0;
+        }
+        if (m_limit == m_buffer.length) {
+            m_buffer = Arrays.copyOf(m_buffer, m_buffer.length * 2);
+        }
+        int read = m_input.read(m_buffer, m_limit, m_buffer.length - m_limit);
+        if (read < 0) {
+            m_eof = true;
+        }
+        else {
+            m_limit += read;
+        }
+    }
+}
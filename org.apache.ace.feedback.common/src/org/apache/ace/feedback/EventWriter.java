@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.feedback;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the representations of events, one per line, to a stream. A single buffer is reused for all events written.
+ */
+public class EventWriter implements Closeable, Flushable {
+    private final Writer m_writer;
+    private final StringBuilder m_builder = new StringBuilder(256);
+    private char[] m_chars = new char[256];
+
+    /**
+     * Creates a new writer that writes the representations of events to the given writer.
+     */
+    public EventWriter(Writer writer) {
+        m_writer = writer;
+    }
+
+    /**
+     * Creates a new writer that writes the UTF-8 encoded representations of events to the given stream.
+     */
+    public EventWriter(OutputStream output) {
+        this(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Writes the representation of the given event, followed by a newline.
+     */
+    public void write(Event event) throws IOException {
+        m_builder.setLength(0);
+        event.appendTo(m_builder);
+        m_builder.append('\n');
+
+        int length = m_builder.length();
+        if (length > m_chars.length) {
+            m_chars = new char[Math.max(length, m_chars.length * 2)];
+        }
+        m_builder.getChars(0, length, m_chars, 0);
+        m_writer.write(m_chars, 0, length);
+    }
+
+    public void flush() throws IOException {
+        m_writer.flush();
+    }
+
+    public void close() throws IOException {
+        m_writer.close();
+    }
+}
@@ -18,19 +18,29 @@
  */
 package org.apache.ace.feedback.util;
 
-import java.text.CharacterIterator;
-import java.text.StringCharacterIterator;
-
 public class Codec
 {
 
     public static String decode(String source) throws IllegalArgumentException {
-        StringBuffer result = new StringBuffer();
-        StringCharacterIterator sci = new StringCharacterIterator(source);
-        for (char c = sci.current(); c != CharacterIterator.DONE; c = sci.next()) {
+        return decode(source, 0, source.length());
+    }
+
+    /**
+     * Decodes the part of the given source between <tt>begin</tt> (inclusive) and <tt>end</tt> (exclusive). In case
+     * the source does not contain any escaped characters, no copy of the source is made.
+     */
+    public static String decode(String source, int begin, int end) throws IllegalArgumentException {
+        int i = source.indexOf('$', begin);
+        if (i < 0 || i >= end) {
+            return source.substring(begin, end);
+        }
+        StringBuilder result = new StringBuilder(end - begin);
+        result.append(source, begin, i);
+        for (; i < end; i++) {
+            char c = source.charAt(i);
             if (c == '$') {
-                c = sci.next();
-                if (c != CharacterIterator.DONE) {
+                if (++i < end) {
+                    c = source.charAt(i);
                     if (c == '$') {
                         result.append('$');
                     }
@@ -51,7 +61,7 @@ public class Codec
                     }
                 }
                 else {
-                    throw new IllegalArgumentException("Unexpected end of input: " + source);
+                    throw new IllegalArgumentException("Unexpected end of input: " + source.substring(begin, end));
                 }
             }
             else {
@@ -61,13 +71,47 @@ public class Codec
         return result.toString();
     }
 
+    /**
+     * Verifies that the part of the given source between <tt>begin</tt> (inclusive) and <tt>end</tt> (exclusive) can
+     * be decoded, without actually decoding it.
+     */
+    public static void validate(String source, int begin, int end) throws IllegalArgumentException {
+        for (int i = source.indexOf('$', begin); i >= 0 && i < end; i = source.indexOf('$', i + 2)) {
+            if (i + 1 >= end) {
+                throw new IllegalArgumentException("Unexpected end of input: " + source.substring(begin, end));
+            }
+            char c = source.charAt(i + 1);
+            if (c != '$' && c != 'k' && c != 'n' && c != 'r' && c != 'e') {
+                throw new IllegalArgumentException("Unknown escape character: " + c);
+            }
+        }
+    }
+
     public static String encode(String source) {
         if (source == null) {
             return "$e";
         }
-        StringBuffer result = new StringBuffer();
-        StringCharacterIterator sci = new StringCharacterIterator(source);
-        for (char c = sci.current(); c != CharacterIterator.DONE; c = sci.next()) {
+        for (int i = 0; i < source.length(); i++) {
+            if (needsEscape(source.charAt(i))) {
+                StringBuilder result = new StringBuilder(source.length() + 8);
+                encode(source, result);
+                return result.toString();
+            }
+        }
+        return source;
+    }
+
+    /**
+     * Encodes the given source and appends it to the given builder.
+     */
+    public static void encode(String source, StringBuilder result) {
+        if (source == null) {
+            result.append("$e");
+            return;
+        }
+        int length = source.length();
+        for (int i = 0; i < length; i++) {
+            char c = source.charAt(i);
             if (c == '$') {
                 result.append("$$");
             }
@@ -84,6 +128,9 @@ public class Codec
                 result.append(c);
             }
         }
-        return result.toString();
     }
-}
\ No newline at end of file
+
+    private static boolean needsEscape(char c) {
+        return c == '$' || c == ',' || c == '\n' || c == '\r';
+    }
+}
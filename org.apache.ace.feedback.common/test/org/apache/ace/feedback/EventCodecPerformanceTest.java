@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.feedback;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+/**
+ * Measures the throughput and allocation rate of encoding and decoding events, comparing the current codec with the
+ * original one (based on {@link StringTokenizer} and {@link StringBuffer}).
+ */
+public class EventCodecPerformanceTest {
+    private static final int EVENT_COUNT = 10000;
+    private static final int ITERATIONS = 20;
+
+    private Event[] m_events;
+    private String[] m_representations;
+    private byte[] m_stream;
+
+    @BeforeClass(alwaysRun = true)
+    protected void setUp() throws Exception {
+        m_events = new Event[EVENT_COUNT];
+        m_representations = new String[EVENT_COUNT];
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        EventWriter writer = new EventWriter(baos);
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            Map<String, String> props = new HashMap<>();
+            props.put("name", "org.apache.felix.bundle" + i);
+            props.put("version", "1.0." + i);
+            props.put("location", "http://localhost:8080/data/bundle-" + i + ".jar");
+            props.put("msg", "Installed, $ok$");
+
+            m_events[i] = new Event("target-" + (i % 10), 1, i + 1, System.currentTimeMillis(), AuditEvent.BUNDLE_INSTALLED, props);
+            m_representations[i] = m_events[i].toRepresentation();
+            writer.write(m_events[i]);
+        }
+        writer.close();
+        m_stream = baos.toByteArray();
+    }
+
+    @Test()
+    public void testDecodeThroughput() throws Exception {
+        measure("decode (legacy)", new Runnable() {
+            public void run() {
+                for (String representation : m_representations) {
+                    legacyDecode(representation);
+                }
+            }
+        });
+        measure("decode (string)", new Runnable() {
+            public void run() {
+                for (String representation : m_representations) {
+                    new Event(representation);
+                }
+            }
+        });
+        measure("decode (stream)", new Runnable() {
+            public void run() {
+                try {
+                    EventReader reader = new EventReader(new ByteArrayInputStream(m_stream));
+                    int count = 0;
+                    while (reader.next() != null) {
+                        count++;
+                    }
+                    reader.close();
+                    assertEquals(count, EVENT_COUNT);
+                }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    @Test()
+    public void testEncodeThroughput() throws Exception {
+        measure("encode (legacy)", new Runnable() {
+            public void run() {
+                for (Event event : m_events) {
+                    legacyEncode(event);
+                }
+            }
+        });
+        measure("encode (string)", new Runnable() {
+            public void run() {
+                for (Event event : m_events) {
+                    event.toRepresentation();
+                }
+            }
+        });
+        measure("encode (stream)", new Runnable() {
+            public void run() {
+                try {
+                    EventWriter writer = new EventWriter(new ByteArrayOutputStream(m_stream.length));
+                    for (Event event : m_events) {
+                        writer.write(event);
+                    }
+                    writer.close();
+                }
+                catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    @Test()
+    public void testPassThroughThroughput() throws Exception {
+        // decoding and re-encoding without looking at the properties, as done by the server log store...
+        measure("pass-through (legacy)", new Runnable() {
+            public void run() {
+                for (String representation : m_representations) {
+                    legacyEncode(legacyDecode(representation));
+                }
+            }
+        });
+        measure("pass-through", new Runnable() {
+            public void run() {
+                for (String representation : m_representations) {
+                    new Event(representation).toRepresentation();
+                }
+            }
+        });
+    }
+
+    private static void measure(String name, Runnable task) {
+        // warm up...
+        for (int i = 0; i < ITERATIONS; i++) {
+            task.run();
+        }
+
+        long allocated = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            task.run();
+        }
+        long elapsed = Math.max(1L, System.nanoTime() - start);
+        allocated = getAllocatedBytes() - allocated;
+
+        long events = (long) EVENT_COUNT * ITERATIONS;
+        double eventsPerSecond = events / (elapsed / 1e9);
+        if (allocated >= 0) {
+            System.out.printf("%-24s %,12.0f events/s, %,6d bytes allocated per event%n", name, eventsPerSecond, allocated / events);
+        }
+        else {
+            System.out.printf("%-24s %,12.0f events/s%n", name, eventsPerSecond);
+        }
+    }
+
+    /**
+     * @return the number of bytes allocated by the current thread, or a negative value if this is not supported.
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1L;
+    }
+
+    private static Event legacyDecode(String representation) {
+        StringTokenizer st = new StringTokenizer(representation, ",");
+        String targetID = legacyDecodeValue(st.nextToken());
+        long storeID = Long.parseLong(st.nextToken());
+        long id = Long.parseLong(st.nextToken());
+        long time = Long.parseLong(st.nextToken());
+        int type = Integer.parseInt(st.nextToken());
+        Map<String, String> properties = new HashMap<>();
+        while (st.hasMoreTokens()) {
+            properties.put(st.nextToken(), legacyDecodeValue(st.nextToken()));
+        }
+        return new Event(targetID, storeID, id, time, type, properties);
+    }
+
+    private static String legacyEncode(Event event) {
+        StringBuffer result = new StringBuffer();
+        result.append(legacyEncodeValue(event.getTargetID()));
+        result.append(',');
+        result.append(event.getStoreID());
+        result.append(',');
+        result.append(event.getID());
+        result.append(',');
+        result.append(event.getTime());
+        result.append(',');
+        result.append(event.getType());
+        Map<String, String> properties = event.getProperties();
+        for (String key : properties.keySet()) {
+            result.append(',');
+            result.append(key);
+            result.append(',');
+            result.append(legacyEncodeValue(properties.get(key)));
+        }
+        return result.toString();
+    }
+
+    private static String legacyDecodeValue(String source) {
+        StringBuffer result = new StringBuffer();
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '$') {
+                c = source.charAt(++i);
+                result.append(c == 'k' ? ',' : c == 'n' ? '\n' : c == 'r' ? '\r' : c);
+            }
+            else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static String legacyEncodeValue(String source) {
+        StringBuffer result = new StringBuffer();
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '$') {
+                result.append("$$");
+            }
+            else if (c == ',') {
+                result.append("$k");
+            }
+            else if (c == '\n') {
+                result.append("$n");
+            }
+            else if (c == '\r') {
+                result.append("$r");
+            }
+            else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.feedback;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test cases for {@link EventReader} and {@link EventWriter}.
+ */
+public class EventStreamTest {
+
+    @Test()
+    public void testWriteAndReadBytesOk() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        EventWriter writer = new EventWriter(baos);
+        // use events that do not fit in the read buffer of the reader at once...
+        for (int i = 1; i <= 1000; i++) {
+            writer.write(createEvent(i));
+        }
+        writer.close();
+
+        EventReader reader = new EventReader(new ByteArrayInputStream(baos.toByteArray()));
+        for (int i = 1; i <= 1000; i++) {
+            assertEvent(reader.next(), i);
+        }
+        assertNull(reader.next());
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test()
+    public void testWriteAndReadCharactersOk() throws Exception {
+        StringWriter sw = new StringWriter();
+        EventWriter writer = new EventWriter(sw);
+        for (int i = 1; i <= 10; i++) {
+            writer.write(createEvent(i));
+        }
+        writer.flush();
+
+        EventReader reader = new EventReader(new StringReader(sw.toString()));
+        for (int i = 1; i <= 10; i++) {
+            assertEvent(reader.next(), i);
+        }
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test()
+    public void testReadLargeEventOk() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            sb.append((char) ('a' + (i % 26)));
+        }
+        Map<String, String> props = new HashMap<>();
+        props.put("large", sb.toString());
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        EventWriter writer = new EventWriter(baos);
+        writer.write(new Event("target", 1, 1, 2, 3, props));
+        writer.write(createEvent(2));
+        writer.close();
+
+        EventReader reader = new EventReader(new ByteArrayInputStream(baos.toByteArray()));
+        assertEquals(reader.next().getProperties().get("large"), sb.toString());
+        assertEvent(reader.next(), 2);
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test()
+    public void testReadSkipsMalformedAndEmptyLines() throws Exception {
+        String input = "target,1,1,2,3\r\n\r\nthis is not an event\n\ntarget,1,2,2,3";
+
+        EventReader reader = new EventReader(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(reader.next().getID(), 1);
+        try {
+            reader.next();
+            fail("Expected IllegalArgumentException!");
+        }
+        catch (IllegalArgumentException e) {
+            // expected...
+            assertTrue(e.getMessage().contains("this is not an event"));
+        }
+        assertEquals(reader.next().getID(), 2);
+        assertNull(reader.next());
+        reader.close();
+    }
+
+    private static Event createEvent(int id) {
+        Map<String, String> props = new HashMap<>();
+        props.put("name", "bundle \u00e4\u00df,\n" + id);
+        props.put("id", Integer.toString(id));
+        return new Event("target", 1, id, System.currentTimeMillis(), AuditEvent.BUNDLE_INSTALLED, props);
+    }
+
+    private static void assertEvent(Event event, int id) {
+        assertEquals(event.getTargetID(), "target");
+        assertEquals(event.getID(), id);
+        assertEquals(event.getType(), AuditEvent.BUNDLE_INSTALLED);
+        assertEquals(event.getProperties().get("name"), "bundle \u00e4\u00df,\n" + id);
+        assertEquals(event.getProperties().get("id"), Integer.toString(id));
+    }
+}
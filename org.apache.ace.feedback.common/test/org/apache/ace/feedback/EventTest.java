@@ -20,11 +20,13 @@ package org.apache.ace.feedback;
 
 import static org.testng.Assert.*;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
 
+import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 /**
@@ -105,6 +107,84 @@ public class EventTest {
         assertEquals("value2", props.get("key2"));
     }
 
+    @Test()
+    public void testCreateEventFromBytesOk() throws Exception {
+        byte[] input = "xx,target,1234,1,2,3,key,v$kal\u00fce\n".getBytes(StandardCharsets.UTF_8);
+
+        Event event = new Event(input, 3, input.length - 4);
+
+        assertEquals(TARGET_ID, event.getTargetID());
+        assertEquals(STORE_ID, event.getStoreID());
+        assertEquals(1, event.getID());
+        assertEquals(2, event.getTime());
+        assertEquals(3, event.getType());
+        assertEquals("v,al\u00fce", event.getProperties().get("key"));
+    }
+
+    @Test()
+    public void testEncodedPropertiesAreRetained() throws Exception {
+        String input = "t$kgt,1234,1,2,3,key2,value$n2,key1,$e";
+
+        Event event = new Event(input);
+        // without accessing the properties, the representation is exactly the same...
+        assertEquals(input, event.toRepresentation());
+        assertEquals("other,1234,1,2,3,key2,value$n2,key1,$e", new Event("other", event).toRepresentation());
+
+        Map<String, String> props = event.getProperties();
+        assertEquals("value\n2", props.get("key2"));
+        assertTrue(props.containsKey("key1"));
+        assertNull(props.get("key1"));
+
+        props.put("key3", "value3");
+        assertEquals("value3", new Event(event.toRepresentation()).getProperties().get("key3"));
+    }
+
+    @Test()
+    public void testRoundTripOk() throws Exception {
+        Event event = new Event("$t,\r\n", Long.MIN_VALUE, Long.MAX_VALUE, -1, Integer.MIN_VALUE, createMap("k", "$,\n\r", "empty", ""));
+
+        Event copy = new Event(event.toRepresentation().getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(event.getTargetID(), copy.getTargetID());
+        assertEquals(event.getStoreID(), copy.getStoreID());
+        assertEquals(event.getID(), copy.getID());
+        assertEquals(event.getTime(), copy.getTime());
+        assertEquals(event.getType(), copy.getType());
+        assertEquals(event.getProperties(), copy.getProperties());
+    }
+
+    @Test()
+    public void testCreateEventWithoutPropertiesFromStringOk() throws Exception {
+        Event event = new Event("target,1234,1,2,3");
+
+        assertTrue(event.getProperties().isEmpty());
+        assertEquals("target,1234,1,2,3", event.toRepresentation());
+    }
+
+    @Test(dataProvider = "malformed", expectedExceptions = IllegalArgumentException.class)
+    public void testCreateEventFromMalformedStringFails(String input) throws Exception {
+        new Event(input);
+    }
+
+    @Test(dataProvider = "malformed", expectedExceptions = IllegalArgumentException.class)
+    public void testCreateEventFromMalformedBytesFails(String input) throws Exception {
+        new Event(input.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @DataProvider(name = "malformed")
+    public Object[][] createMalformedRepresentations() {
+        return new Object[][] {
+            { "" },
+            { "target,1234,1,2" },
+            { "target,1234,x,2,3" },
+            { "target,1234,1,2,3,key" },
+            { "target,1234,1,2,3,key,value$x" },
+            { "target,1234,1,2,99999999999" },
+            { "target,99999999999999999999,1,2,3" },
+            { "$q,1234,1,2,3" },
+        };
+    }
+
     private Dictionary<String, String> createDict(String... entries) {
         Dictionary<String, String> result = new Hashtable<>();
         for (int i = 0; i < entries.length; i += 2) {
@@ -19,8 +19,11 @@
 package org.apache.ace.log.server.servlet;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -32,6 +35,8 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.apache.ace.feedback.Descriptor;
 import org.apache.ace.feedback.Event;
+import org.apache.ace.feedback.EventReader;
+import org.apache.ace.feedback.EventWriter;
 import org.apache.ace.feedback.LowestID;
 import org.apache.ace.log.server.store.LogStore;
 import org.apache.ace.range.SortedRangeSet;
@@ -49,6 +54,10 @@ import org.osgi.service.log.LogService;
  * Accepting new audit log events:
  * http://host:port/auditlog/send - Gets a new log event and puts it in the store, the event is inside the request and should be a formatted as done in <code>Event.toRepresentation()</code>.
  *
+ * Synchronizing all logs of a target in a single request:
+ * http://host:port/auditlog/sync - The request starts with a descriptor for each log to synchronize, formatted as done in <code>Descriptor.toRepresentation()</code>,
+ * followed by an empty line and the new log events for these logs. After storing the events, the descriptors of the requested logs are returned.
+ *
  * Querying existing audit log events:
  * http://host:port/auditlog/receive - Return all known events
  * http://host:port/auditlog/receive?tid=myid - Return all known events belonging to the specified target ID
@@ -67,9 +76,13 @@ public class LogServlet extends HttpServlet {
     // response mime type
     private static final String TEXT_MIMETYPE = "text/plain";
 
+    // maximum number of received events that are kept in memory before they are stored
+    private static final int MAX_EVENTS_PER_PUT = 1024;
+
     // url path names available on the endpoint
     private static final String QUERY = "/query";
     private static final String SEND = "/send";
+    private static final String SYNC = "/sync";
     private static final String RECEIVE = "/receive";
     private static final String SEND_IDS = "/sendids";
     private static final String RECEIVE_IDS = "/receiveids";
@@ -99,6 +112,9 @@ public class LogServlet extends HttpServlet {
             if (SEND.equals(path) && !handleSend(request.getInputStream())) {
                 sendError(response, HttpServletResponse.SC_BAD_REQUEST, "Could not construct a log event for all events received");
             }
+            else if (SYNC.equals(path) && !handleSync(request.getInputStream(), response.getOutputStream())) {
+                sendError(response, HttpServletResponse.SC_BAD_REQUEST, "Could not construct a log descriptor or event for all data received");
+            }
             else if (SEND_IDS.equals(path) && !handleSendIDs(request.getInputStream())) {
                 sendError(response, HttpServletResponse.SC_BAD_REQUEST, "Could not set lowest IDs for all logs received");
             }
@@ -208,23 +224,67 @@ public class LogServlet extends HttpServlet {
 
     // Handle a call to the send 'command'
     protected boolean handleSend(ServletInputStream input) throws IOException {
+        return storeEvents(input);
+    }
+
+    // Handle a call to the sync 'command'
+    protected boolean handleSync(ServletInputStream input, ServletOutputStream output) throws IOException {
+        List<Descriptor> requested = new ArrayList<>();
+        boolean success = true;
+
+        // the descriptors are read without buffering, so the events that follow them are left in the input...
+        String line;
+        while ((line = readLine(input)) != null && !"".equals(line)) {
+            try {
+                requested.add(new Descriptor(line));
+            }
+            catch (IllegalArgumentException iae) {
+                success = false;
+                m_log.log(LogService.LOG_WARNING, "Could not construct descriptor from string: '" + line + "'");
+            }
+        }
+
+        if (line != null && !storeEvents(input)) {
+            success = false;
+        }
+        if (!success) {
+            return false;
+        }
+
+        // acknowledge all events we now have for the requested logs...
+        for (Descriptor descriptor : requested) {
+            Descriptor range = m_store.getDescriptor(descriptor.getTargetID(), descriptor.getStoreID());
+            output.print(range.toRepresentation() + "\n");
+        }
+        return true;
+    }
+
+    // reads all events from the given input and puts them in the store
+    private boolean storeEvents(InputStream input) throws IOException {
         List<Event> events = new ArrayList<>();
         boolean success = true;
 
-        BufferedReader reader = null;
+        EventReader reader = null;
         try {
-            reader = new BufferedReader(new InputStreamReader(input));
+            reader = new EventReader(input);
 
-            String eventString;
-            while ((eventString = reader.readLine()) != null) {
+            while (true) {
                 try {
-                    m_log.log(LogService.LOG_DEBUG, "Log event received: '" + eventString +"'");
-                    Event event = new Event(eventString);
+                    Event event = reader.next();
+                    if (event == null) {
+                        break;
+                    }
+                    m_log.log(LogService.LOG_DEBUG, "Log event received: " + event.getTargetID() + "/" + event.getStoreID() + "/" + event.getID());
                     events.add(event);
+                    if (events.size() >= MAX_EVENTS_PER_PUT) {
+                        // do not keep arbitrary large amounts of events in memory...
+                        m_store.put(events);
+                        events = new ArrayList<>();
+                    }
                 }
                 catch (IllegalArgumentException iae) {
                     success = false;
-                    m_log.log(LogService.LOG_WARNING, "Could not construct Event from string: '" + eventString + "'");
+                    m_log.log(LogService.LOG_WARNING, iae.getMessage());
                 }
             }
         }
@@ -238,7 +298,9 @@ public class LogServlet extends HttpServlet {
                 }
             }
         }
-        m_store.put(events);
+        if (!events.isEmpty()) {
+            m_store.put(events);
+        }
         return success;
     }
     
@@ -309,12 +371,30 @@ public class LogServlet extends HttpServlet {
 		}
 	}
 
+    // reads a single line from the given input, returns null if the end of the input is reached
+    private static String readLine(InputStream input) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = input.read()) != '\n') {
+            if (b < 0) {
+                return (line.size() == 0) ? null : new String(line.toByteArray(), StandardCharsets.UTF_8);
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
     // print string representations of all events in the specified range to the specified output
     private void outputRange(ServletOutputStream output, Descriptor range) throws IOException {
         List<Event> events = m_store.get(range);
+        EventWriter writer = new EventWriter(output);
         for (Event event : events) {
-            output.print(event.toRepresentation() + "\n");
+            writer.write(event);
         }
+        // do not close the writer, as it would close the servlet output as well...
+        writer.flush();
     }
 
     // send an error response
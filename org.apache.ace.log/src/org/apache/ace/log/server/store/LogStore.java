@@ -50,6 +50,35 @@ public interface LogStore
      */
     public static final String EVENT_PROP_LOG_EVENT = "Event";
 
+    /**
+     * Event topic that indicates that new Events have been added to a single log of the store in a single operation.
+     * The name of the log is available as EVENT_PROP_LOGNAME, the target and log as EVENT_PROP_TARGETID and
+     * EVENT_PROP_STOREID, and the IDs of the added Events as EVENT_PROP_RANGE. Depending on the configuration of the
+     * store, the added Events themselves are available as EVENT_PROP_LOG_EVENTS.
+     */
+    public static final String EVENT_BATCH_TOPIC = LogStore.class.getName().replace('.', '/') + "/Events";
+
+    /**
+     * Event property key containing the ID of the target whose log the Events have been added to.
+     */
+    public static final String EVENT_PROP_TARGETID = "targetID";
+
+    /**
+     * Event property key containing the ID (a <code>Long</code>) of the log the Events have been added to.
+     */
+    public static final String EVENT_PROP_STOREID = "storeID";
+
+    /**
+     * Event property key containing the representation of the <code>SortedRangeSet</code> with the IDs of all Events
+     * that have been added.
+     */
+    public static final String EVENT_PROP_RANGE = "range";
+
+    /**
+     * Event property key containing the (unmodifiable) list of Events that have been added, if present.
+     */
+    public static final String EVENT_PROP_LOG_EVENTS = "Events";
+
     /**
      * Return all events in a given range.
      *
@@ -0,0 +1,794 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.log.server.store.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.ace.feedback.Event;
+import org.apache.ace.range.Range;
+import org.apache.ace.range.SortedRangeSet;
+
+/**
+ * Provides the persistent storage of a single log of a single target.
+ * <p>
+ * Events are stored in a binary, append-only <em>main segment</em>, ordered by their ID. Each record consists of the
+ * event ID, the length of its representation and the (UTF-8 encoded) representation itself, so records can be skipped
+ * without parsing them. A sparse index, holding the offset of every {@value #INDEX_INTERVAL}th record, allows range
+ * queries to seek directly to the first requested event. Events that arrive out of order are appended to a small
+ * <em>merge segment</em> instead, which is merged into the main segment once it grows too large, or when events need
+ * to be removed because the maximum number of events is exceeded.
+ * </p>
+ * <p>
+ * The IDs of all stored events are kept in memory as a compact set of ranges, so descriptors can be answered without
+ * touching the disk. The index and ID set are built once, the first time the log is accessed, by scanning the record
+ * headers of both segments. Logs stored in the old, line-based text format are converted upon first access.
+ * </p>
+ * <p>
+ * This class relies on external locking: callers should hold a read lock while querying a log and a write lock while
+ * modifying it. Multiple readers can use the same log concurrently.
+ * </p>
+ */
+final class LogFile {
+    /** Marks a binary segment, the first byte (0xAC) can never start a valid UTF-8 encoded (text) log. */
+    private static final int MAGIC = 0xACE10600;
+    private static final int MAGIC_SIZE = 4;
+    /** The size of a record header, consisting of the event ID and the length of its representation. */
+    private static final int RECORD_HEADER_SIZE = 12;
+    /** The number of records between two entries in the sparse index. */
+    static final int INDEX_INTERVAL = 128;
+    /** The maximum number of records in the merge segment before it is merged into the main segment. */
+    static final int MAX_MERGE_RECORDS = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File m_file;
+    private final File m_mergeFile;
+    private final File m_lowestIDFile;
+
+    private volatile boolean m_loaded;
+    /** The lowest ID of this log, or -1 if not yet read. */
+    private volatile long m_lowestID = -1L;
+
+    /** The IDs of all events stored in both segments. */
+    private IDSet m_ids;
+
+    /** The length of the main segment. */
+    private long m_length;
+    /** The number of records in the main segment. */
+    private long m_count;
+    /** The highest ID in the main segment, only valid if it contains any records. */
+    private long m_high;
+    private long[] m_indexIDs;
+    private long[] m_indexOffsets;
+    private int m_indexSize;
+
+    /** The offsets of all records in the merge segment, by their ID. */
+    private final TreeMap<Long, Long> m_merge = new TreeMap<>();
+    /** The length of the merge segment. */
+    private long m_mergeLength;
+
+    /**
+     * Creates a new {@link LogFile} instance.
+     *
+     * @param file
+     *            the file of the main segment, also used as base name for all other files of this log.
+     */
+    LogFile(File file) {
+        m_file = file;
+        m_mergeFile = new File(file.getPath() + ".merge");
+        m_lowestIDFile = new File(file.getPath() + ".index");
+    }
+
+    /**
+     * Returns all stored events whose IDs are in the given set and not below the lowest ID of this log.
+     *
+     * @param set
+     *            the set of IDs to return the events for, cannot be <code>null</code>.
+     * @return a list with all matching events, ordered by their ID, never <code>null</code>.
+     */
+    List<Event> get(SortedRangeSet set) throws IOException {
+        load();
+
+        List<Event> result = new ArrayList<>();
+        if (m_ids.isEmpty()) {
+            return result;
+        }
+
+        long lowestID = getLowestID();
+        boolean merged = false;
+
+        RandomAccessFile main = (m_count > 0) ? new RandomAccessFile(m_file, "r") : null;
+        RandomAccessFile merge = m_merge.isEmpty() ? null : new RandomAccessFile(m_mergeFile, "r");
+        try {
+            Iterator<?> ranges = set.rangeIterator();
+            while (ranges.hasNext()) {
+                Range range = (Range) ranges.next();
+                long low = Math.max(range.getLow(), lowestID);
+                long high = range.getHigh();
+                if (low > high) {
+                    continue;
+                }
+
+                if (main != null && low <= m_high) {
+                    readMain(main, low, high, result);
+                }
+                if (merge != null) {
+                    for (Long offset : m_merge.subMap(low, true, high, true).values()) {
+                        merge.seek(offset);
+                        result.add(readEvent(merge));
+                        merged = true;
+                    }
+                }
+            }
+        }
+        finally {
+            closeSilently(main);
+            closeSilently(merge);
+        }
+
+        if (merged) {
+            Collections.sort(result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the representation of the set of IDs of all stored events that are not below the lowest ID of this log.
+     */
+    String getRangeRepresentation() throws IOException {
+        load();
+        return m_ids.toRepresentation(getLowestID());
+    }
+
+    /**
+     * Stores the given events, ignoring all events that are already stored.
+     *
+     * @param events
+     *            the events to store, should all belong to this log;
+     * @param maxEvents
+     *            the maximum number of events to keep, or 0 to keep all events.
+     * @return the events that were actually stored, never <code>null</code>.
+     */
+    List<Event> put(List<Event> events, int maxEvents) throws IOException {
+        load();
+
+        List<Event> sorted = new ArrayList<>(events);
+        Collections.sort(sorted);
+
+        List<Event> toMain = new ArrayList<>();
+        List<Event> toMerge = new ArrayList<>();
+        for (Event event : sorted) {
+            long id = event.getID();
+            if (m_ids.contains(id) || (!toMain.isEmpty() && toMain.get(toMain.size() - 1).getID() == id) || (!toMerge.isEmpty() && toMerge.get(toMerge.size() - 1).getID() == id)) {
+                // already stored...
+                continue;
+            }
+            if (m_count == 0 || id > m_high) {
+                toMain.add(event);
+            }
+            else {
+                toMerge.add(event);
+            }
+        }
+
+        try {
+            if (!toMerge.isEmpty()) {
+                appendMerge(toMerge);
+            }
+            if (!toMain.isEmpty()) {
+                appendMain(toMain);
+            }
+            if (m_merge.size() > MAX_MERGE_RECORDS || (maxEvents > 0 && m_ids.size() > maxEvents)) {
+                compact(maxEvents);
+            }
+        }
+        catch (IOException e) {
+            // Our in-memory state is no longer reliable, rebuild it upon next access...
+            m_loaded = false;
+            throw e;
+        }
+
+        List<Event> result = new ArrayList<>(toMerge.size() + toMain.size());
+        result.addAll(toMerge);
+        result.addAll(toMain);
+        return result;
+    }
+
+    /**
+     * Removes the events with the lowest IDs until at most the given number of events remain.
+     *
+     * @param maxEvents
+     *            the maximum number of events to keep, &gt; 0.
+     */
+    void trim(int maxEvents) throws IOException {
+        load();
+
+        if (m_ids.size() > maxEvents || !m_merge.isEmpty()) {
+            try {
+                compact(maxEvents);
+            }
+            catch (IOException e) {
+                m_loaded = false;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return the lowest ID of this log, events with a lower ID are no longer returned, 0 by default.
+     */
+    long getLowestID() {
+        long result = m_lowestID;
+        if (result < 0L) {
+            result = loadLowestID();
+        }
+        return result;
+    }
+
+    /**
+     * Raises the lowest ID of this log to the given value, if it is higher than the current lowest ID.
+     */
+    void setLowestID(long lowestID) throws IOException {
+        if (getLowestID() < lowestID) {
+            FileWriter fw = new FileWriter(m_lowestIDFile);
+            try {
+                fw.write(Long.toString(lowestID));
+            }
+            finally {
+                fw.close();
+            }
+            m_lowestID = lowestID;
+        }
+    }
+
+    private synchronized long loadLowestID() {
+        if (m_lowestID < 0L) {
+            long result = 0L;
+            if (m_lowestIDFile.isFile()) {
+                BufferedReader br = null;
+                try {
+                    br = new BufferedReader(new FileReader(m_lowestIDFile));
+                    result = Long.parseLong(br.readLine());
+                }
+                catch (Exception e) {
+                    // if the file somehow got corrupted we simply assume 0 as the default
+                }
+                finally {
+                    closeSilently(br);
+                }
+            }
+            m_lowestID = result;
+        }
+        return m_lowestID;
+    }
+
+    private void load() throws IOException {
+        if (!m_loaded) {
+            loadSynchronized();
+        }
+    }
+
+    /**
+     * Builds our in-memory state, which is guarded by our monitor as it can be done while holding a read lock.
+     */
+    private synchronized void loadSynchronized() throws IOException {
+        if (m_loaded) {
+            return;
+        }
+
+        m_ids = new IDSet();
+        m_length = 0L;
+        m_count = 0L;
+        m_high = 0L;
+        m_indexIDs = new long[16];
+        m_indexOffsets = new long[16];
+        m_indexSize = 0;
+        m_merge.clear();
+        m_mergeLength = 0L;
+
+        if (m_file.isFile() && m_file.length() > 0L && !isSegment(m_file)) {
+            convert();
+        }
+
+        m_length = scan(m_file, new RecordHandler() {
+            @Override
+            public void handle(long id, long offset) {
+                addToMain(id, offset);
+            }
+        });
+        m_mergeLength = scan(m_mergeFile, new RecordHandler() {
+            @Override
+            public void handle(long id, long offset) {
+                m_ids.add(id);
+                m_merge.put(id, offset);
+            }
+        });
+
+        m_loaded = true;
+    }
+
+    /**
+     * Scans all record headers of the given segment, truncating any incomplete record at its end.
+     *
+     * @return the length of the segment.
+     */
+    private static long scan(File file, RecordHandler handler) throws IOException {
+        long length = file.length();
+        if (length < MAGIC_SIZE) {
+            return 0L;
+        }
+
+        long offset = MAGIC_SIZE;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try {
+            in.readInt();
+            while (offset + RECORD_HEADER_SIZE <= length) {
+                long id = in.readLong();
+                int size = in.readInt();
+                if (size < 0 || offset + RECORD_HEADER_SIZE + size > length) {
+                    break;
+                }
+                skipFully(in, size);
+
+                handler.handle(id, offset);
+                offset += RECORD_HEADER_SIZE + size;
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        if (offset < length) {
+            // Remnant of an interrupted write...
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(offset);
+            }
+            finally {
+                raf.close();
+            }
+        }
+        return offset;
+    }
+
+    private void addToMain(long id, long offset) {
+        if (m_count % INDEX_INTERVAL == 0) {
+            if (m_indexSize == m_indexIDs.length) {
+                m_indexIDs = grow(m_indexIDs);
+                m_indexOffsets = grow(m_indexOffsets);
+            }
+            m_indexIDs[m_indexSize] = id;
+            m_indexOffsets[m_indexSize] = offset;
+            m_indexSize++;
+        }
+        m_ids.add(id);
+        m_high = id;
+        m_count++;
+    }
+
+    /**
+     * Reads all events with an ID in the given range from the main segment.
+     */
+    private void readMain(RandomAccessFile file, long low, long high, List<Event> result) throws IOException {
+        // Find the last indexed record at or below the requested ID...
+        int lo = 0;
+        int hi = m_indexSize - 1;
+        int idx = 0;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (m_indexIDs[mid] <= low) {
+                idx = mid;
+                lo = mid + 1;
+            }
+            else {
+                hi = mid - 1;
+            }
+        }
+
+        long offset = m_indexOffsets[idx];
+        file.seek(offset);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel()), BUFFER_SIZE));
+        while (offset < m_length) {
+            long id = in.readLong();
+            int size = in.readInt();
+            if (id > high) {
+                break;
+            }
+            if (id >= low) {
+                byte[] data = new byte[size];
+                in.readFully(data);
+                result.add(new Event(data));
+            }
+            else {
+                skipFully(in, size);
+            }
+            offset += RECORD_HEADER_SIZE + size;
+        }
+    }
+
+    private void appendMain(List<Event> events) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(m_file, true), BUFFER_SIZE));
+        try {
+            if (m_length == 0L) {
+                out.writeInt(MAGIC);
+                m_length = MAGIC_SIZE;
+            }
+            for (Event event : events) {
+                long offset = m_length;
+                m_length += writeRecord(out, event.getID(), event.toRepresentation().getBytes(StandardCharsets.UTF_8));
+                addToMain(event.getID(), offset);
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private void appendMerge(List<Event> events) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(m_mergeFile, true), BUFFER_SIZE));
+        try {
+            if (m_mergeLength == 0L) {
+                out.writeInt(MAGIC);
+                m_mergeLength = MAGIC_SIZE;
+            }
+            for (Event event : events) {
+                long offset = m_mergeLength;
+                m_mergeLength += writeRecord(out, event.getID(), event.toRepresentation().getBytes(StandardCharsets.UTF_8));
+                m_ids.add(event.getID());
+                m_merge.put(event.getID(), offset);
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Rewrites the main segment, merging in all records of the merge segment and removing the records with the lowest
+     * IDs in case more than the given number of events are stored. Records are copied without parsing them.
+     */
+    private void compact(int maxEvents) throws IOException {
+        long skip = (maxEvents > 0) ? Math.max(0L, m_ids.size() - maxEvents) : 0L;
+
+        // The merge segment is small, so we can simply read it into memory...
+        TreeMap<Long, byte[]> merged = new TreeMap<>();
+        if (!m_merge.isEmpty()) {
+            RandomAccessFile merge = new RandomAccessFile(m_mergeFile, "r");
+            try {
+                for (Map.Entry<Long, Long> entry : m_merge.entrySet()) {
+                    merge.seek(entry.getValue());
+                    merge.readLong();
+                    byte[] data = new byte[merge.readInt()];
+                    merge.readFully(data);
+                    merged.put(entry.getKey(), data);
+                }
+            }
+            finally {
+                merge.close();
+            }
+        }
+
+        File tempFile = new File(m_file.getPath() + ".tmp");
+        m_ids = new IDSet();
+        m_length = MAGIC_SIZE;
+        m_count = 0L;
+        m_high = 0L;
+        m_indexSize = 0;
+
+        DataInputStream in = (m_file.length() > MAGIC_SIZE) ? new DataInputStream(new BufferedInputStream(new FileInputStream(m_file), BUFFER_SIZE)) : null;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE));
+        try {
+            out.writeInt(MAGIC);
+
+            long nextID = -1L;
+            byte[] nextData = null;
+            if (in != null) {
+                in.readInt();
+            }
+            while (true) {
+                if (nextData == null && in != null) {
+                    try {
+                        nextID = in.readLong();
+                    }
+                    catch (EOFException e) {
+                        in.close();
+                        in = null;
+                        continue;
+                    }
+                    nextData = new byte[in.readInt()];
+                    in.readFully(nextData);
+                }
+
+                long id;
+                byte[] data;
+                Map.Entry<Long, byte[]> first = merged.firstEntry();
+                if (first != null && (nextData == null || first.getKey() < nextID)) {
+                    id = first.getKey();
+                    data = first.getValue();
+                    merged.pollFirstEntry();
+                }
+                else if (nextData != null) {
+                    id = nextID;
+                    data = nextData;
+                    nextData = null;
+                }
+                else {
+                    break;
+                }
+
+                if (skip > 0L) {
+                    skip--;
+                    continue;
+                }
+                long offset = m_length;
+                m_length += writeRecord(out, id, data);
+                addToMain(id, offset);
+            }
+        }
+        finally {
+            closeSilently(in);
+            out.close();
+        }
+
+        if (!tempFile.renameTo(m_file)) {
+            m_file.delete();
+            if (!tempFile.renameTo(m_file)) {
+                tempFile.delete();
+                throw new IOException("Unable to store log " + m_file);
+            }
+        }
+        m_mergeFile.delete();
+        m_merge.clear();
+        m_mergeLength = 0L;
+    }
+
+    /**
+     * Converts a log stored in the old, line-based text format into a main segment.
+     */
+    private void convert() throws IOException {
+        TreeMap<Long, Event> events = new TreeMap<>();
+        BufferedReader in = new BufferedReader(new FileReader(m_file));
+        try {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                if (!"".equals(line.trim())) {
+                    Event event = new Event(line);
+                    events.put(event.getID(), event);
+                }
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        File tempFile = new File(m_file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), BUFFER_SIZE));
+        try {
+            out.writeInt(MAGIC);
+            for (Event event : events.values()) {
+                writeRecord(out, event.getID(), event.toRepresentation().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        finally {
+            out.close();
+        }
+
+        if (!m_file.delete() || !tempFile.renameTo(m_file)) {
+            throw new IOException("Unable to convert log " + m_file);
+        }
+    }
+
+    private static boolean isSegment(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return file.length() >= MAGIC_SIZE && in.readInt() == MAGIC;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static int writeRecord(DataOutputStream out, long id, byte[] data) throws IOException {
+        out.writeLong(id);
+        out.writeInt(data.length);
+        out.write(data);
+        return RECORD_HEADER_SIZE + data.length;
+    }
+
+    private static Event readEvent(RandomAccessFile file) throws IOException {
+        file.readLong();
+        byte[] data = new byte[file.readInt()];
+        file.readFully(data);
+        return new Event(data);
+    }
+
+    private static void skipFully(DataInputStream in, int count) throws IOException {
+        while (count > 0) {
+            int skipped = in.skipBytes(count);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            count -= skipped;
+        }
+    }
+
+    private static long[] grow(long[] array) {
+        long[] result = new long[array.length * 2];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    private static void closeSilently(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            }
+            catch (IOException e) {
+                // Not much we can do
+            }
+        }
+    }
+
+    /**
+     * Callback for each record found while scanning a segment.
+     */
+    private static interface RecordHandler {
+        void handle(long id, long offset);
+    }
+
+    /**
+     * Compact, sorted set of IDs, stored as an array of disjoint and non-adjacent ranges.
+     */
+    static final class IDSet {
+        /** Low and high values of each range, stored pairwise. */
+        private long[] m_ranges = new long[8];
+        private int m_rangeCount;
+        private long m_size;
+
+        boolean isEmpty() {
+            return m_rangeCount == 0;
+        }
+
+        /**
+         * @return the number of IDs in this set.
+         */
+        long size() {
+            return m_size;
+        }
+
+        boolean contains(long id) {
+            int i = floor(id);
+            return i >= 0 && id <= m_ranges[2 * i + 1];
+        }
+
+        /**
+         * Adds the given ID to this set, which is optimized for adding IDs in ascending order.
+         *
+         * @return <code>true</code> if the ID was added, <code>false</code> if it was already present.
+         */
+        boolean add(long id) {
+            int last = m_rangeCount - 1;
+            if (last >= 0 && id > m_ranges[2 * last + 1]) {
+                if (id == m_ranges[2 * last + 1] + 1) {
+                    m_ranges[2 * last + 1] = id;
+                }
+                else {
+                    insert(m_rangeCount, id);
+                }
+                m_size++;
+                return true;
+            }
+
+            int i = floor(id);
+            if (i >= 0 && id <= m_ranges[2 * i + 1]) {
+                return false;
+            }
+            boolean joinsPrevious = i >= 0 && m_ranges[2 * i + 1] + 1 == id;
+            boolean joinsNext = i + 1 < m_rangeCount && m_ranges[2 * (i + 1)] - 1 == id;
+            if (joinsPrevious && joinsNext) {
+                m_ranges[2 * i + 1] = m_ranges[2 * (i + 1) + 1];
+                System.arraycopy(m_ranges, 2 * (i + 2), m_ranges, 2 * (i + 1), 2 * (m_rangeCount - i - 2));
+                m_rangeCount--;
+            }
+            else if (joinsPrevious) {
+                m_ranges[2 * i + 1] = id;
+            }
+            else if (joinsNext) {
+                m_ranges[2 * (i + 1)] = id;
+            }
+            else {
+                insert(i + 1, id);
+            }
+            m_size++;
+            return true;
+        }
+
+        /**
+         * @return the representation of this set, as used by {@link SortedRangeSet}, only including IDs at or above
+         *         the given lowest ID.
+         */
+        String toRepresentation(long lowestID) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < m_rangeCount; i++) {
+                long low = Math.max(m_ranges[2 * i], lowestID);
+                long high = m_ranges[2 * i + 1];
+                if (low > high) {
+                    continue;
+                }
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(low);
+                if (low != high) {
+                    sb.append('-').append(high);
+                }
+            }
+            return sb.toString();
+        }
+
+        /**
+         * @return the index of the last range whose low value is at or below the given ID, or -1 if there is none.
+         */
+        private int floor(long id) {
+            int lo = 0;
+            int hi = m_rangeCount - 1;
+            int result = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (m_ranges[2 * mid] <= id) {
+                    result = mid;
+                    lo = mid + 1;
+                }
+                else {
+                    hi = mid - 1;
+                }
+            }
+            return result;
+        }
+
+        private void insert(int index, long id) {
+            if (2 * (m_rangeCount + 1) > m_ranges.length) {
+                m_ranges = grow(m_ranges);
+            }
+            System.arraycopy(m_ranges, 2 * index, m_ranges, 2 * (index + 1), 2 * (m_rangeCount - index));
+            m_ranges[2 * index] = id;
+            m_ranges[2 * index + 1] = id;
+            m_rangeCount++;
+        }
+    }
+}
@@ -18,13 +18,9 @@
  */
 package org.apache.ace.log.server.store.impl;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -38,37 +34,49 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.ace.feedback.Descriptor;
 import org.apache.ace.feedback.Event;
 import org.apache.ace.log.server.store.LogStore;
-import org.apache.ace.range.Range;
 import org.apache.ace.range.SortedRangeSet;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedService;
 import org.osgi.service.event.EventAdmin;
 
 /**
- * A simple implementation of the LogStore interface.
+ * A simple implementation of the LogStore interface. Each log of each target is stored in its own {@link LogFile}.
  */
 public class LogStoreImpl implements LogStore, ManagedService {
 
     private static final String MAXIMUM_NUMBER_OF_EVENTS = "MaxEvents";
+    private static final String NOTIFICATION_MODE = "NotificationMode";
+    /** The number of locks used to guard all logs, should be a power of two. */
+    private static final int LOCK_STRIPES = 256;
 
     private volatile EventAdmin m_eventAdmin; /* Injected by dependency manager */
 
     // the dir to store logs in - init is in the start method
     private final File m_dir;
     private final String m_name;
-    private int m_maxEvents = 0;
+    private volatile int m_maxEvents = 0;
+    private volatile NotificationMode m_notificationMode = NotificationMode.EVENT;
 
-    private final ConcurrentMap<String, Set<Long>> m_locks = new ConcurrentHashMap<>();
-    private final Map<String, Long> m_fileToHighestID = new HashMap<>();
-    private final Map<String, Long> m_fileToLowestID = new HashMap<>();
+    /** Striped locks for all logs, readers of a log do not block each other, writers get exclusive access. */
+    private final ReentrantReadWriteLock[] m_locks;
+    /** The logs of all targets, by the absolute path of their file. */
+    private final ConcurrentMap<String, LogFile> m_logs = new ConcurrentHashMap<>();
 
     public LogStoreImpl(File baseDir, String name) {
         m_name = name;
         m_dir = new File(baseDir, "store");
+
+        m_locks = new ReentrantReadWriteLock[LOCK_STRIPES];
+        for (int i = 0; i < m_locks.length; i++) {
+            m_locks[i] = new ReentrantReadWriteLock(true /* fair */);
+        }
     }
 
     /*
@@ -81,104 +89,34 @@ public class LogStoreImpl implements LogStore, ManagedService {
     }
 
     public List<Event> get(Descriptor descriptor) throws IOException {
-        obtainLock(descriptor.getTargetID(), descriptor.getStoreID());
+        Lock lock = getLock(descriptor.getTargetID(), descriptor.getStoreID()).readLock();
+        lock.lock();
         try {
-            return getInternal(descriptor);
+            return getLog(descriptor.getTargetID(), descriptor.getStoreID()).get(descriptor.getRangeSet());
         }
         finally {
-            releaseLock(descriptor.getTargetID(), descriptor.getStoreID());
+            lock.unlock();
         }
     }
 
-    /**
-     * Retrieve the events that match the given descriptor. This method relies on external locking, the caller should
-     * take care of that.
-     * 
-     * @param descriptor
-     *            the events to retrieve
-     * @return the events that match
-     * @throws IOException
-     *             if anything goes wrong
-     */
-    private List<Event> getInternal(Descriptor descriptor) throws IOException {
-        final List<Event> result = new ArrayList<>();
-        final SortedRangeSet set = descriptor.getRangeSet();
-        BufferedReader in = null;
+    public Descriptor getDescriptor(String targetID, long logID) throws IOException {
+        Lock lock = getLock(targetID, logID).readLock();
+        lock.lock();
         try {
-            File log = getLogFile(descriptor.getTargetID(), descriptor.getStoreID());
-            if (!log.isFile()) {
-                return result;
-            }
-            in = new BufferedReader(new FileReader(log));
-            String file = log.getAbsolutePath();
-            long counter = 0;
-            long lowestID = getLowestIDInternal(descriptor.getTargetID(), descriptor.getStoreID());
-            for (String line = in.readLine(); line != null; line = in.readLine()) {
-                Event event = new Event(line);
-                long id = event.getID();
-                if (id < lowestID) {
-                	continue;
-                }
-                if (lowestID > 0 && id == lowestID) {
-                	counter = lowestID - 1;
-                }
-                if ((counter == -1) || ++counter != id) {
-                    counter = -1;
-                }
-				if (set.contains(id)) {
-                    result.add(event);
-                }
-            }
-            if (counter < 1) {
-                m_fileToHighestID.remove(file);
-            }
-            else {
-                m_fileToHighestID.put(file, counter);
-            }
+            return getDescriptorInternal(targetID, logID);
         }
         finally {
-            if (in != null) {
-                try {
-                    in.close();
-                }
-                catch (Exception ex) {
-                    // Not much we can do
-                }
-            }
+            lock.unlock();
         }
-        return result;
-    }
-
-    public Descriptor getDescriptor(String targetID, long logID) throws IOException {
-        return getDescriptorInternal(targetID, logID, true);
     }
 
+    /**
+     * Returns the descriptor of the given log, which is answered from the in-memory index of the log. This method
+     * relies on external locking, the caller should take care of that.
+     */
     private Descriptor getDescriptorInternal(String targetID, long logID) throws IOException {
-    	return getDescriptorInternal(targetID, logID, false);
-    }
-    
-    private Descriptor getDescriptorInternal(String targetID, long logID, boolean lock) throws IOException {
-        Long high = m_fileToHighestID.get(getLogFile(targetID, logID).getAbsolutePath());
-        long lowestID = getLowestIDInternal(targetID, logID);
-        if (high != null) {
-            long low = lowestID > 0 ? lowestID : 1;
-            if (low > high) {
-                return new Descriptor(targetID, logID, new SortedRangeSet(""));
-            }
-            else {
-            	Range r = new Range(low, high);
-            	return new Descriptor(targetID, logID, new SortedRangeSet(r.toRepresentation()));
-            }
-        }
-        Descriptor descriptor = new Descriptor(targetID, logID, SortedRangeSet.FULL_SET);
-		List<Event> events = lock ? get(descriptor) : getInternal(descriptor);
-
-        long[] idsArray = new long[events.size()];
-        int i = 0;
-        for (Event e : events) {
-            idsArray[i++] = e.getID();
-        }
-        return new Descriptor(targetID, logID, new SortedRangeSet(idsArray));
+        String representation = getLog(targetID, logID).getRangeRepresentation();
+        return new Descriptor(targetID, logID, new SortedRangeSet(representation));
     }
 
     public List<Descriptor> getDescriptors(String targetID) throws IOException {
@@ -207,20 +145,21 @@ public class LogStoreImpl implements LogStore, ManagedService {
         Map<String, Map<Long, List<Event>>> sorted = sort(events);
         for (String targetID : sorted.keySet()) {
             for (Long logID : sorted.get(targetID).keySet()) {
-                obtainLock(targetID, logID);
+                Lock lock = getLock(targetID, logID).writeLock();
+                lock.lock();
                 try {
                     put(targetID, logID, sorted.get(targetID).get(logID));
                 }
                 finally {
-                    releaseLock(targetID, logID);
+                    lock.unlock();
                 }
             }
         }
     }
 
     /**
-     * Add a list of events to the log of the given ids. This method relies on external locking, the caller should take
-     * care of that.
+     * Add a list of events to the log of the given ids. This method relies on external locking, the caller should hold
+     * the write lock of the log.
      * 
      * @param targetID
      *            the id of the target to append to its log.
@@ -236,89 +175,44 @@ public class LogStoreImpl implements LogStore, ManagedService {
             // nothing to add, so return
             return;
         }
-        // we actually need to distinguish between two scenarios here:
-        // 1. we can append events at the end of the existing file
-        // 2. we need to insert events in the existing file (meaning we have to
-        // rewrite basically the whole file)
-        String file = getLogFile(targetID, logID).getAbsolutePath();
-        Long highest = m_fileToHighestID.get(file);
-        boolean cached = false;
-        if (highest != null) {
-            if (highest.longValue() + 1 == list.get(0).getID()) {
-                cached = true;
-            }
-        }
-        List<Event> events = null;
-        if (!cached) {
-            events = getInternal(new Descriptor(targetID, logID, SortedRangeSet.FULL_SET));
-
-            // remove duplicates first
-            list.removeAll(events);
-        }
 
-        boolean removeEvents = false;
-        if (m_maxEvents > 0 && m_maxEvents < list.size() + events.size()) {
-            removeEvents = true;
-        }
+        createTargetDirectory(targetID);
 
-        if (!removeEvents && list.size() == 0) {
-            // nothing to add or remove anymore, so return
-            return;
+        // events that are already stored are ignored, in-order events are appended, all others are merged later on...
+        List<Event> stored = getLog(targetID, logID).put(list, m_maxEvents);
+        if (!stored.isEmpty()) {
+            notifyStored(targetID, logID, stored);
         }
+    }
 
-        PrintWriter out = null;
-        try {
-            File dir = getTargetDirectory(targetID);
-            if (!dir.isDirectory() && !dir.mkdirs()) {
-                throw new IOException("Unable to create backup store.");
-            }
-            if (!removeEvents && (cached || ((events.size() == 0) || (events.get(events.size() - 1).getID() < list.get(0).getID())))) {
-                // we can append to the existing file without need to remove records
-                out = new PrintWriter(new FileWriter(new File(dir, logID.toString()), true));
-            }
-            else {
-                // we have to merge the lists
-                list.addAll(events);
-                // and sort
-                Collections.sort(list);
-                // and remove if necessary
-                if (m_maxEvents > 0) {
-	                while (list.size() > m_maxEvents) {
-	                	list.remove(0);
-	                }
-                }
-                out = new PrintWriter(new FileWriter(new File(dir, logID.toString())));
-            }
-            long high = 0;
-            for (Event event : list) {
-                String representation = event.toRepresentation();
-                out.println(representation);
-                if (high < event.getID()) {
-                    high = event.getID();
-                }
-                else {
-                    high = Long.MAX_VALUE;
-                }
-                // send (eventadmin)event about a new (log)event being stored
+    /**
+     * Sends (eventadmin)events about new (log)events being stored, depending on the configured notification mode.
+     */
+    private void notifyStored(String targetID, long logID, List<Event> stored) {
+        NotificationMode mode = m_notificationMode;
+        if (mode == NotificationMode.EVENT) {
+            for (Event event : stored) {
                 Dictionary<String, Object> props = new Hashtable<>();
                 props.put(LogStore.EVENT_PROP_LOGNAME, m_name);
                 props.put(LogStore.EVENT_PROP_LOG_EVENT, event);
                 m_eventAdmin.postEvent(new org.osgi.service.event.Event(LogStore.EVENT_TOPIC, props));
             }
-            if ((cached) && (high < Long.MAX_VALUE)) {
-                m_fileToHighestID.put(file, new Long(high));
-            }
-            else {
-                m_fileToHighestID.remove(file);
-            }
         }
-        finally {
-            try {
-                out.close();
+        else {
+            long[] ids = new long[stored.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = stored.get(i).getID();
             }
-            catch (Exception ex) {
-                // Not much we can do
+
+            Dictionary<String, Object> props = new Hashtable<>();
+            props.put(LogStore.EVENT_PROP_LOGNAME, m_name);
+            props.put(LogStore.EVENT_PROP_TARGETID, targetID);
+            props.put(LogStore.EVENT_PROP_STOREID, Long.valueOf(logID));
+            props.put(LogStore.EVENT_PROP_RANGE, new SortedRangeSet(ids).toRepresentation());
+            if (mode == NotificationMode.BATCH_WITH_EVENTS) {
+                props.put(LogStore.EVENT_PROP_LOG_EVENTS, Collections.unmodifiableList(stored));
             }
+            m_eventAdmin.postEvent(new org.osgi.service.event.Event(LogStore.EVENT_BATCH_TOPIC, props));
         }
     }
 
@@ -339,9 +233,21 @@ public class LogStoreImpl implements LogStore, ManagedService {
 		return new File(getTargetDirectory(targetID), String.valueOf(logID));
 	}
 
-	private File getLogFileIndex(String targetID, Long logID) {
-		return new File(getTargetDirectory(targetID), String.valueOf(logID) + ".index");
-	}
+    /**
+     * Returns the (cached) log for the given target and log ID.
+     */
+    private LogFile getLog(String targetID, long logID) {
+        String key = getLogFile(targetID, logID).getAbsolutePath();
+        LogFile log = m_logs.get(key);
+        if (log == null) {
+            LogFile newLog = new LogFile(new File(key));
+            log = m_logs.putIfAbsent(key, newLog);
+            if (log == null) {
+                log = newLog;
+            }
+        }
+        return log;
+    }
 
     /**
      * Sort the given list of events into a map of maps according to the targetID and the logID of each event.
@@ -424,15 +330,27 @@ public class LogStoreImpl implements LogStore, ManagedService {
     @Override
     public void updated(Dictionary settings) throws ConfigurationException {
         if (settings != null) {
+            NotificationMode notificationMode = m_notificationMode;
+            String notificationModeValue = (String) settings.get(NOTIFICATION_MODE);
+            if (notificationModeValue != null) {
+                notificationMode = NotificationMode.fromValue(notificationModeValue);
+                if (notificationMode == null) {
+                    throw new ConfigurationException(NOTIFICATION_MODE, "should be one of 'event', 'batch' or 'batchWithEvents'");
+                }
+            }
+            int maxEvents = m_maxEvents;
             String maximumNumberOfEvents = (String) settings.get(MAXIMUM_NUMBER_OF_EVENTS);
             if (maximumNumberOfEvents != null) {
                 try {
-                    m_maxEvents = Integer.parseInt(maximumNumberOfEvents);
+                    maxEvents = Integer.parseInt(maximumNumberOfEvents);
                 }
                 catch (NumberFormatException nfe) {
                     throw new ConfigurationException(MAXIMUM_NUMBER_OF_EVENTS, "is not a number");
                 }
             }
+            // only apply the settings once all of them are valid...
+            m_notificationMode = notificationMode;
+            m_maxEvents = maxEvents;
         }
     }
 
@@ -462,70 +380,26 @@ public class LogStoreImpl implements LogStore, ManagedService {
     }
 
     private void clean(String targetID, Long logID) throws IOException {
-        obtainLock(targetID, logID);
+        Lock lock = getLock(targetID, logID).writeLock();
+        lock.lock();
         try {
-            List<Event> events = getInternal(new Descriptor(targetID, logID, SortedRangeSet.FULL_SET));
-            while (events.size() > m_maxEvents) {
-            	events.remove(0);
-            }
-            put(targetID, logID, events);
+            getLog(targetID, logID).trim(m_maxEvents);
         }
         finally {
-            releaseLock(targetID, logID);
+            lock.unlock();
         }
     }
 
-    private void obtainLock(String targetID, long logID) throws IOException {
-        Set<Long> newLockedLogs = new HashSet<>();
-        Set<Long> lockedLogs = m_locks.putIfAbsent(targetID, newLockedLogs);
-        if (lockedLogs == null) {
-            lockedLogs = newLockedLogs;
-        }
-        boolean alreadyLocked;
-
-        synchronized (lockedLogs) {
-            alreadyLocked = lockedLogs.contains(logID);
-            if (!alreadyLocked) {
-                // lock it now, we are working on it
-                lockedLogs.add(logID);
-            }
-        }
-
-        // try to obtain the lock if we could not lock it on the first try
-        if (alreadyLocked) {
-            int nrOfTries = 0;
-            while (alreadyLocked && nrOfTries++ < 10000) {
-                try {
-                    Thread.sleep(1);
-                }
-                catch (InterruptedException exception) {
-                    // Restore interrupted flag...
-                    Thread.currentThread().interrupt();
-                    break;
-                }
-
-                synchronized (lockedLogs) {
-                    alreadyLocked = lockedLogs.contains(logID);
-                    if (!alreadyLocked) {
-                        // lock it now, we are working on it
-                        lockedLogs.add(logID);
-                    }
-                }
-            }
-            // if the log is still locked throw an exception
-            if (alreadyLocked) {
-                throw new IOException("Could not obtain a lock for the store " + logID + " of target " + targetID);
-            }
-        }
+    /**
+     * Returns the lock guarding the given log of the given target. Locks are striped, so unrelated logs might share
+     * the same lock.
+     */
+    private ReadWriteLock getLock(String targetID, long logID) {
+        int hash = 31 * targetID.hashCode() + (int) (logID ^ (logID >>> 32));
+        hash ^= (hash >>> 16);
+        return m_locks[hash & (m_locks.length - 1)];
     }
 
-    private void releaseLock(String targetID, Long logID) {
-        Set<Long> lockedLogs = m_locks.get(targetID);
-        synchronized (lockedLogs) {
-            lockedLogs.remove(logID);
-        }
-    }
-    
     @Override
     public Event put(String targetID, int type, Dictionary dict) throws IOException {
         Map<String, String> props = new HashMap<>();
@@ -549,12 +423,13 @@ public class LogStoreImpl implements LogStore, ManagedService {
         	descriptor = new Descriptor(targetID, System.currentTimeMillis(), new SortedRangeSet(""));
         }
         long storeID = descriptor.getStoreID();
-        obtainLock(targetID, storeID);
+        Lock lock = getLock(targetID, storeID).writeLock();
+        lock.lock();
         try {
         	// re-fetch within the lock
         	descriptor = getDescriptorInternal(targetID, storeID);
             long high = descriptor.getRangeSet().getHigh();
-            long lowestID = getLowestIDInternal(targetID, storeID);
+            long lowestID = getLog(targetID, storeID).getLowestID();
             if (high < lowestID) {
                 high = lowestID - 1;
             }
@@ -565,78 +440,36 @@ public class LogStoreImpl implements LogStore, ManagedService {
             return result;
         }
         finally {
-        	releaseLock(targetID, storeID);
+            lock.unlock();
         }
     }
     
     @Override
     public void setLowestID(String targetID, long logID, long lowestID) throws IOException {
-        obtainLock(targetID, logID);
+        Lock lock = getLock(targetID, logID).writeLock();
+        lock.lock();
         try {
-	        long currentID = getLowestIDInternal(targetID, logID);
-	        if (currentID < lowestID) {
-		        FileWriter fw = null;
-		        try {
-		        	createTargetDirectory(targetID);
-		        	File index = getLogFileIndex(targetID, logID);
-					fw = new FileWriter(index);
-		        	fw.write(Long.toString(lowestID));
-		        	m_fileToLowestID.put(index.getAbsolutePath(), lowestID);
-		        }
-		        finally {
-	    			if (fw != null) {
-	    				try {
-	    					fw.close();
-	    				}
-	    				catch (IOException ioe) {}
-	    			}
-		        }
-	        }
+            LogFile log = getLog(targetID, logID);
+            if (log.getLowestID() < lowestID) {
+                createTargetDirectory(targetID);
+                log.setLowestID(lowestID);
+            }
         }
         finally {
-            releaseLock(targetID, logID);
-		}
+            lock.unlock();
+        }
     }
-    
+
     public long getLowestID(String targetID, long logID) throws IOException {
-        obtainLock(targetID, logID);
+        Lock lock = getLock(targetID, logID).readLock();
+        lock.lock();
         try {
-        	return getLowestIDInternal(targetID, logID);
+            return getLog(targetID, logID).getLowestID();
         }
         finally {
-            releaseLock(targetID, logID);
+            lock.unlock();
         }
     }
-    
-    private long getLowestIDInternal(String targetID, long logID) {
-    	File index = getLogFileIndex(targetID, logID);
-    	Long result = m_fileToLowestID.get(index.getAbsolutePath());
-    	if (result == null) {
-    		BufferedReader br = null;
-    		try {
-				br = new BufferedReader(new FileReader(index));
-    			String line = br.readLine();
-    			br.close();
-    			result = Long.parseLong(line);
-    			m_fileToLowestID.put(index.getAbsolutePath(), result);
-    		}
-    		catch (Exception nfe) {
-    			// if the file somehow got corrupted, or does not exist,
-    			// we simply assume 0 as the default
-    			m_fileToLowestID.put(index.getAbsolutePath(), 0L);
-    			return 0L;
-    		}
-    		finally {
-    			if (br != null) {
-    				try {
-						br.close();
-					}
-    				catch (IOException e) {}
-    			}
-    		}
-    	}
-    	return result;
-    }
 
     private static FilenameFilter LOGID_FILENAME_FILTER = new LogIDFilenameFilter();
     private static class LogIDFilenameFilter implements FilenameFilter {
@@ -651,4 +484,31 @@ public class LogStoreImpl implements LogStore, ManagedService {
 			}
 		}
     }
+
+    /**
+     * Determines how (eventadmin)events are sent for stored (log)events.
+     */
+    private static enum NotificationMode {
+        /** One event for each stored (log)event, see {@link LogStore#EVENT_TOPIC}. */
+        EVENT("event"),
+        /** One event for all (log)events stored in a single log at once, see {@link LogStore#EVENT_BATCH_TOPIC}. */
+        BATCH("batch"),
+        /** Like {@link #BATCH}, but also includes all stored (log)events in the event. */
+        BATCH_WITH_EVENTS("batchWithEvents");
+
+        private final String m_value;
+
+        private NotificationMode(String value) {
+            m_value = value;
+        }
+
+        static NotificationMode fromValue(String value) {
+            for (NotificationMode mode : values()) {
+                if (mode.m_value.equalsIgnoreCase(value.trim())) {
+                    return mode;
+                }
+            }
+            return null;
+        }
+    }
 }
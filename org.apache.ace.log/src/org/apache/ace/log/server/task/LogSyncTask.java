@@ -32,6 +32,7 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -218,7 +219,7 @@ public class LogSyncTask implements Job, LogSync {
                     receiveConnection = createConnection(url);
                     receiveInput = receiveConnection.getInputStream();
 
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(receiveInput));
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(receiveInput, StandardCharsets.UTF_8));
                     try {
                         readLogs(reader);
                     }
@@ -269,7 +270,7 @@ public class LogSyncTask implements Job, LogSync {
 
                 sendOutput = sendConnection.getOutputStream();
 
-                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(sendOutput));
+                BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(sendOutput, StandardCharsets.UTF_8));
                 try {
                     writeDelta(delta, writer);
                 }
@@ -22,6 +22,7 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Enumeration;
@@ -161,7 +162,7 @@ public class LogStoreImpl implements LogStore {
             while (store.hasNext()) {
                 long eventID = store.readCurrentID();
                 if ((eventID >= from) && (eventID <= to)) {
-                    result.add(new Event(new String(store.read())));
+                    result.add(new Event(store.read()));
                 } else {
                     store.skip();
                 }
@@ -264,7 +265,7 @@ public class LogStoreImpl implements LogStore {
             }
             
             Event result = new Event(null, m_store.getId(), getNextID(), System.currentTimeMillis(), type, props);
-            m_store.append(result.getID(), result.toRepresentation().getBytes());
+            m_store.append(result.getID(), result.toRepresentation().getBytes(StandardCharsets.UTF_8));
             return result;
         } 
         catch (IOException ex) {
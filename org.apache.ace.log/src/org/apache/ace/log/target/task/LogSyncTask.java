@@ -28,6 +28,7 @@ import java.net.ConnectException;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import org.amdatu.scheduling.Job;
@@ -144,7 +145,7 @@ public class LogSyncTask implements Job {
         SortedRangeSet delta = remoteRange.diffDest(localRange);
         RangeIterator rangeIterator = delta.iterator();
 
-        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(sendConnection.getOutputStream()));
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(sendConnection.getOutputStream(), StandardCharsets.UTF_8));
 
         if (rangeIterator.hasNext()) {
             long lowest = rangeIterator.next();
@@ -148,6 +148,44 @@ public class LogServletTest {
         assert expected.equals(actual);
     }
 
+    @Test()
+    public void syncLog() throws Exception {
+        MockServletInputStream input = new MockServletInputStream();
+        String events = m_event1.toRepresentation() + "\n" + m_event2.toRepresentation() + "\n";
+        input.setBytes((new Descriptor("tID", 123, new SortedRangeSet("1-2")).toRepresentation() + "\n\n" + events).getBytes());
+        MockServletOutputStream output = new MockServletOutputStream();
+        boolean result = m_logServlet.handleSync(input, output);
+        assert result;
+
+        String actual = "";
+        for (Event event : m_mockStore.m_events) {
+            actual = actual + event.toRepresentation() + "\n";
+        }
+        assert events.equals(actual) : "We expected '" + events + "', but received '" + actual + "'";
+        assert (m_range.toRepresentation() + "\n").equals(output.m_text);
+    }
+
+    @Test()
+    public void syncLogWithoutEvents() throws Exception {
+        MockServletInputStream input = new MockServletInputStream();
+        input.setBytes((new Descriptor("tID", 123, new SortedRangeSet("1-2")).toRepresentation() + "\n").getBytes());
+        MockServletOutputStream output = new MockServletOutputStream();
+        boolean result = m_logServlet.handleSync(input, output);
+        assert result;
+        assert m_mockStore.m_events.isEmpty();
+        assert (m_range.toRepresentation() + "\n").equals(output.m_text);
+    }
+
+    @Test()
+    public void syncLogWithMalformedDescriptor() throws Exception {
+        MockServletInputStream input = new MockServletInputStream();
+        input.setBytes(("garbage\n\n" + m_event1.toRepresentation() + "\n").getBytes());
+        MockServletOutputStream output = new MockServletOutputStream();
+        boolean result = m_logServlet.handleSync(input, output);
+        assert !result;
+        assert "".equals(output.m_text);
+    }
+
     private static class Tuple {
         private final String m_targetID;
         private final long m_logID;
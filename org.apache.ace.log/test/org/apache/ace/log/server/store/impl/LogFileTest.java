@@ -0,0 +1,246 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.log.server.store.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.ace.feedback.AuditEvent;
+import org.apache.ace.feedback.Event;
+import org.apache.ace.range.SortedRangeSet;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test cases for {@link LogFile}.
+ */
+public class LogFileTest {
+    private static final String TARGET_ID = "target";
+    private static final long STORE_ID = 1L;
+
+    private File m_dir;
+    private File m_file;
+
+    @BeforeMethod(alwaysRun = true)
+    protected void setUp() throws Exception {
+        m_dir = File.createTempFile("logfile", "test");
+        m_dir.delete();
+        m_dir.mkdirs();
+        m_file = new File(m_dir, String.valueOf(STORE_ID));
+    }
+
+    @AfterMethod(alwaysRun = true)
+    protected void tearDown() throws Exception {
+        for (File file : m_dir.listFiles()) {
+            file.delete();
+        }
+        m_dir.delete();
+    }
+
+    @Test
+    public void testAppendAndGetRanges() throws Exception {
+        LogFile log = new LogFile(m_file);
+        log.put(createEvents(1, 1000), 0);
+
+        assertEquals(log.getRangeRepresentation(), "1-1000");
+        assertIDs(log.get(SortedRangeSet.FULL_SET), 1, 1000);
+        // crosses several entries of the sparse index...
+        assertIDs(log.get(new SortedRangeSet("300-520")), 300, 520);
+        assertIDs(log.get(new SortedRangeSet("1000-2000")), 1000, 1000);
+        assertEquals(log.get(new SortedRangeSet("1001-2000")).size(), 0);
+
+        List<Event> events = log.get(new SortedRangeSet("5,129,900-901"));
+        assertEquals(events.size(), 4);
+        assertEquals(events.get(0).getID(), 5);
+        assertEquals(events.get(1).getID(), 129);
+        assertEquals(events.get(3).getID(), 901);
+    }
+
+    @Test
+    public void testIndexIsRebuiltUponReopen() throws Exception {
+        LogFile log = new LogFile(m_file);
+        log.put(createEvents(1, 500), 0);
+        log.put(createEvents(600, 700), 0);
+        log.put(createEvents(550, 560), 0);
+
+        LogFile reopened = new LogFile(m_file);
+        assertEquals(reopened.getRangeRepresentation(), "1-500,550-560,600-700");
+        assertIDs(reopened.get(new SortedRangeSet("550-600")), 550, 560, 600, 600);
+    }
+
+    @Test
+    public void testDuplicatesAreIgnored() throws Exception {
+        LogFile log = new LogFile(m_file);
+        assertEquals(log.put(createEvents(1, 10), 0).size(), 10);
+
+        List<Event> events = createEvents(5, 15);
+        events.addAll(createEvents(12, 12));
+        assertEquals(log.put(events, 0).size(), 5);
+
+        assertEquals(log.getRangeRepresentation(), "1-15");
+        assertIDs(log.get(SortedRangeSet.FULL_SET), 1, 15);
+    }
+
+    @Test
+    public void testOutOfOrderEventsAreMerged() throws Exception {
+        LogFile log = new LogFile(m_file);
+        log.put(createEvents(LogFile.MAX_MERGE_RECORDS * 2 + 1, LogFile.MAX_MERGE_RECORDS * 2 + 1), 0);
+
+        // Add all lower IDs one by one, in reverse order, causing at least one merge...
+        for (long id = LogFile.MAX_MERGE_RECORDS * 2; id > 0; id--) {
+            log.put(createEvents(id, id), 0);
+        }
+        assertTrue(m_file.length() > new File(m_dir, STORE_ID + ".merge").length());
+
+        assertEquals(log.getRangeRepresentation(), "1-" + (LogFile.MAX_MERGE_RECORDS * 2 + 1));
+        assertIDs(log.get(SortedRangeSet.FULL_SET), 1, LogFile.MAX_MERGE_RECORDS * 2 + 1);
+        assertIDs(new LogFile(m_file).get(new SortedRangeSet("10-20")), 10, 20);
+    }
+
+    @Test
+    public void testMaximumNumberOfEvents() throws Exception {
+        LogFile log = new LogFile(m_file);
+        log.put(createEvents(1, 100), 10);
+        assertEquals(log.getRangeRepresentation(), "91-100");
+
+        log.put(createEvents(50, 50), 10);
+        assertEquals(log.getRangeRepresentation(), "91-100");
+
+        log.trim(5);
+        assertIDs(log.get(SortedRangeSet.FULL_SET), 96, 100);
+        assertEquals(new LogFile(m_file).getRangeRepresentation(), "96-100");
+    }
+
+    @Test
+    public void testLowestID() throws Exception {
+        LogFile log = new LogFile(m_file);
+        assertEquals(log.getLowestID(), 0L);
+
+        log.put(createEvents(1, 20), 0);
+        log.setLowestID(10);
+        log.setLowestID(5);
+
+        assertEquals(log.getLowestID(), 10L);
+        assertEquals(log.getRangeRepresentation(), "10-20");
+        assertIDs(log.get(SortedRangeSet.FULL_SET), 10, 20);
+        assertEquals(new LogFile(m_file).getLowestID(), 10L);
+    }
+
+    @Test
+    public void testConvertTextLog() throws Exception {
+        PrintWriter pw = new PrintWriter(m_file);
+        try {
+            for (Event event : createEvents(3, 5)) {
+                pw.println(event.toRepresentation());
+            }
+            for (Event event : createEvents(1, 2)) {
+                pw.println(event.toRepresentation());
+            }
+        }
+        finally {
+            pw.close();
+        }
+
+        LogFile log = new LogFile(m_file);
+        assertEquals(log.getRangeRepresentation(), "1-5");
+        assertIDs(log.get(SortedRangeSet.FULL_SET), 1, 5);
+
+        log.put(createEvents(6, 6), 0);
+        assertIDs(new LogFile(m_file).get(SortedRangeSet.FULL_SET), 1, 6);
+    }
+
+    @Test
+    public void testIncompleteRecordIsDiscarded() throws Exception {
+        LogFile log = new LogFile(m_file);
+        log.put(createEvents(1, 10), 0);
+
+        RandomAccessFile raf = new RandomAccessFile(m_file, "rw");
+        try {
+            raf.setLength(raf.length() - 3);
+        }
+        finally {
+            raf.close();
+        }
+
+        log = new LogFile(m_file);
+        assertEquals(log.getRangeRepresentation(), "1-9");
+
+        log.put(createEvents(10, 11), 0);
+        assertIDs(new LogFile(m_file).get(SortedRangeSet.FULL_SET), 1, 11);
+    }
+
+    @Test
+    public void testIDSet() throws Exception {
+        LogFile.IDSet set = new LogFile.IDSet();
+        assertTrue(set.isEmpty());
+        assertTrue(set.add(5));
+        assertTrue(set.add(7));
+        assertTrue(set.add(1));
+        assertTrue(set.add(6));
+        assertFalse(set.add(6));
+        assertTrue(set.add(3));
+        assertTrue(set.add(2));
+
+        assertEquals(set.toRepresentation(0), "1-3,5-7");
+        assertEquals(set.toRepresentation(3), "3,5-7");
+        assertEquals(set.size(), 6);
+        assertTrue(set.contains(2));
+        assertFalse(set.contains(4));
+        assertFalse(set.contains(8));
+    }
+
+    private static void assertIDs(List<Event> events, long... lowHighPairs) {
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < lowHighPairs.length; i += 2) {
+            for (long id = lowHighPairs[i]; id <= lowHighPairs[i + 1]; id++) {
+                expected.add(id);
+            }
+        }
+        List<Long> actual = new ArrayList<>();
+        for (Event event : events) {
+            assertEquals(event.getTargetID(), TARGET_ID);
+            assertEquals(event.getProperties().get("id"), Long.toString(event.getID()));
+            actual.add(event.getID());
+        }
+        assertEquals(actual, expected);
+    }
+
+    private static List<Event> createEvents(long low, long high) throws IOException {
+        List<Event> result = new ArrayList<>();
+        for (long id = low; id <= high; id++) {
+            Map<String, String> props = new HashMap<>();
+            props.put("id", Long.toString(id));
+            result.add(new Event(TARGET_ID, STORE_ID, id, System.currentTimeMillis(), AuditEvent.FRAMEWORK_STARTED, props));
+        }
+        Collections.shuffle(result);
+        return result;
+    }
+}
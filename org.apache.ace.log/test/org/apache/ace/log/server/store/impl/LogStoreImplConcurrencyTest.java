@@ -24,6 +24,7 @@ import static org.testng.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
@@ -36,7 +37,9 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.ace.feedback.AuditEvent;
 import org.apache.ace.feedback.Descriptor;
 import org.apache.ace.feedback.Event;
 import org.apache.ace.range.RangeIterator;
@@ -197,7 +200,7 @@ public class LogStoreImplConcurrencyTest {
     /**
      * Tests that concurrent use of a {@link LogStoreImpl} with multiple readers and multiple writers works as expected.
      */
-    @Test(enabled = false)
+    @Test
     public void testConcurrentUseMultipleReaderAndMultipleWriters() throws Exception {
         File storeFile = File.createTempFile("feedback", ".store");
         storeFile.deleteOnExit();
@@ -260,7 +263,7 @@ public class LogStoreImplConcurrencyTest {
     /**
      * Tests that concurrent use of a {@link LogStoreImpl} with a single reader and multiple writers works as expected.
      */
-    @Test(enabled = false)
+    @Test
     public void testConcurrentUseSingleReaderAndMultipleWriters() throws Exception {
         File storeFile = File.createTempFile("feedback", ".store");
         storeFile.deleteOnExit();
@@ -349,6 +352,93 @@ public class LogStoreImplConcurrencyTest {
         verifyStoreContents(store, recordCount, writer);
     }
 
+    /**
+     * Stress test that measures the sustained ingest throughput of a {@link LogStoreImpl} when many targets
+     * concurrently push their events, while others are reading the descriptors of those targets.
+     */
+    @Test(timeOut = 300000 /* millis */)
+    public void testSustainedIngestWithManyTargets() throws Exception {
+        final int targetCount = 250;
+        final int batchCount = 40;
+        final int batchSize = 25;
+        final int writerThreads = 64;
+        final int readerCount = 4;
+
+        final LogStoreImpl store = createLogStore();
+
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch writersDone = new CountDownLatch(targetCount);
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong reads = new AtomicLong();
+
+        ExecutorService writerPool = Executors.newFixedThreadPool(writerThreads);
+        try {
+            for (int t = 0; t < targetCount; t++) {
+                final String targetID = "target-" + t;
+                writerPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            // each target pushes its events in batches, like an agent would do...
+                            for (int b = 0; b < batchCount; b++) {
+                                List<Event> batch = new ArrayList<>(batchSize);
+                                for (int i = 1; i <= batchSize; i++) {
+                                    long id = b * batchSize + i;
+                                    batch.add(new Event(targetID, STORE_ID, id, id, AuditEvent.BUNDLE_INSTALLED));
+                                }
+                                store.put(batch);
+                            }
+                        }
+                        catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                        finally {
+                            writersDone.countDown();
+                        }
+                    }
+                });
+            }
+
+            for (int r = 0; r < readerCount; r++) {
+                m_completionService.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        Random rnd = new Random();
+                        try {
+                            start.await();
+                            while (writersDone.getCount() > 0) {
+                                String targetID = "target-" + rnd.nextInt(targetCount);
+                                store.getDescriptor(targetID, STORE_ID);
+                                reads.incrementAndGet();
+                            }
+                        }
+                        catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }, Boolean.TRUE);
+            }
+
+            long startTime = System.nanoTime();
+            start.countDown();
+            assertTrue(writersDone.await(240, TimeUnit.SECONDS), "Not all targets finished in time?!");
+            long elapsed = Math.max(1L, System.nanoTime() - startTime);
+
+            long eventCount = (long) targetCount * batchCount * batchSize;
+            System.out.printf("Ingested %d events of %d targets in %.1f ms: %.0f events/s (%d concurrent descriptor reads).%n", eventCount, targetCount, elapsed / 1.0e6, eventCount / (elapsed / 1.0e9), reads.get());
+        }
+        finally {
+            writerPool.shutdownNow();
+        }
+
+        assertEquals(failures.get(), 0L, "Failures while reading or writing?!");
+        for (int t = 0; t < targetCount; t++) {
+            Descriptor descriptor = store.getDescriptor("target-" + t, STORE_ID);
+            assertEquals(descriptor.getRangeSet().toRepresentation(), "1-" + (batchCount * batchSize));
+        }
+    }
+
     @Test
     public void testTimedWrite() throws Exception {
         File storeFile = File.createTempFile("feedback", ".store");
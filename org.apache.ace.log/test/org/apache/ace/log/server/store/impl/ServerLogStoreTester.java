@@ -29,6 +29,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -36,7 +37,9 @@ import java.util.concurrent.TimeUnit;
 import org.apache.ace.feedback.AuditEvent;
 import org.apache.ace.feedback.Descriptor;
 import org.apache.ace.feedback.Event;
+import org.apache.ace.log.server.store.LogStore;
 import org.apache.ace.test.utils.TestUtils;
+import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.event.EventAdmin;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
@@ -44,6 +47,7 @@ import org.testng.annotations.Test;
 
 public class ServerLogStoreTester {
     private static final String MAXIMUM_NUMBER_OF_EVENTS = "MaxEvents";
+    private static final String NOTIFICATION_MODE = "NotificationMode";
 
     private LogStoreImpl m_logStore;
     private File m_dir;
@@ -418,6 +422,104 @@ public class ServerLogStoreTester {
         }
     }
 
+    @Test()
+    public void testBatchNotification() throws Exception {
+        RecordingEventAdmin eventAdmin = new RecordingEventAdmin();
+        TestUtils.configureObject(m_logStore, EventAdmin.class, eventAdmin);
+
+        Dictionary settings = new Properties();
+        settings.put(NOTIFICATION_MODE, "batch");
+        m_logStore.updated(settings);
+
+        m_logStore.put(createEvents("target", 1, 1, 10000));
+        // storing the same events again should not cause any notifications...
+        m_logStore.put(createEvents("target", 1, 1, 10));
+
+        assert eventAdmin.m_events.size() == 1 : "Expected a single batch event, got " + eventAdmin.m_events.size();
+        org.osgi.service.event.Event event = eventAdmin.m_events.get(0);
+        assert LogStore.EVENT_BATCH_TOPIC.equals(event.getTopic()) : "Unexpected topic: " + event.getTopic();
+        assert "log".equals(event.getProperty(LogStore.EVENT_PROP_LOGNAME));
+        assert "target".equals(event.getProperty(LogStore.EVENT_PROP_TARGETID));
+        assert Long.valueOf(1).equals(event.getProperty(LogStore.EVENT_PROP_STOREID));
+        assert "1-10000".equals(event.getProperty(LogStore.EVENT_PROP_RANGE)) : "Unexpected range: " + event.getProperty(LogStore.EVENT_PROP_RANGE);
+        assert event.getProperty(LogStore.EVENT_PROP_LOG_EVENTS) == null : "Batch event should not contain the log events!";
+    }
+
+    @Test()
+    public void testBatchNotificationWithEvents() throws Exception {
+        RecordingEventAdmin eventAdmin = new RecordingEventAdmin();
+        TestUtils.configureObject(m_logStore, EventAdmin.class, eventAdmin);
+
+        Dictionary settings = new Properties();
+        settings.put(NOTIFICATION_MODE, "batchWithEvents");
+        m_logStore.updated(settings);
+
+        m_logStore.put(createEvents("target", 1, 1, 5));
+        m_logStore.put(createEvents("target", 1, 4, 8));
+
+        assert eventAdmin.m_events.size() == 2 : "Expected two batch events, got " + eventAdmin.m_events.size();
+        org.osgi.service.event.Event event = eventAdmin.m_events.get(1);
+        assert "6-8".equals(event.getProperty(LogStore.EVENT_PROP_RANGE)) : "Unexpected range: " + event.getProperty(LogStore.EVENT_PROP_RANGE);
+        List<?> stored = (List<?>) event.getProperty(LogStore.EVENT_PROP_LOG_EVENTS);
+        assert stored != null && stored.size() == 3 : "Expected three log events in batch event!";
+    }
+
+    @Test()
+    public void testEventNotificationIsDefault() throws Exception {
+        RecordingEventAdmin eventAdmin = new RecordingEventAdmin();
+        TestUtils.configureObject(m_logStore, EventAdmin.class, eventAdmin);
+
+        m_logStore.put(createEvents("target", 1, 1, 100));
+
+        assert eventAdmin.m_events.size() == 100 : "Expected an event per log event, got " + eventAdmin.m_events.size();
+        for (org.osgi.service.event.Event event : eventAdmin.m_events) {
+            assert LogStore.EVENT_TOPIC.equals(event.getTopic()) : "Unexpected topic: " + event.getTopic();
+            assert event.getProperty(LogStore.EVENT_PROP_LOG_EVENT) instanceof Event;
+        }
+    }
+
+    @Test(expectedExceptions = ConfigurationException.class)
+    public void testInvalidNotificationMode() throws Exception {
+        Dictionary settings = new Properties();
+        settings.put(NOTIFICATION_MODE, "sometimes");
+        m_logStore.updated(settings);
+    }
+
+    @Test()
+    public void testInvalidNotificationModeKeepsCurrentMode() throws Exception {
+        RecordingEventAdmin eventAdmin = new RecordingEventAdmin();
+        TestUtils.configureObject(m_logStore, EventAdmin.class, eventAdmin);
+
+        Dictionary settings = new Properties();
+        settings.put(NOTIFICATION_MODE, "batch");
+        m_logStore.updated(settings);
+
+        settings.put(NOTIFICATION_MODE, "sometimes");
+        try {
+            m_logStore.updated(settings);
+            assert false : "Invalid notification mode should be refused!";
+        }
+        catch (ConfigurationException e) {
+            // Ok; expected...
+        }
+
+        m_logStore.put(createEvents("target", 1, 1, 5));
+
+        assert eventAdmin.m_events.size() == 1 : "Expected a single batch event, got " + eventAdmin.m_events.size();
+        assert LogStore.EVENT_BATCH_TOPIC.equals(eventAdmin.m_events.get(0).getTopic());
+    }
+
+    private List<Event> createEvents(String targetID, long logID, long low, long high) {
+        Map<String, String> props = new HashMap<>();
+        props.put("test", "bar");
+
+        List<Event> events = new ArrayList<>();
+        for (long id = low; id <= high; id++) {
+            events.add(new Event(targetID, logID, id, System.currentTimeMillis(), AuditEvent.FRAMEWORK_STARTED, props));
+        }
+        return events;
+    }
+
     private void delete(File root) {
         if (root.isDirectory()) {
             for (File child : root.listFiles()) {
@@ -426,4 +528,16 @@ public class ServerLogStoreTester {
         }
         root.delete();
     }
+
+    static class RecordingEventAdmin implements EventAdmin {
+        final List<org.osgi.service.event.Event> m_events = new CopyOnWriteArrayList<>();
+
+        public void postEvent(org.osgi.service.event.Event event) {
+            m_events.add(event);
+        }
+
+        public void sendEvent(org.osgi.service.event.Event event) {
+            m_events.add(event);
+        }
+    }
 }
@@ -18,7 +18,6 @@
  */
 package org.apache.ace.range;
 
-import java.util.ListIterator;
 import java.util.NoSuchElementException;
 
 import org.osgi.annotation.versioning.ProviderType;
@@ -32,13 +31,16 @@ import org.osgi.annotation.versioning.ProviderType;
  */
 @ProviderType
 public class RangeIterator {
-    private final ListIterator m_iterator;
-    private Range m_current;
+    private final long[] m_bounds;
+    private final int m_size;
+    private final boolean m_reverseOrder;
+    /** Index of the bounds of the current range, or -1 if iteration has not started yet. */
+    private int m_current = -1;
     private long m_number;
-    private boolean m_reverseOrder;
 
-    RangeIterator(ListIterator iterator, boolean reverseOrder) {
-        m_iterator = iterator;
+    RangeIterator(long[] bounds, int size, boolean reverseOrder) {
+        m_bounds = bounds;
+        m_size = size;
         m_reverseOrder = reverseOrder;
     }
 
@@ -51,11 +53,11 @@ public class RangeIterator {
     }
     
     private boolean hasNextElement() {
-        if (m_current == null) {
-            return m_iterator.hasNext();
+        if (m_current < 0) {
+            return m_size > 0;
         }
-        if (m_number == m_current.getHigh()) {
-            return m_iterator.hasNext();
+        if (m_number == m_bounds[m_current + 1]) {
+            return m_current + 2 < m_size;
         }
         else {
             return true;
@@ -63,11 +65,11 @@ public class RangeIterator {
     }
     
     private boolean hasPreviousElement() {
-        if (m_current == null) {
-            return m_iterator.hasPrevious();
+        if (m_current < 0) {
+            return m_size > 0;
         }
-        if (m_number == m_current.getLow()) {
-            return m_iterator.hasPrevious();
+        if (m_number == m_bounds[m_current]) {
+            return m_current > 0;
         }
         else {
             return true;
@@ -75,18 +77,18 @@ public class RangeIterator {
     }
 
     private long nextElement() {
-        if (m_current == null) {
-            if (m_iterator.hasNext()) {
-                m_current = (Range) m_iterator.next();
-                m_number = m_current.getLow();
+        if (m_current < 0) {
+            if (m_size > 0) {
+                m_current = 0;
+                m_number = m_bounds[m_current];
                 return m_number;
             }
         }
         else {
-            if (m_number == m_current.getHigh()) {
-                if (m_iterator.hasNext()) {
-                    m_current = (Range) m_iterator.next();
-                    m_number = m_current.getLow();
+            if (m_number == m_bounds[m_current + 1]) {
+                if (m_current + 2 < m_size) {
+                    m_current += 2;
+                    m_number = m_bounds[m_current];
                     return m_number;
                 }
             }
@@ -99,18 +101,18 @@ public class RangeIterator {
     }
 
     private long previousElement() {
-        if (m_current == null) {
-            if (m_iterator.hasPrevious()) {
-                m_current = (Range) m_iterator.previous();
-                m_number = m_current.getHigh();
+        if (m_current < 0) {
+            if (m_size > 0) {
+                m_current = m_size - 2;
+                m_number = m_bounds[m_current + 1];
                 return m_number;
             }
         }
         else {
-            if (m_number == m_current.getLow()) {
-                if (m_iterator.hasPrevious()) {
-                    m_current = (Range) m_iterator.previous();
-                    m_number = m_current.getHigh();
+            if (m_number == m_bounds[m_current]) {
+                if (m_current > 0) {
+                    m_current -= 2;
+                    m_number = m_bounds[m_current + 1];
                     return m_number;
                 }
             }
@@ -20,19 +20,24 @@ package org.apache.ace.range;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.StringTokenizer;
 
 import org.osgi.annotation.versioning.ProviderType;
 
 /**
  * Collection that stores a sorted set of ranges and is able to represent them
  * as a string.
+ * <p>
+ * The ranges are kept as a sorted array of interval bounds, so membership tests
+ * use a binary search and set operations take time linear in the number of ranges
+ * (instead of the number of values in them).
  */
 @ProviderType
 public class SortedRangeSet {
+    private static final long[] NO_BOUNDS = new long[0];
+
     /**
      * A static set which contains all possible values.
      */
@@ -42,7 +47,10 @@ public class SortedRangeSet {
         }
     };
 
-    private List<Range> m_ranges = new ArrayList<>();
+    /** Pairs of lower and upper bounds, in ascending order. */
+    private long[] m_bounds = NO_BOUNDS;
+    /** The number of used entries in {@link #m_bounds}, twice the number of ranges. */
+    private int m_size;
 
     /**
      * Creates a new instance from a string representation.
@@ -51,9 +59,25 @@ public class SortedRangeSet {
      * @throws NumberFormatException If the string representation does not contain a valid <code>SortedRangeSet</code>.
      */
     public SortedRangeSet(String representation) {
-        StringTokenizer st = new StringTokenizer(representation, ",");
-        while (st.hasMoreTokens()) {
-            m_ranges.add(new Range(st.nextToken()));
+        boolean ordered = true;
+        int length = representation.length();
+        int start = 0;
+        while (start < length) {
+            int end = representation.indexOf(',', start);
+            if (end < 0) {
+                end = length;
+            }
+            if (end > start) {
+                Range range = new Range(representation.substring(start, end));
+                ordered &= (m_size == 0) || (range.getLow() > m_bounds[m_size - 1]);
+                ensureCapacity(m_size + 2);
+                m_bounds[m_size++] = range.getLow();
+                m_bounds[m_size++] = range.getHigh();
+            }
+            start = end + 1;
+        }
+        if (!ordered) {
+            normalize();
         }
     }
 
@@ -65,26 +89,8 @@ public class SortedRangeSet {
      */
     public SortedRangeSet(long[] items) {
         Arrays.sort(items);
-        Range r = null;
         for (int i = 0; i < items.length; i++) {
-            if (r == null) {
-                r = new Range(items[i]);
-            }
-            else {
-                if (items[i] == r.getHigh()) {
-                    // ignore this duplicate
-                }
-                else if (items[i] == r.getHigh() + 1) {
-                    r.setHigh(items[i]);
-                }
-                else {
-                    m_ranges.add(r);
-                    r = new Range(items[i]);
-                }
-            }
-        }
-        if (r != null) {
-            m_ranges.add(r);
+            append(items[i], items[i]);
         }
     }
 
@@ -97,14 +103,15 @@ public class SortedRangeSet {
      * @return A string representation of the <code>SortedRangeSet</code>.
      */
     public String toRepresentation() {
-        StringBuffer result = new StringBuffer();
-        Iterator<Range> i = m_ranges.iterator();
-        while (i.hasNext()) {
-            Range r = i.next();
-            if (result.length() > 0) {
+        StringBuilder result = new StringBuilder(m_size * 8);
+        for (int i = 0; i < m_size; i += 2) {
+            if (i > 0) {
                 result.append(',');
             }
-            result.append(r.toRepresentation());
+            result.append(m_bounds[i]);
+            if (m_bounds[i] != m_bounds[i + 1]) {
+                result.append('-').append(m_bounds[i + 1]);
+            }
         }
         return result.toString();
     }
@@ -120,11 +127,29 @@ public class SortedRangeSet {
      */
     public SortedRangeSet diffDest(SortedRangeSet dest) {
         SortedRangeSet result = new SortedRangeSet();
-        RangeIterator i = dest.iterator();
-        while (i.hasNext()) {
-            long number = i.next();
-            if (!contains(number)) {
-                result.add(number);
+        int j = 0;
+        for (int i = 0; i < dest.m_size; i += 2) {
+            long low = dest.m_bounds[i];
+            long high = dest.m_bounds[i + 1];
+            // skip our ranges that lie entirely before the current one...
+            while (j < m_size && m_bounds[j + 1] < low) {
+                j += 2;
+            }
+            boolean remaining = true;
+            while (j < m_size && m_bounds[j] <= high) {
+                if (m_bounds[j] > low) {
+                    result.append(low, m_bounds[j] - 1);
+                }
+                if (m_bounds[j + 1] >= high) {
+                    // this range covers the rest of the current one, and possibly next ones as well...
+                    remaining = false;
+                    break;
+                }
+                low = m_bounds[j + 1] + 1;
+                j += 2;
+            }
+            if (remaining) {
+                result.append(low, high);
             }
         }
         return result;
@@ -137,56 +162,23 @@ public class SortedRangeSet {
      * @return <code>true</code> if the number was inside any range in this set
      */
     public boolean contains(long number) {
-        Iterator<Range> i = m_ranges.iterator();
-        while (i.hasNext()) {
-            Range r = i.next();
-            if (r.contains(number)) {
-                return true;
+        // binary search for the last range whose lower bound is not above the given number...
+        int low = 0;
+        int high = (m_size >> 1) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long bound = m_bounds[mid << 1];
+            if (bound < number) {
+                low = mid + 1;
             }
-        }
-        return false;
-    }
-
-    /**
-     * Adds a number to the set of ranges. Tries to be as smart as possible about it.
-     *
-     * @param number the number to add
-     */
-    private void add(long number) {
-        ListIterator<Range> i = m_ranges.listIterator();
-        while (i.hasNext()) {
-            int index = i.nextIndex();
-            Range r = i.next();
-            if (r.contains(number)) {
-                return;
+            else if (bound > number) {
+                high = mid - 1;
             }
-            long low = r.getLow();
-            long high = r.getHigh();
-            if (number < low) {
-                if (number == (low - 1)) {
-                    r.setLow(number);
-                    return;
-                }
-                else {
-                    Range nr = new Range(number);
-                    m_ranges.add(index, nr);
-                    return;
-                }
-            }
-            if (number == (high + 1)) {
-                r.setHigh(number);
-                if (i.hasNext()) {
-                    Range nr = (Range) i.next();
-                    if (number == nr.getLow() - 1) {
-                        r.setHigh(nr.getHigh());
-                        i.remove();
-                    }
-                }
-                return;
+            else {
+                return true;
             }
         }
-        Range nr = new Range(number);
-        m_ranges.add(nr);
+        return high >= 0 && number <= m_bounds[(high << 1) + 1];
     }
 
     /**
@@ -195,7 +187,7 @@ public class SortedRangeSet {
      * @return a range iterator
      */
     public RangeIterator iterator() {
-        return new RangeIterator(m_ranges.listIterator(), false);
+        return new RangeIterator(m_bounds, m_size, false);
     }
     
     /**
@@ -204,16 +196,21 @@ public class SortedRangeSet {
      * @return a range iterator
      */
     public RangeIterator reverseIterator() {
-        return new RangeIterator(m_ranges.listIterator(m_ranges.size()), true);
+        return new RangeIterator(m_bounds, m_size, true);
     }
     
     /**
      * Returns an iterator that iterates over all the <code>Range</code> instances in this set.
+     * Modifying the returned ranges does not affect this set.
      * 
      * @return an iterator of <code>Range</code> objects
      */
     public Iterator rangeIterator() {
-        return m_ranges.iterator();
+        List<Range> result = new ArrayList<>(m_size >> 1);
+        for (int i = 0; i < m_size; i += 2) {
+            result.add(new Range(m_bounds[i], m_bounds[i + 1]));
+        }
+        return result.iterator();
     }
 
     /**
@@ -223,10 +220,8 @@ public class SortedRangeSet {
      *     or <code>0</code> if the <code>SortedRangeSet</code> is empty.
      */
     public long getHigh() {
-        int size = m_ranges.size();
-        if (size > 0) {
-            Range range = m_ranges.get(size - 1);
-            return range.getHigh();
+        if (m_size > 0) {
+            return m_bounds[m_size - 1];
         }
         else {
             return 0;
@@ -241,21 +236,95 @@ public class SortedRangeSet {
      */
     public SortedRangeSet union(SortedRangeSet dest) {
         SortedRangeSet result = new SortedRangeSet();
-        RangeIterator i = dest.iterator();
-        while (i.hasNext()) {
-            long number = i.next();
-            result.add(number);
+        result.ensureCapacity(m_size + dest.m_size);
+        int i = 0;
+        int j = 0;
+        while (i < m_size || j < dest.m_size) {
+            if (j >= dest.m_size || (i < m_size && m_bounds[i] <= dest.m_bounds[j])) {
+                result.append(m_bounds[i], m_bounds[i + 1]);
+                i += 2;
+            }
+            else {
+                result.append(dest.m_bounds[j], dest.m_bounds[j + 1]);
+                j += 2;
+            }
         }
-        i = iterator();
-        while (i.hasNext()) {
-            long number = i.next();
-            result.add(number);
+        return result;
+    }
+
+    /**
+     * Returns the intersection of this set and the provided set.
+     * 
+     * @param dest a set to intersect with ourselves
+     * @return the resulting set
+     */
+    public SortedRangeSet intersection(SortedRangeSet dest) {
+        SortedRangeSet result = new SortedRangeSet();
+        int i = 0;
+        int j = 0;
+        while (i < m_size && j < dest.m_size) {
+            long low = Math.max(m_bounds[i], dest.m_bounds[j]);
+            long high = Math.min(m_bounds[i + 1], dest.m_bounds[j + 1]);
+            if (low <= high) {
+                result.append(low, high);
+            }
+            // advance the range that ends first, as it cannot overlap with anything else...
+            if (m_bounds[i + 1] < dest.m_bounds[j + 1]) {
+                i += 2;
+            }
+            else {
+                j += 2;
+            }
         }
         return result;
     }
-    
+
     @Override
     public String toString() {
         return "SortedRangeSet[" + toRepresentation() + "]";
     }
-}
\ No newline at end of file
+
+    /**
+     * Appends a range that does not start before the last range in this set, merging it with that range if they
+     * overlap or are adjacent.
+     */
+    private void append(long low, long high) {
+        if (m_size > 0) {
+            long last = m_bounds[m_size - 1];
+            if (low <= last || low - last == 1) {
+                if (high > last) {
+                    m_bounds[m_size - 1] = high;
+                }
+                return;
+            }
+        }
+        ensureCapacity(m_size + 2);
+        m_bounds[m_size++] = low;
+        m_bounds[m_size++] = high;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > m_bounds.length) {
+            m_bounds = Arrays.copyOf(m_bounds, Math.max(capacity, m_bounds.length * 2));
+        }
+    }
+
+    /**
+     * Sorts the ranges in this set and merges the overlapping ones, in case a representation contains them out of order.
+     */
+    private void normalize() {
+        Range[] ranges = new Range[m_size >> 1];
+        for (int i = 0; i < m_size; i += 2) {
+            ranges[i >> 1] = new Range(m_bounds[i], m_bounds[i + 1]);
+        }
+        Arrays.sort(ranges, new Comparator<Range>() {
+            public int compare(Range r1, Range r2) {
+                return Long.compare(r1.getLow(), r2.getLow());
+            }
+        });
+        m_size = 0;
+        for (Range range : ranges) {
+            append(range.getLow(), range.getHigh());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.range;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Measures the performance of the set operations of {@link SortedRangeSet}, comparing them with a naive
+ * implementation that visits every single number, as the original implementation did.
+ */
+public class SortedRangeSetPerformanceTest {
+    private static final int ITERATIONS = 1000;
+
+    @DataProvider(name = "rangeSizes")
+    public Object[][] createRangeSizes() {
+        // number of values, number of gaps...
+        return new Object[][] { { 10000, 1 }, { 100000, 100 }, { 1000000, 1000 } };
+    }
+
+    @Test(dataProvider = "rangeSizes", timeOut = 60000 /* millis */)
+    public void testDiffAndUnionThroughput(int values, int gaps) throws Exception {
+        SortedRangeSet local = new SortedRangeSet("1-" + values);
+        SortedRangeSet remote = createRangeSetWithGaps(values, gaps);
+
+        // the original implementation, only done once, as it is way slower...
+        long start = System.nanoTime();
+        SortedRangeSet naiveDiff = naiveDiffDest(remote, local);
+        long naive = Math.max(1L, System.nanoTime() - start);
+
+        SortedRangeSet diff = null;
+        SortedRangeSet union = null;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            diff = remote.diffDest(local);
+            union = remote.union(diff);
+        }
+        long elapsed = Math.max(1L, System.nanoTime() - start) / ITERATIONS;
+
+        assertEquals(diff.toRepresentation(), naiveDiff.toRepresentation());
+        assertEquals(union.toRepresentation(), local.toRepresentation());
+
+        System.out.printf("Diff of %d values with %d gaps: %,d ns (naive: %,d ns)%n", values, gaps, elapsed, naive);
+    }
+
+    @Test(dataProvider = "rangeSizes", timeOut = 60000 /* millis */)
+    public void testContainsThroughput(int values, int gaps) throws Exception {
+        SortedRangeSet remote = createRangeSetWithGaps(values, gaps);
+
+        int found = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            for (long number = 1; number <= values; number += 97) {
+                if (remote.contains(number)) {
+                    found++;
+                }
+            }
+        }
+        long elapsed = Math.max(1L, System.nanoTime() - start);
+        long lookups = (long) ITERATIONS * ((values + 96) / 97);
+
+        assertEquals(found > 0, true);
+        System.out.printf("Contains in %d values with %d gaps: %,.0f lookups/s%n", values, gaps, lookups / (elapsed / 1e9));
+    }
+
+    private static SortedRangeSet createRangeSetWithGaps(int values, int gaps) {
+        StringBuilder sb = new StringBuilder();
+        long step = values / (gaps + 1);
+        long low = 1;
+        for (int i = 0; i < gaps; i++) {
+            long high = low + step - 2;
+            sb.append(low).append('-').append(high).append(',');
+            low = high + 2;
+        }
+        sb.append(low).append('-').append(values);
+        return new SortedRangeSet(sb.toString());
+    }
+
+    private static SortedRangeSet naiveDiffDest(SortedRangeSet set, SortedRangeSet dest) {
+        long[] numbers = new long[16];
+        int count = 0;
+        RangeIterator i = dest.iterator();
+        while (i.hasNext()) {
+            long number = i.next();
+            if (!set.contains(number)) {
+                if (count == numbers.length) {
+                    numbers = Arrays.copyOf(numbers, count * 2);
+                }
+                numbers[count++] = number;
+            }
+        }
+        return new SortedRangeSet(Arrays.copyOf(numbers, count));
+    }
+}
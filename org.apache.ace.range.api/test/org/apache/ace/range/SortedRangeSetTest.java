@@ -19,6 +19,9 @@
 package org.apache.ace.range;
 
 import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
 
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -137,6 +140,93 @@ public class SortedRangeSetTest {
         Assert.assertEquals((new SortedRangeSet(new long[] { 3, 2, 1 })).toRepresentation(), (new SortedRangeSet(new long[] { 1, 2, 3, 2, 1 })).toRepresentation());
     }
 
+    @Test()
+    public void validateIntersection() throws Exception {
+        Assert.assertEquals(new SortedRangeSet("1-10").intersection(new SortedRangeSet("5-15")).toRepresentation(), "5-10");
+        Assert.assertEquals(new SortedRangeSet("1-5,8,12-20").intersection(new SortedRangeSet("4-8,11-13,20-30")).toRepresentation(), "4-5,8,12-13,20");
+        Assert.assertEquals(new SortedRangeSet("1-5").intersection(new SortedRangeSet("6-10")).toRepresentation(), "");
+        Assert.assertEquals(new SortedRangeSet("").intersection(new SortedRangeSet("1-10")).toRepresentation(), "");
+    }
+
+    @Test()
+    public void validateContains() throws Exception {
+        SortedRangeSet srs = new SortedRangeSet("1-5,8,10-15," + (Long.MAX_VALUE - 1) + "-" + Long.MAX_VALUE);
+        long[] in = { 1, 3, 5, 8, 10, 15, Long.MAX_VALUE - 1, Long.MAX_VALUE };
+        long[] out = { Long.MIN_VALUE, 0, 6, 7, 9, 16, Long.MAX_VALUE - 2 };
+        for (long number : in) {
+            Assert.assertTrue(srs.contains(number), "Should contain " + number);
+        }
+        for (long number : out) {
+            Assert.assertFalse(srs.contains(number), "Should not contain " + number);
+        }
+        Assert.assertFalse(new SortedRangeSet("").contains(0));
+    }
+
+    @Test()
+    public void validateUnorderedRepresentation() throws Exception {
+        // ordered representations are kept as is...
+        Assert.assertEquals(new SortedRangeSet("1-3,4-5,7").toRepresentation(), "1-3,4-5,7");
+        // unordered or overlapping ones are normalized...
+        Assert.assertEquals(new SortedRangeSet("7,1-3,2-5").toRepresentation(), "1-5,7");
+        Assert.assertTrue(new SortedRangeSet("7,1-3,2-5").contains(4));
+    }
+
+    @Test()
+    public void validateLargeRanges() throws Exception {
+        // these used to iterate over every single number...
+        SortedRangeSet local = new SortedRangeSet("1-" + Long.MAX_VALUE);
+        SortedRangeSet remote = new SortedRangeSet("1-5000000,5000002-10000000");
+        Assert.assertEquals(remote.diffDest(local).toRepresentation(), "5000001,10000001-" + Long.MAX_VALUE);
+        Assert.assertEquals(remote.union(new SortedRangeSet("5000001")).toRepresentation(), "1-10000000");
+        Assert.assertEquals(local.diffDest(remote).toRepresentation(), "");
+    }
+
+    @Test()
+    public void validateOperationsAgainstNaiveImplementation() throws Exception {
+        Random rnd = new Random(1234L);
+        for (int run = 0; run < 500; run++) {
+            Set<Long> set1 = createRandomSet(rnd);
+            Set<Long> set2 = createRandomSet(rnd);
+            SortedRangeSet srs1 = new SortedRangeSet(toArray(set1));
+            SortedRangeSet srs2 = new SortedRangeSet(toArray(set2));
+
+            Set<Long> diff = new TreeSet<>(set2);
+            diff.removeAll(set1);
+            Assert.assertEquals(srs1.diffDest(srs2).toRepresentation(), new SortedRangeSet(toArray(diff)).toRepresentation());
+
+            Set<Long> union = new TreeSet<>(set1);
+            union.addAll(set2);
+            Assert.assertEquals(srs1.union(srs2).toRepresentation(), new SortedRangeSet(toArray(union)).toRepresentation());
+
+            Set<Long> intersection = new TreeSet<>(set1);
+            intersection.retainAll(set2);
+            Assert.assertEquals(srs1.intersection(srs2).toRepresentation(), new SortedRangeSet(toArray(intersection)).toRepresentation());
+
+            for (long i = 0; i < 110; i++) {
+                Assert.assertEquals(srs1.contains(i), set1.contains(i));
+            }
+            Assert.assertEquals(new SortedRangeSet(srs1.toRepresentation()).toRepresentation(), srs1.toRepresentation());
+        }
+    }
+
+    private static Set<Long> createRandomSet(Random rnd) {
+        Set<Long> result = new TreeSet<>();
+        int count = rnd.nextInt(60);
+        for (int i = 0; i < count; i++) {
+            result.add((long) rnd.nextInt(100));
+        }
+        return result;
+    }
+
+    private static long[] toArray(Set<Long> set) {
+        long[] result = new long[set.size()];
+        int i = 0;
+        for (Long number : set) {
+            result[i++] = number;
+        }
+        return result;
+    }
+
     @Test(expectedExceptions = IllegalArgumentException.class)
     public void invalidRange() {
         new SortedRangeSet("8-5");
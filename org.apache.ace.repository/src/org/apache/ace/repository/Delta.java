@@ -0,0 +1,233 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Simple binary delta encoding: a target is described as a sequence of copies of ranges of a base and literal data.
+ * Matches are found by hashing blocks of the base and looking up a rolling hash of the target, much like rsync does.
+ * Used both for storing versions compactly and for exchanging {@link Journal}s.
+ */
+public final class Delta {
+    /** The size of the blocks of the base that are indexed. */
+    private static final int BLOCK_SIZE = 16;
+    /** Multiplier of the rolling hash. */
+    private static final int PRIME = 31;
+
+    private static final int OP_END = 0;
+    private static final int OP_COPY = 1;
+    private static final int OP_INSERT = 2;
+
+    private Delta() {
+        // Not used
+    }
+
+    /**
+     * Creates a delta that describes the given target in terms of the given base.
+     * 
+     * @param base
+     *            the base data, cannot be <code>null</code>;
+     * @param target
+     *            the data to describe, cannot be <code>null</code>.
+     * @return the delta, never <code>null</code>.
+     */
+    public static byte[] encode(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, target.length / 16));
+
+        int literalStart = 0;
+        if (base.length >= BLOCK_SIZE && target.length >= BLOCK_SIZE) {
+            int[] table = createIndex(base);
+            int mask = table.length - 1;
+
+            int pow = 1;
+            for (int i = 1; i < BLOCK_SIZE; i++) {
+                pow *= PRIME;
+            }
+
+            int pos = 0;
+            int hash = hash(target, 0);
+            while (pos + BLOCK_SIZE <= target.length) {
+                int candidate = table[mix(hash) & mask];
+                if (candidate >= 0 && regionEquals(base, candidate, target, pos, BLOCK_SIZE)) {
+                    int baseStart = candidate;
+                    int targetStart = pos;
+                    // extend the match backwards, into the pending literal data...
+                    while (targetStart > literalStart && baseStart > 0 && base[baseStart - 1] == target[targetStart - 1]) {
+                        baseStart--;
+                        targetStart--;
+                    }
+                    // ...and forwards, as far as possible...
+                    int baseEnd = candidate + BLOCK_SIZE;
+                    int targetEnd = pos + BLOCK_SIZE;
+                    while (targetEnd < target.length && baseEnd < base.length && base[baseEnd] == target[targetEnd]) {
+                        baseEnd++;
+                        targetEnd++;
+                    }
+
+                    writeInsert(out, target, literalStart, targetStart - literalStart);
+                    writeCopy(out, baseStart, targetEnd - targetStart);
+
+                    pos = literalStart = targetEnd;
+                    if (pos + BLOCK_SIZE <= target.length) {
+                        hash = hash(target, pos);
+                    }
+                }
+                else {
+                    if (pos + BLOCK_SIZE < target.length) {
+                        hash = (hash - target[pos] * pow) * PRIME + target[pos + BLOCK_SIZE];
+                    }
+                    pos++;
+                }
+            }
+        }
+        writeInsert(out, target, literalStart, target.length - literalStart);
+        out.write(OP_END);
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Applies a delta created by {@link #encode(byte[], byte[])} to the base it was created for.
+     * 
+     * @param base
+     *            the base data, cannot be <code>null</code>;
+     * @param delta
+     *            the delta to apply, cannot be <code>null</code>;
+     * @param length
+     *            the length of the resulting data, cannot be negative.
+     * @return the resulting data, never <code>null</code>.
+     * @throws IOException
+     *             in case the delta is corrupt or does not belong to the given base.
+     */
+    public static byte[] apply(byte[] base, byte[] delta, int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Invalid result length: " + length);
+        }
+        byte[] result = new byte[length];
+        int resultPos = 0;
+        int[] pos = { 0 };
+        try {
+            while (true) {
+                int op = delta[pos[0]++];
+                if (op == OP_END) {
+                    break;
+                }
+                int count = (int) readVarLong(delta, pos);
+                if (op == OP_COPY) {
+                    int offset = (int) readVarLong(delta, pos);
+                    System.arraycopy(base, offset, result, resultPos, count);
+                }
+                else if (op == OP_INSERT) {
+                    System.arraycopy(delta, pos[0], result, resultPos, count);
+                    pos[0] += count;
+                }
+                else {
+                    throw new IOException("Invalid delta operation: " + op);
+                }
+                resultPos += count;
+            }
+        }
+        catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt delta!", e);
+        }
+        if (resultPos != length) {
+            throw new IOException("Corrupt delta: expected " + length + " bytes, got " + resultPos);
+        }
+        return result;
+    }
+
+    /**
+     * Indexes the blocks of the given base by their hash, the first block wins in case of collisions.
+     */
+    private static int[] createIndex(byte[] base) {
+        int blocks = base.length / BLOCK_SIZE;
+        int size = Integer.highestOneBit(Math.max(16, blocks * 2 - 1)) << 1;
+        int[] table = new int[size];
+        Arrays.fill(table, -1);
+        for (int i = 0; i + BLOCK_SIZE <= base.length; i += BLOCK_SIZE) {
+            int slot = mix(hash(base, i)) & (size - 1);
+            if (table[slot] < 0) {
+                table[slot] = i;
+            }
+        }
+        return table;
+    }
+
+    private static int hash(byte[] data, int offset) {
+        int result = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            result = result * PRIME + data[offset + i];
+        }
+        return result;
+    }
+
+    /**
+     * Spreads the bits of a hash, as the rolling hash itself is not very random in its lower bits.
+     */
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B1;
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean regionEquals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void writeCopy(ByteArrayOutputStream out, int offset, int length) {
+        out.write(OP_COPY);
+        writeVarLong(out, length);
+        writeVarLong(out, offset);
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int offset, int length) {
+        if (length > 0) {
+            out.write(OP_INSERT);
+            writeVarLong(out, length);
+            out.write(data, offset, length);
+        }
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(byte[] data, int[] pos) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = data[pos[0]++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed number in delta!");
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.repository;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A journal describes a version of a repository in terms of another (base) version, and contains only the changes
+ * between both versions. Its size is therefore proportional to the size of the change, rather than to the size of the
+ * complete version.
+ * <p>
+ * As versions are often gzipped, the changes are computed between the uncompressed contents if both versions are
+ * gzipped, and the result of applying a journal is gzipped again in that case. Journals carry checksums of both their
+ * base and result, so they can never silently be applied to the wrong base.
+ */
+public final class Journal {
+    private static final int MAGIC = 0x41434A31; // "ACJ1"
+
+    private static final byte FORMAT_RAW = 0;
+    private static final byte FORMAT_GZIP = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * The maximum number of bytes a single byte of a (compressed) journal is allowed to expand into. Legitimate
+     * journals stay well below this, while it prevents a small journal from claiming an arbitrary large result.
+     */
+    private static final int MAX_EXPANSION = 256;
+
+    private Journal() {
+        // Not used
+    }
+
+    /**
+     * Creates a journal that describes the given target version in terms of the given base version.
+     * 
+     * @param base
+     *            the contents of the base version, can be <code>null</code> in case there is no base version;
+     * @param target
+     *            the contents of the target version, cannot be <code>null</code>.
+     * @return the journal, never <code>null</code>.
+     * @throws IOException
+     *             in case of problems reading the given streams, which are closed afterwards.
+     */
+    public static byte[] create(InputStream base, InputStream target) throws IOException {
+        byte[] baseData = readFully(base);
+        byte[] targetData = readFully(target);
+
+        byte format = FORMAT_RAW;
+        byte[] uncompressedBase = gunzip(baseData);
+        byte[] uncompressedTarget = gunzip(targetData);
+        if (uncompressedBase != null && uncompressedTarget != null) {
+            format = FORMAT_GZIP;
+            baseData = uncompressedBase;
+            targetData = uncompressedTarget;
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(Math.max(64, targetData.length / 16));
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(MAGIC);
+        dos.writeByte(format);
+        dos.writeInt(baseData.length);
+        dos.writeLong(checksum(baseData));
+        dos.writeInt(targetData.length);
+        dos.writeLong(checksum(targetData));
+
+        DeflaterOutputStream dfos = new DeflaterOutputStream(dos);
+        dfos.write(Delta.encode(baseData, targetData));
+        dfos.close();
+
+        return baos.toByteArray();
+    }
+
+    /**
+     * Applies the given journal to the base version it was created for.
+     * 
+     * @param base
+     *            the contents of the base version, can be <code>null</code> in case there is no base version;
+     * @param journal
+     *            the journal to apply, cannot be <code>null</code>.
+     * @return the contents of the version described by the journal, never <code>null</code>.
+     * @throws IOException
+     *             in case of problems reading the given streams, which are closed afterwards;
+     * @throws IllegalArgumentException
+     *             in case the journal is invalid, or was not created for the given base version.
+     */
+    public static byte[] apply(InputStream base, InputStream journal) throws IOException, IllegalArgumentException {
+        byte[] baseData = readFully(base);
+
+        DataInputStream dis = new DataInputStream(journal);
+        try {
+            if (dis.readInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a journal!");
+            }
+            byte format = dis.readByte();
+            int baseLength = dis.readInt();
+            long baseChecksum = dis.readLong();
+            int length = dis.readInt();
+            long checksum = dis.readLong();
+
+            if (format == FORMAT_GZIP) {
+                baseData = gunzip(baseData);
+                if (baseData == null) {
+                    throw new IllegalArgumentException("Journal requires a gzipped base version!");
+                }
+            }
+            else if (format != FORMAT_RAW) {
+                throw new IllegalArgumentException("Unsupported journal format: " + format);
+            }
+            if (baseData.length != baseLength || checksum(baseData) != baseChecksum) {
+                throw new IllegalArgumentException("Journal was not created for the given base version!");
+            }
+
+            // the result length is read from the (untrusted) journal, so make sure it is sane before allocating anything...
+            byte[] compressedDelta = readFully(dis);
+            long maxLength = baseData.length + (long) MAX_EXPANSION * compressedDelta.length;
+            if (length < 0 || length > maxLength) {
+                throw new IllegalArgumentException("Corrupt journal: invalid result length " + length + "!");
+            }
+
+            byte[] result;
+            try {
+                byte[] delta = readFully(new InflaterInputStream(new ByteArrayInputStream(compressedDelta)), 2L * length + BUFFER_SIZE);
+                result = Delta.apply(baseData, delta, length);
+            }
+            catch (IOException e) {
+                throw new IllegalArgumentException("Corrupt journal!", e);
+            }
+            if (checksum(result) != checksum) {
+                throw new IllegalArgumentException("Corrupt journal: checksum mismatch!");
+            }
+
+            return (format == FORMAT_GZIP) ? gzip(result) : result;
+        }
+        finally {
+            dis.close();
+        }
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return crc.getValue();
+    }
+
+    /**
+     * @return the uncompressed data, or <code>null</code> if the given data is not gzipped.
+     */
+    private static byte[] gunzip(byte[] data) {
+        if (data.length < 2 || (data[0] & 0xFF) != 0x1F || (data[1] & 0xFF) != 0x8B) {
+            return null;
+        }
+        try {
+            return readFully(new GZIPInputStream(new ByteArrayInputStream(data), BUFFER_SIZE));
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 4 + 64);
+        GZIPOutputStream gzos = new GZIPOutputStream(baos, BUFFER_SIZE);
+        gzos.write(data);
+        gzos.close();
+        return baos.toByteArray();
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        return readFully(is, Long.MAX_VALUE);
+    }
+
+    /**
+     * @throws IOException
+     *             in case reading fails, or in case the stream contains more than the given maximum number of bytes.
+     */
+    private static byte[] readFully(InputStream is, long maxLength) throws IOException {
+        if (is == null) {
+            return new byte[0];
+        }
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int count = is.read(buffer); count != -1; count = is.read(buffer)) {
+                if (baos.size() + (long) count > maxLength) {
+                    throw new IOException("Stream exceeds the maximum length of " + maxLength + " bytes!");
+                }
+                baos.write(buffer, 0, count);
+            }
+            return baos.toByteArray();
+        }
+        finally {
+            is.close();
+        }
+    }
+}
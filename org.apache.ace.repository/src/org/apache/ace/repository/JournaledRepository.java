@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.repository;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * A repository that, next to complete versions, can exchange {@link Journal}s, which only contain the changes between
+ * two versions. This reduces the amount of data to transfer for small changes to large versions.
+ */
+@ProviderType
+public interface JournaledRepository extends Repository {
+    /**
+     * Commits a journal into the repository, which describes the new version in terms of the version it is based upon.
+     * 
+     * @param journal
+     *            The input stream containing the journal (see {@link Journal}), cannot be <code>null</code>;
+     * @param fromVersion
+     *            The version the journal is based upon, is used to verify no other commits have taken place between
+     *            the last checkout and this commit.
+     * @return <code>true</code> if the commit succeeded (and a new version is created in this repository),
+     *         <code>false</code> if the commit was <em>ignored</em> because no actual changes in data were found.
+     * @throws java.io.IOException
+     *             If there was a problem reading or writing the data, or when trying to commit a version that is not
+     *             the "current" version;
+     * @throws IllegalArgumentException
+     *             If the version is less than <tt>0</tt>, or the journal was not created for the given version;
+     * @throws IllegalStateException
+     *             If an attempt to commit was made on a non-master repository;
+     * @throws UnsupportedOperationException
+     *             If the repository turns out not to support journals after all, for example, because it is a remote
+     *             repository on an older server.
+     */
+    public boolean commitJournal(InputStream journal, long fromVersion) throws IOException, IllegalArgumentException;
+
+    /**
+     * Checks out a journal that describes the given version of the repository in terms of the given base version.
+     * 
+     * @param version
+     *            the version to check out;
+     * @param baseVersion
+     *            the version the caller already has.
+     * @return a stream containing the journal, or <code>null</code> if either version does not exist or journals are
+     *         not supported after all.
+     * @throws java.io.IOException
+     *             if there is an error reading the requested versions of the repository;
+     * @throws IllegalArgumentException
+     *             if the given versions are less than or equal to <tt>0</tt>.
+     */
+    public InputStream checkoutJournal(long version, long baseVersion) throws IOException, IllegalArgumentException;
+}
@@ -27,4 +27,6 @@ public interface RepositoryConstants
     public static final String REPOSITORY_BASE_DIR = "basedir";
     public static final String REPOSITORY_FILE_EXTENSION = "fileextension";
     public static final String REPOSITORY_LIMIT = "limit";
+    public static final String REPOSITORY_BUFFER_SIZE = "buffersize";
+    public static final String REPOSITORY_SYNC = "sync";
 }
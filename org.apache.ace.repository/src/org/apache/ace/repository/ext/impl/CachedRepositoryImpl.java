@@ -18,11 +18,13 @@
  */
 package org.apache.ace.repository.ext.impl;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
-import org.apache.ace.range.RangeIterator;
 import org.apache.ace.range.SortedRangeSet;
+import org.apache.ace.repository.Journal;
+import org.apache.ace.repository.JournaledRepository;
 import org.apache.ace.repository.Repository;
 import org.apache.ace.repository.ext.BackupRepository;
 import org.apache.ace.repository.ext.CachedRepository;
@@ -34,12 +36,35 @@ import org.osgi.annotation.versioning.ConsumerType;
  * as remote and local storage, or a URL location and two files, from which it will create a <code>Repository</code>
  *  and a <code>FileBasedBackupRepository</code>. Note that this class is not thread-safe, and should be synchronized
  *  by the caller.
+ * <p>
+ * In case the remote repository is a {@link RemoteRepository}, the latest remote version is watched by a background
+ * thread once {@link #isCurrent()} is used, making that a local check. The watch stops by itself after
+ * {@link #isCurrent()} has not been used for a while, or in case of communication problems, in which case
+ * {@link #isCurrent()} queries the remote repository again.
+ * <p>
+ * In journaled mode (see {@link #setJournaled(boolean)}), commits and checkouts only exchange the changes with the
+ * remote repository, provided that both the remote repository and the backup repository support this. Otherwise, or in
+ * case the remote repository refuses a journal, complete versions are exchanged as usual.
  */
 @ConsumerType
 public class CachedRepositoryImpl implements CachedRepository {
     public static final long UNCOMMITTED_VERSION = -1;
 
+    /** The maximum time (in milliseconds) a single watch request waits for a new version. */
+    private static final long WATCH_TIMEOUT = 30000L;
+    /** The time (in milliseconds) after which watching stops in case {@link #isCurrent()} is no longer used. */
+    private static final long WATCH_IDLE_TIMEOUT = 5 * 60 * 1000L;
+    /** Denotes that the remote version is not known (not being watched). */
+    private static final long UNKNOWN_VERSION = -1L;
+
     private volatile long m_mostRecentVersion;
+    // the latest version of the remote repository, as reported by our watcher...
+    private volatile long m_remoteVersion = UNKNOWN_VERSION;
+    private volatile long m_lastUsed;
+    private volatile boolean m_watchSupported;
+    private volatile boolean m_journaled;
+    private final Object m_watchLock = new Object();
+    private Thread m_watcher; // guarded by m_watchLock
 
     private final BackupRepository m_local;
     private final Repository m_remote;
@@ -56,6 +81,7 @@ public class CachedRepositoryImpl implements CachedRepository {
         m_remote = remote;
         m_local = backup;
         m_mostRecentVersion = mostRecentVersion;
+        m_watchSupported = (remote instanceof RemoteRepository);
     }
 
     public InputStream checkout(boolean fail) throws IOException, IllegalArgumentException {
@@ -71,10 +97,12 @@ public class CachedRepositoryImpl implements CachedRepository {
     }
 
     public InputStream checkout(long version) throws IOException, IllegalArgumentException {
-        m_local.write(m_remote.checkout(version));
+        byte[] data = checkoutJournal(version);
+        m_local.write((data != null) ? new ByteArrayInputStream(data) : m_remote.checkout(version));
         m_local.backup();
 
         m_mostRecentVersion = version;
+        updateRemoteVersion(version);
 
         return m_local.read();
     }
@@ -98,9 +126,12 @@ public class CachedRepositoryImpl implements CachedRepository {
     }
 
     public boolean commit(long fromVersion) throws IOException, IllegalArgumentException {
-        boolean success = m_remote.commit(m_local.read(), fromVersion);
+        Boolean journaled = commitJournal(fromVersion);
+        boolean success = (journaled != null) ? journaled.booleanValue() : m_remote.commit(m_local.read(), fromVersion);
         if (success) {
             m_local.backup();
+            // do not wait for our watcher to tell us about our own commit...
+            updateRemoteVersion(fromVersion + 1);
         }
 
         return success;
@@ -131,20 +162,169 @@ public class CachedRepositoryImpl implements CachedRepository {
         return m_mostRecentVersion;
     }
 
+    /**
+     * @return <code>true</code> if journaled mode is enabled, <code>false</code> otherwise.
+     */
+    public boolean isJournaled() {
+        return m_journaled;
+    }
+
+    /**
+     * Enables or disables journaled mode, in which only the changes since the most recent version are exchanged with
+     * the remote repository.
+     * 
+     * @param journaled
+     *            <code>true</code> to enable journaled mode, <code>false</code> (the default) to disable it.
+     */
+    public void setJournaled(boolean journaled) {
+        m_journaled = journaled;
+    }
+
     public boolean isCurrent() throws IOException {
-        return highestRemoteVersion() == m_mostRecentVersion;
+        m_lastUsed = System.currentTimeMillis();
+
+        long remoteVersion = m_remoteVersion;
+        if (remoteVersion != UNKNOWN_VERSION) {
+            return remoteVersion == m_mostRecentVersion;
+        }
+
+        long highest = highestRemoteVersion();
+        startWatching(highest);
+        return highest == m_mostRecentVersion;
     }
 
     public void deleteLocal() throws IOException {
     	m_local.delete();
     }
 
+    /**
+     * Checks out the given version by applying a journal to our backup, if possible.
+     * 
+     * @return the contents of the given version, or <code>null</code> if it could not be obtained using a journal.
+     */
+    private byte[] checkoutJournal(long version) throws IOException {
+        long baseVersion = m_mostRecentVersion;
+        if (!canUseJournal(baseVersion) || version <= baseVersion) {
+            return null;
+        }
+
+        InputStream journal = ((JournaledRepository) m_remote).checkoutJournal(version, baseVersion);
+        if (journal == null) {
+            return null;
+        }
+        try {
+            return Journal.apply(((FilebasedBackupRepository) m_local).readBackup(), journal);
+        }
+        catch (IllegalArgumentException e) {
+            // our backup is not what the remote repository thinks it is...
+            return null;
+        }
+    }
+
+    /**
+     * Commits our local version as journal against our backup, if possible.
+     * 
+     * @return the result of the commit, or <code>null</code> if the commit could not be done using a journal.
+     */
+    private Boolean commitJournal(long fromVersion) throws IOException {
+        if (!canUseJournal(fromVersion) || fromVersion != m_mostRecentVersion) {
+            return null;
+        }
+
+        byte[] journal = Journal.create(((FilebasedBackupRepository) m_local).readBackup(), m_local.read());
+        try {
+            return ((JournaledRepository) m_remote).commitJournal(new ByteArrayInputStream(journal), fromVersion);
+        }
+        catch (UnsupportedOperationException e) {
+            // do not bother trying again...
+            m_journaled = false;
+            return null;
+        }
+        catch (IllegalArgumentException e) {
+            // the remote repository does not accept our journal, try a complete commit instead...
+            return null;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if journals can be used for changes based on the given version, <code>false</code>
+     *         otherwise.
+     */
+    private boolean canUseJournal(long baseVersion) {
+        // our backup holds the most recent version we've checked out or committed...
+        return m_journaled && baseVersion > 0 && (m_remote instanceof JournaledRepository) && (m_local instanceof FilebasedBackupRepository);
+    }
+
+    /**
+     * Starts a watcher thread for the remote repository, if supported and not already running.
+     */
+    private void startWatching(long version) {
+        if (!m_watchSupported) {
+            return;
+        }
+        synchronized (m_watchLock) {
+            if (m_watcher != null) {
+                return;
+            }
+            m_remoteVersion = version;
+
+            m_watcher = new Thread(new Watcher(version), "Watcher for " + m_remote);
+            m_watcher.setDaemon(true);
+            m_watcher.start();
+        }
+    }
+
+    /**
+     * Updates the known remote version, if we're watching it.
+     */
+    private void updateRemoteVersion(long version) {
+        synchronized (m_watchLock) {
+            if (m_watcher != null && version > m_remoteVersion) {
+                m_remoteVersion = version;
+            }
+        }
+    }
+
     private long highestRemoteVersion() throws IOException {
-        long result = 0;
-        RangeIterator ri = getRange().iterator();
-        while (ri.hasNext()) {
-            result = ri.next();
+        // for remote repositories, this is a conditional request that is cheap if nothing changed...
+        return getRange().getHigh();
+    }
+
+    /**
+     * Watches the remote repository for new versions, until {@link #isCurrent()} is no longer used, or communication
+     * with the remote repository fails.
+     */
+    private final class Watcher implements Runnable {
+        private long m_version;
+
+        Watcher(long version) {
+            m_version = version;
+        }
+
+        @Override
+        public void run() {
+            try {
+                RemoteRepository remote = (RemoteRepository) m_remote;
+                while (!Thread.currentThread().isInterrupted() && (System.currentTimeMillis() - m_lastUsed) < WATCH_IDLE_TIMEOUT) {
+                    SortedRangeSet range = remote.watch(m_version, WATCH_TIMEOUT);
+                    if (range == null) {
+                        // not supported by the server, keep on querying it...
+                        m_watchSupported = false;
+                        break;
+                    }
+                    m_version = Math.max(m_version, range.getHigh());
+                    updateRemoteVersion(m_version);
+                }
+            }
+            catch (IOException e) {
+                // Ignore, isCurrent() will query the remote repository again...
+            }
+            finally {
+                synchronized (m_watchLock) {
+                    m_remoteVersion = UNKNOWN_VERSION;
+                    m_watcher = null;
+                }
+            }
         }
-        return result;
     }
 }
\ No newline at end of file
@@ -21,12 +21,11 @@ package org.apache.ace.repository.ext.impl;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 
 import org.apache.ace.repository.ext.BackupRepository;
+import org.apache.ace.repository.util.FileIO;
 
 import org.osgi.annotation.versioning.ConsumerType;
 
@@ -36,8 +35,6 @@ import org.osgi.annotation.versioning.ConsumerType;
 @ConsumerType
 public class FilebasedBackupRepository implements BackupRepository {
 
-    private static final int COPY_BUFFER_SIZE = 4096;
-
     private final File m_current;
     private final File m_backup;
 
@@ -65,6 +62,23 @@ public class FilebasedBackupRepository implements BackupRepository {
         }
     }
 
+    /**
+     * Reads the backup version, which is the version that was last checked out or committed.
+     * 
+     * @return an input stream to the backup version, or <code>null</code> if there is no backup version.
+     */
+    InputStream readBackup() throws IOException {
+        if (!m_backup.exists()) {
+            return null;
+        }
+        try {
+            return new FileInputStream(m_backup);
+        }
+        catch (FileNotFoundException e) {
+            throw new IOException("Unable to open file: " + e.getMessage(), e);
+        }
+    }
+
     public void write(InputStream data) throws IOException {
         try {
             if (!m_current.exists()) {
@@ -76,9 +90,7 @@ public class FilebasedBackupRepository implements BackupRepository {
         }
 
         try {
-            FileOutputStream out = new FileOutputStream(m_current);
-            copy(data, out);
-            out.close();
+            FileIO.DEFAULT.write(data, m_current, null /* digest */);
         }
         catch (FileNotFoundException e) {
             throw new IOException("Unable to open file: " + e.getMessage(), e);
@@ -89,7 +101,7 @@ public class FilebasedBackupRepository implements BackupRepository {
         if (!m_current.exists()) {
             return false;
         }
-        copy(m_current, m_backup);
+        FileIO.DEFAULT.copy(m_current, m_backup);
         return true;
     }
 
@@ -97,7 +109,7 @@ public class FilebasedBackupRepository implements BackupRepository {
         if (!m_backup.exists()) {
             return false;
         }
-        copy(m_backup, m_current);
+        FileIO.DEFAULT.copy(m_backup, m_current);
         return true;
     }
 
@@ -115,52 +127,6 @@ public class FilebasedBackupRepository implements BackupRepository {
         }
     }
 
-    /**
-     * Helper function that writes the contents of one file to another.
-     * 
-     * @param source The source file.
-     * @param destination The destination file.
-     * @throws IOException Thrown when file IO goes wrong.
-     */
-    private static void copy(File source, File destination) throws IOException {
-        if (destination.exists()) {
-            destination.delete();
-        }
-        destination.createNewFile();
-
-        FileOutputStream out = new FileOutputStream(destination);
-        FileInputStream in = new FileInputStream(source);
-
-        try {
-            copy(in, out);
-        }
-        finally {
-            if (in != null) {
-                in.close();
-            }
-            if (out != null) {
-                out.close();
-            }
-        }
-    }
-
-    /**
-     * Copies the contents of an input stream to an output stream.
-     * 
-     * @param in The input stream.
-     * @param out The output stream.
-     * @throws IOException Thrown when the output stream is closed unexpectedly.
-     */
-    private static void copy(InputStream in, OutputStream out) throws IOException {
-        byte[] buffer = new byte[COPY_BUFFER_SIZE];
-        int bytes = in.read(buffer);
-        while (bytes != -1) {
-            out.write(buffer, 0, bytes);
-            out.flush();
-            bytes = in.read(buffer);
-        }
-    }
-
     @Override
     public String toString() {
         return "FilebasedBackupRepository[" + m_current + "," + m_backup + "]";
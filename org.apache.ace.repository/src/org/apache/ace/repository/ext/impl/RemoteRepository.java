@@ -27,12 +27,14 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.ace.connectionfactory.ConnectionFactory;
 import org.apache.ace.range.SortedRangeSet;
-import org.apache.ace.repository.Repository;
+import org.apache.ace.repository.JournaledRepository;
+import org.apache.ace.repository.util.FileIO;
 
 import org.osgi.annotation.versioning.ConsumerType;
 
@@ -40,20 +42,26 @@ import org.osgi.annotation.versioning.ConsumerType;
  * This class works as a local interface for a remote repository by handling the network communication.
  */
 @ConsumerType
-public class RemoteRepository implements Repository {
+public class RemoteRepository implements JournaledRepository {
     private static final String COMMAND_QUERY = "/query";
     private static final String COMMAND_CHECKOUT = "/checkout";
     private static final String COMMAND_COMMIT = "/commit";
+    private static final String COMMAND_WATCH = "/watch";
+    private static final String COMMAND_JOURNAL = "/journal";
 
     private static final String MIME_APPLICATION_OCTET_STREAM = "application/octet-stream";
 
     private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    /** The time (in milliseconds) a watch response can take longer than its requested timeout. */
+    private static final long WATCH_READ_TIMEOUT_GRACE = 30000L;
 
     private final URL m_url;
     private final String m_customer;
     private final String m_name;
 
     private volatile ConnectionFactory m_connectionFactory;
+    // the last known range of this repository, along with its entity tag, used for conditional queries...
+    private volatile CachedRange m_cachedRange;
 
     /**
      * Creates a remote repository that connects to a given location with a given customer- and repository name.
@@ -83,6 +91,7 @@ public class RemoteRepository implements Repository {
         URL url = buildCommand(m_url, COMMAND_CHECKOUT, version);
 
         HttpURLConnection connection = (HttpURLConnection) m_connectionFactory.createConnection(url);
+        connection.setRequestProperty("Accept-Encoding", "gzip");
 
         int rc = connection.getResponseCode();
         if (rc == HttpServletResponse.SC_NOT_FOUND) {
@@ -94,23 +103,58 @@ public class RemoteRepository implements Repository {
             throw new IOException("Connection error: " + connection.getResponseMessage() + " for " + url.toExternalForm());
         }
 
+        InputStream is = connection.getInputStream();
+        if ("gzip".equalsIgnoreCase(connection.getContentEncoding())) {
+            is = new GZIPInputStream(is, COPY_BUFFER_SIZE);
+        }
+        return is;
+    }
+
+    public InputStream checkoutJournal(long version, long baseVersion) throws IOException, IllegalArgumentException {
+        if (version <= 0 || baseVersion <= 0) {
+            throw new IllegalArgumentException("Versions must be greater than 0.");
+        }
+
+        URL url = buildCommand(m_url, COMMAND_JOURNAL, version);
+        url = new URL(url.toExternalForm() + "&base=" + baseVersion);
+
+        HttpURLConnection connection = (HttpURLConnection) m_connectionFactory.createConnection(url);
+
+        int rc = connection.getResponseCode();
+        if (rc == HttpServletResponse.SC_NOT_FOUND) {
+            // either version does not exist, or the server does not support journals...
+            closeQuietly(connection);
+            return null;
+        }
+        else if (rc != HttpServletResponse.SC_OK) {
+            closeQuietly(connection);
+            throw new IOException("Connection error: " + connection.getResponseMessage() + " for " + url.toExternalForm());
+        }
         return connection.getInputStream();
     }
 
     public boolean commit(InputStream data, long fromVersion) throws IOException, IllegalArgumentException {
-        URL url = buildCommand(m_url, COMMAND_COMMIT, fromVersion);
+        return commit(COMMAND_COMMIT, data, fromVersion);
+    }
+
+    public boolean commitJournal(InputStream journal, long fromVersion) throws IOException, IllegalArgumentException {
+        return commit(COMMAND_JOURNAL, journal, fromVersion);
+    }
+
+    private boolean commit(String command, InputStream data, long fromVersion) throws IOException, IllegalArgumentException {
+        URL url = buildCommand(m_url, command, fromVersion);
         HttpURLConnection connection = (HttpURLConnection) m_connectionFactory.createConnection(url);
 
         // ACE-294: enable streaming mode causing only small amounts of memory to be
         // used for this commit. Otherwise, the entire input stream is cached into
         // memory prior to sending it to the server...
-        connection.setChunkedStreamingMode(8192);
+        connection.setChunkedStreamingMode(COPY_BUFFER_SIZE);
         connection.setRequestProperty("Content-Type", MIME_APPLICATION_OCTET_STREAM);
         connection.setDoOutput(true);
 
         OutputStream out = connection.getOutputStream();
         try {
-            copy(data, out);
+            FileIO.DEFAULT.copy(data, out);
         }
         finally {
             closeQuietly(out);
@@ -126,6 +170,12 @@ public class RemoteRepository implements Repository {
                     throw new IllegalArgumentException(connection.getResponseMessage());
                 case HttpServletResponse.SC_NOT_ACCEPTABLE:
                     throw new IllegalStateException(connection.getResponseMessage());
+                case HttpServletResponse.SC_NOT_FOUND:
+                    if (COMMAND_JOURNAL.equals(command)) {
+                        // older servers do not support journals...
+                        throw new UnsupportedOperationException(connection.getResponseMessage());
+                    }
+                    throw new IOException(connection.getResponseMessage());
                 case HttpServletResponse.SC_INTERNAL_SERVER_ERROR:
                 default:
                     throw new IOException(connection.getResponseMessage());
@@ -141,8 +191,18 @@ public class RemoteRepository implements Repository {
 
         HttpURLConnection connection = (HttpURLConnection) m_connectionFactory.createConnection(url);
 
+        CachedRange cachedRange = m_cachedRange;
+        if (cachedRange != null) {
+            // Only cost a small round-trip in case the repository did not change...
+            connection.setRequestProperty("If-None-Match", cachedRange.m_etag);
+        }
+
         try {
-            if (connection.getResponseCode() == HttpServletResponse.SC_OK) {
+            int rc = connection.getResponseCode();
+            if (rc == HttpServletResponse.SC_NOT_MODIFIED && cachedRange != null) {
+                return cachedRange.m_range;
+            }
+            else if (rc == HttpServletResponse.SC_OK) {
                 BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
                 try {
                     String line = reader.readLine();
@@ -151,7 +211,12 @@ public class RemoteRepository implements Repository {
                     }
 
                     String representation = line.substring(line.lastIndexOf(','));
-                    return new SortedRangeSet(representation);
+                    SortedRangeSet range = new SortedRangeSet(representation);
+
+                    String etag = connection.getHeaderField("ETag");
+                    m_cachedRange = (etag == null) ? null : new CachedRange(etag, range);
+
+                    return range;
                 }
                 finally {
                     reader.close();
@@ -166,21 +231,50 @@ public class RemoteRepository implements Repository {
     }
 
     /**
-     * Helper method which copies the contents of an input stream to an output stream.
+     * Waits until a version newer than the given version is available in the remote repository, or the given timeout
+     * has passed, whichever comes first.
      * 
-     * @param in
-     *            The input stream.
-     * @param out
-     *            The output stream.
-     * @throws java.io.IOException
-     *             Thrown when one of the streams is closed unexpectedly.
+     * @param version
+     *            the most recent version known to the caller;
+     * @param timeout
+     *            the maximum time to wait, in milliseconds.
+     * @return the range of the remote repository, which might not contain a newer version in case the timeout has
+     *         passed, or <code>null</code> in case the remote repository does not support watching for new versions.
+     * @throws IOException
+     *             in case of communication problems with the remote repository.
      */
-    private static void copy(InputStream in, OutputStream out) throws IOException {
-        byte[] buffer = new byte[COPY_BUFFER_SIZE];
-        int bytes = in.read(buffer);
-        while (bytes != -1) {
-            out.write(buffer, 0, bytes);
-            bytes = in.read(buffer);
+    public SortedRangeSet watch(long version, long timeout) throws IOException {
+        URL url = buildCommand(m_url, COMMAND_WATCH, version);
+        url = new URL(url.toExternalForm() + "&timeout=" + timeout);
+
+        HttpURLConnection connection = (HttpURLConnection) m_connectionFactory.createConnection(url);
+        // do not wait forever in case the server silently went away...
+        connection.setReadTimeout((int) Math.min(Integer.MAX_VALUE, timeout + WATCH_READ_TIMEOUT_GRACE));
+
+        try {
+            int rc = connection.getResponseCode();
+            if (rc == HttpServletResponse.SC_NOT_FOUND) {
+                // older servers do not support the watch command...
+                return null;
+            }
+            else if (rc != HttpServletResponse.SC_OK) {
+                throw new IOException("Connection error: " + connection.getResponseMessage() + " for " + url.toExternalForm());
+            }
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+            try {
+                String line = reader.readLine();
+                if (line == null) {
+                    throw new IOException("Repository not found: customer=" + m_customer + ", name=" + m_name + " for " + url.toExternalForm());
+                }
+                return new SortedRangeSet(line.substring(line.lastIndexOf(',') + 1));
+            }
+            finally {
+                reader.close();
+            }
+        }
+        finally {
+            closeQuietly(connection);
         }
     }
 
@@ -231,6 +325,19 @@ public class RemoteRepository implements Repository {
         }
     }
 
+    /**
+     * Holds a range along with the entity tag it was obtained with.
+     */
+    private static final class CachedRange {
+        final String m_etag;
+        final SortedRangeSet m_range;
+
+        CachedRange(String etag, SortedRangeSet range) {
+            m_etag = etag;
+            m_range = range;
+        }
+    }
+
     @Override
     public String toString() {
         return "RemoteRepository[" + m_url + "," + m_customer + "," + m_name + "]";
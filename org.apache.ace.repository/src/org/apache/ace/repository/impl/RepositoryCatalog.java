@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.repository.impl;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.ace.range.SortedRangeSet;
+import org.apache.ace.repository.util.FileIO;
+
+/**
+ * Keeps track of the versions of all repositories stored in a single base directory, so repositories do not need to
+ * list their directories to find their versions upon startup.
+ * <p>
+ * The catalog is kept in memory, and is persisted in a small text file (<tt>catalog</tt>) in the base directory, with
+ * a line <tt>&lt;name&gt;=&lt;range&gt;</tt> for each repository, in which the name is the name of the directory of
+ * the repository. Each change causes a new catalog file to be written, which is then moved atomically in place of the
+ * old one.
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+class RepositoryCatalog {
+    static final String CATALOG_FILE = "catalog";
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File m_file;
+    private final Map<String, SortedRangeSet> m_ranges = new TreeMap<>();
+
+    /**
+     * Creates a new catalog, loading the catalog file in the given base directory, if present.
+     * 
+     * @param baseDir
+     *            the directory holding the directories of the repositories, should exist.
+     * @throws IOException
+     *             in case the catalog file could not be read.
+     */
+    RepositoryCatalog(File baseDir) throws IOException {
+        m_file = new File(baseDir, CATALOG_FILE);
+
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(m_file), StandardCharsets.UTF_8));
+        }
+        catch (FileNotFoundException e) {
+            // Nothing cataloged yet...
+            return;
+        }
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int idx = line.lastIndexOf('=');
+                if (idx <= 0) {
+                    continue;
+                }
+                try {
+                    m_ranges.put(line.substring(0, idx), new SortedRangeSet(line.substring(idx + 1)));
+                }
+                catch (IllegalArgumentException e) {
+                    // Ignore this entry, the repository will simply list its versions...
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @param name
+     *            the name of the repository directory.
+     * @return the cataloged range of versions of the given repository, or <code>null</code> if the repository is not
+     *         cataloged.
+     */
+    synchronized SortedRangeSet getRange(String name) {
+        return m_ranges.get(name);
+    }
+
+    /**
+     * Removes the given repository from this catalog.
+     * 
+     * @param name
+     *            the name of the repository directory.
+     */
+    synchronized void remove(String name) throws IOException {
+        if (m_ranges.remove(name) != null) {
+            write();
+        }
+    }
+
+    /**
+     * Updates the range of versions of the given repository.
+     * 
+     * @param name
+     *            the name of the repository directory;
+     * @param range
+     *            the range of versions present in the repository.
+     */
+    synchronized void update(String name, SortedRangeSet range) throws IOException {
+        SortedRangeSet old = m_ranges.put(name, range);
+        if (old == null || !old.toRepresentation().equals(range.toRepresentation())) {
+            write();
+        }
+    }
+
+    private void write() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, SortedRangeSet> entry : m_ranges.entrySet()) {
+            sb.append(entry.getKey()).append('=').append(entry.getValue().toRepresentation()).append('\n');
+        }
+
+        File tempFile = new File(m_file.getParentFile(), CATALOG_FILE + TEMP_SUFFIX);
+        FileIO.DEFAULT.write(new ByteArrayInputStream(sb.toString().getBytes(StandardCharsets.UTF_8)), tempFile, null /* digest */);
+        FileIO.DEFAULT.move(tempFile, m_file);
+    }
+}
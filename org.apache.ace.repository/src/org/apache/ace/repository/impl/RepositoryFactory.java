@@ -19,12 +19,14 @@
 package org.apache.ace.repository.impl;
 
 import static org.apache.ace.repository.RepositoryConstants.REPOSITORY_BASE_DIR;
+import static org.apache.ace.repository.RepositoryConstants.REPOSITORY_BUFFER_SIZE;
 import static org.apache.ace.repository.RepositoryConstants.REPOSITORY_CUSTOMER;
 import static org.apache.ace.repository.RepositoryConstants.REPOSITORY_FILE_EXTENSION;
 import static org.apache.ace.repository.RepositoryConstants.REPOSITORY_INITIAL_CONTENT;
 import static org.apache.ace.repository.RepositoryConstants.REPOSITORY_LIMIT;
 import static org.apache.ace.repository.RepositoryConstants.REPOSITORY_MASTER;
 import static org.apache.ace.repository.RepositoryConstants.REPOSITORY_NAME;
+import static org.apache.ace.repository.RepositoryConstants.REPOSITORY_SYNC;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -37,6 +39,8 @@ import java.util.concurrent.ConcurrentMap;
 
 import org.apache.ace.repository.Repository;
 import org.apache.ace.repository.RepositoryReplication;
+import org.apache.ace.repository.util.FileIO;
+import org.apache.ace.repository.util.FileIO.SyncPolicy;
 import org.apache.felix.dm.Component;
 import org.apache.felix.dm.DependencyManager;
 import org.osgi.framework.BundleContext;
@@ -94,6 +98,7 @@ public class RepositoryFactory implements ManagedServiceFactory {
 
     private final ConcurrentMap<String, Component> m_instances = new ConcurrentHashMap<>();
     private final ConcurrentMap<Entry, String> m_index = new ConcurrentHashMap<>();
+    private final ConcurrentMap<File, RepositoryCatalog> m_catalogs = new ConcurrentHashMap<>();
     private final DependencyManager m_manager;
 
     /* injected by dependency manager */
@@ -125,6 +130,16 @@ public class RepositoryFactory implements ManagedServiceFactory {
 
             // remove persisted data...
             deleteRepositoryStore(pid, repoDir);
+
+            RepositoryCatalog catalog = m_catalogs.get(repoDir.getParentFile());
+            if (catalog != null) {
+                try {
+                    catalog.remove(repoDir.getName());
+                }
+                catch (IOException e) {
+                    m_log.log(LogService.LOG_WARNING, "Unable to remove repository " + pid + " from its catalog!", e);
+                }
+            }
         }
     }
 
@@ -207,11 +222,37 @@ public class RepositoryFactory implements ManagedServiceFactory {
             }
         }
 
+        String bufferSize = (String) dict.get(REPOSITORY_BUFFER_SIZE);
+        int bufferSizeValue = FileIO.DEFAULT_BUFFER_SIZE;
+        if (bufferSize != null) {
+            try {
+                bufferSizeValue = Integer.parseInt(bufferSize);
+            }
+            catch (NumberFormatException nfe) {
+                throw new ConfigurationException(REPOSITORY_BUFFER_SIZE, "Buffer size has to be a number, was: " + bufferSize);
+            }
+            if (bufferSizeValue < FileIO.MIN_BUFFER_SIZE) {
+                throw new ConfigurationException(REPOSITORY_BUFFER_SIZE, "Buffer size has to be at least " + FileIO.MIN_BUFFER_SIZE + ", was " + bufferSize);
+            }
+        }
+
+        String sync = (String) dict.get(REPOSITORY_SYNC);
+        SyncPolicy syncPolicy = SyncPolicy.NONE;
+        if (sync != null) {
+            try {
+                syncPolicy = SyncPolicy.parse(sync);
+            }
+            catch (IllegalArgumentException e) {
+                throw new ConfigurationException(REPOSITORY_SYNC, "Sync policy has to be one of none, data or all, was: " + sync);
+            }
+        }
+        FileIO io = new FileIO(bufferSizeValue, syncPolicy);
+
         String initialContents = (String) dict.get(REPOSITORY_INITIAL_CONTENT);
 
         Component service = m_manager.createComponent()
             .setInterface(new String[] { RepositoryReplication.class.getName(), Repository.class.getName() }, dict)
-            .setImplementation(createRepositoryStore(pid, baseDir, isMaster, limitValue, fileExtension, initialContents))
+            .setImplementation(createRepositoryStore(pid, baseDir, isMaster, limitValue, io, fileExtension, initialContents))
             .add(m_manager.createServiceDependency().setService(LogService.class).setRequired(false));
 
         Component oldService = m_instances.putIfAbsent(pid, service);
@@ -232,12 +273,14 @@ public class RepositoryFactory implements ManagedServiceFactory {
             }
 
             store.updated(isMaster, limitValue);
+            store.updated(io);
         }
     }
 
-    private RepositoryImpl createRepositoryStore(String pid, File baseDir, boolean isMaster, long limitValue, String fileExtension, String initialContents) {
+    private RepositoryImpl createRepositoryStore(String pid, File baseDir, boolean isMaster, long limitValue, FileIO io, String fileExtension, String initialContents) {
         File dir = ensureDirectoryAvailable(new File(baseDir, pid));
-        RepositoryImpl store = new RepositoryImpl(dir, m_tempDir, fileExtension, isMaster, limitValue);
+        RepositoryImpl store = new RepositoryImpl(dir, m_tempDir, fileExtension, isMaster, limitValue, getCatalog(baseDir));
+        store.updated(io);
         if ((initialContents != null) && isMaster) {
             try {
                 // Do not even try to commit initial contents for existing repositories...
@@ -252,6 +295,28 @@ public class RepositoryFactory implements ManagedServiceFactory {
         return store;
     }
 
+    /**
+     * @return the catalog for all repositories in the given base directory, or <code>null</code> if it could not be
+     *         read.
+     */
+    private RepositoryCatalog getCatalog(File baseDir) {
+        RepositoryCatalog catalog = m_catalogs.get(baseDir);
+        if (catalog == null) {
+            try {
+                catalog = new RepositoryCatalog(baseDir);
+            }
+            catch (IOException e) {
+                m_log.log(LogService.LOG_WARNING, "Unable to read repository catalog in " + baseDir + "; repositories will list their versions instead.", e);
+                return null;
+            }
+            RepositoryCatalog existing = m_catalogs.putIfAbsent(baseDir, catalog);
+            if (existing != null) {
+                catalog = existing;
+            }
+        }
+        return catalog;
+    }
+
     private void deleteRepositoryStore(String pid, File repoDir) {
         if (repoDir.exists() && repoDir.isDirectory()) {
             File[] files = repoDir.listFiles();
@@ -18,21 +18,20 @@
  */
 package org.apache.ace.repository.impl;
 
-import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.channels.FileChannel;
-import java.util.Arrays;
+import java.nio.file.Files;
+import java.security.MessageDigest;
 
 import org.apache.ace.range.SortedRangeSet;
-import org.apache.ace.repository.Repository;
+import org.apache.ace.repository.Journal;
+import org.apache.ace.repository.JournaledRepository;
 import org.apache.ace.repository.RepositoryConstants;
 import org.apache.ace.repository.RepositoryReplication;
+import org.apache.ace.repository.util.FileIO;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.log.LogService;
 
@@ -40,22 +39,24 @@ import org.osgi.service.log.LogService;
  * Implementation of an object repository. The object repository holds (big) chunks of data identified by a version. To
  * interact with the repository two interfaces are implemented:
  * <ul>
- * <li><code>Repository</code> - a read-write interface to the repository, you can commit and checkout versions</li>
+ * <li><code>Repository</code> - a read-write interface to the repository, you can commit and checkout versions, or
+ * journals containing only the changes between versions</li>
  * <li><code>RepositoryReplication</code> - interface used only for replication of the repository, you can get and put
  * versions</li>
  * </ul>
  * A repository can be either a master or a slave repository. Committing a new version is only possible on a master
  * repository.
  */
-public class RepositoryImpl implements RepositoryReplication, Repository {
-
+public class RepositoryImpl implements RepositoryReplication, JournaledRepository {
     private volatile LogService m_log; /* will be injected by dependency manager */
     private volatile boolean m_isMaster;
     private volatile long m_limit;
+    private volatile FileIO m_io = FileIO.DEFAULT;
 
     private final File m_tempDir;
     private final File m_dir;
     private final String m_fileExtension;
+    private final VersionStore m_store;
 
     /**
      * Creates a new repository.
@@ -126,6 +127,28 @@ public class RepositoryImpl implements RepositoryReplication, Repository {
      *             If <code>dir</code> and/or <code>temp</code> could not be created or is not a directory.
      */
     public RepositoryImpl(File dir, File temp, String fileExtension, boolean isMaster, long limit) {
+        this(dir, temp, fileExtension, isMaster, limit, null);
+    }
+
+    /**
+     * Creates a new repository.
+     * 
+     * @param dir
+     *            Directory to be used for storage of the repository data, will be created if needed.
+     * @param temp
+     *            Directory to be used as temp directory, will be created if needed.
+     * @param fileExtension
+     *            Extension to be used for repository files.
+     * @param isMaster
+     *            True if this repository is a master repository, false otherwise.
+     * @param limit
+     *            The maximum number of versions to store in this repository.
+     * @param catalog
+     *            The catalog in which the versions of this repository are kept, can be <code>null</code>.
+     * @throws IllegalArgumentException
+     *             If <code>dir</code> and/or <code>temp</code> could not be created or is not a directory.
+     */
+    RepositoryImpl(File dir, File temp, String fileExtension, boolean isMaster, long limit, RepositoryCatalog catalog) {
         m_isMaster = isMaster;
         if (!dir.isDirectory() && !dir.mkdirs()) {
             throw new IllegalArgumentException("Repository location is not a valid directory (" + dir.getAbsolutePath() + ")");
@@ -143,6 +166,7 @@ public class RepositoryImpl implements RepositoryReplication, Repository {
         m_dir = dir;
         m_fileExtension = fileExtension;
         m_limit = limit;
+        m_store = new VersionStore(dir, fileExtension, catalog);
     }
 
     public InputStream checkout(long version) throws IOException, IllegalArgumentException {
@@ -150,12 +174,7 @@ public class RepositoryImpl implements RepositoryReplication, Repository {
             throw new IllegalArgumentException("Version must be greater than 0.");
         }
 
-        InputStream result = null;
-        File file = getFilename(version);
-        if (file.isFile()) {
-            result = new FileInputStream(file);
-        }
-        return result;
+        return m_store.read(version);
     }
 
     public boolean commit(InputStream data, long fromVersion) throws IOException, IllegalArgumentException {
@@ -166,26 +185,58 @@ public class RepositoryImpl implements RepositoryReplication, Repository {
             throw new IllegalArgumentException("Version must be greater than or equal to 0.");
         }
 
-        long[] versions = getVersions();
-        if (versions.length == 0) {
+        long lastVersion = m_store.getHighestVersion();
+        if (lastVersion == 0) {
             if (fromVersion != 0) {
                 throw new IOException("Repository already changed, cannot commit initial version!");
             }
             return put(data, 1);
         }
 
-        long lastVersion = versions[versions.length - 1];
         if (lastVersion != fromVersion) {
             throw new IOException("Repository already changed, cannot commit version " + fromVersion + "!");
         }
 
         boolean result = put(data, fromVersion + 1);
         // Make sure we do not exceed our max limit...
-        purgeOldFiles(getVersions(), m_limit);
+        purgeOldFiles(m_store.getVersions(), m_limit);
 
         return result;
     }
 
+    public InputStream checkoutJournal(long version, long baseVersion) throws IOException, IllegalArgumentException {
+        if (version <= 0 || baseVersion <= 0) {
+            throw new IllegalArgumentException("Versions must be greater than 0.");
+        }
+
+        InputStream base = m_store.read(baseVersion);
+        if (base == null) {
+            return null;
+        }
+        InputStream target = m_store.read(version);
+        if (target == null) {
+            closeQuietly(base);
+            return null;
+        }
+        return new ByteArrayInputStream(Journal.create(base, target));
+    }
+
+    public boolean commitJournal(InputStream journal, long fromVersion) throws IOException, IllegalArgumentException {
+        if (!m_isMaster) {
+            throw new IllegalStateException("Commit is only permitted on master repositories");
+        }
+        if (fromVersion < 0) {
+            throw new IllegalArgumentException("Version must be greater than or equal to 0.");
+        }
+        if (m_store.getHighestVersion() != fromVersion) {
+            throw new IOException("Repository already changed, cannot commit version " + fromVersion + "!");
+        }
+
+        // reconstruct the complete version, and commit it as usual...
+        InputStream base = (fromVersion > 0) ? m_store.read(fromVersion) : null;
+        return commit(new ByteArrayInputStream(Journal.apply(base, journal)), fromVersion);
+    }
+
     public InputStream get(long version) throws IOException, IllegalArgumentException {
         return checkout(version);
     }
@@ -204,37 +255,36 @@ public class RepositoryImpl implements RepositoryReplication, Repository {
         return m_fileExtension;
     }
 
+    /**
+     * @return the file I/O used by this repository, never <code>null</code>.
+     */
+    public FileIO getFileIO() {
+        return m_io;
+    }
+
     @Override
     public long getLimit() {
         return m_limit;
     }
 
     public SortedRangeSet getRange() throws IOException {
-        return new SortedRangeSet(getVersions());
+        return m_store.getRange();
     }
 
     public boolean put(InputStream data, long version) throws IOException, IllegalArgumentException {
         if (version <= 0) {
             throw new IllegalArgumentException("Version must be greater than 0.");
         }
-        File file = getFilename(version);
-        if (file.exists()) {
+        if (m_store.contains(version)) {
             return false;
         }
 
-        // store stream in temp file
+        // store stream in temp file, computing its digest while doing so...
         File tempFile = File.createTempFile("repository", null, m_tempDir);
-        OutputStream fileStream = null;
+        MessageDigest md = VersionStore.createDigest();
 
         try {
-            fileStream = new FileOutputStream(tempFile);
-
-            byte[] buffer = new byte[1024];
-            int bytes;
-
-            while ((bytes = data.read(buffer)) >= 0) {
-                fileStream.write(buffer, 0, bytes);
-            }
+            m_io.write(data, tempFile, md);
         }
         catch (IOException e) {
             String deleteMsg = "";
@@ -244,20 +294,26 @@ public class RepositoryImpl implements RepositoryReplication, Repository {
             m_log.log(LogService.LOG_WARNING, "Error occurred while storing new version in repository" + deleteMsg, e);
             throw e;
         }
-        finally {
-            closeQuietly(fileStream);
-        }
+
+        byte[] digest = md.digest();
 
         // ACE-421: check whether there's a change in data...
-        if (version > 1) {
-            File current = getFilename(version - 1);
-            if (current.exists() && contentsEqual(current, tempFile)) {
-                return false;
-            }
+        byte[] previousDigest = (version > 1) ? m_store.getDigest(version - 1) : null;
+        if (previousDigest != null && MessageDigest.isEqual(digest, previousDigest)) {
+            tempFile.delete();
+            return false;
         }
 
-        // move temp file to final location
-        renameFile(tempFile, file);
+        File target = m_store.getFile(version);
+        // identical contents are stored only once...
+        if (!linkFile(m_store.findPlainVersion(digest), target)) {
+            // move temp file to final location
+            renameFile(tempFile, target);
+        }
+        else {
+            tempFile.delete();
+        }
+        m_store.added(version, digest);
 
         return true;
     }
@@ -278,7 +334,7 @@ public class RepositoryImpl implements RepositoryReplication, Repository {
         if (limit < m_limit) {
             // limit was decreased, we might need to delete some old versions
             try {
-                purgeOldFiles(getVersions(), limit);
+                purgeOldFiles(m_store.getVersions(), limit);
             }
             catch (IOException e) {
                 throw new ConfigurationException(RepositoryConstants.REPOSITORY_LIMIT, "Could not set new limit to " + limit, e);
@@ -287,6 +343,19 @@ public class RepositoryImpl implements RepositoryReplication, Repository {
         m_limit = limit;
     }
 
+    /**
+     * Updates the file I/O used by this repository, for example to change its buffer size or sync policy.
+     * 
+     * @param io
+     *            the file I/O to use, cannot be <code>null</code>.
+     */
+    public void updated(FileIO io) {
+        if (io == null) {
+            throw new IllegalArgumentException("File I/O cannot be null!");
+        }
+        m_io = io;
+    }
+
     /**
      * Safely closes a given resource, ignoring any I/O exceptions that might occur by this.
      * 
@@ -304,141 +373,35 @@ public class RepositoryImpl implements RepositoryReplication, Repository {
         }
     }
 
-    /**
-     * Tests whether two given files are identical with respect to their length and content.
-     * 
-     * @param file1
-     *            the file to check against;
-     * @param file2
-     *            the file to check.
-     * @return <code>true</code> if both files are equal in length and content, <code>false</code> otherwise.
-     */
-    private boolean contentsEqual(File file1, File file2) {
-        // if lengths are not equal, we're certain that the contents won't be equal...
-        if (file1.length() != file2.length()) {
-            return false;
-        }
-        if (file1.getAbsolutePath().equals(file2.getAbsolutePath())) {
-            // they are one and the same file...
-            return true;
-        }
-
-        InputStream is1 = null;
-        InputStream is2 = null;
-
-        boolean result = true;
-
-        try {
-            is1 = new BufferedInputStream(new FileInputStream(file1));
-            is2 = new BufferedInputStream(new FileInputStream(file2));
-
-            int read;
-            while ((read = is1.read()) >= 0) {
-                int readData = is2.read();
-                if (readData != read) {
-                    result = false;
-                    break;
-                }
-            }
-        }
-        catch (IOException e) {
-            // Log and ignore...
-            m_log.log(LogService.LOG_DEBUG, "Failed to diff files?!", e);
-        }
-        finally {
-            closeQuietly(is1);
-            closeQuietly(is2);
-        }
-
-        return result;
-    }
-
     private boolean delete(long version) throws IOException, IllegalArgumentException {
         if (version <= 0) {
             throw new IllegalArgumentException("Version must be greater than 0.");
         }
-        File file = getFilename(version);
-        if (file.exists()) {
-            return file.delete();
-        }
-        return false;
-    }
-
-    private File getFilename(long version) {
-        return new File(m_dir, String.format("%d%s", version, m_fileExtension));
-    }
-
-    /* returns list of all versions present in ascending order */
-    private long[] getVersions() throws IOException {
-        File[] versions = m_dir.listFiles();
-        if (versions == null) {
-            throw new IOException("Unable to list version in the store (failed to get the filelist for directory '" + m_dir.getAbsolutePath() + "'");
-        }
-        long[] results = new long[versions.length];
-        for (int i = 0; i < versions.length; i++) {
-            String name = versions[i].getName();
-            name = name.substring(0, name.length() - m_fileExtension.length());
-            try {
-                results[i] = Long.parseLong(name);
-            }
-            catch (NumberFormatException nfe) {
-                m_log.log(LogService.LOG_WARNING, "Unable to determine version number for '" + name + "', skipping it.");
-            }
-        }
-        Arrays.sort(results);
-        return results;
+        return m_store.delete(version);
     }
 
     /**
-     * Moves a given source file to a destination location, effectively resulting in a rename.
+     * Creates a hard link to the plain file of the given version, so its contents are shared.
      * 
-     * @param source
-     *            the source file to move;
+     * @param version
+     *            the version to link to, or <tt>0</tt> if there is no version to link to;
      * @param dest
-     *            the destination file to move the file to.
-     * @return <code>true</code> if the move succeeded.
-     * @throws IOException
-     *             in case of I/O problems.
+     *            the file to create.
+     * @return <code>true</code> if the link was created, <code>false</code> otherwise.
      */
-    private boolean moveFile(File source, File dest) throws IOException {
-        final int bufferSize = 1024 * 1024; // 1MB
-
-        FileInputStream fis = null;
-        FileOutputStream fos = null;
-        FileChannel input = null;
-        FileChannel output = null;
-
-        try {
-            fis = new FileInputStream(source);
-            input = fis.getChannel();
-
-            fos = new FileOutputStream(dest);
-            output = fos.getChannel();
-
-            long size = input.size();
-            long pos = 0;
-            while (pos < size) {
-                pos += output.transferFrom(input, pos, Math.min(size - pos, bufferSize));
-            }
-        }
-        finally {
-            closeQuietly(fos);
-            closeQuietly(fis);
-            closeQuietly(output);
-            closeQuietly(input);
+    private boolean linkFile(long version, File dest) {
+        if (version <= 0) {
+            return false;
         }
-
-        if (source.length() != dest.length()) {
-            throw new IOException("Failed to move file! Not all contents from '" + source + "' copied to '" + dest + "'!");
+        try {
+            Files.createLink(dest.toPath(), m_store.getFile(version).toPath());
+            return true;
         }
-
-        dest.setLastModified(source.lastModified());
-        if (!source.delete()) {
-            dest.delete();
-            throw new IOException("Failed to move file! Source file (" + source + ") locked?");
+        catch (IOException | UnsupportedOperationException | SecurityException e) {
+            // Not supported by this file system, or the version was compacted in the meantime...
+            m_log.log(LogService.LOG_DEBUG, "Failed to link version " + version + " to " + dest + "!", e);
+            return false;
         }
-
-        return true;
     }
 
     private void purgeOldFiles(long[] versions, long limit) throws IOException {
@@ -454,9 +417,7 @@ public class RepositoryImpl implements RepositoryReplication, Repository {
     /**
      * Renames a given source file to a new destination file.
      * <p>
-     * This avoids the problem mentioned in ACE-155.<br/>
-     * The moveFile method from Commons-IO is not used, as it would mean that we need to include this JAR in several
-     * placed for only a few lines of code.
+     * This avoids the problem mentioned in ACE-155 by retrying the move a couple of times.
      * </p>
      * 
      * @param source
@@ -469,13 +430,11 @@ public class RepositoryImpl implements RepositoryReplication, Repository {
         int attempts = 0;
         while (!renameOK && (attempts++ < 10)) {
             try {
-                renameOK = source.renameTo(dest);
-                if (!renameOK) {
-                    renameOK = moveFile(source, dest);
-                }
+                m_io.move(source, dest);
+                renameOK = true;
             }
             catch (IOException e) {
-                // In all other cases, we assume the source file is still locked and cannot be removed;
+                // We assume the source file is still locked and cannot be moved (yet)...
             }
         }
 
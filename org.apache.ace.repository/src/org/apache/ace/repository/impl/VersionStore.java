@@ -0,0 +1,721 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.repository.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.ace.range.RangeIterator;
+import org.apache.ace.range.SortedRangeSet;
+import org.apache.ace.repository.Delta;
+
+/**
+ * Stores the versions of a repository in a directory, and keeps an index of all available versions in memory, which is
+ * built once upon creation.
+ * <p>
+ * The latest version is always stored as a plain file (<tt>&lt;version&gt;&lt;extension&gt;</tt>), as this is the
+ * version that is checked out most. Once a newer version is stored, the previous version is replaced by a delta against
+ * its successor (<tt>&lt;version&gt;&lt;extension&gt;.delta</tt>), unless it is a snapshot version (every
+ * {@link #SNAPSHOT_INTERVAL}th version) or the delta would not save enough space. Older versions are materialized on
+ * demand by applying deltas, starting from the nearest newer plain version. Since deltas always refer to a newer version,
+ * old versions can be removed without touching any of the remaining versions.
+ * <p>
+ * As versions are often gzipped, and deltas between compressed data are useless, deltas are created between the
+ * uncompressed contents in case the gzipped data can be reproduced exactly. As a different version of the JRE might
+ * compress data differently, the recompressed contents are verified against the digest of the stored contents.
+ * <p>
+ * For each version, a digest of its contents is kept in an append-only index file (<tt>digests</tt>), in which later
+ * lines take precedence over earlier ones. Digests of versions stored before this index existed are computed on demand.
+ * <p>
+ * Optionally, the range of versions is kept in a {@link RepositoryCatalog} shared by all repositories in the same base
+ * directory, so the directory only needs to be listed in case the catalog is missing or out of date.
+ */
+class VersionStore {
+    /** Every n-th version is always stored as plain file, limiting the number of deltas to apply for any version. */
+    static final int SNAPSHOT_INTERVAL = 16;
+
+    private static final String DELTA_SUFFIX = ".delta";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final int DELTA_MAGIC = 0xACE1D001;
+    private static final byte FORMAT_RAW = 0;
+    private static final byte FORMAT_GZIP = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String DIGEST_INDEX = "digests";
+    static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private final File m_dir;
+    private final String m_fileExtension;
+    private final TreeSet<Long> m_versions = new TreeSet<>();
+    /** Cached range of {@link #m_versions}, reset on each change. */
+    private SortedRangeSet m_range;
+    /** The content digests of the versions, loaded lazily from the digest index. */
+    private Map<Long, byte[]> m_digests;
+    /** The catalog to keep up to date, can be <code>null</code>. */
+    private final RepositoryCatalog m_catalog;
+
+    /**
+     * Creates a new version store, indexing all versions present in the given directory.
+     * 
+     * @param dir
+     *            the directory to store the versions in, should exist;
+     * @param fileExtension
+     *            the extension used for the plain files, cannot be <code>null</code>.
+     * @throws IllegalArgumentException
+     *             in case the given directory could not be listed.
+     */
+    VersionStore(File dir, String fileExtension) {
+        this(dir, fileExtension, null);
+    }
+
+    /**
+     * Creates a new version store, taking its versions from the given catalog if possible, and indexing all versions
+     * present in the given directory otherwise.
+     * 
+     * @param dir
+     *            the directory to store the versions in, should exist;
+     * @param fileExtension
+     *            the extension used for the plain files, cannot be <code>null</code>;
+     * @param catalog
+     *            the catalog to keep up to date with the versions in this store, can be <code>null</code>.
+     * @throws IllegalArgumentException
+     *             in case the given directory could not be listed.
+     */
+    VersionStore(File dir, String fileExtension, RepositoryCatalog catalog) {
+        m_dir = dir;
+        m_fileExtension = fileExtension;
+        m_catalog = catalog;
+
+        SortedRangeSet cataloged = (catalog == null) ? null : catalog.getRange(dir.getName());
+        if (cataloged != null && isConsistent(cataloged)) {
+            RangeIterator iter = cataloged.iterator();
+            while (iter.hasNext()) {
+                m_versions.add(iter.next());
+            }
+            m_range = cataloged;
+            return;
+        }
+
+        String[] names = dir.list();
+        if (names == null) {
+            throw new IllegalArgumentException("Unable to list versions in the store (failed to get the filelist for directory '" + dir.getAbsolutePath() + "')");
+        }
+        for (String name : names) {
+            if (name.endsWith(TEMP_SUFFIX)) {
+                // left over from an interrupted delta compression...
+                new File(dir, name).delete();
+                continue;
+            }
+            if (name.endsWith(DELTA_SUFFIX)) {
+                name = name.substring(0, name.length() - DELTA_SUFFIX.length());
+            }
+            if (!name.endsWith(m_fileExtension)) {
+                continue;
+            }
+            try {
+                long version = Long.parseLong(name.substring(0, name.length() - m_fileExtension.length()));
+                if (version > 0) {
+                    m_versions.add(version);
+                }
+            }
+            catch (NumberFormatException e) {
+                // Not a version, ignore...
+            }
+        }
+
+        try {
+            updateCatalog();
+        }
+        catch (IOException e) {
+            // Not fatal, we'll simply list our versions again next time...
+        }
+    }
+
+    /**
+     * @return all versions present in this store, in ascending order, never <code>null</code>.
+     */
+    synchronized long[] getVersions() {
+        long[] result = new long[m_versions.size()];
+        int i = 0;
+        for (Long version : m_versions) {
+            result[i++] = version;
+        }
+        return result;
+    }
+
+    /**
+     * @return the range of versions present in this store, never <code>null</code>.
+     */
+    synchronized SortedRangeSet getRange() {
+        SortedRangeSet result = m_range;
+        if (result == null) {
+            m_range = result = new SortedRangeSet(getVersions());
+        }
+        return result;
+    }
+
+    /**
+     * @return the highest version in this store, or <tt>0</tt> if this store is empty.
+     */
+    synchronized long getHighestVersion() {
+        return m_versions.isEmpty() ? 0L : m_versions.last();
+    }
+
+    synchronized boolean contains(long version) {
+        return m_versions.contains(version);
+    }
+
+    /**
+     * Returns the location for the plain file of the given version, to which new versions should be moved before
+     * calling {@link #added(long)}.
+     */
+    File getFile(long version) {
+        return new File(m_dir, String.format("%d%s", version, m_fileExtension));
+    }
+
+    /**
+     * Opens the given version for reading.
+     * 
+     * @param version
+     *            the version to read.
+     * @return an input stream with the contents of the version, or <code>null</code> if the version is not present.
+     * @throws IOException
+     *             in case of I/O problems reading the version.
+     */
+    InputStream read(long version) throws IOException {
+        try {
+            return new FileInputStream(getFile(version));
+        }
+        catch (FileNotFoundException e) {
+            // Not a plain file (anymore), try to materialize it from its delta...
+        }
+        byte[] result = readBytes(version);
+        return (result == null) ? null : new ByteArrayInputStream(result);
+    }
+
+    /**
+     * Registers a new version whose plain file was just stored, and replaces the plain files of its neighbouring versions
+     * with deltas when possible.
+     * 
+     * @param version
+     *            the version that was added;
+     * @param digest
+     *            the {@value #DIGEST_ALGORITHM} digest of the contents of the version, or <code>null</code> in case it
+     *            should be computed.
+     */
+    synchronized void added(long version, byte[] digest) throws IOException {
+        m_versions.add(version);
+        m_range = null;
+        updateCatalog();
+
+        if (digest == null) {
+            digest = digest(getFile(version));
+        }
+        storeDigest(version, digest);
+
+        // the previous version now has a new successor, and the new version might have one in case versions are added
+        // out of order (as happens during replication)...
+        Long previous = m_versions.lower(version);
+        if (previous != null) {
+            compact(previous, version);
+        }
+        Long next = m_versions.higher(version);
+        if (next != null) {
+            compact(version, next);
+        }
+    }
+
+    /**
+     * Returns a plain version that has the given contents digest, for example to share its contents with a new version.
+     * 
+     * @param digest
+     *            the digest to look for.
+     * @return the version, or <tt>0</tt> in case no plain version has the given digest.
+     */
+    synchronized long findPlainVersion(byte[] digest) throws IOException {
+        for (Map.Entry<Long, byte[]> entry : getDigests().entrySet()) {
+            long version = entry.getKey();
+            if (MessageDigest.isEqual(entry.getValue(), digest) && m_versions.contains(version) && getFile(version).isFile()) {
+                return version;
+            }
+        }
+        return 0L;
+    }
+
+    /**
+     * Returns the digest of the contents of the given version, computing it if it is not yet known.
+     * 
+     * @param version
+     *            the version to return the digest for.
+     * @return the {@value #DIGEST_ALGORITHM} digest, or <code>null</code> if the version is not present.
+     */
+    synchronized byte[] getDigest(long version) throws IOException {
+        if (!m_versions.contains(version)) {
+            return null;
+        }
+        byte[] result = getDigests().get(version);
+        if (result == null) {
+            // stored before we kept digests...
+            InputStream is = read(version);
+            if (is == null) {
+                return null;
+            }
+            result = digest(is);
+            storeDigest(version, result);
+        }
+        return result;
+    }
+
+    /**
+     * Removes the given version from this store.
+     * 
+     * @param version
+     *            the version to remove.
+     * @return <code>true</code> if the version was removed, <code>false</code> otherwise.
+     */
+    synchronized boolean delete(long version) {
+        if (!m_versions.remove(version)) {
+            return false;
+        }
+        m_range = null;
+
+        if (m_digests != null) {
+            m_digests.remove(version);
+        }
+
+        boolean result = getFile(version).delete();
+        result |= getDeltaFile(version).delete();
+        try {
+            updateCatalog();
+        }
+        catch (IOException e) {
+            // Not fatal, the catalog is verified upon startup...
+        }
+        return result;
+    }
+
+    /**
+     * Replaces the plain file of the given version by a delta against the given newer version, if that saves enough
+     * space.
+     */
+    private void compact(long version, long base) throws IOException {
+        File file = getFile(version);
+        if ((version % SNAPSHOT_INTERVAL) == 0 || !file.isFile()) {
+            return;
+        }
+
+        byte[] target = Files.readAllBytes(file.toPath());
+        byte[] baseData = readBytes(base);
+        if (baseData == null) {
+            return;
+        }
+
+        byte format = FORMAT_RAW;
+        byte[] uncompressed = gunzipReproducible(target);
+        if (uncompressed != null) {
+            byte[] uncompressedBase = gunzip(baseData);
+            if (uncompressedBase != null) {
+                format = FORMAT_GZIP;
+                target = uncompressed;
+                baseData = uncompressedBase;
+            }
+        }
+
+        byte[] delta = Delta.encode(baseData, target);
+
+        File deltaFile = getDeltaFile(version);
+        File tempFile = new File(m_dir, deltaFile.getName() + TEMP_SUFFIX);
+        DataOutputStream dos = new DataOutputStream(new FileOutputStream(tempFile));
+        try {
+            dos.writeInt(DELTA_MAGIC);
+            dos.writeByte(format);
+            dos.writeLong(base);
+            dos.writeInt(target.length);
+
+            DeflaterOutputStream dfos = new DeflaterOutputStream(dos);
+            dfos.write(delta);
+            dfos.finish();
+        }
+        finally {
+            dos.close();
+        }
+
+        // only worth it if we save at least a quarter of the space...
+        if (tempFile.length() > (file.length() * 3) / 4 || !tempFile.renameTo(deltaFile)) {
+            tempFile.delete();
+            return;
+        }
+        if (!file.delete()) {
+            // keep the plain file, as it still might be read...
+            deltaFile.delete();
+        }
+    }
+
+    /**
+     * Reads the complete contents of the given version, applying deltas as needed.
+     * 
+     * @return the contents of the version, or <code>null</code> if the version is not present.
+     */
+    private byte[] readBytes(long version) throws IOException {
+        return readBytes(version, false);
+    }
+
+    /**
+     * Reads the complete contents of the given version, applying deltas as needed. Deltas between gzipped versions are
+     * applied to the uncompressed contents throughout the chain, so the contents are only compressed once at the end.
+     * 
+     * @param uncompressed
+     *            <code>true</code> if the uncompressed contents of the (gzipped) version are needed, <code>false</code>
+     *            if the contents are needed as stored.
+     * @return the contents of the version, or <code>null</code> if the version is not present.
+     * @throws IOException
+     *             in case of I/O problems, or if the uncompressed contents are needed for a version that is not
+     *             gzipped.
+     */
+    private byte[] readBytes(long version, boolean uncompressed) throws IOException {
+        byte[] result = readPlainBytes(version);
+        if (result != null) {
+            return uncompressed ? gunzip(version, result) : result;
+        }
+
+        DataInputStream dis;
+        try {
+            dis = new DataInputStream(new FileInputStream(getDeltaFile(version)));
+        }
+        catch (FileNotFoundException e) {
+            // make sure we did not miss a concurrent change from delta to plain file...
+            result = readPlainBytes(version);
+            if (result == null) {
+                return null;
+            }
+            return uncompressed ? gunzip(version, result) : result;
+        }
+
+        byte format;
+        try {
+            if (dis.readInt() != DELTA_MAGIC) {
+                throw new IOException("Not a delta file: " + getDeltaFile(version));
+            }
+            format = dis.readByte();
+            long base = dis.readLong();
+            int length = dis.readInt();
+
+            byte[] baseData = readBytes(base, format == FORMAT_GZIP);
+            if (baseData == null) {
+                throw new IOException("Base version " + base + " of version " + version + " is missing!");
+            }
+
+            result = Delta.apply(baseData, readFully(new InflaterInputStream(dis)), length);
+        }
+        finally {
+            dis.close();
+        }
+
+        if (format == FORMAT_GZIP) {
+            return uncompressed ? result : gzipVerified(version, result);
+        }
+        return uncompressed ? gunzip(version, result) : result;
+    }
+
+    /**
+     * Compresses the uncompressed contents of the given version again, and verifies that this yields exactly the
+     * contents as they were stored. Versions are immutable, so we should rather fail than hand out different data.
+     * 
+     * @return the compressed contents of the version, never <code>null</code>.
+     * @throws IOException
+     *             in case the contents cannot be reproduced exactly.
+     */
+    private byte[] gzipVerified(long version, byte[] data) throws IOException {
+        byte[] result = gzip(data);
+        byte[] digest = getStoredDigest(version);
+        if (digest != null && !MessageDigest.isEqual(digest, createDigest().digest(result))) {
+            throw new IOException("Version " + version + " cannot be reproduced exactly, its compressed contents differ from the stored contents!");
+        }
+        return result;
+    }
+
+    /**
+     * @return the digest of the given version as stored in the digest index, or <code>null</code> if it is not known.
+     */
+    private synchronized byte[] getStoredDigest(long version) throws IOException {
+        return getDigests().get(version);
+    }
+
+    /**
+     * @return the contents of the plain file of the given version, or <code>null</code> if there is no such file.
+     */
+    private byte[] readPlainBytes(long version) throws IOException {
+        try {
+            return Files.readAllBytes(getFile(version).toPath());
+        }
+        catch (IOException e) {
+            if (getFile(version).isFile()) {
+                throw e;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Computes the digest of the given file.
+     */
+    static byte[] digest(File file) throws IOException {
+        return digest(new FileInputStream(file));
+    }
+
+    /**
+     * Computes the digest of the given stream, which is closed afterwards.
+     */
+    static byte[] digest(InputStream is) throws IOException {
+        MessageDigest md = createDigest();
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int count = is.read(buffer); count != -1; count = is.read(buffer)) {
+                md.update(buffer, 0, count);
+            }
+        }
+        finally {
+            is.close();
+        }
+        return md.digest();
+    }
+
+    /**
+     * @return a new {@link MessageDigest} for computing version digests.
+     */
+    static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every JRE is required to support SHA-256...
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Verifies the cataloged range of versions against the files present, as we might have been stopped in between
+     * storing or removing a version and updating the catalog.
+     */
+    private boolean isConsistent(SortedRangeSet range) {
+        long high = range.getHigh();
+        if (high > 0L && !exists(high)) {
+            return false;
+        }
+        RangeIterator iter = range.iterator();
+        if (iter.hasNext() && !exists(iter.next())) {
+            return false;
+        }
+        return !exists(high + 1);
+    }
+
+    private boolean exists(long version) {
+        return getFile(version).isFile() || getDeltaFile(version).isFile();
+    }
+
+    private void updateCatalog() throws IOException {
+        if (m_catalog != null) {
+            m_catalog.update(m_dir.getName(), getRange());
+        }
+    }
+
+    private File getDeltaFile(long version) {
+        return new File(m_dir, String.format("%d%s%s", version, m_fileExtension, DELTA_SUFFIX));
+    }
+
+    /**
+     * @return the digests of all versions known in the digest index, loaded if not yet done.
+     */
+    private Map<Long, byte[]> getDigests() throws IOException {
+        if (m_digests == null) {
+            Map<Long, byte[]> digests = new HashMap<>();
+
+            int entries = 0;
+            File index = new File(m_dir, DIGEST_INDEX);
+            if (index.isFile()) {
+                for (String line : Files.readAllLines(index.toPath(), StandardCharsets.US_ASCII)) {
+                    entries++;
+                    int i = line.indexOf(',');
+                    if (i <= 0) {
+                        // incomplete line, written while being interrupted...
+                        continue;
+                    }
+                    try {
+                        long version = Long.parseLong(line.substring(0, i));
+                        byte[] digest = fromHex(line.substring(i + 1));
+                        if (digest == null) {
+                            digests.remove(version);
+                        }
+                        else {
+                            digests.put(version, digest);
+                        }
+                    }
+                    catch (NumberFormatException e) {
+                        // Ignore, not a valid line...
+                    }
+                }
+            }
+            // only keep the digests of the versions we actually have...
+            digests.keySet().retainAll(m_versions);
+
+            m_digests = digests;
+
+            // rewrite the index in case it mostly consists of outdated entries...
+            if (entries > 2 * (2 * digests.size() + SNAPSHOT_INTERVAL)) {
+                writeDigests(index);
+            }
+        }
+        return m_digests;
+    }
+
+    private void writeDigests(File index) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Long, byte[]> entry : m_digests.entrySet()) {
+            sb.append(entry.getKey()).append(',').append(toHex(entry.getValue())).append(String.format("%n"));
+        }
+
+        File tempFile = new File(m_dir, DIGEST_INDEX + TEMP_SUFFIX);
+        Files.write(tempFile.toPath(), sb.toString().getBytes(StandardCharsets.US_ASCII));
+        Files.move(tempFile.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void storeDigest(long version, byte[] digest) throws IOException {
+        getDigests().put(version, digest);
+
+        // make sure we start at a new line, in case a previous write was interrupted...
+        String line = String.format("%n%d,%s%n", version, toHex(digest));
+        FileOutputStream fos = new FileOutputStream(new File(m_dir, DIGEST_INDEX), true /* append */);
+        try {
+            fos.write(line.getBytes(StandardCharsets.US_ASCII));
+        }
+        finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * @return the bytes represented by the given hexadecimal string, or <code>null</code> if it is not a valid digest.
+     */
+    private static byte[] fromHex(String hex) {
+        int length = hex.length();
+        if (length == 0 || (length % 2) != 0) {
+            return null;
+        }
+        byte[] result = new byte[length / 2];
+        for (int i = 0; i < length; i += 2) {
+            int hi = Character.digit(hex.charAt(i), 16);
+            int lo = Character.digit(hex.charAt(i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            result[i / 2] = (byte) ((hi << 4) | lo);
+        }
+        return result;
+    }
+
+    private static String toHex(byte[] data) {
+        StringBuilder sb = new StringBuilder(data.length * 2);
+        for (byte b : data) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the uncompressed data if the given data is gzipped in such a way that compressing the uncompressed data
+     *         again yields exactly the given data, <code>null</code> otherwise.
+     */
+    private static byte[] gunzipReproducible(byte[] data) throws IOException {
+        byte[] result = gunzip(data);
+        if (result != null && Arrays.equals(data, gzip(result))) {
+            return result;
+        }
+        return null;
+    }
+
+    /**
+     * @return the uncompressed data, or <code>null</code> if the given data is not gzipped.
+     */
+    private static byte[] gunzip(byte[] data) {
+        if (data.length < 2 || (data[0] & 0xFF) != 0x1F || (data[1] & 0xFF) != 0x8B) {
+            return null;
+        }
+        try {
+            return readFully(new GZIPInputStream(new ByteArrayInputStream(data), BUFFER_SIZE));
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the uncompressed contents of the given version, never <code>null</code>.
+     * @throws IOException
+     *             in case the given version is not gzipped.
+     */
+    private static byte[] gunzip(long version, byte[] data) throws IOException {
+        byte[] result = gunzip(data);
+        if (result == null) {
+            throw new IOException("Version " + version + " is not gzipped!");
+        }
+        return result;
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 4 + 64);
+        GZIPOutputStream gzos = new GZIPOutputStream(baos);
+        gzos.write(data);
+        gzos.close();
+        return baos.toByteArray();
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(BUFFER_SIZE);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int count = is.read(buffer); count != -1; count = is.read(buffer)) {
+                baos.write(buffer, 0, count);
+            }
+            return baos.toByteArray();
+        }
+        finally {
+            is.close();
+        }
+    }
+}
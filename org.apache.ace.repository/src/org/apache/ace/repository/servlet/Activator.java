@@ -20,6 +20,7 @@ package org.apache.ace.repository.servlet;
 
 import static org.apache.ace.http.HttpConstants.ACE_WHITEBOARD_CONTEXT_SELECT_FILTER;
 import static org.osgi.service.http.whiteboard.HttpWhiteboardConstants.HTTP_WHITEBOARD_CONTEXT_SELECT;
+import static org.osgi.service.http.whiteboard.HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_ASYNC_SUPPORTED;
 import static org.osgi.service.http.whiteboard.HttpWhiteboardConstants.HTTP_WHITEBOARD_SERVLET_PATTERN;
 
 import java.util.Properties;
@@ -38,6 +39,8 @@ public class Activator extends DependencyActivatorBase {
         Properties repositoryServletProps = new Properties();
         repositoryServletProps.put(HTTP_WHITEBOARD_SERVLET_PATTERN, "/repository/*");
         repositoryServletProps.put(HTTP_WHITEBOARD_CONTEXT_SELECT, ACE_WHITEBOARD_CONTEXT_SELECT_FILTER);
+        // allows watch requests to be handled without blocking a thread...
+        repositoryServletProps.put(HTTP_WHITEBOARD_SERVLET_ASYNC_SUPPORTED, Boolean.TRUE);
         manager.add(createComponent()
             .setInterface(Servlet.class.getName(), repositoryServletProps)
             .setImplementation(RepositoryServlet.class)
@@ -48,6 +51,7 @@ public class Activator extends DependencyActivatorBase {
         Properties replicationServletProps = new Properties();
         replicationServletProps.put(HTTP_WHITEBOARD_SERVLET_PATTERN, "/replication/*");
         replicationServletProps.put(HTTP_WHITEBOARD_CONTEXT_SELECT, ACE_WHITEBOARD_CONTEXT_SELECT_FILTER);
+        replicationServletProps.put(HTTP_WHITEBOARD_SERVLET_ASYNC_SUPPORTED, Boolean.TRUE);
         manager.add(createComponent()
             .setInterface(Servlet.class.getName(), replicationServletProps)
             .setImplementation(RepositoryReplicationServlet.class)
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.repository.servlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
+
+/**
+ * Keeps track of all repository services of a certain type, and indexes the master repositories by their customer and
+ * name. This allows servlet requests to resolve their repository without querying the service registry.
+ */
+class RepositoryIndex<S> implements ServiceTrackerCustomizer<S, S> {
+    private final BundleContext m_context;
+    private final ServiceTracker<S, S> m_tracker;
+    // lock-free for readers, the lists are replaced (never modified) upon changes...
+    private final ConcurrentMap<Key, List<ServiceReference<S>>> m_index;
+    // guarded by itself, used to find the key under which a service was indexed...
+    private final Map<ServiceReference<S>, Key> m_keys;
+
+    public RepositoryIndex(BundleContext context, Class<S> type) {
+        m_context = context;
+        m_tracker = new ServiceTracker<>(context, type, this);
+        m_index = new ConcurrentHashMap<>();
+        m_keys = new HashMap<>();
+    }
+
+    @Override
+    public S addingService(ServiceReference<S> reference) {
+        S service = m_context.getService(reference);
+        if (service != null) {
+            index(reference);
+        }
+        return service;
+    }
+
+    @Override
+    public void modifiedService(ServiceReference<S> reference, S service) {
+        // the customer, name or master properties could have been changed...
+        unindex(reference);
+        index(reference);
+    }
+
+    @Override
+    public void removedService(ServiceReference<S> reference, S service) {
+        unindex(reference);
+        m_context.ungetService(reference);
+    }
+
+    /**
+     * Returns the master repositories for a given customer and name.
+     * 
+     * @param customer
+     *            the customer of the repository;
+     * @param name
+     *            the name of the repository.
+     * @return a list with service references, never <code>null</code>.
+     */
+    public List<ServiceReference<S>> get(String customer, String name) {
+        List<ServiceReference<S>> result = m_index.get(new Key(customer, name));
+        if (result == null) {
+            return Collections.emptyList();
+        }
+        return result;
+    }
+
+    /**
+     * @return all tracked repositories, never <code>null</code>.
+     */
+    public List<ServiceReference<S>> getAll() {
+        ServiceReference<S>[] refs = m_tracker.getServiceReferences();
+        if (refs == null) {
+            return Collections.emptyList();
+        }
+        List<ServiceReference<S>> result = new ArrayList<>(refs.length);
+        Collections.addAll(result, refs);
+        return result;
+    }
+
+    /**
+     * Returns the service for the given reference.
+     * 
+     * @param reference
+     *            the service reference to return the service for.
+     * @return the repository service, or <code>null</code> in case it is no longer available.
+     */
+    public S getService(ServiceReference<S> reference) {
+        return m_tracker.getService(reference);
+    }
+
+    public void open() {
+        m_tracker.open();
+    }
+
+    public void close() {
+        m_tracker.close();
+        m_index.clear();
+        synchronized (m_keys) {
+            m_keys.clear();
+        }
+    }
+
+    private void index(ServiceReference<S> reference) {
+        Object customer = reference.getProperty("customer");
+        Object name = reference.getProperty("name");
+        if (customer == null || name == null || reference.getProperty("master") == null) {
+            // not a master repository, cannot be used for checkouts or commits...
+            return;
+        }
+
+        Key key = new Key(customer.toString(), name.toString());
+        synchronized (m_keys) {
+            m_keys.put(reference, key);
+
+            List<ServiceReference<S>> refs = new ArrayList<>(get(key.m_customer, key.m_name));
+            refs.add(reference);
+            m_index.put(key, Collections.unmodifiableList(refs));
+        }
+    }
+
+    private void unindex(ServiceReference<S> reference) {
+        synchronized (m_keys) {
+            Key key = m_keys.remove(reference);
+            if (key == null) {
+                return;
+            }
+
+            List<ServiceReference<S>> refs = new ArrayList<>(get(key.m_customer, key.m_name));
+            refs.remove(reference);
+            if (refs.isEmpty()) {
+                m_index.remove(key);
+            }
+            else {
+                m_index.put(key, Collections.unmodifiableList(refs));
+            }
+        }
+    }
+
+    /**
+     * Index key, consisting of a customer and name.
+     */
+    private static final class Key {
+        final String m_customer;
+        final String m_name;
+
+        Key(String customer, String name) {
+            m_customer = customer;
+            m_name = name;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return m_customer.equals(other.m_customer) && m_name.equals(other.m_name);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * m_customer.hashCode() + m_name.hashCode();
+        }
+    }
+}
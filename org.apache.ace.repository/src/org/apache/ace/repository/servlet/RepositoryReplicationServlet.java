@@ -51,6 +51,11 @@ public class RepositoryReplicationServlet extends RepositoryServletBase<Reposito
         return "/get";
     }
 
+    @Override
+    protected String getBatchCheckoutCommand() {
+        return "/getrange";
+    }
+
     @Override
     protected String getCommitCommand() {
         return "/put";
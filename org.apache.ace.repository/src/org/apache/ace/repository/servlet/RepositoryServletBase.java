@@ -18,19 +18,45 @@
  */
 package org.apache.ace.repository.servlet;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.ace.range.RangeIterator;
 import org.apache.ace.range.SortedRangeSet;
+import org.apache.ace.repository.JournaledRepository;
+import org.apache.ace.repository.util.FileIO;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.log.LogService;
@@ -43,8 +69,25 @@ public abstract class RepositoryServletBase<REPO_TYPE> extends HttpServlet {
     
     private static final long serialVersionUID = 1L;
     
-    private static final int COPY_BUFFER_SIZE = 1024;
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
     private static final String QUERY = "/query";
+    private static final String WATCH = "/watch";
+    private static final String JOURNAL = "/journal";
+    /** The default and maximum time (in milliseconds) a watch request waits for a new version. */
+    private static final long DEFAULT_WATCH_TIMEOUT = 30000L;
+    private static final long MAX_WATCH_TIMEOUT = 120000L;
+    /** The interval (in milliseconds) in which pending watch requests are checked for new versions. */
+    private static final long WATCH_CHECK_INTERVAL = 100L;
+    /**
+     * Versions never change once stored, so they can be cached for a year (the maximum allowed by RFC 2616). They can
+     * contain customer specific data, so only the client itself is allowed to cache them, not any shared cache.
+     */
+    private static final String IMMUTABLE_CACHE_CONTROL = "private, max-age=31536000";
+    /** Query results change whenever a version is added, so these should always be revalidated. */
+    private static final String QUERY_CACHE_CONTROL = "no-cache";
+    private static final String GZIP = "gzip";
+    /** Suffix for the entity tags of gzip-encoded representations, which differ from their identity ones. */
+    private static final String GZIP_ETAG_SUFFIX = "-gz";
     protected static final String TEXT_MIMETYPE = "text/plain";
     protected static final String BINARY_MIMETYPE = "application/octet-stream";
 
@@ -53,10 +96,49 @@ public abstract class RepositoryServletBase<REPO_TYPE> extends HttpServlet {
     protected volatile BundleContext m_context;
     protected volatile LogService m_log;
 
+    private volatile RepositoryIndex<REPO_TYPE> m_index;
+    // pending watch requests, checked periodically and upon each commit...
+    private final Set<Watch> m_watches = Collections.newSetFromMap(new ConcurrentHashMap<Watch, Boolean>());
+    private volatile ScheduledExecutorService m_watchTimer;
+
     public RepositoryServletBase(Class<REPO_TYPE> repoType) {
         m_repoType = repoType;
     }
 
+    /**
+     * Called by Dependency Manager upon starting of this component.
+     */
+    protected void start() {
+        m_index = new RepositoryIndex<>(m_context, m_repoType);
+        m_index.open();
+
+        m_watchTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, getServletInfo() + " watcher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        m_watchTimer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                checkWatches(false /* force */);
+            }
+        }, WATCH_CHECK_INTERVAL, WATCH_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Called by Dependency Manager upon stopping of this component.
+     */
+    protected void stop() {
+        m_watchTimer.shutdownNow();
+        // do not leave any client waiting...
+        checkWatches(true /* force */);
+
+        m_index.close();
+    }
+
     /**
      * Checkout or get data from the repository.
      * 
@@ -93,11 +175,21 @@ public abstract class RepositoryServletBase<REPO_TYPE> extends HttpServlet {
         String filter = request.getParameter("filter");
         String version = request.getParameter("version");
 
-        if (QUERY.equals(path)) {
+        if (WATCH.equals(path)) {
+            if ((name != null) && (customer != null) && (version != null)) {
+                String timeout = request.getParameter("timeout");
+                handleWatch(customer, name, Long.parseLong(version), (timeout == null) ? DEFAULT_WATCH_TIMEOUT : Long.parseLong(timeout), request, response);
+            }
+            else {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "Name, customer and version should all be specified.");
+            }
+        }
+        else if (QUERY.equals(path)) {
             // both repositories have a query method
             if (filter != null) {
                 if ((name == null) && (customer == null)) {
-                    handleQuery(filter, response);
+                    handleQuery(filter, request, response);
                 }
                 else {
                     response.sendError(HttpServletResponse.SC_BAD_REQUEST,
@@ -106,23 +198,43 @@ public abstract class RepositoryServletBase<REPO_TYPE> extends HttpServlet {
             }
             else {
                 if ((name != null) && (customer != null)) {
-                    handleQuery(getRepositoryFilter(customer, name), response);
+                    handleQuery(customer, name, request, response);
                 }
                 else if (name != null) {
-                    handleQuery("(name=" + name + ")", response);
+                    handleQuery("(name=" + name + ")", request, response);
                 }
                 else if (customer != null) {
-                    handleQuery("(customer=" + customer + ")", response);
+                    handleQuery("(customer=" + customer + ")", request, response);
                 }
                 else {
-                    handleQuery(null, response);
+                    handleQuery(null, request, response);
                 }
             }
         }
         else if (getCheckoutCommand().equals(path)) {
             // and both have a checkout, only it's named differently
             if ((name != null) && (customer != null) && (version != null)) {
-                handleCheckout(customer, name, Long.parseLong(version), response);
+                handleCheckout(customer, name, Long.parseLong(version), request, response);
+            }
+        }
+        else if (JOURNAL.equals(path)) {
+            String base = request.getParameter("base");
+            if ((name != null) && (customer != null) && (version != null) && (base != null)) {
+                handleJournalCheckout(customer, name, Long.parseLong(version), Long.parseLong(base), response);
+            }
+            else {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "Name, customer, version and base should all be specified.");
+            }
+        }
+        else if (path != null && path.equals(getBatchCheckoutCommand())) {
+            String range = request.getParameter("range");
+            if ((name != null) && (customer != null) && (range != null)) {
+                handleBatchCheckout(customer, name, range, response);
+            }
+            else {
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "Name, customer and range should all be specified.");
             }
         }
         else {
@@ -137,10 +249,10 @@ public abstract class RepositoryServletBase<REPO_TYPE> extends HttpServlet {
         String name = request.getParameter("name");
         String version = request.getParameter("version");
 
-        if (getCommitCommand().equals(path)) {
+        if (getCommitCommand().equals(path) || JOURNAL.equals(path)) {
             // and finally, both have a commit, only it's named differently
             if ((name != null) && (customer != null) && (version != null)) {
-                handleCommit(customer, name, Long.parseLong(version), request.getInputStream(), response);
+                handleCommit(customer, name, Long.parseLong(version), request.getInputStream(), JOURNAL.equals(path), response);
             }
             else {
                 response.sendError(HttpServletResponse.SC_BAD_REQUEST,
@@ -162,6 +274,15 @@ public abstract class RepositoryServletBase<REPO_TYPE> extends HttpServlet {
      */
     protected abstract String getCommitCommand();
 
+    /**
+     * Returns the name of the "batch checkout" command, which returns multiple versions in a single response.
+     * 
+     * @return the name of the command, or <code>null</code> (the default) if batch checkouts are not supported.
+     */
+    protected String getBatchCheckoutCommand() {
+        return null;
+    }
+
     /**
      * Implement this by asking the right repository for a range of available versions.
      * 
@@ -174,50 +295,227 @@ public abstract class RepositoryServletBase<REPO_TYPE> extends HttpServlet {
     protected abstract SortedRangeSet getRange(REPO_TYPE repo) throws IOException;
 
     /**
-     * Copies data from an input stream to an output stream.
+     * Determines whether the client accepts gzip-encoded responses.
      * 
-     * @param in
-     *            The input
-     * @param outThe
-     *            output
-     * @param version
-     * @param name
-     * @throws IOException
-     *             If copying fails
+     * @param acceptEncoding
+     *            the value of the "Accept-Encoding" header, can be <code>null</code>.
+     * @return <code>true</code> if gzip is acceptable to the client, <code>false</code> otherwise.
      */
-    private void copy(InputStream in, OutputStream out, String name, long version)
-        throws IOException {
-        byte[] buffer = new byte[COPY_BUFFER_SIZE];
-        int bytes = in.read(buffer);
-        while (bytes != -1) {
-            out.write(buffer, 0, bytes);
-            bytes = in.read(buffer);
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
         }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.split(";");
+            String name = parts[0].trim();
+            if (GZIP.equalsIgnoreCase(name) || "x-gzip".equalsIgnoreCase(name) || "*".equals(name)) {
+                for (int i = 1; i < parts.length; i++) {
+                    String param = parts[i].trim();
+                    if (param.startsWith("q=")) {
+                        try {
+                            return Double.parseDouble(param.substring(2)) > 0.0;
+                        }
+                        catch (NumberFormatException e) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
 
+    /**
+     * Creates the strong entity tag for a version of a repository. As versions are immutable, the combination of
+     * customer, name and version uniquely identifies its contents.
+     */
+    static String createETag(String customer, String name, long version) {
+        return "\"" + toHex(digest(customer + "/" + name + "/" + version)) + "-" + version + "\"";
+    }
+
+    /**
+     * Creates the strong entity tag for the gzip-encoded representation of a version, given the entity tag of its
+     * identity representation. Both representations differ byte-wise, so they cannot share a strong entity tag.
+     */
+    static String createGzipETag(String etag) {
+        return etag.substring(0, etag.length() - 1) + GZIP_ETAG_SUFFIX + "\"";
+    }
+
+    /**
+     * Determines whether the given entity tag matches the value of an "If-None-Match" header.
+     * 
+     * @param ifNoneMatch
+     *            the value of the "If-None-Match" header, can be <code>null</code>;
+     * @param etag
+     *            the (strong) entity tag of the current representation.
+     * @return <code>true</code> if the client already has the current representation, <code>false</code> otherwise.
+     */
+    static boolean matchesETag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                // weak comparison is allowed for GET requests...
+                tag = tag.substring(2);
+            }
+            if ("*".equals(tag) || etag.equals(tag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] createBatchHeader(long version, long length) {
+        return ByteBuffer.allocate(16).putLong(version).putLong(length).array();
+    }
+
+    private static byte[] digest(String input) {
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(input.getBytes(StandardCharsets.UTF_8));
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every JRE is required to support SHA-1...
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the given (mark-supporting) input stream starts with the gzip magic number.
+     */
+    private static boolean isGzipped(InputStream in) throws IOException {
+        in.mark(2);
+        try {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+        finally {
+            in.reset();
+        }
+    }
+
+    /**
+     * Sends the data of a version to the client, compressing it on the fly for clients that accept gzip. The length of
+     * data that is backed by a file or memory is sent up front. The entity tag of the representation that is actually
+     * sent is set as well.
+     */
+    private static void sendData(InputStream data, String etag, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        try {
+            if (acceptsGzip(request.getHeader("Accept-Encoding"))) {
+                if (!data.markSupported()) {
+                    data = new BufferedInputStream(data, COPY_BUFFER_SIZE);
+                }
+                // Most repositories already store gzipped data, compressing it again is useless...
+                if (!isGzipped(data)) {
+                    response.setHeader("Content-Encoding", GZIP);
+                    response.setHeader("ETag", createGzipETag(etag));
+
+                    GZIPOutputStream out = new GZIPOutputStream(response.getOutputStream(), COPY_BUFFER_SIZE);
+                    FileIO.DEFAULT.copy(data, out);
+                    out.finish();
+                    return;
+                }
+            }
+
+            response.setHeader("ETag", etag);
+            if (data instanceof FileInputStream) {
+                FileChannel channel = ((FileInputStream) data).getChannel();
+                response.setHeader("Content-Length", Long.toString(channel.size() - channel.position()));
+            }
+            else if (data instanceof ByteArrayInputStream) {
+                response.setHeader("Content-Length", Integer.toString(data.available()));
+            }
+            FileIO.DEFAULT.copy(data, response.getOutputStream());
+        }
+        finally {
+            data.close();
+        }
+    }
+
+    /**
+     * Writes a single version of a batch checkout, determining its length from its file channel when possible.
+     */
+    private static void sendBatchEntry(long version, InputStream data, OutputStream out) throws IOException {
+        try {
+            if (data instanceof FileInputStream) {
+                FileChannel channel = ((FileInputStream) data).getChannel();
+                out.write(createBatchHeader(version, channel.size() - channel.position()));
+
+                FileIO.DEFAULT.copy(data, out);
+            }
+            else {
+                // the length needs to be known up front...
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                FileIO.DEFAULT.copy(data, baos);
+
+                out.write(createBatchHeader(version, baos.size()));
+                baos.writeTo(out);
+            }
+        }
+        finally {
+            data.close();
+        }
+    }
+
+    private static String toHex(byte[] data) {
+        StringBuilder sb = new StringBuilder(data.length * 2);
+        for (byte b : data) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns a list of (master) repositories for the given customer and name.
+     * 
+     * @param customer
+     *            The customer of the repository
+     * @param name
+     *            The name of the repository
+     * @return A list of service references
+     * @throws InvalidSyntaxException
+     *             If the customer or name lead to an invalid filter condition
+     */
+    private List<ServiceReference<REPO_TYPE>> getRepositories(String customer, String name) throws InvalidSyntaxException {
+        if (customer.indexOf('*') >= 0 || name.indexOf('*') >= 0) {
+            // wildcards can only be matched by a filter...
+            return getRepositories(getRepositoryFilter(customer, name));
+        }
+        return m_index.get(customer, name);
     }
 
     /**
      * Returns a list of repositories that match the specified filter condition.
      * 
      * @param filter
-     *            The filter condition
-     * @return An array of service references
+     *            The filter condition, can be <code>null</code> to return all repositories
+     * @return A list of service references
      * @throws InvalidSyntaxException
      *             If the filter condition is invalid
      */
     private List<ServiceReference<REPO_TYPE>> getRepositories(String filter) throws InvalidSyntaxException {
-        List<ServiceReference<REPO_TYPE>> result = new ArrayList<>();
-        result.addAll(m_context.getServiceReferences(m_repoType, filter));
+        List<ServiceReference<REPO_TYPE>> result = m_index.getAll();
+        if (filter != null) {
+            Filter f = m_context.createFilter(filter);
+
+            Iterator<ServiceReference<REPO_TYPE>> iter = result.iterator();
+            while (iter.hasNext()) {
+                if (!f.match(iter.next())) {
+                    iter.remove();
+                }
+            }
+        }
         return result;
     }
 
     /**
      * Handles a checkout command and returns the response.
      */
-    private void handleCheckout(String customer, String name, long version, HttpServletResponse response) throws IOException {
+    private void handleCheckout(String customer, String name, long version, HttpServletRequest request, HttpServletResponse response) throws IOException {
         List<ServiceReference<REPO_TYPE>> refs;
         try {
-            refs = getRepositories(getRepositoryFilter(customer, name));
+            refs = getRepositories(customer, name);
         }
         catch (InvalidSyntaxException e) {
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Invalid filter syntax: " + e.getMessage());
@@ -237,35 +535,169 @@ public abstract class RepositoryServletBase<REPO_TYPE> extends HttpServlet {
                 return;
             }
 
-            REPO_TYPE repo = m_context.getService(ref);
+            REPO_TYPE repo = m_index.getService(ref);
+            if (repo == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "Could not find repository for customer " + customer + ", name " + name);
+                return;
+            }
 
-            try {
+            String etag = createETag(customer, name, version);
+            String ifNoneMatch = request.getHeader("If-None-Match");
+            String matchedETag = null;
+            if (matchesETag(ifNoneMatch, etag)) {
+                matchedETag = etag;
+            }
+            else if (acceptsGzip(request.getHeader("Accept-Encoding")) && matchesETag(ifNoneMatch, createGzipETag(etag))) {
+                matchedETag = createGzipETag(etag);
+            }
+
+            if (matchedETag != null && getRange(repo).contains(version)) {
+                // Versions are immutable, so the client already has the right data...
+                response.setHeader("ETag", matchedETag);
+                response.setHeader("Cache-Control", IMMUTABLE_CACHE_CONTROL);
+                response.setHeader("Vary", "Accept-Encoding");
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            InputStream data = doCheckout(repo, version);
+            if (data == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "Requested version does not exist: " + version);
+            }
+            else {
                 response.setContentType(BINARY_MIMETYPE);
+                response.setHeader("Cache-Control", IMMUTABLE_CACHE_CONTROL);
+                response.setHeader("Vary", "Accept-Encoding");
+
+                sendData(data, etag, request, response);
+            }
+        }
+        catch (IOException e) {
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "I/O exception: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Handles a batch checkout command and streams all requested versions that are present back in a single response.
+     * Each version is written as its version number (a long), its length (a long) and its data, a version number of 0
+     * marks the end of the response.
+     */
+    private void handleBatchCheckout(String customer, String name, String range, HttpServletResponse response) throws IOException {
+        SortedRangeSet requested;
+        try {
+            requested = new SortedRangeSet(range);
+        }
+        catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid range: " + range);
+            return;
+        }
+
+        List<ServiceReference<REPO_TYPE>> refs;
+        try {
+            refs = getRepositories(customer, name);
+        }
+        catch (InvalidSyntaxException e) {
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Invalid filter syntax: " + e.getMessage());
+            return;
+        }
+
+        try {
+            if (refs.size() != 1) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    (refs.isEmpty() ? "Could not find repository " : "Multiple repositories found ") + " for customer " + customer + ", name " + name);
+                return;
+            }
+
+            ServiceReference<REPO_TYPE> ref = refs.get(0);
+            REPO_TYPE repo = m_index.getService(ref);
+            if (repo == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "Could not find repository for customer " + customer + ", name " + name);
+                return;
+            }
+
+            response.setContentType(BINARY_MIMETYPE);
+
+            OutputStream out = response.getOutputStream();
+            RangeIterator iter = getRange(repo).intersection(requested).iterator();
+            while (iter.hasNext()) {
+                long version = iter.next();
 
                 InputStream data = doCheckout(repo, version);
-                if (data == null) {
-                    response.sendError(HttpServletResponse.SC_NOT_FOUND, "Requested version does not exist: " + version);
-                }
-                else {
-                    copy(data, response.getOutputStream(), name, version);
+                if (data != null) {
+                    sendBatchEntry(version, data, out);
                 }
             }
-            finally {
-                m_context.ungetService(ref);
+            out.write(createBatchHeader(0L, 0L));
+            out.flush();
+        }
+        catch (IOException e) {
+            if (!response.isCommitted()) {
+                response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "I/O exception: " + e.getMessage());
+            }
+            else {
+                // the client will notice the premature end of the response...
+                throw e;
             }
         }
+    }
+
+    /**
+     * Handles a journal checkout command, which sends back a journal describing the given version in terms of the given
+     * base version.
+     */
+    private void handleJournalCheckout(String customer, String name, long version, long base, HttpServletResponse response) throws IOException {
+        List<ServiceReference<REPO_TYPE>> refs;
+        try {
+            refs = getRepositories(customer, name);
+        }
+        catch (InvalidSyntaxException e) {
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Invalid filter syntax: " + e.getMessage());
+            return;
+        }
+
+        try {
+            if (refs.size() != 1) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                    (refs.isEmpty() ? "Could not find repository " : "Multiple repositories found ") + " for customer " + customer + ", name " + name);
+                return;
+            }
+
+            REPO_TYPE repo = m_index.getService(refs.get(0));
+            if (!(repo instanceof JournaledRepository)) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "Could not find journaled repository for customer " + customer + ", name " + name);
+                return;
+            }
+
+            InputStream data = ((JournaledRepository) repo).checkoutJournal(version, base);
+            if (data == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "Requested versions do not exist: " + version + ", " + base);
+            }
+            else {
+                // journals are already compressed, so there's no need to gzip them...
+                response.setContentType(BINARY_MIMETYPE);
+                response.setHeader("Cache-Control", IMMUTABLE_CACHE_CONTROL);
+
+                OutputStream out = response.getOutputStream();
+                FileIO.DEFAULT.copy(data, out);
+                out.flush();
+            }
+        }
+        catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid version");
+        }
         catch (IOException e) {
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "I/O exception: " + e.getMessage());
         }
     }
 
     /**
-     * Handles a commit command and sends back the response.
+     * Handles a commit command and sends back the response. In case <tt>journal</tt> is <code>true</code>, the data is a
+     * journal describing the new version in terms of the given version.
      */
-    private void handleCommit(String customer, String name, long version, InputStream data, HttpServletResponse response) throws IOException {
+    private void handleCommit(String customer, String name, long version, InputStream data, boolean journal, HttpServletResponse response) throws IOException {
         List<ServiceReference<REPO_TYPE>> refs;
         try {
-            refs = getRepositories(getRepositoryFilter(customer, name));
+            refs = getRepositories(customer, name);
         }
         catch (InvalidSyntaxException e) {
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Invalid filter syntax: " + e.getMessage());
@@ -285,39 +717,173 @@ public abstract class RepositoryServletBase<REPO_TYPE> extends HttpServlet {
                 return;
             }
 
-            REPO_TYPE repo = m_context.getService(ref);
+            REPO_TYPE repo = m_index.getService(ref);
+            if (repo == null) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "Could not find repository for customer " + customer + ", name " + name);
+                return;
+            }
+
+            if (journal && !(repo instanceof JournaledRepository)) {
+                response.sendError(HttpServletResponse.SC_NOT_FOUND, "Could not find journaled repository for customer " + customer + ", name " + name);
+                return;
+            }
 
             try {
-                if (!doCommit(repo, version, data)) {
+                boolean committed = journal ? ((JournaledRepository) repo).commitJournal(data, version) : doCommit(repo, version, data);
+                if (!committed) {
                     response.sendError(HttpServletResponse.SC_NOT_MODIFIED, "Could not commit");
                 }
                 else {
                     response.setStatus(HttpServletResponse.SC_OK);
+                    // wake up anybody that is watching for this new version...
+                    wakeWatches();
                 }
             }
             catch (IllegalArgumentException e) {
-                response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid version");
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, journal ? "Invalid version or journal" : "Invalid version");
             }
             catch (IllegalStateException e) {
                 response.sendError(HttpServletResponse.SC_NOT_ACCEPTABLE, "Cannot commit, not the master repository");
             }
-            finally {
-                m_context.ungetService(ref);
-            }
         }
         catch (IOException e) {
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "I/O exception: " + e.getMessage());
         }
     }
 
+    /**
+     * Handles a watch command, which waits until a version newer than the given version is available in the
+     * repository, or the given timeout has passed. In both cases, the current range of the repository is sent back in
+     * the same format as the query command. If supported by the container, the request is handled asynchronously.
+     */
+    private void handleWatch(String customer, String name, long version, long timeout, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        List<ServiceReference<REPO_TYPE>> refs;
+        try {
+            refs = getRepositories(customer, name);
+        }
+        catch (InvalidSyntaxException e) {
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Invalid filter syntax: " + e.getMessage());
+            return;
+        }
+
+        if (refs.size() != 1) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND,
+                (refs.isEmpty() ? "Could not find repository " : "Multiple repositories found ") + " for customer " + customer + ", name " + name);
+            return;
+        }
+
+        ServiceReference<REPO_TYPE> ref = refs.get(0);
+        REPO_TYPE repo = m_index.getService(ref);
+        if (repo == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND, "Could not find repository for customer " + customer + ", name " + name);
+            return;
+        }
+
+        long deadline = System.currentTimeMillis() + Math.max(0L, Math.min(timeout, MAX_WATCH_TIMEOUT));
+        if (getRange(repo).getHigh() > version || deadline <= System.currentTimeMillis()) {
+            sendQueryResult(refs, request, response);
+            return;
+        }
+
+        if (request.isAsyncSupported()) {
+            AsyncContext context = request.startAsync();
+            // we complete the request ourselves after the deadline...
+            context.setTimeout(0L);
+
+            Watch watch = new Watch(ref, version, deadline, context, null);
+            // forget about the watch in case the request ends in some other way, for example when the client is gone...
+            context.addListener(watch);
+            m_watches.add(watch);
+        }
+        else {
+            CountDownLatch latch = new CountDownLatch(1);
+            Watch watch = new Watch(ref, version, deadline, null, latch);
+            m_watches.add(watch);
+            try {
+                latch.await(deadline - System.currentTimeMillis() + WATCH_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                m_watches.remove(watch);
+            }
+            sendQueryResult(refs, request, response);
+        }
+    }
+
+    /**
+     * Checks all pending watches and completes those that are no longer pending.
+     * 
+     * @param force
+     *            <code>true</code> to complete all pending watches, regardless of their state.
+     */
+    private void checkWatches(boolean force) {
+        long now = System.currentTimeMillis();
+        for (Watch watch : m_watches) {
+            boolean done = true;
+            try {
+                done = force || watch.isDone(now);
+            }
+            catch (Exception e) {
+                m_log.log(LogService.LOG_WARNING, "Failed to check watch for new versions!", e);
+            }
+            if (done && m_watches.remove(watch)) {
+                try {
+                    watch.complete();
+                }
+                catch (RuntimeException e) {
+                    // do not let a single (bad) watch stop all others from being checked...
+                    m_log.log(LogService.LOG_WARNING, "Failed to complete watch for new versions!", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks all pending watches as soon as possible.
+     */
+    private void wakeWatches() {
+        ScheduledExecutorService timer = m_watchTimer;
+        if (timer != null && !m_watches.isEmpty()) {
+            try {
+                timer.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        checkWatches(false /* force */);
+                    }
+                });
+            }
+            catch (RejectedExecutionException e) {
+                // Ignore, we're being stopped...
+            }
+        }
+    }
+
     private String getRepositoryFilter(String customer, String name) {
         return "(&(customer=" + customer + ")(name=" + name + ")(master=*))";
     }
 
+    /**
+     * Handles a query command for a single customer and name and sends back the response.
+     */
+    private void handleQuery(String customer, String name, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        List<ServiceReference<REPO_TYPE>> refs;
+        try {
+            refs = getRepositories(customer, name);
+        }
+        catch (InvalidSyntaxException e) {
+            response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Invalid filter syntax: " + e.getMessage());
+            return;
+        }
+
+        sendQueryResult(refs, request, response);
+    }
+
     /**
      * Handles a query command and sends back the response.
      */
-    private void handleQuery(String filter, HttpServletResponse response) throws IOException {
+    private void handleQuery(String filter, HttpServletRequest request, HttpServletResponse response) throws IOException {
         List<ServiceReference<REPO_TYPE>> refs;
         try {
             refs = getRepositories(filter);
@@ -327,30 +893,133 @@ public abstract class RepositoryServletBase<REPO_TYPE> extends HttpServlet {
             return;
         }
 
+        sendQueryResult(refs, request, response);
+    }
+
+    /**
+     * Sends the version ranges of the given repositories back as response.
+     */
+    private void sendQueryResult(List<ServiceReference<REPO_TYPE>> refs, HttpServletRequest request, HttpServletResponse response) throws IOException {
         try {
-            StringBuffer result = new StringBuffer();
+            StringBuilder result = new StringBuilder();
 
             for (ServiceReference<REPO_TYPE> ref : refs) {
-                REPO_TYPE repo = m_context.getService(ref);
-                try {
-                    result.append((String) ref.getProperty("customer"));
-                    result.append(',');
-                    result.append((String) ref.getProperty("name"));
-                    result.append(',');
-                    result.append(getRange(repo).toRepresentation());
-                    result.append('\n');
-                }
-                finally {
-                    m_context.ungetService(ref);
+                REPO_TYPE repo = m_index.getService(ref);
+                if (repo == null) {
+                    // went away in the meantime...
+                    continue;
                 }
+                result.append((String) ref.getProperty("customer"));
+                result.append(',');
+                result.append((String) ref.getProperty("name"));
+                result.append(',');
+                result.append(getRange(repo).toRepresentation());
+                result.append('\n');
+            }
+
+            // The result changes only when versions are added or removed, so its digest is a good entity tag...
+            String body = result.toString();
+            String etag = "\"" + toHex(digest(body)) + "\"";
+
+            response.setHeader("ETag", etag);
+            response.setHeader("Cache-Control", QUERY_CACHE_CONTROL);
+            if (matchesETag(request.getHeader("If-None-Match"), etag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
             }
 
             response.setContentType(TEXT_MIMETYPE);
-            response.getWriter().print(result.toString());
+            response.getWriter().print(body);
         }
         catch (IOException e) {
             response.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
                 "Could not retrieve version range for repository: " + e.getMessage());
         }
     }
+
+    /**
+     * A pending watch request for a new version of a repository.
+     */
+    private final class Watch implements AsyncListener {
+        private final ServiceReference<REPO_TYPE> m_ref;
+        private final long m_version;
+        private final long m_deadline;
+        private final AsyncContext m_asyncContext;
+        private final CountDownLatch m_latch;
+
+        Watch(ServiceReference<REPO_TYPE> ref, long version, long deadline, AsyncContext asyncContext, CountDownLatch latch) {
+            m_ref = ref;
+            m_version = version;
+            m_deadline = deadline;
+            m_asyncContext = asyncContext;
+            m_latch = latch;
+        }
+
+        /**
+         * Completes this watch, by either sending back the response or waking up the waiting request thread. The
+         * response is sent by a container thread, so a slow client cannot hold up the checking of other watches.
+         */
+        void complete() {
+            if (m_latch != null) {
+                m_latch.countDown();
+                return;
+            }
+
+            m_asyncContext.start(new Runnable() {
+                @Override
+                public void run() {
+                    sendResponse();
+                }
+            });
+        }
+
+        /**
+         * Sends back the current range of the watched repository and completes the asynchronous request.
+         */
+        void sendResponse() {
+            HttpServletRequest request = (HttpServletRequest) m_asyncContext.getRequest();
+            HttpServletResponse response = (HttpServletResponse) m_asyncContext.getResponse();
+            try {
+                sendQueryResult(Collections.singletonList(m_ref), request, response);
+            }
+            catch (IOException e) {
+                m_log.log(LogService.LOG_DEBUG, "Failed to send response for watch!", e);
+            }
+            finally {
+                m_asyncContext.complete();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            m_watches.remove(this);
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            m_watches.remove(this);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // nop
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            m_watches.remove(this);
+        }
+
+        /**
+         * @return <code>true</code> if a newer version is available, the repository is gone, or the deadline has
+         *         passed, <code>false</code> otherwise.
+         */
+        boolean isDone(long now) throws IOException {
+            if (now >= m_deadline) {
+                return true;
+            }
+            REPO_TYPE repo = m_index.getService(m_ref);
+            return (repo == null) || (getRange(repo).getHigh() > m_version);
+        }
+    }
 }
@@ -19,17 +19,34 @@
 package org.apache.ace.repository.task;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -50,17 +67,30 @@ import org.osgi.service.log.LogService;
  * Repository replication task. Uses discovery to find the server it talks to. Subsequently it checks which local
  * repositories are configured and tries to synchronize them with remote copies. Only pulls stuff in, it does not push
  * stuff out.
+ * <p>
+ * Repositories are replicated in parallel, using at most a configurable number of threads. Missing versions are
+ * fetched in batches, each batch being streamed by the server in a single response, falling back to fetching them one
+ * by one in case the server does not support this.
  */
 public class RepositoryReplicationTask implements Job, ManagedService {
     private static final String KEY_SYNC_INTERVAL = "syncInterval";
+    private static final String KEY_CONCURRENCY = "concurrency";
+    private static final String KEY_BATCH_SIZE = "batchSize";
+
+    static final int DEFAULT_CONCURRENCY = 4;
+    static final int DEFAULT_BATCH_SIZE = 64;
 
     private final ConcurrentMap<ServiceReference<RepositoryReplication>, RepositoryReplication> m_replicators = new ConcurrentHashMap<>();
-    
+
     private volatile Component m_component;
     private volatile Discovery m_discovery;
     private volatile ConnectionFactory m_connectionFactory;
     private volatile LogService m_log;
 
+    private volatile int m_concurrency = DEFAULT_CONCURRENCY;
+    private volatile int m_batchSize = DEFAULT_BATCH_SIZE;
+    private volatile ThreadPoolExecutor m_executor;
+
     /**
      * Called by Felix DM when a {@link RepositoryReplication} service becomes available.
      */
@@ -88,25 +118,164 @@ public class RepositoryReplicationTask implements Job, ManagedService {
         Map<ServiceReference<RepositoryReplication>, RepositoryReplication> replicators = new HashMap<>(m_replicators);
 
         // The URL to the server to replicate...
-        URL master = m_discovery.discover();
+        final URL master = m_discovery.discover();
 
+        List<Future<?>> futures = new ArrayList<>();
+        List<String> names = new ArrayList<>();
         for (Entry<ServiceReference<RepositoryReplication>, RepositoryReplication> entry : replicators.entrySet()) {
-            ServiceReference<RepositoryReplication> ref = entry.getKey();
-            RepositoryReplication repository = entry.getValue();
+            final ServiceReference<RepositoryReplication> ref = entry.getKey();
+            final RepositoryReplication repository = entry.getValue();
+
+            futures.add(submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    replicate(master, ref, repository);
+                    return null;
+                }
+            }));
+            names.add((String) ref.getProperty("name"));
+        }
 
+        // Wait until all repositories are replicated, so a next run never overlaps with this one...
+        for (int i = 0; i < futures.size(); i++) {
             try {
-                replicate(master, ref, repository);
+                futures.get(i).get();
+            }
+            catch (ExecutionException e) {
+                m_log.log(LogService.LOG_WARNING, "Replicating repository '" + names.get(i) + "' failed!", e.getCause());
+            }
+            catch (CancellationException e) {
+                m_log.log(LogService.LOG_DEBUG, "Replicating repository '" + names.get(i) + "' cancelled...");
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void updated(Dictionary<String, ?> properties) throws ConfigurationException {
+        Long interval = null;
+        if (properties != null) {
+            Object value = properties.get(KEY_SYNC_INTERVAL);
+            if (value != null) {
+                try {
+                    interval = Long.valueOf(value.toString());
+                }catch (NumberFormatException e) {
+                    throw new ConfigurationException("interval", "Interval must be a valid Long value", e);
+                }
+            } else {
+                throw new ConfigurationException("interval", "Interval is required");
+            }
+
+            int concurrency = getPositiveInteger(properties, KEY_CONCURRENCY, DEFAULT_CONCURRENCY);
+            int batchSize = getPositiveInteger(properties, KEY_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+
+            Dictionary<Object,Object> serviceProps = m_component.getServiceProperties();
+            
+            serviceProps.put(Constants.REPEAT_FOREVER, true);
+            serviceProps.put(Constants.REPEAT_INTERVAL_PERIOD, "millisecond");
+            serviceProps.put(Constants.REPEAT_INTERVAL_VALUE, interval);
+            
+            m_component.setServiceProperties(serviceProps);
+
+            m_batchSize = batchSize;
+            setConcurrency(concurrency);
+        }
+
+    }
+
+    /**
+     * Called by Felix DM when starting this component.
+     */
+    protected void start() {
+        final AtomicInteger count = new AtomicInteger();
+
+        int concurrency = m_concurrency;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(concurrency, concurrency, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Repository replication #" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+
+        m_executor = executor;
+    }
+
+    /**
+     * Called by Felix DM when stopping this component.
+     */
+    protected void stop() {
+        ThreadPoolExecutor executor = m_executor;
+        m_executor = null;
+        if (executor != null) {
+            // cancel all pending replications, otherwise anybody waiting for them would wait forever...
+            for (Runnable task : executor.shutdownNow()) {
+                if (task instanceof Future) {
+                    ((Future<?>) task).cancel(false);
+                }
             }
-            catch (Exception e) {
-                m_log.log(LogService.LOG_WARNING, "Replicating repository '" + ref.getProperty("name") + "' failed!", e);
+        }
+    }
+
+    /**
+     * Reads the response of a batch checkout and puts all versions it contains in the given repository.
+     * 
+     * @param is
+     *            the input stream with the response of the batch checkout;
+     * @param repository
+     *            the repository to put the versions in.
+     * @return the versions that were read from the response, never <code>null</code>.
+     * @throws IOException
+     *             in case the response could not be read, or is incomplete.
+     */
+    static List<Long> readBatch(InputStream is, RepositoryReplication repository) throws IOException {
+        List<Long> result = new ArrayList<>();
+
+        DataInputStream dis = new DataInputStream(is);
+        long version;
+        while ((version = dis.readLong()) > 0L) {
+            long length = dis.readLong();
+
+            BoundedInputStream data = new BoundedInputStream(dis, length);
+            repository.put(data, version);
+            // make sure we are at the start of the next version, regardless of how much the repository consumed...
+            data.skipRemaining();
+
+            result.add(version);
+        }
+        return result;
+    }
+
+    private static int getPositiveInteger(Dictionary<String, ?> properties, String key, int defaultValue) throws ConfigurationException {
+        Object value = properties.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int result = Integer.parseInt(value.toString());
+            if (result > 0) {
+                return result;
             }
         }
+        catch (NumberFormatException e) {
+            // Fall through...
+        }
+        throw new ConfigurationException(key, "Must be a positive integer value");
     }
 
     private HttpURLConnection createConnection(URL url) throws IOException {
         return (HttpURLConnection) m_connectionFactory.createConnection(url);
     }
 
+    private URL createGetRangeURL(URL master, String customer, String name, SortedRangeSet range) throws MalformedURLException {
+        return new URL(master, String.format("/replication/getrange?customer=%s&name=%s&range=%s", customer, name, range.toRepresentation()));
+    }
+
     private URL createGetURL(URL master, String customer, String name, long version) throws MalformedURLException {
         return new URL(master, String.format("/replication/get?customer=%s&name=%s&version=%d", customer, name, version));
     }
@@ -117,18 +286,18 @@ public class RepositoryReplicationTask implements Job, ManagedService {
 
     private boolean replicateRepository(URL master, String customer, String name, RepositoryReplication repository, HttpURLConnection queryConn) throws IOException {
         SortedRangeSet localRange = repository.getRange();
-        boolean result = false;
 
         BufferedReader reader = new BufferedReader(new InputStreamReader(queryConn.getInputStream()));
         try {
             String line = reader.readLine();
             int i = line.lastIndexOf(',');
             if (i <= 0) {
-                return result;
+                return false;
             }
 
             SortedRangeSet remoteRange = new SortedRangeSet(line.substring(i + 1));
 
+            List<Long> versions = new ArrayList<>();
             // check the limit of the repository
             long limit = repository.getLimit();
             if (limit == Long.MAX_VALUE) {
@@ -136,9 +305,7 @@ public class RepositoryReplicationTask implements Job, ManagedService {
                 SortedRangeSet delta = localRange.diffDest(remoteRange);
                 RangeIterator iterator = delta.iterator();
                 while (iterator.hasNext()) {
-                    long version = iterator.next();
-                    replicateVersion(master, customer, name, repository, version);
-                    result = true;
+                    versions.add(iterator.next());
                 }
             }
             else {
@@ -148,14 +315,18 @@ public class RepositoryReplicationTask implements Job, ManagedService {
                 while (iterator.hasNext() && limit > 0) {
                     long version = iterator.next();
                     if (!localRange.contains(version)) {
-                        replicateVersion(master, customer, name, repository, version);
+                        versions.add(version);
                     }
                     limit--;
-                    result = true;
                 }
             }
 
-            return result;
+            if (versions.isEmpty()) {
+                return false;
+            }
+
+            replicateVersions(master, customer, name, repository, versions);
+            return true;
         }
         finally {
             reader.close();
@@ -184,6 +355,45 @@ public class RepositoryReplicationTask implements Job, ManagedService {
         }
     }
 
+    /**
+     * Replicates the given versions in batches, each batch being a single request to the server.
+     * 
+     * @return <code>false</code> if the server does not support batch checkouts, <code>true</code> otherwise.
+     */
+    private boolean replicateBatch(URL master, String customer, String name, RepositoryReplication repository, List<Long> versions) throws IOException {
+        long[] items = new long[versions.size()];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = versions.get(i);
+        }
+
+        HttpURLConnection conn = createConnection(createGetRangeURL(master, customer, name, new SortedRangeSet(items)));
+        try {
+            int rc = conn.getResponseCode();
+            if (rc == HttpServletResponse.SC_NOT_FOUND) {
+                // most probably an older server that does not support batch checkouts...
+                return false;
+            }
+            else if (rc != HttpServletResponse.SC_OK) {
+                throw new IOException("Connection error: " + conn.getResponseMessage() + " (" + rc + ")");
+            }
+
+            InputStream is = conn.getInputStream();
+            try {
+                // the versions are put while the server is still streaming the remainder of the batch...
+                for (long version : readBatch(is, repository)) {
+                    m_log.log(LogService.LOG_DEBUG, String.format("\tVersion %d of repository '%s' (%s) successfully replicated...", version, name, customer));
+                }
+            }
+            finally {
+                is.close();
+            }
+            return true;
+        }
+        finally {
+            conn.disconnect();
+        }
+    }
+
     private void replicateVersion(URL master, String customer, String name, RepositoryReplication repository, long version) throws IOException {
         HttpURLConnection conn = createConnection(createGetURL(master, customer, name, version));
         try {
@@ -195,30 +405,132 @@ public class RepositoryReplicationTask implements Job, ManagedService {
             conn.disconnect();
         }
     }
-    
-    @Override
-    public void updated(Dictionary<String, ?> properties) throws ConfigurationException {
-        Long interval = null;
-        if (properties != null) {
-            Object value = properties.get(KEY_SYNC_INTERVAL);
-            if (value != null) {
-                try {
-                    interval = Long.valueOf(value.toString());
-                }catch (NumberFormatException e) {
-                    throw new ConfigurationException("interval", "Interval must be a valid Long value", e);
+
+    private void replicateVersions(URL master, String customer, String name, RepositoryReplication repository, List<Long> versions) throws IOException {
+        int batchSize = m_batchSize;
+        for (int i = 0; i < versions.size(); i += batchSize) {
+            List<Long> batch = versions.subList(i, Math.min(versions.size(), i + batchSize));
+            if (!replicateBatch(master, customer, name, repository, batch)) {
+                m_log.log(LogService.LOG_DEBUG, "Batch checkouts not supported by " + master + ", replicating versions one by one...");
+
+                for (long version : versions.subList(i, versions.size())) {
+                    replicateVersion(master, customer, name, repository, version);
                 }
-            } else {
-                throw new ConfigurationException("interval", "Interval is required");
+                return;
             }
-            
-            Dictionary<Object,Object> serviceProps = m_component.getServiceProperties();
-            
-            serviceProps.put(Constants.REPEAT_FOREVER, true);
-            serviceProps.put(Constants.REPEAT_INTERVAL_PERIOD, "millisecond");
-            serviceProps.put(Constants.REPEAT_INTERVAL_VALUE, interval);
-            
-            m_component.setServiceProperties(serviceProps);
         }
+    }
+
+    private void setConcurrency(int concurrency) {
+        m_concurrency = concurrency;
 
+        ThreadPoolExecutor executor = m_executor;
+        if (executor != null) {
+            // the core size can never exceed the maximum size...
+            if (concurrency > executor.getMaximumPoolSize()) {
+                executor.setMaximumPoolSize(concurrency);
+                executor.setCorePoolSize(concurrency);
+            }
+            else {
+                executor.setCorePoolSize(concurrency);
+                executor.setMaximumPoolSize(concurrency);
+            }
+        }
+    }
+
+    private Future<?> submit(Callable<Void> task) {
+        ThreadPoolExecutor executor = m_executor;
+        if (executor == null) {
+            // not started (anymore), run it on the calling thread...
+            FutureTask<Void> future = new FutureTask<>(task);
+            future.run();
+            return future;
+        }
+        try {
+            return executor.submit(task);
+        }
+        catch (RejectedExecutionException e) {
+            // stopped while submitting, do not replicate anymore...
+            FutureTask<Void> future = new FutureTask<>(task);
+            future.cancel(false);
+            return future;
+        }
+    }
+
+    /**
+     * Provides access to a bounded part of an input stream, without closing the underlying input stream.
+     */
+    static final class BoundedInputStream extends FilterInputStream {
+        private long m_remaining;
+
+        BoundedInputStream(InputStream is, long length) {
+            super(is);
+            m_remaining = length;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(m_remaining, in.available());
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Nop, leave the underlying stream open...
+        }
+
+        @Override
+        public void mark(int readlimit) {
+            // Nop, not supported...
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (m_remaining <= 0L) {
+                return -1;
+            }
+            int result = in.read();
+            if (result < 0) {
+                throw new EOFException("Unexpected end of batch!");
+            }
+            m_remaining--;
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (m_remaining <= 0L) {
+                return -1;
+            }
+            int result = in.read(b, off, (int) Math.min(len, m_remaining));
+            if (result < 0) {
+                throw new EOFException("Unexpected end of batch!");
+            }
+            m_remaining -= result;
+            return result;
+        }
+
+        @Override
+        public void reset() throws IOException {
+            throw new IOException("Mark/reset not supported!");
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long result = in.skip(Math.min(n, m_remaining));
+            m_remaining -= result;
+            return result;
+        }
+
+        void skipRemaining() throws IOException {
+            byte[] buffer = new byte[8192];
+            while (m_remaining > 0L) {
+                read(buffer, 0, buffer.length);
+            }
+        }
     }
 }
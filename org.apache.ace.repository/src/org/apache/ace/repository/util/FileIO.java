@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.repository.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * Internal helper class that performs the file I/O of the repository implementations.
+ * <p>
+ * Data is transferred directly between file channels whenever possible, and through a buffer of a configurable size
+ * otherwise. Files are moved in place atomically if the file system supports it. Written data is optionally forced
+ * to disk, as described by the {@link SyncPolicy}.
+ * </p>
+ * <p>
+ * This class is thread-safe.
+ * </p>
+ */
+public final class FileIO {
+    /**
+     * Describes whether, and how, written data is forced to disk.
+     */
+    public static enum SyncPolicy {
+        /** Leaves it up to the operating system to decide when written data ends up on disk. */
+        NONE,
+        /** Forces the contents of written files to disk, but not necessarily their metadata. */
+        DATA,
+        /** Forces the contents and metadata of written files, as well as the directories they are moved to, to disk. */
+        ALL;
+
+        /**
+         * @param value
+         *            the (case insensitive) name of the sync policy to parse, cannot be <code>null</code>.
+         * @return the sync policy, never <code>null</code>.
+         * @throws IllegalArgumentException
+         *             in case the given value does not denote a valid sync policy.
+         */
+        public static SyncPolicy parse(String value) throws IllegalArgumentException {
+            return valueOf(value.trim().toUpperCase());
+        }
+    }
+
+    /** The smallest buffer size that is accepted. */
+    public static final int MIN_BUFFER_SIZE = 4 * 1024;
+    /** The buffer size used if nothing else is configured. */
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    /** File I/O using the default buffer size that leaves syncing up to the operating system. */
+    public static final FileIO DEFAULT = new FileIO(DEFAULT_BUFFER_SIZE, SyncPolicy.NONE);
+
+    private final int m_bufferSize;
+    private final SyncPolicy m_syncPolicy;
+
+    /**
+     * Creates a new {@link FileIO} instance.
+     * 
+     * @param bufferSize
+     *            the size of the buffers used for copying data that cannot be transferred between channels, should be
+     *            at least {@link #MIN_BUFFER_SIZE};
+     * @param syncPolicy
+     *            the sync policy to apply to written files, cannot be <code>null</code>.
+     */
+    public FileIO(int bufferSize, SyncPolicy syncPolicy) {
+        if (bufferSize < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Buffer size must be at least " + MIN_BUFFER_SIZE + ", was " + bufferSize);
+        }
+        if (syncPolicy == null) {
+            throw new IllegalArgumentException("Sync policy cannot be null!");
+        }
+        m_bufferSize = bufferSize;
+        m_syncPolicy = syncPolicy;
+    }
+
+    /**
+     * @return the buffer size, in bytes.
+     */
+    public int getBufferSize() {
+        return m_bufferSize;
+    }
+
+    /**
+     * @return the sync policy, never <code>null</code>.
+     */
+    public SyncPolicy getSyncPolicy() {
+        return m_syncPolicy;
+    }
+
+    /**
+     * Copies the remaining contents of an input stream to an output stream. Neither stream is closed afterwards.
+     * 
+     * @param in
+     *            the input stream to read from;
+     * @param out
+     *            the output stream to write to.
+     * @return the number of bytes copied.
+     * @throws IOException
+     *             in case of I/O problems.
+     */
+    public long copy(InputStream in, OutputStream out) throws IOException {
+        // Transferring file channels to arbitrary streams is done in chunks of 8K by the JRE, so use our own buffer...
+        long count = 0L;
+        byte[] buffer = new byte[m_bufferSize];
+        for (int bytes = in.read(buffer); bytes != -1; bytes = in.read(buffer)) {
+            out.write(buffer, 0, bytes);
+            count += bytes;
+        }
+        return count;
+    }
+
+    /**
+     * Copies the contents of a file to another file, replacing its current contents.
+     * 
+     * @param source
+     *            the file to copy;
+     * @param dest
+     *            the file to copy to, will be created if it does not exist.
+     * @return the number of bytes copied.
+     * @throws IOException
+     *             in case of I/O problems.
+     */
+    public long copy(File source, File dest) throws IOException {
+        FileInputStream fis = new FileInputStream(source);
+        try {
+            return write(fis, dest, null /* digest */);
+        }
+        finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Moves a file to its destination, replacing any existing file. The move is atomic in case both files reside on a
+     * file system that supports this, otherwise the destination file may be observed in a partially written state.
+     * 
+     * @param source
+     *            the file to move;
+     * @param dest
+     *            the destination of the file.
+     * @throws IOException
+     *             in case the file could not be moved.
+     */
+    public void move(File source, File dest) throws IOException {
+        Path sourcePath = source.toPath();
+        Path destPath = dest.toPath();
+        try {
+            Files.move(sourcePath, destPath, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            // most likely different file systems, copy the file instead...
+            Files.move(sourcePath, destPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        if (m_syncPolicy == SyncPolicy.ALL) {
+            syncDirectory(dest.getAbsoluteFile().getParentFile());
+        }
+    }
+
+    /**
+     * Writes the remaining contents of an input stream to a file, replacing its current contents. The input stream is
+     * not closed afterwards.
+     * 
+     * @param in
+     *            the input stream to read from;
+     * @param file
+     *            the file to write to, will be created if it does not exist;
+     * @param digest
+     *            the digest to update with all written data, can be <code>null</code>.
+     * @return the number of bytes written.
+     * @throws IOException
+     *             in case of I/O problems.
+     */
+    public long write(InputStream in, File file, MessageDigest digest) throws IOException {
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            FileChannel out = fos.getChannel();
+
+            long count = 0L;
+            if (digest == null && in instanceof FileInputStream) {
+                FileChannel channel = ((FileInputStream) in).getChannel();
+                long position = channel.position();
+                long remaining = channel.size() - position;
+                while (remaining > 0L) {
+                    // advances the position of the given channel as well...
+                    long written = out.transferFrom(channel, count, remaining);
+                    if (written <= 0L) {
+                        throw new IOException("Unexpected end of data at position " + (position + count));
+                    }
+                    count += written;
+                    remaining -= written;
+                }
+            }
+            else {
+                // Do not use Channels.newChannel(in), as it never reads more than 8K at once...
+                ByteBuffer buffer = ByteBuffer.allocate(m_bufferSize);
+                byte[] array = buffer.array();
+                for (int bytes = in.read(array); bytes != -1; bytes = in.read(array)) {
+                    if (digest != null) {
+                        digest.update(array, 0, bytes);
+                    }
+                    buffer.limit(bytes);
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                    count += bytes;
+                }
+            }
+
+            if (m_syncPolicy != SyncPolicy.NONE) {
+                out.force(m_syncPolicy == SyncPolicy.ALL);
+            }
+            return count;
+        }
+        finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Forces the entries of a directory to disk, which is needed to make a moved file durable on most file systems.
+     */
+    private static void syncDirectory(File dir) {
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+            channel.force(true);
+        }
+        catch (IOException e) {
+            // Not all platforms (most notably Windows) allow directories to be opened or synced...
+        }
+        finally {
+            if (channel != null) {
+                try {
+                    channel.close();
+                }
+                catch (IOException e) {
+                    // Ignored...
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.repository.ext.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.ace.range.SortedRangeSet;
+import org.apache.ace.repository.impl.RepositoryImpl;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test cases for {@link CachedRepositoryImpl}.
+ */
+public class CachedRepositoryImplTest {
+    private File m_current;
+    private File m_backup;
+
+    @BeforeMethod(alwaysRun = true)
+    protected void setUp() throws Exception {
+        m_current = File.createTempFile("current", null);
+        m_backup = File.createTempFile("backup", null);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    protected void tearDown() throws Exception {
+        m_current.delete();
+        m_backup.delete();
+    }
+
+    /**
+     * Tests that once watched, isCurrent no longer queries the remote repository, and picks up new versions.
+     */
+    @Test
+    public void testIsCurrentUsesWatch() throws Exception {
+        WatchableRepository remote = new WatchableRepository(true);
+        remote.m_range = new SortedRangeSet("1-2");
+
+        CachedRepositoryImpl repo = new CachedRepositoryImpl(remote, new FilebasedBackupRepository(m_current, m_backup), 2);
+        assertTrue(repo.isCurrent());
+        assertEquals(remote.m_queries.get(), 1);
+
+        // wait until our watch is pending...
+        assertEquals(remote.m_watches.poll(5, TimeUnit.SECONDS), Long.valueOf(2));
+        assertTrue(repo.isCurrent());
+        assertEquals(remote.m_queries.get(), 1);
+
+        // a new version appears remotely...
+        remote.m_range = new SortedRangeSet("1-3");
+        remote.m_results.put(remote.m_range);
+
+        assertEquals(remote.m_watches.poll(5, TimeUnit.SECONDS), Long.valueOf(3));
+        assertFalse(repo.isCurrent());
+        assertEquals(remote.m_queries.get(), 1);
+
+        // after checking out the latest version, we are current again...
+        repo.checkout(false);
+        assertTrue(repo.isCurrent());
+    }
+
+    /**
+     * Tests that our own commits do not make us "not current", even if the watch did not report them yet.
+     */
+    @Test
+    public void testCommitUpdatesRemoteVersion() throws Exception {
+        WatchableRepository remote = new WatchableRepository(true);
+        remote.m_range = new SortedRangeSet("1");
+
+        CachedRepositoryImpl repo = new CachedRepositoryImpl(remote, new FilebasedBackupRepository(m_current, m_backup), 1);
+        assertTrue(repo.isCurrent());
+        assertEquals(remote.m_watches.poll(5, TimeUnit.SECONDS), Long.valueOf(1));
+
+        repo.writeLocal(new ByteArrayInputStream(new byte[] { 1, 2, 3 }));
+        assertTrue(repo.commit());
+        assertTrue(repo.isCurrent());
+        assertEquals(remote.m_queries.get(), 1);
+    }
+
+    /**
+     * Tests that servers without watch support are simply queried each time.
+     */
+    @Test
+    public void testIsCurrentWithoutWatchSupport() throws Exception {
+        WatchableRepository remote = new WatchableRepository(false);
+        remote.m_range = new SortedRangeSet("1-2");
+
+        CachedRepositoryImpl repo = new CachedRepositoryImpl(remote, new FilebasedBackupRepository(m_current, m_backup), 2);
+        assertTrue(repo.isCurrent());
+        assertEquals(remote.m_watches.poll(5, TimeUnit.SECONDS), Long.valueOf(2));
+
+        // wait until the watcher has given up...
+        long deadline = System.currentTimeMillis() + 5000;
+        int queries;
+        do {
+            assertTrue(repo.isCurrent());
+            queries = remote.m_queries.get();
+            Thread.sleep(10);
+        }
+        while (queries < 3 && System.currentTimeMillis() < deadline);
+
+        assertTrue(queries >= 3, "Remote repository was not queried anymore?!");
+        assertTrue(remote.m_watches.isEmpty());
+    }
+
+    /**
+     * Tests that journaled repositories only exchange journals after their initial version.
+     */
+    @Test
+    public void testJournaledCommitAndCheckout() throws Exception {
+        File dir = File.createTempFile("repo", null);
+        dir.delete();
+        JournalCountingRepository remote = new JournalCountingRepository(dir);
+
+        File current = File.createTempFile("current", null);
+        File backup = File.createTempFile("backup", null);
+        try {
+            CachedRepositoryImpl writer = new CachedRepositoryImpl(remote, new FilebasedBackupRepository(m_current, m_backup), 0);
+            writer.setJournaled(true);
+            CachedRepositoryImpl reader = new CachedRepositoryImpl(remote, new FilebasedBackupRepository(current, backup), 0);
+            reader.setJournaled(true);
+
+            writer.writeLocal(new ByteArrayInputStream("abc".getBytes()));
+            assertTrue(writer.commit());
+            assertEquals(remote.m_journals.get(), 0);
+            assertEquals(readFully(reader.checkout(1)), "abc");
+
+            writer.writeLocal(new ByteArrayInputStream("abcd".getBytes()));
+            assertTrue(writer.commit());
+            assertEquals(remote.m_journals.get(), 1);
+            assertEquals(readFully(remote.checkout(2)), "abcd");
+
+            assertEquals(readFully(reader.checkout(2)), "abcd");
+            assertEquals(remote.m_journals.get(), 2);
+            assertEquals(remote.m_checkouts.get(), 2);
+        }
+        finally {
+            current.delete();
+            backup.delete();
+        }
+    }
+
+    private static String readFully(InputStream is) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        try {
+            for (int b = is.read(); b != -1; b = is.read()) {
+                sb.append((char) b);
+            }
+        }
+        finally {
+            is.close();
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Local repository that keeps track of the number of full checkouts and exchanged journals.
+     */
+    static final class JournalCountingRepository extends RepositoryImpl {
+        final AtomicInteger m_checkouts = new AtomicInteger();
+        final AtomicInteger m_journals = new AtomicInteger();
+
+        JournalCountingRepository(File dir) {
+            super(new File(dir, "data"), new File(dir, "tmp"), true);
+        }
+
+        @Override
+        public InputStream checkout(long version) throws IOException, IllegalArgumentException {
+            m_checkouts.incrementAndGet();
+            return super.checkout(version);
+        }
+
+        @Override
+        public InputStream checkoutJournal(long version, long baseVersion) throws IOException, IllegalArgumentException {
+            m_journals.incrementAndGet();
+            return super.checkoutJournal(version, baseVersion);
+        }
+
+        @Override
+        public boolean commitJournal(InputStream journal, long fromVersion) throws IOException, IllegalArgumentException {
+            m_journals.incrementAndGet();
+            return super.commitJournal(journal, fromVersion);
+        }
+    }
+
+    /**
+     * Remote repository whose watches are answered by the test.
+     */
+    static final class WatchableRepository extends RemoteRepository {
+        final AtomicInteger m_queries = new AtomicInteger();
+        final BlockingQueue<Long> m_watches = new LinkedBlockingQueue<>();
+        final BlockingQueue<SortedRangeSet> m_results = new LinkedBlockingQueue<>();
+        private final boolean m_watchSupported;
+        volatile SortedRangeSet m_range;
+
+        WatchableRepository(boolean watchSupported) throws Exception {
+            super(new URL("http://localhost/"), "customer", "name");
+            m_watchSupported = watchSupported;
+        }
+
+        @Override
+        public InputStream checkout(long version) throws IOException, IllegalArgumentException {
+            return new ByteArrayInputStream(new byte[] { (byte) version });
+        }
+
+        @Override
+        public boolean commit(InputStream data, long fromVersion) throws IOException, IllegalArgumentException {
+            return true;
+        }
+
+        @Override
+        public SortedRangeSet getRange() throws IOException {
+            m_queries.incrementAndGet();
+            return m_range;
+        }
+
+        @Override
+        public SortedRangeSet watch(long version, long timeout) throws IOException {
+            m_watches.add(version);
+            if (!m_watchSupported) {
+                return null;
+            }
+            try {
+                return m_results.take();
+            }
+            catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.repository.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import org.apache.ace.repository.util.FileIO;
+import org.apache.ace.repository.util.FileIO.SyncPolicy;
+
+/**
+ * Measures the throughput (in MB/s) of committing and checking out versions of a {@link RepositoryImpl} for several
+ * buffer sizes and sync policies. This is not a test case, but should be run manually, for example:
+ * 
+ * <pre>
+ * java -cp ... org.apache.ace.repository.impl.RepositoryBenchmark [size in MB ...]
+ * </pre>
+ * 
+ * By default, versions of 1, 10 and 100 MB are used. Note that committing includes the compaction of the previous
+ * version.
+ */
+public class RepositoryBenchmark {
+    private static final int MB = 1024 * 1024;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int[] sizes = { 1, 10, 100 };
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        FileIO[] ios = { new FileIO(FileIO.MIN_BUFFER_SIZE, SyncPolicy.NONE), //
+            new FileIO(64 * 1024, SyncPolicy.NONE), //
+            FileIO.DEFAULT, //
+            new FileIO(FileIO.DEFAULT_BUFFER_SIZE, SyncPolicy.DATA), //
+            new FileIO(FileIO.DEFAULT_BUFFER_SIZE, SyncPolicy.ALL) };
+
+        System.out.printf("%9s %10s %6s %12s %13s%n", "size (MB)", "buffer", "sync", "commit MB/s", "checkout MB/s");
+        for (int size : sizes) {
+            byte[] data = new byte[size * MB];
+            new Random(size).nextBytes(data);
+
+            for (FileIO io : ios) {
+                run(data, io);
+            }
+        }
+    }
+
+    private static void run(byte[] data, FileIO io) throws IOException {
+        File dir = File.createTempFile("benchmark", null);
+        dir.delete();
+        try {
+            RepositoryImpl repo = new RepositoryImpl(new File(dir, "data"), new File(dir, "tmp"), true);
+            repo.updated(io);
+
+            long commitTime = 0L;
+            long checkoutTime = 0L;
+            for (int i = 0; i < ROUNDS; i++) {
+                // make sure each version is different...
+                data[i]++;
+
+                long start = System.nanoTime();
+                repo.commit(new ByteArrayInputStream(data), i);
+                commitTime += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                InputStream is = repo.checkout(i + 1);
+                try {
+                    io.copy(is, new NullOutputStream());
+                }
+                finally {
+                    is.close();
+                }
+                checkoutTime += System.nanoTime() - start;
+            }
+
+            System.out.printf("%9d %10d %6s %12.1f %13.1f%n", data.length / MB, io.getBufferSize(), io.getSyncPolicy(), throughput(data.length, commitTime), throughput(data.length, checkoutTime));
+        }
+        finally {
+            delete(dir);
+        }
+    }
+
+    private static double throughput(long size, long nanos) {
+        return (ROUNDS * (double) size / MB) / (nanos / 1e9);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+            // Nop
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            // Nop
+        }
+    }
+}
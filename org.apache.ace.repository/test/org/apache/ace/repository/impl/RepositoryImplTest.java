@@ -23,16 +23,20 @@ import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertNull;
 import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 
 import org.apache.ace.range.SortedRangeSet;
+import org.apache.ace.repository.Journal;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -279,6 +283,79 @@ public class RepositoryImplTest {
         assertEquals(readLine, "abc", "File " + file.getAbsolutePath() + " should have contained 'abc'.");
     }
 
+    /**
+     * Tests that committing a journal results in the same version as committing the complete contents, and that a
+     * journal between two versions can be checked out.
+     */
+    @Test()
+    public void testCommitAndCheckoutJournal() throws Exception {
+        RepositoryImpl repo = new RepositoryImpl(new File(m_baseDir, "data"), new File(m_baseDir, "tmp"), true);
+        byte[] v1 = createContents(1000, -1);
+        byte[] v2 = createContents(1000, 500);
+
+        assertTrue(repo.commit(new ByteArrayInputStream(v1), 0));
+
+        byte[] journal = Journal.create(new ByteArrayInputStream(v1), new ByteArrayInputStream(v2));
+        assertTrue(journal.length < v2.length / 10, "Journal should be much smaller than the contents?!");
+
+        assertTrue(repo.commitJournal(new ByteArrayInputStream(journal), 1));
+        try {
+            repo.commitJournal(new ByteArrayInputStream(journal), 1);
+            fail("Committing an outdated journal should fail");
+        }
+        catch (IOException e) {
+            // Ok; expected...
+        }
+        assertEquals(repo.getRange().getHigh(), 2);
+        assertEquals(readFully(repo.checkout(2)), v2);
+
+        InputStream is = repo.checkoutJournal(2, 1);
+        assertNotNull(is, "Nothing checked out?!");
+        assertEquals(Journal.apply(repo.checkout(1), is), v2);
+
+        assertNull(repo.checkoutJournal(3, 1), "Non-existing version should not have a journal");
+        assertNull(repo.checkoutJournal(2, 3), "Non-existing base version should not have a journal");
+    }
+
+    /**
+     * Tests that a journal is never applied to a version it was not created for.
+     */
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testCommitJournalForWrongBaseFails() throws Exception {
+        RepositoryImpl repo = new RepositoryImpl(new File(m_baseDir, "data"), new File(m_baseDir, "tmp"), true);
+        byte[] v1 = createContents(100, -1);
+
+        assertTrue(repo.commit(new ByteArrayInputStream(v1), 0));
+
+        byte[] journal = Journal.create(new ByteArrayInputStream(createContents(100, 10)), new ByteArrayInputStream(createContents(100, 20)));
+        repo.commitJournal(new ByteArrayInputStream(journal), 1);
+    }
+
+    /**
+     * Tests that a journal claiming an invalid result length is refused before anything is allocated for it.
+     */
+    @Test()
+    public void testCommitJournalWithInvalidLengthFails() throws Exception {
+        RepositoryImpl repo = new RepositoryImpl(new File(m_baseDir, "data"), new File(m_baseDir, "tmp"), true);
+        byte[] v1 = createContents(100, -1);
+
+        assertTrue(repo.commit(new ByteArrayInputStream(v1), 0));
+
+        byte[] journal = Journal.create(new ByteArrayInputStream(v1), new ByteArrayInputStream(createContents(100, 10)));
+        for (int length : new int[] { -1, Integer.MAX_VALUE }) {
+            // the result length follows the magic, format, base length and base checksum...
+            ByteBuffer.wrap(journal).putInt(17, length);
+            try {
+                repo.commitJournal(new ByteArrayInputStream(journal), 1);
+                fail("Committing a journal with result length " + length + " should fail");
+            }
+            catch (IllegalArgumentException e) {
+                // Ok; expected...
+            }
+        }
+        assertEquals(repo.getRange().getHigh(), 1);
+    }
+
     @BeforeMethod(alwaysRun = true)
     protected void setUp() throws IOException {
         m_baseDir = File.createTempFile("repo", null);
@@ -286,6 +363,28 @@ public class RepositoryImplTest {
         m_baseDir.mkdirs();
     }
 
+    private static byte[] createContents(int lines, int changedLine) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append("<line nr=\"").append(i).append("\">").append(i == changedLine ? "changed" : "original").append("</line>\n");
+        }
+        return sb.toString().getBytes();
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            byte[] buffer = new byte[1024];
+            for (int count = is.read(buffer); count != -1; count = is.read(buffer)) {
+                baos.write(buffer, 0, count);
+            }
+        }
+        finally {
+            is.close();
+        }
+        return baos.toByteArray();
+    }
+
     private String getContentAsString(File file) throws IOException {
         return getContentAsString(new FileInputStream(file));
     }
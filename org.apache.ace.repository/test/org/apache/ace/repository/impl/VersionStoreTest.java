@@ -0,0 +1,346 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.repository.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.ace.repository.Delta;
+import org.apache.ace.test.utils.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test cases for {@link VersionStore} and {@link Delta}.
+ */
+public class VersionStoreTest {
+    private static final int VERSION_COUNT = 40;
+
+    private File m_baseDir;
+
+    @BeforeMethod(alwaysRun = true)
+    protected void setUp() throws IOException {
+        m_baseDir = FileUtils.createTempFile(null);
+        m_baseDir.mkdirs();
+    }
+
+    @AfterMethod(alwaysRun = true)
+    protected void tearDown() throws IOException {
+        FileUtils.removeDirectoryWithContent(m_baseDir);
+    }
+
+    @Test()
+    public void testDeltaRoundTrip() throws Exception {
+        Random rnd = new Random(1234L);
+        byte[] base = createContent(rnd, 100000);
+        byte[] target = mutate(rnd, base);
+
+        byte[] delta = Delta.encode(base, target);
+        assertTrue(delta.length < target.length / 10, "Delta is too large: " + delta.length);
+        assertEquals(Delta.apply(base, delta, target.length), target);
+
+        // also for corner cases...
+        assertEquals(Delta.apply(base, Delta.encode(base, new byte[0]), 0), new byte[0]);
+        assertEquals(Delta.apply(new byte[0], Delta.encode(new byte[0], target), target.length), target);
+        byte[] small = { 1, 2, 3 };
+        assertEquals(Delta.apply(small, Delta.encode(small, base), base.length), base);
+    }
+
+    @Test()
+    public void testOlderVersionsAreStoredAsDeltas() throws Exception {
+        byte[][] contents = createVersions(false);
+        RepositoryImpl repo = createRepository(contents);
+
+        assertContents(repo, contents);
+
+        // the latest version and snapshot versions are kept as plain files, others are deltas...
+        for (int version = 1; version <= VERSION_COUNT; version++) {
+            boolean plain = (version == VERSION_COUNT) || (version % VersionStore.SNAPSHOT_INTERVAL) == 0;
+            assertEquals(new File(m_baseDir, "data/" + version + ".bin").isFile(), plain, "Version " + version);
+            assertEquals(new File(m_baseDir, "data/" + version + ".bin.delta").isFile(), !plain, "Version " + version);
+        }
+        assertTrue(getStoredSize() < getTotalSize(contents) / 4, "Deltas do not save enough space?!");
+    }
+
+    @Test()
+    public void testGzippedVersionsAreStoredAsDeltas() throws Exception {
+        byte[][] contents = createVersions(true);
+        RepositoryImpl repo = createRepository(contents);
+
+        assertContents(repo, contents);
+        assertTrue(new File(m_baseDir, "data/1.bin.delta").isFile());
+        assertTrue(getStoredSize() < getTotalSize(contents) / 4, "Deltas do not save enough space?!");
+    }
+
+    @Test()
+    public void testGzippedVersionsAreVerifiedAgainstTheirDigest() throws Exception {
+        byte[][] contents = createVersions(true);
+        createRepository(contents);
+        assertTrue(new File(m_baseDir, "data/1.bin.delta").isFile());
+
+        // simulate a JRE that compresses differently by pretending version 1 was stored differently...
+        String line = String.format("%n1,%0" + (2 * VersionStore.createDigest().getDigestLength()) + "x%n", 0);
+        Files.write(new File(m_baseDir, "data/digests").toPath(), line.getBytes("US-ASCII"), StandardOpenOption.APPEND);
+
+        RepositoryImpl repo = new RepositoryImpl(new File(m_baseDir, "data"), new File(m_baseDir, "tmp"), ".bin", true);
+        try {
+            repo.checkout(1);
+            fail("Version 1 should not be handed out, as it differs from the stored contents!");
+        }
+        catch (IOException e) {
+            // Ok, expected...
+        }
+        for (int version = 2; version <= VERSION_COUNT; version++) {
+            assertEquals(readFully(repo.checkout(version)), contents[version - 1], "Version " + version);
+        }
+    }
+
+    @Test()
+    public void testVersionsAreIndexedUponCreation() throws Exception {
+        byte[][] contents = createVersions(false);
+        createRepository(contents);
+
+        RepositoryImpl repo = new RepositoryImpl(new File(m_baseDir, "data"), new File(m_baseDir, "tmp"), ".bin", true);
+        assertEquals(repo.getRange().toRepresentation(), "1-" + VERSION_COUNT);
+        assertContents(repo, contents);
+    }
+
+    @Test()
+    public void testPurgeOldVersions() throws Exception {
+        byte[][] contents = createVersions(false);
+        RepositoryImpl repo = createRepository(contents);
+
+        repo.updated(true, 5);
+        assertEquals(repo.getRange().toRepresentation(), (VERSION_COUNT - 4) + "-" + VERSION_COUNT);
+        for (int version = VERSION_COUNT - 4; version <= VERSION_COUNT; version++) {
+            assertEquals(readFully(repo.checkout(version)), contents[version - 1]);
+        }
+        assertNull(repo.checkout(1));
+        assertEquals(new File(m_baseDir, "data").list().length, 5 + 1 /* digest index */);
+    }
+
+    @Test()
+    public void testPutOutOfOrder() throws Exception {
+        byte[][] contents = createVersions(false);
+        RepositoryImpl repo = new RepositoryImpl(new File(m_baseDir, "data"), new File(m_baseDir, "tmp"), ".bin", false);
+        // replication puts the newest versions first...
+        for (int version = VERSION_COUNT; version > 0; version -= 2) {
+            assertTrue(repo.put(new ByteArrayInputStream(contents[version - 1]), version));
+        }
+        for (int version = 1; version < VERSION_COUNT; version += 2) {
+            assertTrue(repo.put(new ByteArrayInputStream(contents[version - 1]), version));
+        }
+        assertFalse(repo.put(new ByteArrayInputStream(contents[0]), 1));
+
+        assertEquals(repo.getRange().toRepresentation(), "1-" + VERSION_COUNT);
+        assertContents(repo, contents);
+    }
+
+    @Test()
+    public void testIdenticalCommitIsDetectedByDigest() throws Exception {
+        byte[][] contents = createVersions(false);
+        RepositoryImpl repo = createRepository(Arrays.copyOf(contents, 3));
+        assertFalse(repo.commit(new ByteArrayInputStream(contents[2]), 3));
+
+        // the digests are persisted...
+        repo = new RepositoryImpl(new File(m_baseDir, "data"), new File(m_baseDir, "tmp"), ".bin", true);
+        assertFalse(repo.commit(new ByteArrayInputStream(contents[2]), 3));
+
+        // ...and computed for versions stored without one...
+        assertTrue(new File(m_baseDir, "data/digests").delete());
+        repo = new RepositoryImpl(new File(m_baseDir, "data"), new File(m_baseDir, "tmp"), ".bin", true);
+        assertFalse(repo.commit(new ByteArrayInputStream(contents[2]), 3));
+
+        assertTrue(repo.commit(new ByteArrayInputStream(contents[3]), 3));
+        assertEquals(repo.getRange().toRepresentation(), "1-4");
+        assertContents(repo, Arrays.copyOf(contents, 4));
+    }
+
+    @Test()
+    public void testIdenticalContentIsStoredOnce() throws Exception {
+        byte[][] contents = createVersions(false);
+        RepositoryImpl repo = new RepositoryImpl(new File(m_baseDir, "data"), new File(m_baseDir, "tmp"), ".bin", false);
+        for (int version = 1; version <= VersionStore.SNAPSHOT_INTERVAL; version++) {
+            assertTrue(repo.put(new ByteArrayInputStream(contents[version - 1]), version));
+        }
+        // revert to an older version, and back to the snapshot version...
+        long snapshot = VersionStore.SNAPSHOT_INTERVAL;
+        assertTrue(repo.put(new ByteArrayInputStream(contents[0]), snapshot + 1));
+        assertTrue(repo.put(new ByteArrayInputStream(contents[(int) snapshot - 1]), snapshot + 2));
+
+        File snapshotFile = new File(m_baseDir, "data/" + snapshot + ".bin");
+        File latestFile = new File(m_baseDir, "data/" + (snapshot + 2) + ".bin");
+        assertTrue(Files.isSameFile(snapshotFile.toPath(), latestFile.toPath()), "Identical versions not linked?!");
+
+        assertEquals(readFully(repo.checkout(snapshot + 1)), contents[0]);
+        assertEquals(readFully(repo.checkout(snapshot + 2)), contents[(int) snapshot - 1]);
+        assertContents(repo, Arrays.copyOf(contents, (int) snapshot));
+    }
+
+    @Test()
+    public void testVersionsAreTakenFromCatalog() throws Exception {
+        byte[][] contents = createVersions(false);
+        File dataDir = new File(m_baseDir, "data");
+
+        RepositoryImpl repo = new RepositoryImpl(dataDir, new File(m_baseDir, "tmp"), ".bin", true, Long.MAX_VALUE, new RepositoryCatalog(m_baseDir));
+        for (int i = 0; i < contents.length; i++) {
+            assertTrue(repo.commit(new ByteArrayInputStream(contents[i]), i));
+        }
+        assertEquals(new RepositoryCatalog(m_baseDir).getRange("data").toRepresentation(), "1-" + VERSION_COUNT);
+
+        // stray files are not noticed, as the directory is no longer listed...
+        Files.write(new File(dataDir, "100.bin").toPath(), contents[0]);
+
+        repo = new RepositoryImpl(dataDir, new File(m_baseDir, "tmp"), ".bin", true, Long.MAX_VALUE, new RepositoryCatalog(m_baseDir));
+        assertEquals(repo.getRange().toRepresentation(), "1-" + VERSION_COUNT);
+        assertContents(repo, contents);
+
+        repo.updated(true, 5);
+        assertEquals(new RepositoryCatalog(m_baseDir).getRange("data").toRepresentation(), (VERSION_COUNT - 4) + "-" + VERSION_COUNT);
+    }
+
+    @Test()
+    public void testOutdatedCatalogIsIgnored() throws Exception {
+        byte[][] contents = createVersions(false);
+        File dataDir = new File(m_baseDir, "data");
+
+        RepositoryImpl repo = new RepositoryImpl(dataDir, new File(m_baseDir, "tmp"), ".bin", true, Long.MAX_VALUE, new RepositoryCatalog(m_baseDir));
+        for (int i = 0; i < 3; i++) {
+            assertTrue(repo.commit(new ByteArrayInputStream(contents[i]), i));
+        }
+
+        // as if we were stopped in between storing a version and updating the catalog...
+        Files.write(new File(dataDir, "4.bin").toPath(), contents[3]);
+
+        repo = new RepositoryImpl(dataDir, new File(m_baseDir, "tmp"), ".bin", true, Long.MAX_VALUE, new RepositoryCatalog(m_baseDir));
+        assertEquals(repo.getRange().toRepresentation(), "1-4");
+        assertContents(repo, Arrays.copyOf(contents, 4));
+        assertEquals(new RepositoryCatalog(m_baseDir).getRange("data").toRepresentation(), "1-4");
+    }
+
+    private RepositoryImpl createRepository(byte[][] contents) throws IOException {
+        RepositoryImpl repo = new RepositoryImpl(new File(m_baseDir, "data"), new File(m_baseDir, "tmp"), ".bin", true);
+        for (int i = 0; i < contents.length; i++) {
+            assertTrue(repo.commit(new ByteArrayInputStream(contents[i]), i));
+        }
+        return repo;
+    }
+
+    private void assertContents(RepositoryImpl repo, byte[][] contents) throws IOException {
+        for (int version = 1; version <= contents.length; version++) {
+            assertEquals(readFully(repo.checkout(version)), contents[version - 1], "Version " + version);
+        }
+    }
+
+    /**
+     * Creates a series of versions, each being a small modification of the previous one.
+     */
+    private static byte[][] createVersions(boolean gzip) throws IOException {
+        Random rnd = new Random(4321L);
+        byte[][] result = new byte[VERSION_COUNT][];
+        byte[] content = createContent(rnd, 200000);
+        for (int i = 0; i < VERSION_COUNT; i++) {
+            content = mutate(rnd, content);
+            if (gzip) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                GZIPOutputStream gzos = new GZIPOutputStream(baos);
+                gzos.write(content);
+                gzos.close();
+                result[i] = baos.toByteArray();
+            }
+            else {
+                result[i] = content;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Creates XML-like content, which is what repositories normally contain.
+     */
+    private static byte[] createContent(Random rnd, int size) {
+        StringBuilder sb = new StringBuilder(size + 100);
+        while (sb.length() < size) {
+            sb.append("<artifact name=\"bundle-").append(rnd.nextInt(100000)).append("\" version=\"1.0.").append(rnd.nextInt(100)).append("\"/>\n");
+        }
+        return sb.toString().getBytes();
+    }
+
+    /**
+     * Inserts, removes and overwrites a couple of small regions of the given data.
+     */
+    private static byte[] mutate(Random rnd, byte[] data) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length + 100);
+        int pos = 0;
+        for (int i = 0; i < 5; i++) {
+            int next = Math.min(data.length, pos + rnd.nextInt(data.length / 5));
+            baos.write(data, pos, next - pos);
+            byte[] insert = ("<inserted id=\"" + rnd.nextLong() + "\"/>\n").getBytes();
+            baos.write(insert, 0, insert.length);
+            pos = Math.min(data.length, next + rnd.nextInt(50));
+        }
+        baos.write(data, pos, data.length - pos);
+        return baos.toByteArray();
+    }
+
+    private long getStoredSize() {
+        long result = 0L;
+        for (File file : new File(m_baseDir, "data").listFiles()) {
+            result += file.length();
+        }
+        return result;
+    }
+
+    private static long getTotalSize(byte[][] contents) {
+        long result = 0L;
+        for (byte[] content : contents) {
+            result += content.length;
+        }
+        return result;
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            for (int count = is.read(buffer); count != -1; count = is.read(buffer)) {
+                baos.write(buffer, 0, count);
+            }
+            return baos.toByteArray();
+        }
+        finally {
+            is.close();
+        }
+    }
+}
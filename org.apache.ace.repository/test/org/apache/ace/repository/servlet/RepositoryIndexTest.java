@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.repository.servlet;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.ace.repository.Repository;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test cases for {@link RepositoryIndex}.
+ */
+public class RepositoryIndexTest {
+    private RepositoryIndex<Repository> m_index;
+
+    @BeforeMethod(alwaysRun = true)
+    protected void setUp() throws Exception {
+        BundleContext context = (BundleContext) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { BundleContext.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("getService".equals(method.getName())) {
+                    return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Repository.class }, this);
+                }
+                else if ("ungetService".equals(method.getName())) {
+                    return Boolean.TRUE;
+                }
+                return null;
+            }
+        });
+        m_index = new RepositoryIndex<>(context, Repository.class);
+    }
+
+    @Test
+    public void testOnlyMasterRepositoriesAreIndexed() throws Exception {
+        ServiceReference<Repository> master = createReference("apache", "store", "true");
+        ServiceReference<Repository> slave = createReference("apache", "shop", null);
+        m_index.addingService(master);
+        m_index.addingService(slave);
+
+        assertEquals(m_index.get("apache", "store"), Arrays.asList(master));
+        assertTrue(m_index.get("apache", "shop").isEmpty());
+        assertTrue(m_index.get("apache", "other").isEmpty());
+        assertTrue(m_index.get("other", "store").isEmpty());
+    }
+
+    @Test
+    public void testMultipleRepositoriesAreIndexed() throws Exception {
+        ServiceReference<Repository> ref1 = createReference("apache", "store", "true");
+        ServiceReference<Repository> ref2 = createReference("apache", "store", "false");
+        m_index.addingService(ref1);
+        m_index.addingService(ref2);
+
+        assertEquals(m_index.get("apache", "store"), Arrays.asList(ref1, ref2));
+
+        m_index.removedService(ref1, null);
+        assertEquals(m_index.get("apache", "store"), Arrays.asList(ref2));
+
+        m_index.removedService(ref2, null);
+        assertTrue(m_index.get("apache", "store").isEmpty());
+    }
+
+    @Test
+    public void testModifiedRepositoriesAreReindexed() throws Exception {
+        Map<String, Object> props = new HashMap<>();
+        props.put("customer", "apache");
+        props.put("name", "store");
+        props.put("master", "true");
+
+        ServiceReference<Repository> ref = createReference(props);
+        m_index.addingService(ref);
+        assertEquals(m_index.get("apache", "store"), Arrays.asList(ref));
+
+        props.put("name", "shop");
+        m_index.modifiedService(ref, null);
+        assertTrue(m_index.get("apache", "store").isEmpty());
+        assertEquals(m_index.get("apache", "shop"), Arrays.asList(ref));
+
+        props.remove("master");
+        m_index.modifiedService(ref, null);
+        assertTrue(m_index.get("apache", "shop").isEmpty());
+    }
+
+    private static ServiceReference<Repository> createReference(String customer, String name, String master) {
+        Map<String, Object> props = new HashMap<>();
+        props.put("customer", customer);
+        props.put("name", name);
+        if (master != null) {
+            props.put("master", master);
+        }
+        return createReference(props);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ServiceReference<Repository> createReference(final Map<String, Object> props) {
+        return (ServiceReference<Repository>) Proxy.newProxyInstance(RepositoryIndexTest.class.getClassLoader(), new Class<?>[] { ServiceReference.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "getProperty":
+                        return props.get(args[0]);
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return null;
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.repository.servlet;
+
+import static org.apache.ace.repository.servlet.RepositoryServletBase.acceptsGzip;
+import static org.apache.ace.repository.servlet.RepositoryServletBase.createETag;
+import static org.apache.ace.repository.servlet.RepositoryServletBase.createGzipETag;
+import static org.apache.ace.repository.servlet.RepositoryServletBase.matchesETag;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.Test;
+
+/**
+ * Test cases for the conditional request and content encoding support of {@link RepositoryServletBase}.
+ */
+public class RepositoryServletBaseTest {
+
+    @Test
+    public void testAcceptsGzip() {
+        assertFalse(acceptsGzip(null));
+        assertFalse(acceptsGzip(""));
+        assertFalse(acceptsGzip("identity"));
+        assertFalse(acceptsGzip("deflate, gzip;q=0"));
+        assertFalse(acceptsGzip("gzip;q=foo"));
+
+        assertTrue(acceptsGzip("gzip"));
+        assertTrue(acceptsGzip("deflate, GZIP"));
+        assertTrue(acceptsGzip("x-gzip"));
+        assertTrue(acceptsGzip("gzip;q=0.5, identity"));
+        assertTrue(acceptsGzip("*"));
+    }
+
+    @Test
+    public void testETagsAreStrongAndUniquePerVersion() {
+        String etag = createETag("apache", "store", 3);
+        assertTrue(etag.startsWith("\"") && etag.endsWith("\""), etag);
+
+        assertEquals(createETag("apache", "store", 3), etag);
+        assertNotEquals(createETag("apache", "store", 4), etag);
+        assertNotEquals(createETag("apache", "shop", 3), etag);
+        assertNotEquals(createETag("other", "store", 3), etag);
+    }
+
+    @Test
+    public void testGzipETagsDifferFromIdentityETags() {
+        String etag = createETag("apache", "store", 3);
+        String gzipETag = createGzipETag(etag);
+        assertTrue(gzipETag.startsWith("\"") && gzipETag.endsWith("\""), gzipETag);
+
+        assertNotEquals(gzipETag, etag);
+        assertNotEquals(createGzipETag(createETag("apache", "store", 4)), gzipETag);
+        assertFalse(matchesETag(gzipETag, etag));
+        assertFalse(matchesETag(etag, gzipETag));
+    }
+
+    @Test
+    public void testMatchesETag() {
+        String etag = createETag("apache", "store", 3);
+
+        assertFalse(matchesETag(null, etag));
+        assertFalse(matchesETag("\"foo\"", etag));
+        assertFalse(matchesETag(createETag("apache", "store", 2), etag));
+
+        assertTrue(matchesETag(etag, etag));
+        assertTrue(matchesETag("W/" + etag, etag));
+        assertTrue(matchesETag("\"foo\", " + etag, etag));
+        assertTrue(matchesETag("*", etag));
+    }
+}
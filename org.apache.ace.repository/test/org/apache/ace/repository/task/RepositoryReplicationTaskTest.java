@@ -0,0 +1,254 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.repository.task;
+
+import static org.apache.ace.test.utils.TestUtils.configureObject;
+import static org.apache.ace.test.utils.TestUtils.createMockObjectAdapter;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.ace.connectionfactory.ConnectionFactory;
+import org.apache.ace.discovery.Discovery;
+import org.apache.ace.range.SortedRangeSet;
+import org.apache.ace.repository.RepositoryReplication;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogService;
+import org.osgi.service.useradmin.User;
+import org.testng.annotations.Test;
+
+/**
+ * Test cases for {@link RepositoryReplicationTask}.
+ */
+public class RepositoryReplicationTaskTest {
+
+    @Test
+    public void testReadBatch() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        writeEntry(dos, 3, "version three");
+        writeEntry(dos, 4, "");
+        writeEntry(dos, 7, "version seven");
+        dos.writeLong(0L);
+        dos.writeLong(0L);
+
+        RecordingReplication repository = new RecordingReplication(Integer.MAX_VALUE);
+        assertEquals(RepositoryReplicationTask.readBatch(new ByteArrayInputStream(baos.toByteArray()), repository), Arrays.asList(3L, 4L, 7L));
+
+        assertEquals(repository.m_versions.get(3L), "version three");
+        assertEquals(repository.m_versions.get(4L), "");
+        assertEquals(repository.m_versions.get(7L), "version seven");
+    }
+
+    @Test
+    public void testReadBatchSkipsUnreadData() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        writeEntry(dos, 1, "first version");
+        writeEntry(dos, 2, "second version");
+        dos.writeLong(0L);
+        dos.writeLong(0L);
+
+        // only reads the first few bytes of each version...
+        RecordingReplication repository = new RecordingReplication(5);
+        assertEquals(RepositoryReplicationTask.readBatch(new ByteArrayInputStream(baos.toByteArray()), repository), Arrays.asList(1L, 2L));
+
+        assertEquals(repository.m_versions.get(1L), "first");
+        assertEquals(repository.m_versions.get(2L), "secon");
+    }
+
+    @Test(expectedExceptions = EOFException.class)
+    public void testReadIncompleteBatchFails() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        writeEntry(dos, 1, "first version");
+        dos.writeLong(2L);
+        dos.writeLong(100L);
+        dos.write("truncated".getBytes("UTF-8"));
+
+        RepositoryReplicationTask.readBatch(new ByteArrayInputStream(baos.toByteArray()), new RecordingReplication(Integer.MAX_VALUE));
+    }
+
+    /**
+     * Tests that stopping the task while it is replicating does not leave it waiting forever for replications that
+     * were still queued.
+     */
+    @Test(timeOut = 10000)
+    public void testStopWhileReplicatingDoesNotBlock() throws Exception {
+        int concurrency = RepositoryReplicationTask.DEFAULT_CONCURRENCY;
+        final CountDownLatch started = new CountDownLatch(concurrency);
+
+        final RepositoryReplicationTask task = new RepositoryReplicationTask();
+        configureObject(task, LogService.class);
+        configureObject(task, Discovery.class, createMockObjectAdapter(Discovery.class, new Object() {
+            @SuppressWarnings("unused")
+            public URL discover() throws IOException {
+                return new URL("http://localhost/");
+            }
+        }));
+        configureObject(task, ConnectionFactory.class, new ConnectionFactory() {
+            @Override
+            public URLConnection createConnection(URL url) throws IOException {
+                return new BlockingConnection(url, started);
+            }
+
+            @Override
+            public URLConnection createConnection(URL url, User user) throws IOException {
+                return createConnection(url);
+            }
+        });
+        // one repository more than we replicate concurrently, so at least one replication is queued...
+        for (int i = 0; i <= concurrency; i++) {
+            task.add(createServiceReference("repo" + i), new RecordingReplication(Integer.MAX_VALUE));
+        }
+
+        task.start();
+
+        Thread executor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                task.execute();
+            }
+        });
+        executor.start();
+
+        assertTrue(started.await(5, TimeUnit.SECONDS), "Replications did not start?!");
+
+        task.stop();
+
+        executor.join(5000);
+        assertFalse(executor.isAlive(), "Task still waits for its replications?!");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ServiceReference<RepositoryReplication> createServiceReference(final String name) {
+        return createMockObjectAdapter(ServiceReference.class, new Object() {
+            @SuppressWarnings("unused")
+            public Object getProperty(String key) {
+                if ("name".equals(key)) {
+                    return name;
+                }
+                if ("customer".equals(key)) {
+                    return "apache";
+                }
+                return null;
+            }
+        });
+    }
+
+    private static void writeEntry(DataOutputStream dos, long version, String data) throws IOException {
+        byte[] bytes = data.getBytes("UTF-8");
+        dos.writeLong(version);
+        dos.writeLong(bytes.length);
+        dos.write(bytes);
+    }
+
+    /**
+     * Records all versions that are put, reading at most a given number of bytes of each version.
+     */
+    static final class RecordingReplication implements RepositoryReplication {
+        final Map<Long, String> m_versions = new LinkedHashMap<>();
+        private final int m_maxBytes;
+
+        RecordingReplication(int maxBytes) {
+            m_maxBytes = maxBytes;
+        }
+
+        @Override
+        public SortedRangeSet getRange() throws IOException {
+            return new SortedRangeSet("");
+        }
+
+        @Override
+        public InputStream get(long version) throws IOException, IllegalArgumentException {
+            return null;
+        }
+
+        @Override
+        public boolean put(InputStream data, long version) throws IOException, IllegalArgumentException {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            int b;
+            while (baos.size() < m_maxBytes && (b = data.read()) != -1) {
+                baos.write(b);
+            }
+            m_versions.put(version, baos.toString("UTF-8"));
+            return true;
+        }
+
+        @Override
+        public long getLimit() {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Connection that blocks until it is interrupted when asked for its response.
+     */
+    static final class BlockingConnection extends HttpURLConnection {
+        private final CountDownLatch m_started;
+
+        BlockingConnection(URL url, CountDownLatch started) {
+            super(url);
+            m_started = started;
+        }
+
+        @Override
+        public void connect() throws IOException {
+            // Nop
+        }
+
+        @Override
+        public void disconnect() {
+            // Nop
+        }
+
+        @Override
+        public int getResponseCode() throws IOException {
+            m_started.countDown();
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            }
+            catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while waiting for response");
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean usingProxy() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.ace.repository.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.apache.ace.repository.util.FileIO.SyncPolicy;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Test cases for {@link FileIO}.
+ */
+public class FileIOTest {
+    private File m_dir;
+    private byte[] m_data;
+
+    @BeforeMethod(alwaysRun = true)
+    protected void setUp() throws Exception {
+        m_dir = File.createTempFile("fileio", null);
+        m_dir.delete();
+        m_dir.mkdirs();
+
+        // spans several buffers, and does not end on a buffer boundary...
+        m_data = new byte[FileIO.MIN_BUFFER_SIZE * 5 + 123];
+        new Random(42).nextBytes(m_data);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    protected void tearDown() throws Exception {
+        for (File file : m_dir.listFiles()) {
+            file.delete();
+        }
+        m_dir.delete();
+    }
+
+    @Test
+    public void testCopyStreams() throws Exception {
+        FileIO io = new FileIO(FileIO.MIN_BUFFER_SIZE, SyncPolicy.NONE);
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        assertEquals(io.copy(new ByteArrayInputStream(m_data), baos), m_data.length);
+        assertEquals(baos.toByteArray(), m_data);
+
+        File file = new File(m_dir, "file");
+        Files.write(file.toPath(), m_data);
+
+        baos = new ByteArrayOutputStream();
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            assertEquals(io.copy(fis, baos), m_data.length);
+        }
+        finally {
+            fis.close();
+        }
+        assertEquals(baos.toByteArray(), m_data);
+    }
+
+    @Test
+    public void testWriteComputesDigest() throws Exception {
+        File file = new File(m_dir, "file");
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+
+        FileIO io = new FileIO(FileIO.MIN_BUFFER_SIZE, SyncPolicy.ALL);
+        assertEquals(io.write(new ByteArrayInputStream(m_data), file, md), m_data.length);
+
+        assertEquals(Files.readAllBytes(file.toPath()), m_data);
+        assertEquals(md.digest(), MessageDigest.getInstance("SHA-256").digest(m_data));
+    }
+
+    @Test
+    public void testCopyFileReplacesContents() throws Exception {
+        File source = new File(m_dir, "source");
+        File dest = new File(m_dir, "dest");
+        Files.write(source.toPath(), m_data);
+        Files.write(dest.toPath(), new byte[m_data.length * 2]);
+
+        assertEquals(new FileIO(FileIO.DEFAULT_BUFFER_SIZE, SyncPolicy.DATA).copy(source, dest), m_data.length);
+        assertEquals(Files.readAllBytes(dest.toPath()), m_data);
+        assertTrue(source.isFile());
+    }
+
+    @Test
+    public void testWriteFromPartiallyReadFile() throws Exception {
+        File source = new File(m_dir, "source");
+        File dest = new File(m_dir, "dest");
+        Files.write(source.toPath(), m_data);
+
+        FileInputStream fis = new FileInputStream(source);
+        try {
+            fis.skip(100);
+            assertEquals(FileIO.DEFAULT.write(fis, dest, null), m_data.length - 100);
+            assertEquals(fis.read(), -1);
+        }
+        finally {
+            fis.close();
+        }
+
+        byte[] written = Files.readAllBytes(dest.toPath());
+        assertEquals(written.length, m_data.length - 100);
+        assertEquals(written[0], m_data[100]);
+    }
+
+    @Test
+    public void testMoveReplacesExistingFile() throws Exception {
+        File source = new File(m_dir, "source");
+        File dest = new File(m_dir, "dest");
+        Files.write(source.toPath(), m_data);
+        Files.write(dest.toPath(), "old".getBytes());
+
+        new FileIO(FileIO.DEFAULT_BUFFER_SIZE, SyncPolicy.ALL).move(source, dest);
+
+        assertFalse(source.exists());
+        assertEquals(Files.readAllBytes(dest.toPath()), m_data);
+    }
+
+    @Test
+    public void testParseSyncPolicy() throws Exception {
+        assertEquals(SyncPolicy.parse("none"), SyncPolicy.NONE);
+        assertEquals(SyncPolicy.parse(" Data "), SyncPolicy.DATA);
+        assertEquals(SyncPolicy.parse("ALL"), SyncPolicy.ALL);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testParseInvalidSyncPolicyFails() throws Exception {
+        SyncPolicy.parse("always");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testTooSmallBufferSizeFails() throws Exception {
+        new FileIO(FileIO.MIN_BUFFER_SIZE - 1, SyncPolicy.NONE);
+    }
+}